@@ -20,7 +20,19 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -35,6 +47,7 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import sun.misc.Unsafe;
 
 import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
@@ -163,6 +176,113 @@ public class SpanBenchmarks {
     return Span.padLeft("1234567890123456789012345678901", 32);
   }
 
+  static final int RETAINED_SPAN_COUNT = 10_000;
+
+  /**
+   * Reports heap retained per span, as opposed to allocation rate, which the gc profiler shows.
+   * Objects reachable from more than one span, such as constant strings, are counted once.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class RetainedBytes {
+    public long bytesPerSpan;
+  }
+
+  /** The span as it is stored: tags and annotations in parallel arrays. */
+  @Benchmark @BenchmarkMode(Mode.SingleShotTime) @Threads(1)
+  @Warmup(iterations = 2) @Measurement(iterations = 5)
+  public Object retainedBytes_span(RetainedBytes counters) {
+    Object[] retained = new Object[RETAINED_SPAN_COUNT];
+    for (int i = 0; i < RETAINED_SPAN_COUNT; i++) {
+      retained[i] = buildClientSpan_longs(Span.newBuilder()).toBuilder().id(i + 1).build();
+    }
+    counters.bytesPerSpan = retainedSize(retained) / RETAINED_SPAN_COUNT;
+    return retained;
+  }
+
+  /**
+   * Baseline for {@link #retainedBytes_span}: the same span without tags and annotations, plus the
+   * collections the prior layout held instead, a {@link LinkedHashMap} of tags and a list of {@link
+   * Annotation} objects.
+   */
+  @Benchmark @BenchmarkMode(Mode.SingleShotTime) @Threads(1)
+  @Warmup(iterations = 2) @Measurement(iterations = 5)
+  public Object retainedBytes_collections(RetainedBytes counters) {
+    Object[] retained = new Object[RETAINED_SPAN_COUNT];
+    for (int i = 0; i < RETAINED_SPAN_COUNT; i++) {
+      Span span = buildClientSpan_longs(Span.newBuilder()).toBuilder().id(i + 1).build();
+      Map<String, String> tags = new LinkedHashMap<>(span.tags());
+      List<Object> annotations =
+        Collections.unmodifiableList(Arrays.asList(span.annotations().toArray()));
+      Span withoutCollections = span.toBuilder().clearTags().clearAnnotations().build();
+      retained[i] = new Object[] {withoutCollections, tags, annotations};
+    }
+    counters.bytesPerSpan = retainedSize(retained) / RETAINED_SPAN_COUNT;
+    return retained;
+  }
+
+  static final Unsafe UNSAFE;
+
+  static {
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      UNSAFE = (Unsafe) theUnsafe.get(null);
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Sums the shallow size of each object reachable from the root once, by identity. */
+  static long retainedSize(Object root) {
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    ArrayDeque<Object> toVisit = new ArrayDeque<>();
+    toVisit.push(root);
+    long result = 0L;
+    while (!toVisit.isEmpty()) {
+      Object next = toVisit.pop();
+      if (!visited.add(next)) continue;
+      Class<?> type = next.getClass();
+      if (type.isArray()) {
+        int length = Array.getLength(next);
+        long scale = UNSAFE.arrayIndexScale(type);
+        result += align(UNSAFE.arrayBaseOffset(type) + scale * length);
+        if (!type.getComponentType().isPrimitive()) {
+          for (int i = 0; i < length; i++) {
+            Object element = Array.get(next, i);
+            if (element != null) toVisit.push(element);
+          }
+        }
+        continue;
+      }
+      long end = 12L; // object header with compressed class pointers
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) continue;
+          long offset = UNSAFE.objectFieldOffset(field);
+          end = Math.max(end, offset + fieldSize(field.getType()));
+          if (field.getType().isPrimitive()) continue;
+          Object value = UNSAFE.getObject(next, offset);
+          if (value != null) toVisit.push(value);
+        }
+      }
+      result += align(end);
+    }
+    return result;
+  }
+
+  static long fieldSize(Class<?> type) {
+    if (type == long.class || type == double.class) return 8;
+    if (type == int.class || type == float.class) return 4;
+    if (type == short.class || type == char.class) return 2;
+    if (type == byte.class || type == boolean.class) return 1;
+    return UNSAFE.arrayIndexScale(Object[].class); // reference size
+  }
+
+  static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.codec;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.internal.ReadBuffer;
+
+/**
+ * Reads spans with gson's {@link JsonReader} over an {@link InputStreamReader}, which is how
+ * {@link SpanBytesDecoder#JSON_V2} worked before it read UTF-8 bytes directly.
+ */
+public final class GsonSpanDecoder {
+
+  public static List<Span> decodeList(byte[] spans) {
+    return decodeList(ReadBuffer.wrap(spans));
+  }
+
+  public static List<Span> decodeList(ByteBuffer spans) {
+    return decodeList(ReadBuffer.wrapUnsafe(spans));
+  }
+
+  static List<Span> decodeList(ReadBuffer buffer) {
+    JsonReader reader = new JsonReader(new InputStreamReader(buffer, StandardCharsets.UTF_8));
+    List<Span> out = new ArrayList<>();
+    try {
+      Span.Builder builder = Span.newBuilder();
+      reader.beginArray();
+      while (reader.hasNext()) {
+        builder.clear();
+        out.add(parseSpan(reader, builder));
+      }
+      reader.endArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out;
+  }
+
+  static Span parseSpan(JsonReader reader, Span.Builder builder) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String nextName = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (nextName) {
+        case "traceId":
+          builder.traceId(reader.nextString());
+          break;
+        case "parentId":
+          builder.parentId(reader.nextString());
+          break;
+        case "id":
+          builder.id(reader.nextString());
+          break;
+        case "kind":
+          builder.kind(Span.Kind.valueOf(reader.nextString()));
+          break;
+        case "name":
+          builder.name(reader.nextString());
+          break;
+        case "timestamp":
+          builder.timestamp(reader.nextLong());
+          break;
+        case "duration":
+          builder.duration(reader.nextLong());
+          break;
+        case "localEndpoint":
+          builder.localEndpoint(parseEndpoint(reader));
+          break;
+        case "remoteEndpoint":
+          builder.remoteEndpoint(parseEndpoint(reader));
+          break;
+        case "annotations":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            reader.beginObject();
+            long timestamp = 0L;
+            String value = null;
+            while (reader.hasNext()) {
+              String annotationName = reader.nextName();
+              if (annotationName.equals("timestamp")) {
+                timestamp = reader.nextLong();
+              } else if (annotationName.equals("value")) {
+                value = reader.nextString();
+              } else {
+                reader.skipValue();
+              }
+            }
+            reader.endObject();
+            builder.addAnnotation(timestamp, value);
+          }
+          reader.endArray();
+          break;
+        case "tags":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            builder.putTag(reader.nextName(), reader.nextString());
+          }
+          reader.endObject();
+          break;
+        case "debug":
+          if (reader.nextBoolean()) builder.debug(true);
+          break;
+        case "shared":
+          if (reader.nextBoolean()) builder.shared(true);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return builder.build();
+  }
+
+  static Endpoint parseEndpoint(JsonReader reader) throws IOException {
+    Endpoint.Builder result = Endpoint.newBuilder();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String nextName = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (nextName) {
+        case "serviceName":
+          result.serviceName(reader.nextString());
+          break;
+        case "ipv4":
+        case "ipv6":
+          result.parseIp(reader.nextString());
+          break;
+        case "port":
+          result.port(reader.nextInt());
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return result.build();
+  }
+}
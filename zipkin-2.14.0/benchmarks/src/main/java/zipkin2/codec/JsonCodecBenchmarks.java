@@ -40,6 +40,8 @@ import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import zipkin2.Span;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
 @Fork(3)
@@ -51,12 +53,16 @@ public class JsonCodecBenchmarks {
   static final MoshiSpanDecoder MOSHI = MoshiSpanDecoder.create();
 
   static final byte[] clientSpanJsonV2 = read("/zipkin2-client.json");
+  static final byte[] chineseSpanJsonV2 = read("/zipkin2-chinese.json");
   static final Span clientSpan = SpanBytesDecoder.JSON_V2.decodeOne(clientSpanJsonV2);
 
   // Assume a message is 1000 spans (which is a high number for as this is per-node-second)
   static final List<Span> spans = Collections.nCopies(1000, clientSpan);
   static final byte[] encodedBytes = SpanBytesEncoder.JSON_V2.encodeList(spans);
 
+  static final byte[] chineseSpanJsonV2List = ("[" + new String(chineseSpanJsonV2, UTF_8) + "]")
+    .getBytes(UTF_8);
+
   private ByteBuf encodedBuf;
 
   @Setup public void setup() {
@@ -72,6 +78,10 @@ public class JsonCodecBenchmarks {
     return JacksonSpanDecoder.decodeList(encodedBytes);
   }
 
+  @Benchmark public List<Span> bytes_gsonDecoder() {
+    return GsonSpanDecoder.decodeList(encodedBytes);
+  }
+
   @Benchmark public List<Span> bytes_moshiDecoder() {
     return MOSHI.decodeList(encodedBytes);
   }
@@ -84,6 +94,10 @@ public class JsonCodecBenchmarks {
     return JacksonSpanDecoder.decodeList(encodedBuf.nioBuffer());
   }
 
+  @Benchmark public List<Span> bytebuffer_gsonDecoder() {
+    return GsonSpanDecoder.decodeList(encodedBuf.nioBuffer());
+  }
+
   @Benchmark public List<Span> bytebuffer_moshiDecoder() {
     return MOSHI.decodeList(encodedBuf.nioBuffer());
   }
@@ -92,6 +106,15 @@ public class JsonCodecBenchmarks {
     return SpanBytesDecoder.JSON_V2.decodeList(encodedBuf.nioBuffer());
   }
 
+  /** Exercises the non-ASCII path, which is less common than the ASCII one. */
+  @Benchmark public List<Span> bytes_gsonDecoder_chinese() {
+    return GsonSpanDecoder.decodeList(chineseSpanJsonV2List);
+  }
+
+  @Benchmark public List<Span> bytes_zipkinDecoder_chinese() {
+    return SpanBytesDecoder.JSON_V2.decodeList(chineseSpanJsonV2List);
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws Exception {
     Options opt = new OptionsBuilder()
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Measures sustained spans per second through {@link TailSamplingStorageComponent}. Each operation
+ * is a span, accepted in messages of {@link #SPANS_PER_MESSAGE}, where the client and server side
+ * of each trace arrive in consecutive messages. Storage does nothing.
+ *
+ * <p>With the default quiet period, the buffer stays full, so traces are decided by eviction. With
+ * a short one, they are decided by the sweeper thread instead.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 3, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TailSamplingBenchmarks {
+  static final int SPANS_PER_MESSAGE = 10, MESSAGE_COUNT = 20_000;
+  static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").build();
+  static final Endpoint BACKEND = Endpoint.newBuilder().serviceName("backend").build();
+
+  @Param({"5000", "1"})
+  long quietPeriod;
+
+  List<List<Span>> messages;
+  AtomicInteger nextMessage = new AtomicInteger();
+  TailSamplingStorageComponent storage;
+
+  @Setup public void setup() {
+    Random random = new Random(1L);
+    List<Span> clients = new ArrayList<>(), servers = new ArrayList<>();
+    for (int i = 0; i < MESSAGE_COUNT * SPANS_PER_MESSAGE / 2; i++) {
+      long traceId = random.nextLong();
+      Span client = Span.newBuilder().traceId(0L, traceId).id(traceId).name("get /api")
+        .kind(Span.Kind.CLIENT).localEndpoint(FRONTEND).remoteEndpoint(BACKEND)
+        .timestamp(1472470996199000L + i).duration(1000L + random.nextInt(1000))
+        .putTag("http.path", "/api/" + (i % 100))
+        .build();
+      if (i % 100 == 0) client = client.toBuilder().putTag("error", "500").build();
+      clients.add(client);
+      servers.add(client.toBuilder().kind(Span.Kind.SERVER).shared(true)
+        .localEndpoint(BACKEND).remoteEndpoint(FRONTEND).build());
+    }
+    messages = new ArrayList<>(MESSAGE_COUNT);
+    for (int i = 0; i < clients.size(); i += SPANS_PER_MESSAGE) { // server side arrives next
+      messages.add(clients.subList(i, i + SPANS_PER_MESSAGE));
+      messages.add(servers.subList(i, i + SPANS_PER_MESSAGE));
+    }
+    storage = TailSamplingStorageComponent.newBuilder(new NoopStorage())
+      .quietPeriod(quietPeriod)
+      .baselineRate(0.1f)
+      .build();
+  }
+
+  @TearDown public void close() throws IOException {
+    storage.close();
+  }
+
+  @Benchmark @OperationsPerInvocation(SPANS_PER_MESSAGE)
+  public void accept() throws IOException {
+    storage.spanConsumer().accept(nextMessage()).execute();
+  }
+
+  @Benchmark @OperationsPerInvocation(SPANS_PER_MESSAGE) @Threads(4)
+  public void accept_4Threads() throws IOException {
+    storage.spanConsumer().accept(nextMessage()).execute();
+  }
+
+  List<Span> nextMessage() {
+    return messages.get((nextMessage.getAndIncrement() & Integer.MAX_VALUE) % MESSAGE_COUNT);
+  }
+
+  static final class NoopStorage extends StorageComponent {
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> Call.create(null);
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + TailSamplingBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+/**
+ * Measures the latency of executing an N-way aggregate, where each call is a stand-in for a
+ * database request that completes after a fixed delay.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(1)
+public class AggregateCallBenchmarks {
+  static final long DELAY_MICROS = 500;
+
+  @Param({"2", "10", "50"})
+  int callCount;
+
+  ScheduledExecutorService scheduler;
+
+  @Setup public void setup() {
+    scheduler = Executors.newScheduledThreadPool(4);
+  }
+
+  @TearDown public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Benchmark public Void execute_sequential() throws Exception {
+    return AggregateCall.newVoidCall(delayedCalls()).execute();
+  }
+
+  @Benchmark public Void execute_concurrent() throws Exception {
+    return AggregateCall.newConcurrentVoidCall(delayedCalls()).execute();
+  }
+
+  List<Call<Void>> delayedCalls() {
+    List<Call<Void>> calls = new ArrayList<>(callCount);
+    for (int i = 0; i < callCount; i++) calls.add(new DelayedCall(scheduler));
+    return calls;
+  }
+
+  static final class DelayedCall extends Call.Base<Void> {
+    final ScheduledExecutorService scheduler;
+
+    DelayedCall(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      try {
+        TimeUnit.MICROSECONDS.sleep(DELAY_MICROS);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      scheduler.schedule(() -> callback.onSuccess(null), DELAY_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    @Override public Call<Void> clone() {
+      return new DelayedCall(scheduler);
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + AggregateCallBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * Measures trace cleanup and tree building on synthetic traces. Each RPC is a client span and a
+ * server span sharing its ID, and the server span is reported in two pieces, so that merging has
+ * work to do. "deep" traces are a single call chain, and "wide" traces are a root fanning out.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class TraceBenchmarks {
+  static final Logger LOG = Logger.getLogger(TraceBenchmarks.class.getName());
+  static final Endpoint CLIENT = Endpoint.newBuilder().serviceName("frontend").build();
+  static final Endpoint SERVER = Endpoint.newBuilder().serviceName("backend").build();
+
+  @Param({"deep", "wide"})
+  String shape;
+
+  @Param({"1000", "50000"})
+  int rpcCount;
+
+  List<Span> spans;
+  SpanNode.Builder builder = SpanNode.newBuilder(LOG);
+
+  @Setup public void setup() {
+    Random random = new Random(1L);
+    String traceId = "463ac35c9f6413ad48485a3953bb6124";
+    long rootId = random.nextLong() | 1L;
+    spans = new ArrayList<>();
+    spans.add(Span.newBuilder().traceId(traceId).id(rootId).name("root")
+      .kind(Span.Kind.SERVER).localEndpoint(CLIENT).timestamp(1L).duration(rpcCount * 10L)
+      .build());
+
+    long parentId = rootId;
+    for (int i = 1; i <= rpcCount; i++) {
+      long id = random.nextLong() | 1L;
+      Span client = Span.newBuilder().traceId(traceId).parentId(parentId).id(id).name("get")
+        .kind(Span.Kind.CLIENT).localEndpoint(CLIENT).timestamp(i * 10L).duration(5L)
+        .build();
+      Span.Builder server = client.toBuilder().kind(Span.Kind.SERVER).shared(true)
+        .localEndpoint(SERVER);
+      spans.add(client);
+      spans.add(server.clearTags().timestamp(i * 10L + 1L).duration(3L).build());
+      spans.add(server.timestamp(0L).duration(0L).putTag("http.path", "/api").build());
+      if ("deep".equals(shape)) parentId = id;
+    }
+    Collections.shuffle(spans, random);
+  }
+
+  @Benchmark public List<Span> merge() {
+    return Trace.merge(spans);
+  }
+
+  @Benchmark public SpanNode buildTree() {
+    return builder.build(spans);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + TraceBenchmarks.class.getSimpleName() + ".*")
+      .addProfiler("gc")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -18,6 +18,8 @@ package zipkin2.internal;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
@@ -33,6 +35,8 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
 
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
@@ -46,6 +50,8 @@ public class WriteBufferBenchmarks {
   // Order id = d07c4daa-0fa9-4c03-90b1-e06c4edae250 doesn't exist
   static final String CHINESE_UTF8 = "订单d07c4daa-0fa9-4c03-90b1-e06c4edae250不存在";
   static final int CHINESE_UTF8_SIZE = UTF_8.encode(CHINESE_UTF8).remaining();
+  // Typical span data is ASCII without anything to escape
+  static final String ASCII = "Order id = d07c4daa-0fa9-4c03-90b1-e06c4edae250 doesn't exist";
   /* length-prefixing a 1 KiB span */
   static final int TEST_INT = 1024;
   /* epoch micros timestamp */
@@ -53,6 +59,43 @@ public class WriteBufferBenchmarks {
   byte[] bytes = new byte[8];
   WriteBuffer buffer = WriteBuffer.wrap(bytes);
 
+  static final V2SpanWriter V2_SPAN_WRITER = new V2SpanWriter();
+  static final Span CLIENT_SPAN = SpanBytesDecoder.JSON_V2.decodeOne(
+    ("{\"traceId\":\"86154a4ba6e91385\",\"parentId\":\"86154a4ba6e91385\","
+      + "\"id\":\"4d1e00c0db9010db\",\"kind\":\"CLIENT\",\"name\":\"get\","
+      + "\"timestamp\":1472470996199000,\"duration\":207000,"
+      + "\"localEndpoint\":{\"serviceName\":\"frontend\",\"ipv4\":\"127.0.0.1\"},"
+      + "\"remoteEndpoint\":{\"serviceName\":\"backend\",\"ipv4\":\"192.168.99.101\","
+      + "\"port\":9000},\"annotations\":[{\"timestamp\":1472470996238000,\"value\":\"ws\"},"
+      + "{\"timestamp\":1472470996403000,\"value\":\"wr\"}],"
+      + "\"tags\":{\"http.path\":\"/api\",\"clnt/finagle.version\":\"6.45.0\"}}"
+    ).getBytes(UTF_8));
+  /* a large query response or message */
+  static final List<Span> SPANS = Collections.nCopies(1000, CLIENT_SPAN);
+
+  /** Baseline: walks each span twice, to size an exact array and again to write into it. */
+  @Benchmark public byte[] writeList_sizeThenWrite() {
+    int sizeInBytes = 2 + SPANS.size() - 1; // [] and commas
+    for (int i = 0, length = SPANS.size(); i < length; i++) {
+      sizeInBytes += V2_SPAN_WRITER.sizeInBytes(SPANS.get(i));
+    }
+    byte[] result = new byte[sizeInBytes];
+    JsonCodec.writeList(V2_SPAN_WRITER, SPANS, WriteBuffer.wrap(result));
+    return result;
+  }
+
+  /** Single pass into a thread-local buffer, followed by a copy of the result. */
+  @Benchmark public byte[] writeList_pooled() {
+    return JsonCodec.writeList(V2_SPAN_WRITER, SPANS);
+  }
+
+  /** Single pass into a new growable buffer, whose array is used without a copy. */
+  @Benchmark public byte[] writeList_growable() {
+    WriteBuffer b = WriteBuffer.growable(8192);
+    JsonCodec.writeList(V2_SPAN_WRITER, SPANS, b);
+    return b.array();
+  }
+
   @Benchmark public int utf8SizeInBytes_chinese() {
     return WriteBuffer.utf8SizeInBytes(CHINESE_UTF8);
   }
@@ -67,6 +110,24 @@ public class WriteBufferBenchmarks {
     return UTF_8.encode(CHINESE_UTF8);
   }
 
+  @Benchmark public int utf8SizeInBytes_ascii() {
+    return WriteBuffer.utf8SizeInBytes(ASCII);
+  }
+
+  @Benchmark public byte[] writeUtf8_ascii() {
+    byte[] bytesUtf8 = new byte[ASCII.length()];
+    WriteBuffer.wrap(bytesUtf8, 0).writeUtf8(ASCII);
+    return bytesUtf8;
+  }
+
+  @Benchmark public int jsonEscapedSizeInBytes_ascii() {
+    return JsonEscaper.jsonEscapedSizeInBytes(ASCII);
+  }
+
+  @Benchmark public CharSequence jsonEscape_ascii() {
+    return JsonEscaper.jsonEscape(ASCII);
+  }
+
   @Benchmark public int varIntSizeInBytes_32() {
     return WriteBuffer.varintSizeInBytes(TEST_INT);
   }
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * Measures how long a restarted server takes to reload a snapshot of a million spans, compared to
+ * replaying the same spans into {@link InMemoryStorage#accept(List)} a request at a time. Both
+ * include decoding the proto3 snapshot.
+ */
+@Measurement(iterations = 5)
+@Warmup(iterations = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(1)
+public class InMemoryStorageSnapshotBenchmarks {
+  static final int SPAN_COUNT = 1000000, SPANS_PER_REQUEST = 100;
+  static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").build();
+  static final Endpoint BACKEND = Endpoint.newBuilder().serviceName("backend").build();
+
+  byte[] snapshot;
+
+  @Setup public void writeSnapshot() throws IOException {
+    InMemoryStorage storage = newStorage();
+    Random random = new Random(1L);
+    long timestamp = System.currentTimeMillis() * 1000L - TimeUnit.HOURS.toMicros(1);
+    List<Span> spans = new ArrayList<>(SPANS_PER_REQUEST);
+    for (int i = 0; i < SPAN_COUNT; i += 2) {
+      long traceId = random.nextLong();
+      Span client = Span.newBuilder().traceId(0L, traceId).id(traceId).name("get /api")
+        .kind(Span.Kind.CLIENT).localEndpoint(FRONTEND).remoteEndpoint(BACKEND)
+        .timestamp(timestamp + i).duration(1000L + random.nextInt(1000))
+        .putTag("http.path", "/api/" + (i % 100))
+        .build();
+      spans.add(client);
+      spans.add(client.toBuilder().kind(Span.Kind.SERVER).shared(true)
+        .localEndpoint(BACKEND).remoteEndpoint(FRONTEND).build());
+      if (spans.size() == SPANS_PER_REQUEST) {
+        storage.accept(spans).execute();
+        spans = new ArrayList<>(SPANS_PER_REQUEST);
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    storage.writeSnapshot(out);
+    snapshot = out.toByteArray();
+  }
+
+  @Benchmark public InMemoryStorage loadSnapshot() throws IOException {
+    InMemoryStorage storage = newStorage();
+    storage.loadSnapshot(new ByteArrayInputStream(snapshot));
+    return storage;
+  }
+
+  @Benchmark public InMemoryStorage replayAccept() throws IOException {
+    InMemoryStorage storage = newStorage();
+    List<Span> spans = SpanBytesDecoder.PROTO3.decodeList(snapshot);
+    for (int i = 0; i < spans.size(); i += SPANS_PER_REQUEST) {
+      storage.accept(spans.subList(i, Math.min(i + SPANS_PER_REQUEST, spans.size()))).execute();
+    }
+    return storage;
+  }
+
+  static InMemoryStorage newStorage() {
+    return InMemoryStorage.newBuilder().maxSpanCount(SPAN_COUNT).build();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + InMemoryStorageSnapshotBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CollectorSampler} that adjusts its boundary so that the spans it retains approach a
+ * target rate per second.
+ *
+ * <p>A fixed {@link CollectorSampler#create(float) rate} is either too high during a traffic spike,
+ * overloading storage, or too low the rest of the day. This counts spans offered to {@link
+ * #isSampled(long, boolean)} and, each {@link Builder#interval(long) interval}, compares the
+ * target to a moving average of the offered rate. When offered less than the target, all traces
+ * are kept.
+ *
+ * <p>The sample rate moves in {@link #STEP steps}, instead of tracking the ideal rate exactly. It
+ * steps down as soon as the ideal rate is below it, but only steps up once the ideal rate is more
+ * than a step above it. So, the rate holds while traffic fluctuates, and decisions remain
+ * consistent for a trace ID. A trace is only split when the rate steps while its spans arrive.
+ *
+ * <p>The current rate is reported to {@link CollectorMetrics#setSampleRate(float)}.
+ */
+public final class AdaptiveCollectorSampler extends CollectorSampler {
+  /** Weight of the latest interval in the moving average of offered spans per second. */
+  static final double ALPHA = 0.5;
+  /** Each step of the sample rate keeps this fraction of the traces kept by the step above. */
+  static final double STEP = 0.8;
+
+  public static Builder newBuilder(int spansPerSecond) {
+    if (spansPerSecond <= 0) throw new IllegalArgumentException("spansPerSecond <= 0");
+    return new Builder(spansPerSecond);
+  }
+
+  public static final class Builder {
+    final int spansPerSecond;
+    CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
+    long interval = 1000L;
+    float minRate = 0.0001f;
+
+    Builder(int spansPerSecond) {
+      this.spansPerSecond = spansPerSecond;
+    }
+
+    /**
+     * Receives the current sample rate. Defaults to no-op. As this sampler is shared by all
+     * transports, scope it with {@link CollectorMetrics#forTransport(String)}.
+     */
+    public Builder metrics(CollectorMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** How often, in milliseconds, to adjust the sample rate. Defaults to 1000. */
+    public Builder interval(long interval) {
+      if (interval <= 0) throw new IllegalArgumentException("interval <= 0");
+      this.interval = interval;
+      return this;
+    }
+
+    /**
+     * The sample rate never drops below this, so that some traces are kept in any spike. Defaults
+     * to 0.0001, or 0.01% of traces.
+     */
+    public Builder minRate(float minRate) {
+      if (minRate < 0 || minRate > 1)
+        throw new IllegalArgumentException("minRate should be between 0 and 1: was " + minRate);
+      this.minRate = minRate;
+      return this;
+    }
+
+    public AdaptiveCollectorSampler build() {
+      return new AdaptiveCollectorSampler(this);
+    }
+  }
+
+  final int spansPerSecond;
+  final CollectorMetrics metrics;
+  final long intervalNanos;
+  final float minRate;
+  final LongAdder offered = new LongAdder();
+
+  volatile long boundary = Long.MAX_VALUE;
+  volatile long nextUpdate;
+  /** Guarded by this. */
+  long lastUpdate;
+  /** Guarded by this. Negative until the first adjustment. */
+  double offeredPerSecond = -1;
+  /** Guarded by this. The sample rate is {@link #STEP} to this power, zero to keep all. */
+  int step;
+  volatile float rate = 1.0f;
+
+  AdaptiveCollectorSampler(Builder builder) {
+    spansPerSecond = builder.spansPerSecond;
+    metrics = builder.metrics;
+    intervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.interval);
+    minRate = builder.minRate;
+    lastUpdate = System.nanoTime();
+    nextUpdate = lastUpdate + intervalNanos;
+    metrics.setSampleRate(rate);
+  }
+
+  @Override protected long boundary() {
+    return boundary;
+  }
+
+  /** Returns the fraction of traces currently kept. */
+  public float rate() {
+    return rate;
+  }
+
+  @Override public boolean isSampled(long traceId, boolean debug) {
+    offered.increment();
+    long now = System.nanoTime();
+    if (now - nextUpdate >= 0) maybeAdjust(now);
+    return super.isSampled(traceId, debug);
+  }
+
+  void maybeAdjust(long now) {
+    long count, elapsed;
+    synchronized (this) {
+      if (now - nextUpdate < 0) return; // another thread adjusted
+      count = offered.sumThenReset();
+      elapsed = now - lastUpdate;
+      lastUpdate = now;
+      nextUpdate = now + intervalNanos;
+    }
+    adjust(count, elapsed);
+  }
+
+  /** Sets the rate based on the count of spans offered over the elapsed nanoseconds. */
+  synchronized void adjust(long count, long elapsedNanos) {
+    double latest = count * 1e9 / Math.max(1L, elapsedNanos);
+    offeredPerSecond = offeredPerSecond < 0
+      ? latest
+      : offeredPerSecond + ALPHA * (latest - offeredPerSecond);
+
+    // The step with the highest rate not over the ideal. The epsilon absorbs rounding error.
+    int idealStep = offeredPerSecond <= spansPerSecond * STEP
+      ? -1 // a step or more under the target, so all traces can be kept
+      : (int) Math.ceil(Math.log(spansPerSecond / offeredPerSecond) / Math.log(STEP) - 1e-9);
+    if (idealStep > step) {
+      step = idealStep; // step down immediately, as storage may be overloaded
+    } else if (idealStep < step - 1) {
+      step = Math.max(0, idealStep + 1); // step up, leaving a step of margin against fluctuation
+    }
+
+    float rate = Math.max(minRate, (float) Math.pow(STEP, step));
+    this.boundary = (long) (Long.MAX_VALUE * (double) rate); // safe cast as rate <= 1
+    this.rate = rate;
+    metrics.setSampleRate(rate);
+  }
+
+  @Override public String toString() {
+    return "AdaptiveCollectorSampler{spansPerSecond=" + spansPerSecond + ", rate=" + rate + "}";
+  }
+}
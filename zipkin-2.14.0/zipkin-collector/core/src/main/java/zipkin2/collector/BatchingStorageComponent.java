@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that coalesces spans accepted by any {@link Collector} into larger
+ * calls to the {@link #spanConsumer()} of another {@link StorageComponent}.
+ *
+ * <p>Instrumentation usually reports a few spans per message, and a collector stores each message
+ * separately. Backends such as Elasticsearch handle fewer, larger bulk requests better. When all
+ * transports share this component, their spans are merged into one batch, which is stored once it
+ * reaches {@link Builder#maxSpans(int) max spans}, {@link Builder#maxBytes(int) max bytes} or
+ * {@link Builder#maxDelay(long) max delay}, whichever comes first.
+ *
+ * <p>{@link Call#enqueue(Callback) Enqueued} calls are batched, and their callbacks complete with
+ * the result of the batch. {@link Call#execute() Executed} calls bypass the batch, as they block.
+ *
+ * <p>The count of spans waiting and the reason each batch was flushed are reported to {@link
+ * CollectorMetrics#setBatchQueueSpans(int)} and {@link CollectorMetrics#incrementBatchFlushes(String)}.
+ */
+public final class BatchingStorageComponent extends StorageComponent {
+  /** Reasons passed to {@link CollectorMetrics#incrementBatchFlushes(String)} */
+  static final String FLUSH_SPANS = "spans", FLUSH_BYTES = "bytes", FLUSH_DELAY = "delay",
+    FLUSH_CLOSE = "close";
+
+  public static Builder newBuilder(StorageComponent delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new Builder(delegate);
+  }
+
+  public static final class Builder {
+    final StorageComponent delegate;
+    CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
+    int maxSpans = 1000, maxBytes = 5 * 1024 * 1024;
+    long maxDelay = 100L;
+
+    Builder(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    /**
+     * Receives the batch queue depth and flush reasons. Defaults to no-op. As this component is
+     * shared by all transports, scope it with {@link CollectorMetrics#forTransport(String)}.
+     */
+    public Builder metrics(CollectorMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** A batch is stored once it holds this many spans. Defaults to 1000. */
+    public Builder maxSpans(int maxSpans) {
+      if (maxSpans <= 0) throw new IllegalArgumentException("maxSpans <= 0");
+      this.maxSpans = maxSpans;
+      return this;
+    }
+
+    /**
+     * A batch is stored once its spans encode to this many bytes of proto3, which approximates the
+     * size of the storage request. Defaults to 5MiB.
+     */
+    public Builder maxBytes(int maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * A batch is stored at most this many milliseconds after its first span was accepted, even if
+     * it is small. This bounds the delay before spans are visible to queries. Defaults to 100.
+     */
+    public Builder maxDelay(long maxDelay) {
+      if (maxDelay <= 0) throw new IllegalArgumentException("maxDelay <= 0");
+      this.maxDelay = maxDelay;
+      return this;
+    }
+
+    public BatchingStorageComponent build() {
+      return new BatchingStorageComponent(this);
+    }
+  }
+
+  final StorageComponent delegate;
+  final CollectorMetrics metrics;
+  final int maxSpans, maxBytes;
+  final long maxDelay;
+  final ScheduledExecutorService scheduler;
+
+  /** Guarded by this. Null when empty. */
+  Batch batch;
+  /** Guarded by this. Once closed, spans are stored without batching. */
+  boolean closed;
+
+  BatchingStorageComponent(Builder builder) {
+    this.delegate = builder.delegate;
+    this.metrics = builder.metrics;
+    this.maxSpans = builder.maxSpans;
+    this.maxBytes = builder.maxBytes;
+    this.maxDelay = builder.maxDelay;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "zipkin-collector-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override public SpanStore spanStore() {
+    return delegate.spanStore();
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return delegate.autocompleteTags();
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return delegate.serviceAndSpanNames();
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return this::accept;
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  /** Stores any spans waiting in the batch before closing the delegate. */
+  @Override public void close() throws IOException {
+    scheduler.shutdownNow();
+    Batch toFlush;
+    synchronized (this) {
+      closed = true;
+      toFlush = batch;
+      batch = null;
+    }
+    if (toFlush != null) flush(toFlush, FLUSH_CLOSE);
+    delegate.close();
+  }
+
+  Call<Void> accept(List<Span> spans) {
+    return new BatchSpansCall(spans);
+  }
+
+  void add(List<Span> spans, Callback<Void> callback) {
+    int bytes = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      bytes += SpanBytesEncoder.PROTO3.sizeInBytes(spans.get(i));
+    }
+
+    Batch toFlush = null;
+    String reason = null;
+    int queueSpans = 0;
+    synchronized (this) {
+      Batch current = closed ? new Batch() : batch;
+      if (current == null) {
+        Batch scheduled = current = batch = new Batch();
+        scheduler.schedule(() -> flushIfCurrent(scheduled), maxDelay, TimeUnit.MILLISECONDS);
+      }
+      current.spans.addAll(spans);
+      current.callbacks.add(callback);
+      current.bytes += bytes;
+      if (closed) {
+        reason = FLUSH_CLOSE;
+      } else if (current.spans.size() >= maxSpans) {
+        reason = FLUSH_SPANS;
+      } else if (current.bytes >= maxBytes) {
+        reason = FLUSH_BYTES;
+      } else {
+        queueSpans = current.spans.size();
+      }
+      if (reason != null) {
+        toFlush = current;
+        batch = null;
+      }
+    }
+    metrics.setBatchQueueSpans(queueSpans);
+    if (toFlush != null) flush(toFlush, reason);
+  }
+
+  /** Called by the scheduler, which may race with a batch filling up. */
+  void flushIfCurrent(Batch expected) {
+    synchronized (this) {
+      if (batch != expected) return; // already flushed
+      batch = null;
+    }
+    metrics.setBatchQueueSpans(0);
+    flush(expected, FLUSH_DELAY);
+  }
+
+  void flush(Batch toFlush, String reason) {
+    metrics.incrementBatchFlushes(reason);
+    try {
+      delegate.spanConsumer().accept(toFlush.spans).enqueue(toFlush);
+    } catch (RuntimeException | Error e) {
+      Call.propagateIfFatal(e);
+      toFlush.onError(e);
+    }
+  }
+
+  /** Spans from one or more calls, whose callbacks complete with the result of storing them. */
+  static final class Batch implements Callback<Void> {
+    final List<Span> spans = new ArrayList<>();
+    final List<Callback<Void>> callbacks = new ArrayList<>();
+    int bytes;
+
+    @Override public void onSuccess(Void value) {
+      for (int i = 0, length = callbacks.size(); i < length; i++) {
+        callbacks.get(i).onSuccess(value);
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      for (int i = 0, length = callbacks.size(); i < length; i++) {
+        callbacks.get(i).onError(t);
+      }
+    }
+  }
+
+  final class BatchSpansCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    BatchSpansCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      return delegate.spanConsumer().accept(spans).execute();
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      add(spans, callback);
+    }
+
+    @Override public Call<Void> clone() {
+      return new BatchSpansCall(spans);
+    }
+
+    @Override public String toString() {
+      return "BatchSpansCall{" + spans + "}";
+    }
+  }
+
+  @Override public String toString() {
+    return "Batching(" + delegate + ")";
+  }
+}
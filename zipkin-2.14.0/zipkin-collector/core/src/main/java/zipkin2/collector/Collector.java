@@ -16,16 +16,24 @@
  */
 package zipkin2.collector;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanChunkConsumer;
+import zipkin2.internal.Proto3SpanView;
+import zipkin2.internal.ReadBuffer;
+import zipkin2.internal.EndpointCache;
+import zipkin2.internal.StringCache;
 import zipkin2.storage.StorageComponent;
 
 import static java.lang.String.format;
@@ -41,6 +49,9 @@ import static zipkin2.Call.propagateIfFatal;
  * threads.
  */
 public class Collector { // not final for mock
+  /** Maximum count of spans decoded from a message before they are sampled and stored. */
+  public static final int CHUNK_SIZE = 1000;
+
   static final Callback<Void> NOOP_CALLBACK = new Callback<Void>() {
     @Override public void onSuccess(Void value) {
     }
@@ -113,6 +124,10 @@ public class Collector { // not final for mock
     metrics.incrementSpans(spans.size());
 
     List<Span> sampledSpans = sample(spans);
+    storeSampled(spans, sampledSpans, callback);
+  }
+
+  void storeSampled(List<Span> spans, List<Span> sampledSpans, Callback<Void> callback) {
     if (sampledSpans.isEmpty()) {
       callback.onSuccess(null);
       return;
@@ -161,16 +176,142 @@ public class Collector { // not final for mock
    */
   public void acceptSpans(
     byte[] serializedSpans, BytesDecoder<Span> decoder, Callback<Void> callback) {
+    if (decoder == SpanBytesDecoder.PROTO3) {
+      acceptProto3Spans(ReadBuffer.wrap(serializedSpans), callback);
+      return;
+    } else if (decoder instanceof SpanBytesDecoder) {
+      acceptSpansInChunks(ByteBuffer.wrap(serializedSpans), (SpanBytesDecoder) decoder, callback);
+      return;
+    }
     List<Span> spans;
     try {
       spans = decodeList(decoder, serializedSpans);
     } catch (RuntimeException | Error e) {
       handleDecodeError(e, callback);
       return;
+    } finally {
+      reportDecodeCaches();
     }
     accept(spans, callback);
   }
 
+  /**
+   * Like {@link #acceptSpans(byte[], BytesDecoder, Callback)}, except the input is a buffer, such as
+   * one pooled by the transport. Spans are decoded before this returns, so the buffer can be
+   * released after.
+   *
+   * @param encoded not empty message
+   */
+  public void acceptSpans(ByteBuffer encoded, SpanBytesDecoder decoder, Callback<Void> callback) {
+    if (decoder == SpanBytesDecoder.PROTO3) {
+      acceptProto3Spans(ReadBuffer.wrapUnsafe(encoded), callback);
+      return;
+    }
+    acceptSpansInChunks(encoded, decoder, callback);
+  }
+
+  /**
+   * Samples and stores spans in chunks of {@link #CHUNK_SIZE} while the rest of the message is
+   * decoded. This bounds the count of spans held for a large message, and lets storage begin
+   * before decoding completes.
+   *
+   * <p>The callback completes once. A chunk that fails to store drops the remaining chunks, so
+   * that a rejected message isn't partly stored twice when redelivered. Chunks decoded before a
+   * malformed span are stored, as the message would fail the same way if redelivered.
+   */
+  void acceptSpansInChunks(ByteBuffer encoded, SpanBytesDecoder decoder, Callback<Void> callback) {
+    StoreChunks storeChunks = new StoreChunks();
+    Throwable decodeError = null;
+    try {
+      decoder.decodeList(encoded, CHUNK_SIZE, storeChunks);
+    } catch (RuntimeException | Error e) {
+      decodeError = e;
+    } finally {
+      reportDecodeCaches();
+    }
+    if (storeChunks.storageError != null) { // report the first error
+      handleStorageError(storeChunks.failedChunk, storeChunks.storageError, callback);
+    } else if (decodeError != null) {
+      handleDecodeError(decodeError, callback);
+    } else {
+      callback.onSuccess(null);
+    }
+  }
+
+  /** Doesn't throw, as the decoder would misreport storage errors as malformed input. */
+  final class StoreChunks implements SpanChunkConsumer {
+    List<Span> failedChunk;
+    Throwable storageError;
+
+    @Override public void accept(List<Span> chunk) {
+      metrics.incrementSpans(chunk.size());
+      List<Span> sampledSpans = sample(chunk);
+      if (sampledSpans.isEmpty()) return;
+      if (storageError != null) { // a rejected message is redelivered with these spans
+        if (!(storageError instanceof RejectedExecutionException)) {
+          metrics.incrementSpansDropped(sampledSpans.size());
+        }
+        return;
+      }
+      try {
+        store(sampledSpans, storeSpansCallback(sampledSpans));
+      } catch (RuntimeException | Error e) {
+        failedChunk = sampledSpans;
+        storageError = e;
+      }
+    }
+  }
+
+  /**
+   * Proto3 spans are sampled before they are decoded, as only the trace ID and debug flag are
+   * needed to make a decision. This avoids building spans that would be dropped anyway.
+   */
+  void acceptProto3Spans(ReadBuffer buffer, Callback<Void> callback) {
+    List<Proto3SpanView> views = new ArrayList<>();
+    List<Span> sampledSpans;
+    try {
+      if (!Proto3SpanView.readList(buffer, views)) views.clear();
+      sampledSpans = new ArrayList<>(views.size());
+      for (int i = 0, length = views.size(); i < length; i++) {
+        Proto3SpanView view = views.get(i);
+        if (sampler.isSampled(view.traceIdLow(), view.debug())) {
+          sampledSpans.add(view.toSpan());
+        }
+      }
+    } catch (RuntimeException | Error e) {
+      handleDecodeError(e, callback);
+      return;
+    } finally {
+      reportDecodeCaches();
+    }
+
+    if (views.isEmpty()) {
+      callback.onSuccess(null);
+      return;
+    }
+    metrics.incrementSpans(views.size());
+    int dropped = views.size() - sampledSpans.size();
+    if (dropped > 0) metrics.incrementSpansDropped(dropped);
+    storeSampled(sampledSpans, sampledSpans, callback);
+  }
+
+  /** Reports decode cache statistics accumulated since the last decode by any collector. */
+  void reportDecodeCaches() {
+    StringCache stringCache = StringCache.current();
+    if (stringCache != null) {
+      int hits = (int) stringCache.drainHitCount(), misses = (int) stringCache.drainMissCount();
+      if (hits > 0) metrics.incrementStringCacheHits(hits);
+      if (misses > 0) metrics.incrementStringCacheMisses(misses);
+    }
+    EndpointCache endpointCache = EndpointCache.current();
+    if (endpointCache != null) {
+      int hits = (int) endpointCache.drainHitCount();
+      int misses = (int) endpointCache.drainMissCount();
+      if (hits > 0) metrics.incrementEndpointCacheHits(hits);
+      if (misses > 0) metrics.incrementEndpointCacheMisses(misses);
+    }
+  }
+
   List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
     List<Span> out = new ArrayList<>();
     if (!decoder.decodeList(serialized, out)) return Collections.emptyList();
@@ -189,7 +330,7 @@ public class Collector { // not final for mock
     List<Span> sampled = new ArrayList<>(input.size());
     for (int i = 0, length = input.size(); i < length; i++) {
       Span s = input.get(i);
-      if (sampler.isSampled(s.traceId(), Boolean.TRUE.equals(s.debug()))) {
+      if (sampler.isSampled(s.traceIdLow(), Boolean.TRUE.equals(s.debug()))) {
         sampled.add(s);
       }
     }
@@ -221,9 +362,14 @@ public class Collector { // not final for mock
   /**
    * When storing spans, an exception can be raised before or after the fact. This adds context of
    * span ids to give logs more relevance.
+   *
+   * <p>Spans aren't counted as dropped when storage rejected them before the transport's callback
+   * completed, as the transport redelivers the message or asks the sender to retry it.
    */
   void handleStorageError(List<Span> spans, Throwable e, Callback<Void> callback) {
-    metrics.incrementSpansDropped(spans.size());
+    if (callback == NOOP_CALLBACK || !(e instanceof RejectedExecutionException)) {
+      metrics.incrementSpansDropped(spans.size());
+    }
     // The exception could be related to a span being huge. Instead of filling logs,
     // print trace id, span id pairs
     handleError(e, () -> appendSpanIds(spans, new StringBuilder("Cannot store spans ")), callback);
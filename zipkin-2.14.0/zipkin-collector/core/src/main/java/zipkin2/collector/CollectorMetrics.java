@@ -81,6 +81,14 @@ public interface CollectorMetrics {
    */
   void incrementMessagesDropped();
 
+  /**
+   * Increments count of messages consumed again, because storage rejected them as too many spans
+   * were in flight. Ex a Kafka record the consumer seeked back to. These aren't counted again by
+   * {@link #incrementMessages()} or {@link #incrementBytes(int)}, though their spans are read again.
+   */
+  default void incrementMessagesRedelivered() {
+  }
+
   /**
    * Increments the count of spans read from a successful message. When bundling is used, accepted
    * spans will be a larger number than successful messages.
@@ -97,10 +105,106 @@ public interface CollectorMetrics {
 
   /**
    * Increments the count of spans dropped for any reason. For example, failure queueing to storage
-   * or sampling decisions.
+   * or sampling decisions. Spans storage rejected before the transport acknowledged them aren't
+   * dropped, as the transport redelivers them or asks the sender to retry.
    */
   void incrementSpansDropped(int quantity);
 
+  /**
+   * Increments the count of strings, such as service names, which were decoded as a shared instance
+   * instead of allocated. This is only reported when the string cache is enabled.
+   *
+   * <p>Note: the cache is shared by all transports, so attribution to a transport is approximate.
+   */
+  default void incrementStringCacheHits(int quantity) {
+  }
+
+  /**
+   * Increments the count of strings which were eligible for the string cache, but not in it. A high
+   * ratio of misses to hits suggests the cache is too small, or the data is high cardinality.
+   */
+  default void incrementStringCacheMisses(int quantity) {
+  }
+
+  /**
+   * Increments the count of decoded endpoints which were replaced by a shared instance. This is only
+   * reported when the endpoint cache is enabled.
+   *
+   * <p>Note: the cache is shared by all transports, so attribution to a transport is approximate.
+   */
+  default void incrementEndpointCacheHits(int quantity) {
+  }
+
+  /**
+   * Increments the count of decoded endpoints which were not in the endpoint cache. The hit ratio is
+   * hits divided by the sum of hits and misses.
+   */
+  default void incrementEndpointCacheMisses(int quantity) {
+  }
+
+  /**
+   * Sets the count of spans waiting in a {@link BatchingStorageComponent} to be stored together. A
+   * value that stays near the max spans of a batch suggests batches are flushed by size.
+   */
+  default void setBatchQueueSpans(int quantity) {
+  }
+
+  /**
+   * Increments the count of batches a {@link BatchingStorageComponent} stored, by the reason it
+   * stored them: "spans" or "bytes" when full, "delay" when the max delay elapsed, or "close".
+   */
+  default void incrementBatchFlushes(String reason) {
+  }
+
+  /**
+   * Sets the fraction of traces an {@link AdaptiveCollectorSampler} currently keeps, between 0 and
+   * 1. A value below 1 means more spans are offered than the sampler's target.
+   */
+  default void setSampleRate(float rate) {
+  }
+
+  /**
+   * Sets the count of spans a {@link TailSamplingStorageComponent} holds while their traces are
+   * undecided.
+   */
+  default void setTailBufferSpans(int quantity) {
+  }
+
+  /**
+   * Sets the proto3 size of spans a {@link TailSamplingStorageComponent} holds. A value that stays
+   * near its max bytes suggests traces are evicted before they are quiet.
+   */
+  default void setTailBufferBytes(int quantity) {
+  }
+
+  /**
+   * Increments the count of traces a {@link TailSamplingStorageComponent} decided, by the decision:
+   * "kept" or "dropped".
+   */
+  default void incrementTailTraces(String decision) {
+  }
+
+  /**
+   * Increments the count of traces a {@link TailSamplingStorageComponent} decided before they were
+   * quiet, because its buffer was full.
+   */
+  default void incrementTailEvictions() {
+  }
+
+  /**
+   * Increments the count of spans a {@link LaneStorageComponent} lane stored. Lanes with a much
+   * higher rate than others suggest a few traces dominate traffic.
+   */
+  default void incrementLaneSpans(int lane, int quantity) {
+  }
+
+  /**
+   * Sets how many milliseconds the oldest spans in the last batch of a {@link
+   * LaneStorageComponent} lane waited in its queue. A growing value means the lane is behind.
+   */
+  default void setLaneQueueLag(int lane, long millis) {
+  }
+
   CollectorMetrics NOOP_METRICS =
       new CollectorMetrics() {
 
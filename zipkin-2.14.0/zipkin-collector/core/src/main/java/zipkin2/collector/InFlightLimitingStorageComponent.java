@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that bounds the spans and bytes accepted by any {@link Collector}
+ * which haven't yet been stored by another {@link StorageComponent}.
+ *
+ * <p>When storage is slower than instrumentation, spans otherwise pile up in memory until the
+ * server fails. When all transports share this component, a call that would exceed {@link
+ * Builder#maxSpans(int) max spans} or {@link Builder#maxBytes(int) max bytes} in flight fails with
+ * a {@link RejectedExecutionException} instead. Transports translate this into their own signal
+ * to slow down: for example, HTTP responds 503 with a {@code Retry-After} header and Kafka pauses
+ * its partitions. A call is always admitted when nothing else is in flight, so that a message
+ * larger than the budget can still be stored.
+ *
+ * <p>Budget is released when the delegate completes the callback of an {@link
+ * Call#enqueue(Callback) enqueued} call, or when an {@link Call#execute() executed} call returns.
+ *
+ * <p>A {@link Builder#stage(Function) stage} like {@link TailSamplingStorageComponent} completes
+ * calls once it holds their spans, and stores them later. Placed between this and the delegate,
+ * such a stage would leave nothing in flight. Instead, spans the stage passes on count against the
+ * same budget until the delegate completes them. These are never rejected, as the stage already
+ * accepted them, but callers are rejected while they are over budget.
+ */
+public final class InFlightLimitingStorageComponent extends StorageComponent {
+
+  public static Builder newBuilder(StorageComponent delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new Builder(delegate);
+  }
+
+  public static final class Builder {
+    final StorageComponent delegate;
+    int maxSpans = 100_000, maxBytes = 64 * 1024 * 1024;
+    Function<StorageComponent, StorageComponent> stage;
+
+    Builder(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    /** Calls are rejected when this many spans are in flight. Defaults to 100000. */
+    public Builder maxSpans(int maxSpans) {
+      if (maxSpans <= 0) throw new IllegalArgumentException("maxSpans <= 0");
+      this.maxSpans = maxSpans;
+      return this;
+    }
+
+    /**
+     * Calls are rejected when the spans in flight encode to this many bytes of proto3, which
+     * approximates their size in memory. Defaults to 64MiB.
+     */
+    public Builder maxBytes(int maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Applies a stage between this and the delegate, which accepts spans before it stores them.
+     * The stage is given the delegate decorated to count spans against this budget until stored.
+     * Defaults to none.
+     */
+    public Builder stage(Function<StorageComponent, StorageComponent> stage) {
+      if (stage == null) throw new NullPointerException("stage == null");
+      this.stage = stage;
+      return this;
+    }
+
+    public InFlightLimitingStorageComponent build() {
+      return new InFlightLimitingStorageComponent(this);
+    }
+  }
+
+  final StorageComponent delegate;
+  final int maxSpans, maxBytes;
+
+  /** Guarded by this. */
+  int inFlightSpans;
+  /** Guarded by this. A long as large calls can be admitted when nothing else is in flight. */
+  long inFlightBytes;
+
+  InFlightLimitingStorageComponent(Builder builder) {
+    this.delegate = builder.stage != null
+      ? builder.stage.apply(new StagedStorage(builder.delegate))
+      : builder.delegate;
+    this.maxSpans = builder.maxSpans;
+    this.maxBytes = builder.maxBytes;
+  }
+
+  @Override public SpanStore spanStore() {
+    return delegate.spanStore();
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return delegate.autocompleteTags();
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return delegate.serviceAndSpanNames();
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return this::accept;
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override public void close() throws IOException {
+    delegate.close();
+  }
+
+  Call<Void> accept(List<Span> spans) {
+    return new InFlightSpansCall(delegate, spans, true);
+  }
+
+  /** Returns the count of spans in flight, for tests. */
+  synchronized int inFlightSpans() {
+    return inFlightSpans;
+  }
+
+  /** Returns the proto3 size of spans in flight, for tests. */
+  synchronized long inFlightBytes() {
+    return inFlightBytes;
+  }
+
+  void acquire(int spans, int bytes, boolean limit) {
+    synchronized (this) {
+      boolean idle = inFlightSpans == 0;
+      if (!limit || idle
+        || (inFlightSpans + spans <= maxSpans && inFlightBytes + bytes <= maxBytes)) {
+        inFlightSpans += spans;
+        inFlightBytes += bytes;
+        return;
+      }
+    }
+    throw new RejectedExecutionException(
+      "Storage has too many spans in flight; retry later");
+  }
+
+  synchronized void release(int spans, int bytes) {
+    inFlightSpans -= spans;
+    inFlightBytes -= bytes;
+  }
+
+  static int sizeInBytes(List<Span> spans) {
+    int bytes = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      bytes += SpanBytesEncoder.PROTO3.sizeInBytes(spans.get(i));
+    }
+    return bytes;
+  }
+
+  /** Counts spans a {@link Builder#stage(Function) stage} passes on, until they are stored. */
+  final class StagedStorage extends StorageComponent {
+    final StorageComponent delegate;
+
+    StagedStorage(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public SpanStore spanStore() {
+      return delegate.spanStore();
+    }
+
+    @Override public AutocompleteTags autocompleteTags() {
+      return delegate.autocompleteTags();
+    }
+
+    @Override public ServiceAndSpanNames serviceAndSpanNames() {
+      return delegate.serviceAndSpanNames();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> new InFlightSpansCall(delegate, spans, false);
+    }
+
+    @Override public CheckResult check() {
+      return delegate.check();
+    }
+
+    @Override public void close() throws IOException {
+      delegate.close();
+    }
+
+    @Override public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  /** When limited, the call is rejected if over budget. Otherwise, it is only counted. */
+  final class InFlightSpansCall extends Call.Base<Void> {
+    final StorageComponent delegate;
+    final List<Span> spans;
+    final boolean limit;
+
+    InFlightSpansCall(StorageComponent delegate, List<Span> spans, boolean limit) {
+      this.delegate = delegate;
+      this.spans = spans;
+      this.limit = limit;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      int bytes = sizeInBytes(spans);
+      acquire(spans.size(), bytes, limit);
+      try {
+        return delegate.spanConsumer().accept(spans).execute();
+      } finally {
+        release(spans.size(), bytes);
+      }
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      int bytes = sizeInBytes(spans);
+      acquire(spans.size(), bytes, limit);
+      ReleasingCallback releasing = new ReleasingCallback(spans.size(), bytes, callback);
+      try {
+        delegate.spanConsumer().accept(spans).enqueue(releasing);
+      } catch (RuntimeException | Error e) {
+        releasing.release();
+        throw e;
+      }
+    }
+
+    @Override public Call<Void> clone() {
+      return new InFlightSpansCall(delegate, spans, limit);
+    }
+
+    @Override public String toString() {
+      return "InFlightSpansCall{" + spans + "}";
+    }
+  }
+
+  /** Releases budget once, as a delegate could both throw and complete the callback. */
+  final class ReleasingCallback implements Callback<Void> {
+    final int spans, bytes;
+    final Callback<Void> delegate;
+    boolean released; // guarded by InFlightLimitingStorageComponent.this
+
+    ReleasingCallback(int spans, int bytes, Callback<Void> delegate) {
+      this.spans = spans;
+      this.bytes = bytes;
+      this.delegate = delegate;
+    }
+
+    void release() {
+      synchronized (InFlightLimitingStorageComponent.this) {
+        if (released) return;
+        released = true;
+        InFlightLimitingStorageComponent.this.release(spans, bytes);
+      }
+    }
+
+    @Override public void onSuccess(Void value) {
+      release();
+      delegate.onSuccess(value);
+    }
+
+    @Override public void onError(Throwable t) {
+      release();
+      delegate.onError(t);
+    }
+  }
+
+  @Override public String toString() {
+    return "InFlightLimiting(" + delegate + ")";
+  }
+}
@@ -24,9 +24,20 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
   private final ConcurrentHashMap<String, AtomicInteger> metrics;
   private final String messages;
   private final String messagesDropped;
+  private final String messagesRedelivered;
   private final String bytes;
   private final String spans;
   private final String spansDropped;
+  private final String stringCacheHits;
+  private final String stringCacheMisses;
+  private final String endpointCacheHits;
+  private final String endpointCacheMisses;
+  private final String batchQueueSpans;
+  private final String sampleRate;
+  private final String tailBufferSpans;
+  private final String tailBufferBytes;
+  private final String tailEvictions;
+  private final String transport;
 
   public InMemoryCollectorMetrics() {
     this(new ConcurrentHashMap<>(), null);
@@ -36,9 +47,20 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     this.metrics = metrics;
     this.messages = scope("messages", transport);
     this.messagesDropped = scope("messagesDropped", transport);
+    this.messagesRedelivered = scope("messagesRedelivered", transport);
     this.bytes = scope("bytes", transport);
     this.spans = scope("spans", transport);
     this.spansDropped = scope("spansDropped", transport);
+    this.stringCacheHits = scope("stringCacheHits", transport);
+    this.stringCacheMisses = scope("stringCacheMisses", transport);
+    this.endpointCacheHits = scope("endpointCacheHits", transport);
+    this.endpointCacheMisses = scope("endpointCacheMisses", transport);
+    this.batchQueueSpans = scope("batchQueueSpans", transport);
+    this.sampleRate = scope("sampleRate", transport);
+    this.tailBufferSpans = scope("tailBufferSpans", transport);
+    this.tailBufferBytes = scope("tailBufferBytes", transport);
+    this.tailEvictions = scope("tailEvictions", transport);
+    this.transport = transport;
   }
 
   @Override
@@ -65,6 +87,15 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     return get(messagesDropped);
   }
 
+  @Override
+  public void incrementMessagesRedelivered() {
+    increment(messagesRedelivered, 1);
+  }
+
+  public int messagesRedelivered() {
+    return get(messagesRedelivered);
+  }
+
   @Override
   public void incrementBytes(int quantity) {
     increment(bytes, quantity);
@@ -92,10 +123,136 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     return get(spansDropped);
   }
 
+  @Override
+  public void incrementStringCacheHits(int quantity) {
+    increment(stringCacheHits, quantity);
+  }
+
+  public int stringCacheHits() {
+    return get(stringCacheHits);
+  }
+
+  @Override
+  public void incrementStringCacheMisses(int quantity) {
+    increment(stringCacheMisses, quantity);
+  }
+
+  public int stringCacheMisses() {
+    return get(stringCacheMisses);
+  }
+
+  @Override
+  public void incrementEndpointCacheHits(int quantity) {
+    increment(endpointCacheHits, quantity);
+  }
+
+  public int endpointCacheHits() {
+    return get(endpointCacheHits);
+  }
+
+  @Override
+  public void incrementEndpointCacheMisses(int quantity) {
+    increment(endpointCacheMisses, quantity);
+  }
+
+  public int endpointCacheMisses() {
+    return get(endpointCacheMisses);
+  }
+
+  @Override
+  public void setBatchQueueSpans(int quantity) {
+    AtomicInteger metric = metrics.putIfAbsent(batchQueueSpans, new AtomicInteger(quantity));
+    if (metric != null) metric.set(quantity);
+  }
+
+  public int batchQueueSpans() {
+    return get(batchQueueSpans);
+  }
+
+  @Override
+  public void incrementBatchFlushes(String reason) {
+    increment(scope("batchFlushes." + reason, transport), 1);
+  }
+
+  public int batchFlushes(String reason) {
+    return get(scope("batchFlushes." + reason, transport));
+  }
+
+  @Override
+  public void setSampleRate(float rate) {
+    int bits = Float.floatToIntBits(rate); // to reuse the integer map
+    AtomicInteger metric = metrics.putIfAbsent(sampleRate, new AtomicInteger(bits));
+    if (metric != null) metric.set(bits);
+  }
+
+  /** Returns the last sample rate set, or zero if never set. */
+  public float sampleRate() {
+    return Float.intBitsToFloat(get(sampleRate));
+  }
+
+  @Override
+  public void setTailBufferSpans(int quantity) {
+    set(tailBufferSpans, quantity);
+  }
+
+  public int tailBufferSpans() {
+    return get(tailBufferSpans);
+  }
+
+  @Override
+  public void setTailBufferBytes(int quantity) {
+    set(tailBufferBytes, quantity);
+  }
+
+  public int tailBufferBytes() {
+    return get(tailBufferBytes);
+  }
+
+  @Override
+  public void incrementTailTraces(String decision) {
+    increment(scope("tailTraces." + decision, transport), 1);
+  }
+
+  public int tailTraces(String decision) {
+    return get(scope("tailTraces." + decision, transport));
+  }
+
+  @Override
+  public void incrementTailEvictions() {
+    increment(tailEvictions, 1);
+  }
+
+  public int tailEvictions() {
+    return get(tailEvictions);
+  }
+
+  @Override
+  public void incrementLaneSpans(int lane, int quantity) {
+    increment(scope("laneSpans." + lane, transport), quantity);
+  }
+
+  public int laneSpans(int lane) {
+    return get(scope("laneSpans." + lane, transport));
+  }
+
+  @Override
+  public void setLaneQueueLag(int lane, long millis) {
+    set(scope("laneQueueLag." + lane, transport), (int) Math.min(millis, Integer.MAX_VALUE));
+  }
+
+  public int laneQueueLag(int lane) {
+    return get(scope("laneQueueLag." + lane, transport));
+  }
+
   public void clear() {
     metrics.clear();
   }
 
+  private void set(String key, int value) {
+    AtomicInteger metric = metrics.putIfAbsent(key, new AtomicInteger(value));
+    if (metric != null) metric.set(value);
+  }
+
   private int get(String key) {
     AtomicInteger atomic = metrics.get(key);
     return atomic == null ? 0 : atomic.get();
@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.internal.HexCodec;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Delegating implementation that partitions spans accepted by any {@link Collector} by trace ID
+ * across a fixed count of single-threaded lanes.
+ *
+ * <p>Spans of one trace arrive on many threads, such as HTTP event loops and Kafka workers. Stages
+ * that keep per-trace state, such as {@link TailSamplingStorageComponent}, otherwise serialize on
+ * a shared lock. Here, each lane has its own instance of the {@link Builder#perLane(Function)
+ * per-lane stage}, and only calls it from the lane's thread. As all spans of a trace are sent to
+ * the same lane, that stage sees the whole trace without contending with other lanes. A {@link
+ * TailSamplingStorageComponent} built on the lane's delegate also sweeps quiet traces from the
+ * lane's thread, so it needs neither a lock nor a thread of its own.
+ *
+ * <p>Each lane is fed by a lock-free queue, bounded by {@link Builder#queueSpans(int) queue
+ * spans}. A lane stores what accumulated in its queue as one call. If any lane a call needs is
+ * full, the call fails with a {@link RejectedExecutionException}, which transports treat as a
+ * signal to slow down.
+ *
+ * <p>Spans stored by each lane and the time they waited in its queue are reported to {@link
+ * CollectorMetrics#incrementLaneSpans(int, int)} and {@link CollectorMetrics#setLaneQueueLag(int,
+ * long)}.
+ */
+public final class LaneStorageComponent extends StorageComponent {
+  static final Logger LOG = Logger.getLogger(LaneStorageComponent.class.getName());
+  /** How long an idle lane waits before checking again if it was closed. */
+  static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  public static Builder newBuilder(StorageComponent delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new Builder(delegate);
+  }
+
+  public static final class Builder {
+    final StorageComponent delegate;
+    CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
+    int lanes = Runtime.getRuntime().availableProcessors(), queueSpans = 10_000, maxBatch = 1000;
+    Function<StorageComponent, StorageComponent> perLane = Function.identity();
+
+    Builder(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    /**
+     * Receives lane throughput and queue lag. Defaults to no-op. As this component is shared by
+     * all transports, scope it with {@link CollectorMetrics#forTransport(String)}.
+     */
+    public Builder metrics(CollectorMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** Count of lanes, each with its own thread. Defaults to the count of processors. */
+    public Builder lanes(int lanes) {
+      if (lanes <= 0) throw new IllegalArgumentException("lanes <= 0");
+      this.lanes = lanes;
+      return this;
+    }
+
+    /** Calls are rejected when a lane they need has this many spans queued. Defaults to 10000. */
+    public Builder queueSpans(int queueSpans) {
+      if (queueSpans <= 0) throw new IllegalArgumentException("queueSpans <= 0");
+      this.queueSpans = queueSpans;
+      return this;
+    }
+
+    /** A lane stores at most this many queued spans in one call. Defaults to 1000. */
+    public Builder maxBatch(int maxBatch) {
+      if (maxBatch <= 0) throw new IllegalArgumentException("maxBatch <= 0");
+      this.maxBatch = maxBatch;
+      return this;
+    }
+
+    /**
+     * Wraps the delegate once per lane, for stages that keep per-trace state. For example, {@code
+     * d -> TailSamplingStorageComponent.newBuilder(d).build()}. The result is only called from its
+     * lane's thread, or after the lane's thread exits on close. Closing it doesn't close the
+     * delegate, which is closed once by this component. Defaults to use the delegate as is.
+     */
+    public Builder perLane(Function<StorageComponent, StorageComponent> perLane) {
+      if (perLane == null) throw new NullPointerException("perLane == null");
+      this.perLane = perLane;
+      return this;
+    }
+
+    public LaneStorageComponent build() {
+      return new LaneStorageComponent(this);
+    }
+  }
+
+  final StorageComponent delegate;
+  final CollectorMetrics metrics;
+  final int queueSpans, maxBatch;
+  final Lane[] lanes;
+  volatile boolean closed;
+
+  LaneStorageComponent(Builder builder) {
+    this.delegate = builder.delegate;
+    this.metrics = builder.metrics;
+    this.queueSpans = builder.queueSpans;
+    this.maxBatch = builder.maxBatch;
+    this.lanes = new Lane[builder.lanes];
+    for (int i = 0; i < lanes.length; i++) lanes[i] = new Lane(i, builder.perLane);
+    for (Lane lane : lanes) lane.thread.start();
+  }
+
+  @Override public SpanStore spanStore() {
+    return delegate.spanStore();
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return delegate.autocompleteTags();
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return delegate.serviceAndSpanNames();
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return this::accept;
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  /** Stores queued spans and closes each lane's stage before closing the delegate. */
+  @Override public void close() throws IOException {
+    closed = true;
+    for (Lane lane : lanes) LockSupport.unpark(lane.thread);
+    for (Lane lane : lanes) {
+      try {
+        lane.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (Lane lane : lanes) {
+      while (lane.drain()) {
+        // store spans queued while the lane was exiting
+      }
+      lane.stage.close();
+    }
+    delegate.close();
+  }
+
+  Call<Void> accept(List<Span> spans) {
+    return new LaneSpansCall(spans);
+  }
+
+  int laneIndex(String traceId) {
+    long id = HexCodec.lowerHexToUnsignedLong(traceId);
+    int hash = (int) (id ^ (id >>> 32));
+    return (hash & Integer.MAX_VALUE) % lanes.length;
+  }
+
+  /** Partitions the spans by lane, and queues each part, or none if any lane is full. */
+  void enqueue(List<Span> spans, Callback<Void> callback) {
+    if (closed) throw new IllegalStateException("closed");
+    List<List<Span>> parts = new ArrayList<>(lanes.length);
+    for (int i = 0; i < lanes.length; i++) parts.add(null);
+    int partCount = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      int index = laneIndex(span.traceId());
+      List<Span> part = parts.get(index);
+      if (part == null) {
+        parts.set(index, part = new ArrayList<>());
+        partCount++;
+      }
+      part.add(span);
+    }
+    if (partCount == 0) {
+      callback.onSuccess(null);
+      return;
+    }
+
+    for (int i = 0; i < lanes.length; i++) { // reserve room in every lane before queuing
+      List<Span> part = parts.get(i);
+      if (part == null || lanes[i].reserve(part.size())) continue;
+      for (int j = 0; j < i; j++) {
+        if (parts.get(j) != null) lanes[j].release(parts.get(j).size());
+      }
+      throw new RejectedExecutionException("Collector lane " + i + " is full; retry later");
+    }
+
+    Callback<Void> partCallback = partCount == 1 ? callback : new AllParts(partCount, callback);
+    long now = System.nanoTime();
+    Pending[] queued = new Pending[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      List<Span> part = parts.get(i);
+      if (part != null) lanes[i].offer(queued[i] = new Pending(part, partCallback, now));
+    }
+    if (!closed) return;
+
+    // Close may have drained the lanes before these parts were queued. Fail any it didn't store.
+    for (int i = 0; i < lanes.length; i++) {
+      if (queued[i] == null || !lanes[i].queue.remove(queued[i])) continue;
+      lanes[i].release(queued[i].spans.size());
+      partCallback.onError(new IllegalStateException("closed"));
+    }
+  }
+
+  /** Spans for one lane, from one call. */
+  static final class Pending {
+    final List<Span> spans;
+    final Callback<Void> callback;
+    final long queuedNanos;
+
+    Pending(List<Span> spans, Callback<Void> callback, long queuedNanos) {
+      this.spans = spans;
+      this.callback = callback;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  final class Lane implements Runnable {
+    final int index;
+    final Thread thread;
+    final StorageComponent stage;
+    final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    /** Spans reserved or queued, which bounds the queue without a lock. */
+    final AtomicInteger queued = new AtomicInteger();
+    /** Set by the stage before the thread starts, and only used by the thread afterwards. */
+    Runnable sweep;
+    long sweepNanos, nextSweep;
+
+    Lane(int index, Function<StorageComponent, StorageComponent> perLane) {
+      this.index = index;
+      this.thread = new Thread(this, "zipkin-collector-lane-" + index);
+      this.thread.setDaemon(true);
+      this.stage = perLane.apply(new LaneDelegate(delegate, this));
+    }
+
+    boolean reserve(int spans) {
+      while (true) {
+        int current = queued.get();
+        // always admit into an empty lane, so that a part larger than the queue can be stored
+        if (current > 0 && current + spans > queueSpans) return false;
+        if (queued.compareAndSet(current, current + spans)) return true;
+      }
+    }
+
+    void release(int spans) {
+      queued.addAndGet(-spans);
+    }
+
+    void offer(Pending pending) {
+      queue.offer(pending);
+      LockSupport.unpark(thread);
+    }
+
+    @Override public void run() {
+      while (true) {
+        boolean wasClosed = closed; // read before draining, so nothing queued before close is lost
+        long idleNanos = sweepIfDue();
+        if (drain()) continue;
+        if (wasClosed) return;
+        LockSupport.parkNanos(this, idleNanos);
+      }
+    }
+
+    /** Runs the stage's sweep if due, returning how long the lane can be idle. */
+    long sweepIfDue() {
+      if (sweep == null) return IDLE_NANOS;
+      long now = System.nanoTime();
+      if (now - nextSweep < 0) return Math.min(nextSweep - now, IDLE_NANOS);
+      nextSweep = now + sweepNanos;
+      try {
+        sweep.run();
+      } catch (RuntimeException | Error e) {
+        Call.propagateIfFatal(e);
+        LOG.log(WARNING, "Collector lane " + index + " failed to sweep", e);
+      }
+      return Math.min(sweepNanos, IDLE_NANOS);
+    }
+
+    /** Stores up to max batch queued spans, returning false if the queue was empty. */
+    boolean drain() {
+      List<Pending> batch = new ArrayList<>();
+      Pending pending;
+      int spans = 0;
+      while (spans < maxBatch && (pending = queue.poll()) != null) {
+        batch.add(pending);
+        spans += pending.spans.size();
+      }
+      if (batch.isEmpty()) return false;
+      store(batch, spans);
+      return true;
+    }
+
+    void store(List<Pending> batch, int spanCount) {
+      List<Span> spans = new ArrayList<>(spanCount);
+      List<Callback<Void>> callbacks = new ArrayList<>(batch.size());
+      for (int i = 0, length = batch.size(); i < length; i++) {
+        spans.addAll(batch.get(i).spans);
+        callbacks.add(batch.get(i).callback);
+      }
+      release(spanCount);
+      metrics.setLaneQueueLag(index,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.get(0).queuedNanos));
+      metrics.incrementLaneSpans(index, spanCount);
+
+      BatchingStorageComponent.Batch result = new BatchingStorageComponent.Batch();
+      result.callbacks.addAll(callbacks);
+      try {
+        stage.spanConsumer().accept(spans).enqueue(result);
+      } catch (RuntimeException | Error e) {
+        Call.propagateIfFatal(e);
+        result.onError(e);
+      }
+    }
+  }
+
+  /** Completes the callback once all parts of a call complete, with the first error if any. */
+  static final class AllParts implements Callback<Void> {
+    final AtomicInteger remaining;
+    final Callback<Void> delegate;
+    volatile Throwable error;
+
+    AllParts(int parts, Callback<Void> delegate) {
+      this.remaining = new AtomicInteger(parts);
+      this.delegate = delegate;
+    }
+
+    @Override public void onSuccess(Void value) {
+      if (remaining.decrementAndGet() == 0) complete();
+    }
+
+    @Override public void onError(Throwable t) {
+      if (error == null) error = t;
+      if (remaining.decrementAndGet() == 0) complete();
+    }
+
+    void complete() {
+      Throwable t = error;
+      if (t != null) {
+        delegate.onError(t);
+      } else {
+        delegate.onSuccess(null);
+      }
+    }
+  }
+
+  /** Waits for queued spans to be stored, for callers that execute instead of enqueue. */
+  static final class Await implements Callback<Void> {
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile Throwable error;
+
+    @Override public void onSuccess(Void value) {
+      latch.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      error = t;
+      latch.countDown();
+    }
+  }
+
+  final class LaneSpansCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    LaneSpansCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      Await await = new Await();
+      LaneStorageComponent.this.enqueue(spans, await);
+      try {
+        await.latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for spans to be stored", e);
+      }
+      Throwable error = await.error;
+      if (error instanceof IOException) throw (IOException) error;
+      if (error instanceof RuntimeException) throw (RuntimeException) error;
+      if (error instanceof Error) throw (Error) error;
+      if (error != null) throw new IOException(error);
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      LaneStorageComponent.this.enqueue(spans, callback);
+    }
+
+    @Override public Call<Void> clone() {
+      return new LaneSpansCall(spans);
+    }
+
+    @Override public String toString() {
+      return "LaneSpansCall{" + spans + "}";
+    }
+  }
+
+  /**
+   * The delegate as seen by one lane's stage, which can't close it, but can run periodic work on
+   * the lane's thread.
+   */
+  static final class LaneDelegate extends StorageComponent {
+    final StorageComponent delegate;
+    final Lane lane;
+
+    LaneDelegate(StorageComponent delegate, Lane lane) {
+      this.delegate = delegate;
+      this.lane = lane;
+    }
+
+    /** Runs the sweep on the lane's thread at this interval. Call before the lane starts. */
+    void sweepEvery(long intervalNanos, Runnable sweep) {
+      lane.sweepNanos = intervalNanos;
+      lane.nextSweep = System.nanoTime() + intervalNanos;
+      lane.sweep = sweep;
+    }
+
+    @Override public SpanStore spanStore() {
+      return delegate.spanStore();
+    }
+
+    @Override public AutocompleteTags autocompleteTags() {
+      return delegate.autocompleteTags();
+    }
+
+    @Override public ServiceAndSpanNames serviceAndSpanNames() {
+      return delegate.serviceAndSpanNames();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return delegate.spanConsumer();
+    }
+
+    @Override public CheckResult check() {
+      return delegate.check();
+    }
+
+    @Override public void close() {
+    }
+
+    @Override public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  @Override public String toString() {
+    return "Lanes(" + delegate + ")";
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.util.concurrent.RejectedExecutionException;
+import zipkin2.Callback;
+
+/**
+ * Records whether storage rejected spans passed to {@link Collector}, as too many are in flight.
+ * This is for transports that can redeliver a message, such as by not acknowledging it.
+ *
+ * <p>Storage rejects spans synchronously, so check {@link #rejected()} after the collector
+ * returns. Other errors are ignored, as the collector already logged and counted the dropped
+ * spans.
+ *
+ * @see InFlightLimitingStorageComponent
+ */
+public final class RejectionCallback implements Callback<Void> {
+  volatile boolean rejected;
+
+  /** Returns true if the message should be redelivered once storage catches up. */
+  public boolean rejected() {
+    return rejected;
+  }
+
+  @Override public void onSuccess(Void value) {
+  }
+
+  @Override public void onError(Throwable t) {
+    if (t instanceof RejectedExecutionException) rejected = true;
+  }
+}
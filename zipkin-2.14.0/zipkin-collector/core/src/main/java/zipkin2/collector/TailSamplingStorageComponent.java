@@ -0,0 +1,475 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.logging.Level.FINE;
+
+/**
+ * Delegating implementation that buffers spans accepted by any {@link Collector} by trace ID, and
+ * decides whether to store each trace once it has been quiet for a {@link
+ * Builder#quietPeriod(long) period}.
+ *
+ * <p>{@link CollectorSampler Head sampling} decides by trace ID alone, so it drops the error and
+ * slow traces people look for as often as any other. This keeps a whole trace when any of its
+ * spans is debug, has an "error" tag, lasts at least {@link Builder#minDuration(long) min
+ * duration}, or is from one of the {@link Builder#services(Collection) services}. Other traces are
+ * kept at the {@link Builder#baselineRate(float) baseline rate}.
+ *
+ * <p>The buffer holds at most {@link Builder#maxSpans(int) max spans} or {@link
+ * Builder#maxBytes(int) max bytes}. When either is exceeded, the least recently updated traces are
+ * decided early, with the spans received so far. Spans arriving after their trace was decided
+ * follow that decision, as long as it is among the most recent {@value #DECISION_CACHE_SIZE}.
+ *
+ * <p>Spans are accepted as soon as they are buffered, so callers aren't told about storage
+ * errors, which are instead logged and counted as dropped spans. For the same reason, apply this as
+ * a {@link InFlightLimitingStorageComponent.Builder#stage(java.util.function.Function) stage} of an
+ * in-flight limit, so that kept spans count against it until stored. Buffer occupancy and decisions
+ * are reported to {@link CollectorMetrics#setTailBufferSpans(int)}, {@link
+ * CollectorMetrics#setTailBufferBytes(int)}, {@link CollectorMetrics#incrementTailTraces(String)}
+ * and {@link CollectorMetrics#incrementTailEvictions()}.
+ */
+public final class TailSamplingStorageComponent extends StorageComponent {
+  static final Logger LOG = Logger.getLogger(TailSamplingStorageComponent.class.getName());
+  /** Decisions passed to {@link CollectorMetrics#incrementTailTraces(String)} */
+  static final String KEPT = "kept", DROPPED = "dropped";
+  /** How many recent decisions are remembered, to apply them to late spans. */
+  static final int DECISION_CACHE_SIZE = 10_000;
+
+  public static Builder newBuilder(StorageComponent delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new Builder(delegate);
+  }
+
+  public static final class Builder {
+    final StorageComponent delegate;
+    CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
+    long quietPeriod = 5000L, minDuration = 0L;
+    int maxSpans = 100_000, maxBytes = 32 * 1024 * 1024;
+    boolean errorTraces = true;
+    Set<String> services = Collections.emptySet();
+    float baselineRate = 0.0f;
+
+    Builder(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    /**
+     * Receives buffer occupancy and decisions. Defaults to no-op. As this component is shared by
+     * all transports, scope it with {@link CollectorMetrics#forTransport(String)}.
+     */
+    public Builder metrics(CollectorMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * A trace is decided once no span for it arrived for this many milliseconds. This should be
+     * longer than the delay of the slowest instrumentation reporting a span. Defaults to 5000.
+     */
+    public Builder quietPeriod(long quietPeriod) {
+      if (quietPeriod <= 0) throw new IllegalArgumentException("quietPeriod <= 0");
+      this.quietPeriod = quietPeriod;
+      return this;
+    }
+
+    /** Traces are decided early once this many spans are buffered. Defaults to 100000. */
+    public Builder maxSpans(int maxSpans) {
+      if (maxSpans <= 0) throw new IllegalArgumentException("maxSpans <= 0");
+      this.maxSpans = maxSpans;
+      return this;
+    }
+
+    /**
+     * Traces are decided early once buffered spans encode to this many bytes of proto3, which
+     * approximates their size in memory. Defaults to 32MiB.
+     */
+    public Builder maxBytes(int maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /** Keep traces where any span has an "error" tag. Defaults to true. */
+    public Builder errorTraces(boolean errorTraces) {
+      this.errorTraces = errorTraces;
+      return this;
+    }
+
+    /**
+     * Keep traces where any span lasts at least this many microseconds. Defaults to zero, which
+     * disables this rule.
+     */
+    public Builder minDuration(long minDuration) {
+      if (minDuration < 0) throw new IllegalArgumentException("minDuration < 0");
+      this.minDuration = minDuration;
+      return this;
+    }
+
+    /**
+     * Keep traces where any span's local service name is one of these, ignoring case. Defaults to
+     * none.
+     */
+    public Builder services(Collection<String> services) {
+      if (services == null) throw new NullPointerException("services == null");
+      Set<String> lowercase = new LinkedHashSet<>();
+      for (String service : services) lowercase.add(service.toLowerCase(Locale.ROOT));
+      this.services = Collections.unmodifiableSet(lowercase);
+      return this;
+    }
+
+    /**
+     * Fraction of other traces to keep, consistently by trace ID like {@link
+     * CollectorSampler#create(float)}. Defaults to zero.
+     */
+    public Builder baselineRate(float baselineRate) {
+      if (baselineRate < 0 || baselineRate > 1) {
+        throw new IllegalArgumentException(
+          "baselineRate should be between 0 and 1: was " + baselineRate);
+      }
+      this.baselineRate = baselineRate;
+      return this;
+    }
+
+    public TailSamplingStorageComponent build() {
+      return new TailSamplingStorageComponent(this);
+    }
+  }
+
+  final StorageComponent delegate;
+  final CollectorMetrics metrics;
+  final long quietNanos, minDuration;
+  final int maxSpans, maxBytes;
+  final boolean errorTraces;
+  final Set<String> services;
+  final CollectorSampler baseline;
+  /** Null when {@link #confined} */
+  final ScheduledExecutorService scheduler;
+  /**
+   * True when built on a lane of {@link LaneStorageComponent}, which only calls this from one
+   * thread at a time. State below is then used without a lock.
+   */
+  final boolean confined;
+
+  /** Guarded by this. Ordered from least to most recently updated. */
+  final LinkedHashMap<String, Trace> traces = new LinkedHashMap<>(16, 0.75f, true);
+  /** Guarded by this. Recent decisions by trace ID, where true means kept. */
+  final LinkedHashMap<String, Boolean> decided = new LinkedHashMap<String, Boolean>() {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > DECISION_CACHE_SIZE;
+    }
+  };
+  /** Guarded by this. */
+  int bufferedSpans, bufferedBytes;
+  /** Guarded by this. Once closed, spans are stored without buffering. */
+  boolean closed;
+
+  TailSamplingStorageComponent(Builder builder) {
+    this.delegate = builder.delegate;
+    this.metrics = builder.metrics;
+    this.quietNanos = TimeUnit.MILLISECONDS.toNanos(builder.quietPeriod);
+    this.minDuration = builder.minDuration;
+    this.maxSpans = builder.maxSpans;
+    this.maxBytes = builder.maxBytes;
+    this.errorTraces = builder.errorTraces;
+    this.services = builder.services;
+    this.baseline = CollectorSampler.create(builder.baselineRate);
+    // check a few times per quiet period, so that traces are decided soon after they are quiet
+    long sweepInterval = Math.max(1L, builder.quietPeriod / 4);
+    this.confined = delegate instanceof LaneStorageComponent.LaneDelegate;
+    if (confined) {
+      this.scheduler = null;
+      ((LaneStorageComponent.LaneDelegate) delegate)
+        .sweepEvery(TimeUnit.MILLISECONDS.toNanos(sweepInterval), this::sweep);
+      return;
+    }
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "zipkin-collector-tail");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval,
+      TimeUnit.MILLISECONDS);
+  }
+
+  @Override public SpanStore spanStore() {
+    return delegate.spanStore();
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return delegate.autocompleteTags();
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return delegate.serviceAndSpanNames();
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return this::accept;
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  /** Decides all buffered traces before closing the delegate. */
+  @Override public void close() throws IOException {
+    if (scheduler != null) scheduler.shutdownNow();
+    Decisions decisions = new Decisions();
+    if (confined) {
+      closeBuffer(decisions);
+    } else {
+      synchronized (this) {
+        closeBuffer(decisions);
+      }
+    }
+    report(decisions);
+    delegate.close();
+  }
+
+  /** Called under lock unless confined. */
+  void closeBuffer(Decisions decisions) {
+    closed = true;
+    for (Iterator<Map.Entry<String, Trace>> i = traces.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<String, Trace> entry = i.next();
+      i.remove();
+      decide(entry.getKey(), entry.getValue(), decisions);
+    }
+    decisions.buffered(bufferedSpans, bufferedBytes);
+  }
+
+  Call<Void> accept(List<Span> spans) {
+    return new TailSpansCall(spans);
+  }
+
+  void add(List<Span> spans) {
+    long now = System.nanoTime();
+    Decisions decisions = new Decisions();
+    if (confined) {
+      add(spans, now, decisions);
+    } else {
+      synchronized (this) {
+        add(spans, now, decisions);
+      }
+    }
+    report(decisions);
+  }
+
+  /** Called under lock unless confined. */
+  void add(List<Span> spans, long now, Decisions decisions) {
+    if (closed) {
+      decisions.kept.addAll(spans);
+    } else {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        addSpan(spans.get(i), now, decisions);
+      }
+      while (bufferedSpans > maxSpans || bufferedBytes > maxBytes) {
+        Iterator<Map.Entry<String, Trace>> eldest = traces.entrySet().iterator();
+        Map.Entry<String, Trace> entry = eldest.next();
+        eldest.remove();
+        decide(entry.getKey(), entry.getValue(), decisions);
+        decisions.evicted++;
+      }
+    }
+    decisions.buffered(bufferedSpans, bufferedBytes);
+  }
+
+  /** Called under lock unless confined. */
+  void addSpan(Span span, long now, Decisions decisions) {
+    String traceId = span.traceId();
+    Boolean keep = decided.get(traceId);
+    if (keep != null) { // late span for a decided trace
+      if (keep) {
+        decisions.kept.add(span);
+      } else {
+        decisions.droppedSpans++;
+      }
+      return;
+    }
+    Trace trace = traces.get(traceId); // moves the trace to the most recently updated
+    if (trace == null) traces.put(traceId, trace = new Trace());
+    int bytes = SpanBytesEncoder.PROTO3.sizeInBytes(span);
+    trace.spans.add(span);
+    trace.bytes += bytes;
+    trace.lastUpdate = now;
+    bufferedSpans++;
+    bufferedBytes += bytes;
+  }
+
+  /** Decides traces that have been quiet for the quiet period. Called periodically. */
+  void sweep() {
+    sweep(System.nanoTime());
+  }
+
+  void sweep(long now) {
+    Decisions decisions = new Decisions();
+    if (confined) {
+      sweep(now, decisions);
+    } else {
+      synchronized (this) {
+        sweep(now, decisions);
+      }
+    }
+    report(decisions);
+  }
+
+  /** Called under lock unless confined. */
+  void sweep(long now, Decisions decisions) {
+    for (Iterator<Map.Entry<String, Trace>> i = traces.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<String, Trace> entry = i.next();
+      if (now - entry.getValue().lastUpdate < quietNanos) break; // the rest are more recent
+      i.remove();
+      decide(entry.getKey(), entry.getValue(), decisions);
+    }
+    decisions.buffered(bufferedSpans, bufferedBytes);
+  }
+
+  /** Called under lock unless confined, after the trace was removed from the buffer. */
+  void decide(String traceId, Trace trace, Decisions decisions) {
+    bufferedSpans -= trace.spans.size();
+    bufferedBytes -= trace.bytes;
+    boolean keep = keep(traceId, trace.spans);
+    decided.put(traceId, keep);
+    if (keep) {
+      decisions.kept.addAll(trace.spans);
+      decisions.keptTraces++;
+    } else {
+      decisions.droppedSpans += trace.spans.size();
+      decisions.droppedTraces++;
+    }
+  }
+
+  boolean keep(String traceId, List<Span> spans) {
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      if (Boolean.TRUE.equals(span.debug())) return true;
+      if (errorTraces && span.tags().containsKey("error")) return true;
+      if (minDuration > 0L && span.durationAsLong() >= minDuration) return true;
+      if (!services.isEmpty() && services.contains(span.localServiceName())) return true;
+    }
+    return baseline.isSampled(traceId, false);
+  }
+
+  /** Stores kept spans and reports metrics outside the lock. */
+  void report(Decisions decisions) {
+    metrics.setTailBufferSpans(decisions.bufferedSpans);
+    metrics.setTailBufferBytes(decisions.bufferedBytes);
+    for (int i = 0; i < decisions.keptTraces; i++) metrics.incrementTailTraces(KEPT);
+    for (int i = 0; i < decisions.droppedTraces; i++) metrics.incrementTailTraces(DROPPED);
+    for (int i = 0; i < decisions.evicted; i++) metrics.incrementTailEvictions();
+    if (decisions.droppedSpans > 0) metrics.incrementSpansDropped(decisions.droppedSpans);
+    if (decisions.kept.isEmpty()) return;
+    List<Span> kept = decisions.kept;
+    try {
+      delegate.spanConsumer().accept(kept).enqueue(new LogOnError(kept.size()));
+    } catch (RuntimeException | Error e) {
+      Call.propagateIfFatal(e);
+      new LogOnError(kept.size()).onError(e);
+    }
+  }
+
+  /** Spans buffered for one trace ID. Guarded like the component's buffer. */
+  static final class Trace {
+    final List<Span> spans = new ArrayList<>();
+    int bytes;
+    long lastUpdate;
+  }
+
+  /** The outcome of deciding zero or more traces, and the buffer size afterwards. */
+  static final class Decisions {
+    final List<Span> kept = new ArrayList<>();
+    int keptTraces, droppedTraces, droppedSpans, evicted;
+    int bufferedSpans, bufferedBytes;
+
+    void buffered(int bufferedSpans, int bufferedBytes) {
+      this.bufferedSpans = bufferedSpans;
+      this.bufferedBytes = bufferedBytes;
+    }
+  }
+
+  final class LogOnError implements Callback<Void> {
+    final int spanCount;
+
+    LogOnError(int spanCount) {
+      this.spanCount = spanCount;
+    }
+
+    @Override public void onSuccess(Void value) {
+    }
+
+    @Override public void onError(Throwable t) {
+      metrics.incrementSpansDropped(spanCount);
+      if (LOG.isLoggable(FINE)) LOG.log(FINE, "Cannot store " + spanCount + " sampled spans", t);
+    }
+  }
+
+  final class TailSpansCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    TailSpansCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() {
+      add(spans);
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      add(spans);
+      callback.onSuccess(null);
+    }
+
+    @Override public Call<Void> clone() {
+      return new TailSpansCall(spans);
+    }
+
+    @Override public String toString() {
+      return "TailSpansCall{" + spans + "}";
+    }
+  }
+
+  @Override public String toString() {
+    return "TailSampling(" + delegate + ")";
+  }
+}
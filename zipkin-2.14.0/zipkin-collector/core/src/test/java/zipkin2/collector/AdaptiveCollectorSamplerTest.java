@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+import static org.assertj.core.data.Percentage.withPercentage;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.collector.AdaptiveCollectorSampler.STEP;
+import static zipkin2.collector.CollectorSamplerTest.lotsOfSpans;
+
+public class AdaptiveCollectorSamplerTest {
+  static final long ONE_SECOND = 1_000_000_000L;
+
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  AdaptiveCollectorSampler sampler = AdaptiveCollectorSampler.newBuilder(1000)
+    .metrics(metrics)
+    .interval(60 * 1000L) // long enough to not adjust during a test
+    .build();
+
+  @Test public void keepsAllTracesUntilAdjusted() {
+    assertThat(sampler.rate()).isEqualTo(1.0f);
+    assertThat(metrics.sampleRate()).isEqualTo(1.0f);
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)))
+      .hasSize(LOTS_OF_SPANS.length);
+  }
+
+  @Test public void keepsAllTracesUnderTarget() {
+    sampler.adjust(500, ONE_SECOND);
+
+    assertThat(sampler.rate()).isEqualTo(1.0f);
+  }
+
+  @Test public void retainsUpToTargetFractionOverTarget() {
+    sampler.adjust(10_000, ONE_SECOND);
+
+    // the highest step not over 0.1
+    assertThat(sampler.rate()).isEqualTo((float) Math.pow(STEP, 11));
+    assertThat(metrics.sampleRate()).isEqualTo(sampler.rate());
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).count())
+      .isCloseTo((long) (LOTS_OF_SPANS.length * sampler.rate()), withPercentage(3));
+  }
+
+  @Test public void stepsOnExactRate() {
+    sampler.adjust(100_000, 64 * ONE_SECOND); // 1562.5 spans per second, or a rate of 0.64
+
+    assertThat(sampler.rate()).isCloseTo((float) (STEP * STEP), offset(0.0001f));
+  }
+
+  @Test public void smoothsOfferedRate() {
+    sampler.adjust(2000, ONE_SECOND);
+    assertThat(sampler.rate()).isEqualTo((float) Math.pow(STEP, 4)); // not over 0.5
+
+    sampler.adjust(1000, ONE_SECOND); // moving average is now 1500
+    assertThat(sampler.rate()).isEqualTo((float) Math.pow(STEP, 3)); // a step under 2/3
+  }
+
+  @Test public void holdsRateWhileTrafficFluctuates() {
+    sampler.adjust(2000, ONE_SECOND);
+    float rate = sampler.rate();
+
+    for (int i = 0; i < 10; i++) {
+      sampler.adjust(i % 2 == 0 ? 1700 : 2000, ONE_SECOND);
+      assertThat(sampler.rate()).isEqualTo(rate);
+    }
+  }
+
+  @Test public void recoversWhenTrafficDrops() {
+    sampler.adjust(10_000, ONE_SECOND);
+    for (int i = 0; i < 4; i++) sampler.adjust(0, ONE_SECOND); // average halves each interval
+
+    assertThat(sampler.rate()).isEqualTo(1.0f);
+  }
+
+  @Test public void neverBelowMinRate() {
+    sampler = AdaptiveCollectorSampler.newBuilder(1).minRate(0.01f).build();
+
+    sampler.adjust(1_000_000, ONE_SECOND);
+
+    assertThat(sampler.rate()).isEqualTo(0.01f);
+  }
+
+  /** Traces only change decision when the rate steps, and then only in one direction. */
+  @Test public void consistentForTraceIdAcrossAdjustments() {
+    sampler.adjust(10_000, ONE_SECOND);
+    Object[] sampled = lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray();
+
+    sampler.adjust(9_000, ONE_SECOND); // within a step of the last rate
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray())
+      .containsExactly(sampled);
+
+    sampler.adjust(30_000, ONE_SECOND); // steps down
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray())
+      .isNotEmpty()
+      .hasSizeLessThan(sampled.length)
+      .isSubsetOf(sampled);
+  }
+
+  /** The collector needs to apply the same decision to incremental updates in a trace. */
+  @Test public void consistentForTraceId() {
+    AdaptiveCollectorSampler sampler2 = AdaptiveCollectorSampler.newBuilder(1000).build();
+    sampler.adjust(10_000, ONE_SECOND);
+    sampler2.adjust(10_000, ONE_SECOND);
+
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray())
+      .containsExactly(lotsOfSpans().filter(s -> sampler2.isSampled(s.traceId(), false)).toArray());
+  }
+
+  @Test public void debugWins() {
+    sampler.adjust(1_000_000_000, ONE_SECOND);
+
+    assertThat(sampler.isSampled("8000000000000000", true)).isTrue();
+  }
+
+  @Test public void adjustsFromOfferedSpans() throws InterruptedException {
+    sampler = AdaptiveCollectorSampler.newBuilder(1).metrics(metrics).interval(1L).build();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (sampler.rate() == 1.0f && System.currentTimeMillis() < deadline) {
+      lotsOfSpans().forEach(s -> sampler.isSampled(s.traceId(), false));
+      Thread.sleep(2);
+    }
+
+    assertThat(sampler.rate()).isLessThan(1.0f);
+    assertThat(metrics.sampleRate()).isEqualTo(sampler.rate());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void spansPerSecondMustBePositive() {
+    AdaptiveCollectorSampler.newBuilder(0);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+
+public class BatchingStorageComponentTest {
+  RecordingStorage delegate = new RecordingStorage();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  BatchingStorageComponent storage = BatchingStorageComponent.newBuilder(delegate)
+    .metrics(metrics)
+    .maxSpans(TRACE.size())
+    .maxDelay(60 * 1000L) // long enough to not flush during a test
+    .build();
+
+  @After public void close() throws IOException {
+    storage.close();
+  }
+
+  @Test public void mergesCallsUntilMaxSpans() {
+    Callback<Void> callback1 = mock(Callback.class), callback2 = mock(Callback.class);
+
+    storage.spanConsumer().accept(TRACE.subList(0, 2)).enqueue(callback1);
+    assertThat(delegate.batches).isEmpty();
+    assertThat(metrics.batchQueueSpans()).isEqualTo(2);
+
+    storage.spanConsumer().accept(TRACE.subList(2, TRACE.size())).enqueue(callback2);
+
+    assertThat(delegate.batches).containsExactly(TRACE);
+    verify(callback1).onSuccess(null);
+    verify(callback2).onSuccess(null);
+    assertThat(metrics.batchQueueSpans()).isZero();
+    assertThat(metrics.batchFlushes("spans")).isEqualTo(1);
+  }
+
+  @Test public void flushesAtMaxBytes() throws IOException {
+    storage.close();
+    storage = BatchingStorageComponent.newBuilder(delegate)
+      .metrics(metrics)
+      .maxBytes(SpanBytesEncoder.PROTO3.sizeInBytes(CLIENT_SPAN) * 2)
+      .maxDelay(60 * 1000L)
+      .build();
+
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+
+    assertThat(delegate.batches).containsExactly(asList(CLIENT_SPAN, CLIENT_SPAN));
+    assertThat(metrics.batchFlushes("bytes")).isEqualTo(1);
+  }
+
+  @Test public void flushesAfterMaxDelay() throws Exception {
+    storage.close();
+    storage = BatchingStorageComponent.newBuilder(delegate)
+      .metrics(metrics)
+      .maxDelay(10L)
+      .build();
+
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (delegate.batches.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertThat(delegate.batches).containsExactly(asList(CLIENT_SPAN));
+    assertThat(metrics.batchFlushes("delay")).isEqualTo(1);
+    assertThat(metrics.batchQueueSpans()).isZero();
+  }
+
+  @Test public void storageErrorFailsEachCallback() {
+    IllegalStateException error = new IllegalStateException("storage is down");
+    delegate.error = error;
+    Callback<Void> callback1 = mock(Callback.class), callback2 = mock(Callback.class);
+
+    storage.spanConsumer().accept(TRACE.subList(0, 2)).enqueue(callback1);
+    storage.spanConsumer().accept(TRACE.subList(2, TRACE.size())).enqueue(callback2);
+
+    verify(callback1).onError(error);
+    verify(callback2).onError(error);
+  }
+
+  @Test public void executeBypassesBatch() throws IOException {
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).execute();
+
+    assertThat(delegate.batches).containsExactly(asList(CLIENT_SPAN));
+    assertThat(metrics.batchFlushes("spans")).isZero();
+  }
+
+  @Test public void close_flushesPendingSpans() throws IOException {
+    Callback<Void> callback = mock(Callback.class);
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(callback);
+
+    storage.close();
+
+    assertThat(delegate.batches).containsExactly(asList(CLIENT_SPAN));
+    verify(callback).onSuccess(null);
+    assertThat(metrics.batchFlushes("close")).isEqualTo(1);
+
+    // spans accepted after close are stored without waiting
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+    assertThat(delegate.batches).hasSize(2);
+  }
+
+  @Test public void mergesSpansFromDifferentCollectors() {
+    Collector http = Collector.newBuilder(getClass()).storage(storage).build();
+    Collector kafka = Collector.newBuilder(getClass()).storage(storage).build();
+
+    http.accept(TRACE.subList(0, 2), mock(Callback.class));
+    kafka.accept(TRACE.subList(2, TRACE.size()), mock(Callback.class));
+
+    assertThat(delegate.batches).containsExactly(TRACE);
+  }
+
+  @Test public void delegatesQueries() throws IOException {
+    storage.close();
+    InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+    storage = BatchingStorageComponent.newBuilder(inMemory).build();
+
+    assertThat(storage.spanStore()).isSameAs(inMemory.spanStore());
+    assertThat(storage.autocompleteTags()).isSameAs(inMemory.autocompleteTags());
+    assertThat(storage.serviceAndSpanNames()).isSameAs(inMemory.serviceAndSpanNames());
+  }
+
+  static final class RecordingStorage extends StorageComponent {
+    final List<List<Span>> batches = new CopyOnWriteArrayList<>();
+    RuntimeException error;
+
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> {
+        batches.add(new ArrayList<>(spans));
+        return error != null ? new ErrorCall(error) : Call.create(null);
+      };
+    }
+  }
+
+  static final class ErrorCall extends Call.Base<Void> {
+    final RuntimeException error;
+
+    ErrorCall(RuntimeException error) {
+      this.error = error;
+    }
+
+    @Override protected Void doExecute() {
+      throw error;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      callback.onError(error);
+    }
+
+    @Override public Call<Void> clone() {
+      return new ErrorCall(error);
+    }
+  }
+}
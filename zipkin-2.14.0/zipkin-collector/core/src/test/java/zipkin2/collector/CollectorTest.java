@@ -16,6 +16,7 @@
  */
 package zipkin2.collector;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -27,6 +28,8 @@ import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.EndpointCache;
+import zipkin2.internal.StringCache;
 import zipkin2.storage.InMemoryStorage;
 import zipkin2.storage.StorageComponent;
 
@@ -34,8 +37,11 @@ import static java.util.Arrays.asList;
 import java.util.concurrent.RejectedExecutionException;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -110,6 +116,99 @@ public class CollectorTest {
     assertThat(storage.getTraces()).containsOnly(TRACE);
   }
 
+  @Test
+  public void acceptSpans_proto3() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    collector.acceptSpans(bytes, callback);
+
+    verify(collector).acceptSpans(bytes, SpanBytesDecoder.PROTO3, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(messages).isEmpty();
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void acceptSpans_proto3_byteBuffer() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    collector.acceptSpans(buffer, SpanBytesDecoder.PROTO3, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(messages).isEmpty();
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  /** Unsampled spans are dropped before they are decoded, except debug spans. */
+  @Test
+  public void acceptSpans_proto3_samplesBeforeDecoding() {
+    collector = new Collector.Builder(logger)
+      .sampler(CollectorSampler.create(0.0f))
+      .metrics(metrics)
+      .storage(storage)
+      .build();
+
+    Span debugSpan = CLIENT_SPAN.toBuilder().debug(true).build();
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(asList(CLIENT_SPAN, debugSpan));
+    collector.acceptSpans(bytes, SpanBytesDecoder.PROTO3, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(messages).isEmpty();
+    verify(metrics).incrementSpans(2);
+    verify(metrics).incrementSpansDropped(1);
+    assertThat(storage.getTraces()).containsOnly(asList(debugSpan));
+  }
+
+  @Test
+  public void acceptSpans_proto3_decodingError() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    collector.acceptSpans(truncated, SpanBytesDecoder.PROTO3, callback);
+
+    verify(callback).onError(any(IllegalArgumentException.class));
+    assertThat(messages).hasSize(1);
+    assertThat(messages.get(0)).startsWith("Truncated");
+    verify(metrics).incrementMessagesDropped();
+  }
+
+  @Test
+  public void acceptSpans_reportsStringCache() {
+    StringCache.enable(256);
+    try {
+      byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+      collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+      collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+    } finally {
+      StringCache.enable(0);
+    }
+
+    verify(callback, times(2)).onSuccess(null);
+    verify(metrics, times(2)).incrementSpans(4);
+    verify(metrics).incrementStringCacheMisses(anyInt()); // first message
+    verify(metrics, times(2)).incrementStringCacheHits(anyInt()); // repeated values
+  }
+
+  @Test
+  public void acceptSpans_reportsEndpointCache() {
+    EndpointCache.enable(256);
+    try {
+      byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+      collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+      collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+    } finally {
+      EndpointCache.enable(0);
+    }
+
+    verify(callback, times(2)).onSuccess(null);
+    verify(metrics, times(2)).incrementSpans(4);
+    verify(metrics).incrementEndpointCacheMisses(anyInt()); // first message
+    verify(metrics, times(2)).incrementEndpointCacheHits(anyInt()); // repeated endpoints
+  }
+
   @Test
   public void acceptSpans_decodingError() {
     byte[] bytes = "[\"='".getBytes(UTF_8); // screwed up json
@@ -139,6 +238,48 @@ public class CollectorTest {
     verify(metrics).incrementSpansDropped(4);
   }
 
+  @Test
+  public void acceptSpans_storesInChunks() {
+    List<Span> spans = new ArrayList<>();
+    for (int i = 1; i <= Collector.CHUNK_SIZE * 2 + 500; i++) {
+      spans.add(CLIENT_SPAN.toBuilder().id(i).build());
+    }
+    byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(spans);
+    collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(messages).isEmpty();
+    verify(metrics, times(2)).incrementSpans(Collector.CHUNK_SIZE);
+    verify(metrics).incrementSpans(500);
+    assertThat(storage.acceptedSpanCount()).isEqualTo(spans.size());
+  }
+
+  @Test
+  public void acceptSpans_storageErrorDropsRemainingChunks() {
+    StorageComponent storage = mock(StorageComponent.class);
+    RuntimeException error = new RuntimeException("storage disabled");
+    when(storage.spanConsumer()).thenThrow(error);
+    collector = new Collector.Builder(logger)
+      .metrics(metrics)
+      .storage(storage)
+      .build();
+
+    List<Span> spans = new ArrayList<>();
+    for (int i = 1; i <= Collector.CHUNK_SIZE + 1; i++) {
+      spans.add(CLIENT_SPAN.toBuilder().id(i).build());
+    }
+    byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(spans);
+    collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onError(error);
+    assertThat(messages).hasSize(1);
+    assertThat(messages.get(0)).endsWith("due to RuntimeException(storage disabled)");
+    verify(metrics).incrementSpans(Collector.CHUNK_SIZE);
+    verify(metrics).incrementSpansDropped(Collector.CHUNK_SIZE);
+    verify(metrics).incrementSpans(1);
+    verify(metrics).incrementSpansDropped(1);
+  }
+
   @Test
   public void acceptSpans_emptyMessageOk() {
     byte[] bytes = new byte[] {'[', ']'};
@@ -194,7 +335,15 @@ public class CollectorTest {
     verify(callback).onError(error);
     assertThat(messages)
       .containsOnly("Cannot store spans [1, 1, 2, ...] due to RejectedExecutionException(slow down)");
-    verify(metrics).incrementSpansDropped(4);
+    verify(metrics, never()).incrementSpansDropped(anyInt()); // the transport redelivers them
+  }
+
+  @Test
+  public void storeSpansCallback_onErrorRejectedExecution() {
+    Callback<Void> callback = collector.storeSpansCallback(TRACE);
+    callback.onError(new RejectedExecutionException("slow down"));
+
+    verify(metrics).incrementSpansDropped(4); // the transport already moved on
   }
 
   public void handleStorageError_onErrorWithNullMessage() {
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+
+public class InFlightLimitingStorageComponentTest {
+  PendingStorage delegate = new PendingStorage();
+  InFlightLimitingStorageComponent storage = InFlightLimitingStorageComponent.newBuilder(delegate)
+    .maxSpans(TRACE.size())
+    .build();
+
+  @Test public void rejectsWhenMaxSpansInFlight() {
+    storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class));
+
+    assertThat(storage.inFlightSpans()).isEqualTo(TRACE.size());
+    try {
+      storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+      throw new AssertionError("expected to be rejected");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertThat(delegate.callbacks).hasSize(1);
+  }
+
+  @Test public void rejectsWhenMaxBytesInFlight() {
+    int size = SpanBytesEncoder.PROTO3.sizeInBytes(CLIENT_SPAN);
+    storage = InFlightLimitingStorageComponent.newBuilder(delegate).maxBytes(size * 2).build();
+
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+
+    assertThat(storage.inFlightBytes()).isEqualTo(size * 2);
+    try {
+      storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+      throw new AssertionError("expected to be rejected");
+    } catch (RejectedExecutionException expected) {
+    }
+  }
+
+  @Test public void releasesWhenStored() {
+    Callback<Void> callback = mock(Callback.class);
+    storage.spanConsumer().accept(TRACE).enqueue(callback);
+
+    delegate.callbacks.get(0).onSuccess(null);
+
+    verify(callback).onSuccess(null);
+    assertThat(storage.inFlightSpans()).isZero();
+    assertThat(storage.inFlightBytes()).isZero();
+    storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class)); // not rejected
+  }
+
+  @Test public void releasesWhenStorageFails() {
+    Callback<Void> callback = mock(Callback.class);
+    storage.spanConsumer().accept(TRACE).enqueue(callback);
+
+    IllegalStateException error = new IllegalStateException("storage is down");
+    delegate.callbacks.get(0).onError(error);
+
+    verify(callback).onError(error);
+    assertThat(storage.inFlightSpans()).isZero();
+  }
+
+  @Test public void releasesWhenEnqueueThrows() {
+    delegate.error = new IllegalStateException("storage is down");
+
+    try {
+      storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class));
+      throw new AssertionError("expected to throw");
+    } catch (IllegalStateException expected) {
+    }
+
+    assertThat(storage.inFlightSpans()).isZero();
+  }
+
+  @Test public void admitsLargeCallWhenIdle() {
+    storage = InFlightLimitingStorageComponent.newBuilder(delegate).maxSpans(1).build();
+
+    storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class));
+
+    assertThat(delegate.callbacks).hasSize(1);
+  }
+
+  @Test public void executeReleasesOnReturn() throws IOException {
+    storage = InFlightLimitingStorageComponent.newBuilder(InMemoryStorage.newBuilder().build())
+      .build();
+
+    storage.spanConsumer().accept(TRACE).execute();
+
+    assertThat(storage.inFlightSpans()).isZero();
+  }
+
+  /** The collector reports the rejection to its callback, so transports can slow down. */
+  @Test public void collectorFailsCallbackWhenRejected() {
+    Collector collector = Collector.newBuilder(getClass()).storage(storage).build();
+    collector.accept(TRACE, mock(Callback.class));
+
+    Callback<Void> callback = mock(Callback.class);
+    collector.accept(asList(CLIENT_SPAN), callback);
+
+    verify(callback).onError(any(RejectedExecutionException.class));
+  }
+
+  /** Tail sampling completes calls once spans are buffered, so it counts kept spans instead. */
+  @Test public void stage_countsSpansUntilStored() throws IOException {
+    AtomicReference<TailSamplingStorageComponent> tail = new AtomicReference<>();
+    storage = InFlightLimitingStorageComponent.newBuilder(delegate)
+      .maxSpans(TRACE.size())
+      .stage(d -> {
+        tail.set(TailSamplingStorageComponent.newBuilder(d).quietPeriod(60 * 1000L).build());
+        return tail.get();
+      })
+      .build();
+
+    Callback<Void> callback = mock(Callback.class);
+    storage.spanConsumer().accept(TRACE).enqueue(callback);
+    verify(callback).onSuccess(null);
+    assertThat(storage.inFlightSpans()).isZero(); // buffered, but not yet kept
+
+    tail.get().sweep(System.nanoTime() + TimeUnit.MINUTES.toNanos(2)); // keeps the error trace
+    assertThat(delegate.callbacks).hasSize(1);
+    assertThat(storage.inFlightSpans()).isEqualTo(TRACE.size());
+    try {
+      storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class));
+      throw new AssertionError("expected to be rejected");
+    } catch (RejectedExecutionException expected) {
+    }
+
+    delegate.callbacks.get(0).onSuccess(null);
+    assertThat(storage.inFlightSpans()).isZero();
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).enqueue(mock(Callback.class)); // admitted
+    storage.close();
+  }
+
+  @Test public void delegatesQueries() {
+    InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+    storage = InFlightLimitingStorageComponent.newBuilder(inMemory).build();
+
+    assertThat(storage.spanStore()).isSameAs(inMemory.spanStore());
+    assertThat(storage.autocompleteTags()).isSameAs(inMemory.autocompleteTags());
+    assertThat(storage.serviceAndSpanNames()).isSameAs(inMemory.serviceAndSpanNames());
+  }
+
+  /** Holds callbacks until the test completes them. */
+  static final class PendingStorage extends StorageComponent {
+    final List<Callback<Void>> callbacks = new CopyOnWriteArrayList<>();
+    RuntimeException error;
+
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> new PendingCall(this);
+    }
+  }
+
+  static final class PendingCall extends Call.Base<Void> {
+    final PendingStorage storage;
+
+    PendingCall(PendingStorage storage) {
+      this.storage = storage;
+    }
+
+    @Override protected Void doExecute() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      if (storage.error != null) throw storage.error;
+      storage.callbacks.add(callback);
+    }
+
+    @Override public Call<Void> clone() {
+      return new PendingCall(storage);
+    }
+  }
+}
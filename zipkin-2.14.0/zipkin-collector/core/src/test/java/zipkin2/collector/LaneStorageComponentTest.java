@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.collector.BatchingStorageComponentTest.RecordingStorage;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.TestObjects.TRACE;
+
+public class LaneStorageComponentTest {
+  static final int LANES = 4;
+
+  RecordingStorage delegate = new RecordingStorage();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  /** Each lane stores into its own recording, on its own thread */
+  List<LaneRecording> recordings = new CopyOnWriteArrayList<>();
+  LaneStorageComponent storage = LaneStorageComponent.newBuilder(delegate)
+    .metrics(metrics)
+    .lanes(LANES)
+    .perLane(d -> {
+      LaneRecording recording = new LaneRecording(d);
+      recordings.add(recording);
+      return recording;
+    })
+    .build();
+
+  @After public void close() throws IOException {
+    storage.close();
+  }
+
+  @Test public void spansOfTraceShareLane() throws IOException {
+    storage.spanConsumer().accept(TRACE.subList(0, 2)).execute();
+    storage.spanConsumer().accept(TRACE.subList(2, TRACE.size())).execute();
+
+    assertThat(recordings.stream().filter(r -> !r.spans.isEmpty()))
+      .hasSize(1)
+      .allSatisfy(r -> assertThat(r.spans).containsExactlyElementsOf(TRACE));
+  }
+
+  @Test public void tracesSpreadAcrossLanes() throws IOException {
+    List<Span> spans = Stream.of(LOTS_OF_SPANS).limit(1000).collect(toList());
+
+    storage.spanConsumer().accept(spans).execute();
+
+    for (LaneRecording recording : recordings) {
+      assertThat(recording.spans).isNotEmpty();
+      assertThat(recording.threads).hasSize(1); // each stage is only called by its lane
+    }
+    assertThat(recordings.stream().flatMap(r -> r.threads.stream()).collect(toSet()))
+      .hasSize(LANES);
+    int stored = 0;
+    for (int i = 0; i < LANES; i++) stored += metrics.laneSpans(i);
+    assertThat(stored).isEqualTo(spans.size());
+  }
+
+  @Test public void tailSamplingSweepsOnLaneThread() throws Exception {
+    storage.close();
+    LaneRecording recording = new LaneRecording(delegate);
+    storage = LaneStorageComponent.newBuilder(recording)
+      .lanes(1)
+      .perLane(d -> TailSamplingStorageComponent.newBuilder(d).quietPeriod(10L).build())
+      .build();
+
+    storage.spanConsumer().accept(TRACE).execute();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (recording.spans.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertThat(recording.spans).containsExactlyElementsOf(TRACE);
+    assertThat(recording.threads)
+      .extracting(Thread::getName)
+      .containsExactly("zipkin-collector-lane-0");
+  }
+
+  @Test public void callbackCompletesOnceAllLanesStore() {
+    List<Span> spans = Stream.of(LOTS_OF_SPANS).limit(100).collect(toList());
+    Callback<Void> callback = mock(Callback.class);
+
+    storage.spanConsumer().accept(spans).enqueue(callback);
+
+    verify(callback, timeout(10000)).onSuccess(null);
+  }
+
+  @Test public void storageErrorFailsCallback() {
+    IllegalStateException error = new IllegalStateException("storage is down");
+    delegate.error = error;
+    Callback<Void> callback = mock(Callback.class);
+
+    storage.spanConsumer().accept(TRACE).enqueue(callback);
+
+    verify(callback, timeout(10000)).onError(error);
+  }
+
+  @Test public void rejectsWhenLaneFull() throws Exception {
+    storage.close();
+    BlockingStorage blocking = new BlockingStorage();
+    storage = LaneStorageComponent.newBuilder(blocking)
+      .lanes(1)
+      .queueSpans(TRACE.size())
+      .build();
+
+    storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class));
+    assertThat(blocking.storing.await(10, TimeUnit.SECONDS)).isTrue(); // lane is now busy
+    storage.spanConsumer().accept(TRACE).enqueue(mock(Callback.class)); // fills the queue
+
+    try {
+      storage.spanConsumer().accept(TRACE.subList(0, 1)).enqueue(mock(Callback.class));
+      throw new AssertionError("expected to be rejected");
+    } catch (RejectedExecutionException expected) {
+    } finally {
+      blocking.release.countDown();
+    }
+  }
+
+  @Test public void collectorFailsCallbackWhenRejected() throws Exception {
+    storage.close();
+    BlockingStorage blocking = new BlockingStorage();
+    storage = LaneStorageComponent.newBuilder(blocking).lanes(1).queueSpans(1).build();
+    Collector collector = Collector.newBuilder(getClass()).storage(storage).build();
+
+    collector.accept(TRACE, mock(Callback.class));
+    assertThat(blocking.storing.await(10, TimeUnit.SECONDS)).isTrue();
+    collector.accept(TRACE, mock(Callback.class));
+
+    Callback<Void> callback = mock(Callback.class);
+    collector.accept(TRACE, callback);
+    blocking.release.countDown();
+
+    verify(callback).onError(any(RejectedExecutionException.class));
+  }
+
+  @Test public void executeWaitsForStorage() throws IOException {
+    storage.close();
+    InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+    storage = LaneStorageComponent.newBuilder(inMemory).lanes(LANES).build();
+
+    storage.spanConsumer().accept(TRACE).execute();
+
+    assertThat(inMemory.getTraces()).containsExactly(TRACE);
+  }
+
+  @Test public void close_storesQueuedSpansAndClosesDelegateOnce() throws IOException {
+    CountingCloses counting = new CountingCloses();
+    storage.close();
+    storage = LaneStorageComponent.newBuilder(counting)
+      .lanes(LANES)
+      .perLane(d -> BatchingStorageComponent.newBuilder(d).maxDelay(60 * 1000L).build())
+      .build();
+
+    Callback<Void> callback = mock(Callback.class);
+    storage.spanConsumer().accept(TRACE).enqueue(callback);
+    storage.close();
+
+    verify(callback).onSuccess(null); // the batch was flushed on close
+    assertThat(counting.spans).containsExactlyElementsOf(TRACE);
+    assertThat(counting.closes).isEqualTo(1);
+  }
+
+  @Test public void closeWhileQueuing_failsCallback() {
+    Callback<Void> callback = mock(Callback.class);
+    AtomicBoolean closing = new AtomicBoolean();
+    // closes after the call checked it wasn't closed, but before its spans are queued
+    List<Span> spans = new AbstractList<Span>() {
+      @Override public Span get(int index) {
+        if (closing.compareAndSet(false, true)) {
+          try {
+            storage.close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return TRACE.get(index);
+      }
+
+      @Override public int size() {
+        return TRACE.size();
+      }
+    };
+
+    storage.spanConsumer().accept(spans).enqueue(callback);
+
+    verify(callback).onError(any(IllegalStateException.class));
+    assertThat(delegate.batches).isEmpty();
+    for (LaneStorageComponent.Lane lane : storage.lanes) assertThat(lane.queued).hasValue(0);
+  }
+
+  @Test public void delegatesQueries() throws IOException {
+    storage.close();
+    InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+    storage = LaneStorageComponent.newBuilder(inMemory).lanes(1).build();
+
+    assertThat(storage.spanStore()).isSameAs(inMemory.spanStore());
+    assertThat(storage.autocompleteTags()).isSameAs(inMemory.autocompleteTags());
+    assertThat(storage.serviceAndSpanNames()).isSameAs(inMemory.serviceAndSpanNames());
+  }
+
+  /** Records spans and the threads that stored them, then stores them into the delegate. */
+  static final class LaneRecording extends StorageComponent {
+    final StorageComponent delegate;
+    final List<Span> spans = new CopyOnWriteArrayList<>();
+    final Set<Thread> threads = new CopyOnWriteArraySet<>();
+
+    LaneRecording(StorageComponent delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> {
+        threads.add(Thread.currentThread());
+        this.spans.addAll(spans);
+        return delegate.spanConsumer().accept(spans);
+      };
+    }
+  }
+
+  /** Blocks the first call until released, so that a lane stays busy. */
+  static final class BlockingStorage extends StorageComponent {
+    final CountDownLatch storing = new CountDownLatch(1), release = new CountDownLatch(1);
+
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> {
+        storing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Call.create(null);
+      };
+    }
+  }
+
+  static final class CountingCloses extends StorageComponent {
+    final List<Span> spans = new CopyOnWriteArrayList<>();
+    int closes;
+
+    @Override public SpanStore spanStore() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> {
+        this.spans.addAll(spans);
+        return Call.create(null);
+      };
+    }
+
+    @Override public void close() {
+      closes++;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RejectionCallbackTest {
+  RejectionCallback callback = new RejectionCallback();
+
+  @Test public void success_notRejected() {
+    callback.onSuccess(null);
+
+    assertThat(callback.rejected()).isFalse();
+  }
+
+  @Test public void rejectedExecution_rejected() {
+    callback.onError(new RejectedExecutionException("too many spans in flight"));
+
+    assertThat(callback.rejected()).isTrue();
+  }
+
+  @Test public void otherError_notRejected() {
+    callback.onError(new IllegalStateException("storage is down"));
+
+    assertThat(callback.rejected()).isFalse();
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.collector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.collector.BatchingStorageComponentTest.RecordingStorage;
+import zipkin2.storage.InMemoryStorage;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.TestObjects.span;
+
+public class TailSamplingStorageComponentTest {
+  static final long AFTER_QUIET = TimeUnit.MINUTES.toNanos(2);
+
+  /** Has no error tag and lasts 1ms */
+  List<Span> boring = asList(span(1L), span(1L).toBuilder().id(2L).build());
+
+  RecordingStorage delegate = new RecordingStorage();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  TailSamplingStorageComponent storage = TailSamplingStorageComponent.newBuilder(delegate)
+    .metrics(metrics)
+    .quietPeriod(60 * 1000L) // long enough to not sweep during a test
+    .build();
+
+  @After public void close() throws IOException {
+    storage.close();
+  }
+
+  @Test public void buffersUntilQuiet() throws IOException {
+    storage.spanConsumer().accept(TRACE.subList(0, 2)).execute();
+    storage.spanConsumer().accept(TRACE.subList(2, TRACE.size())).execute();
+
+    assertThat(delegate.batches).isEmpty();
+    assertThat(metrics.tailBufferSpans()).isEqualTo(TRACE.size());
+    assertThat(metrics.tailBufferBytes()).isEqualTo(SpanBytesEncoder.PROTO3.encodeList(TRACE).length);
+
+    storage.sweep(System.nanoTime()); // not yet quiet
+    assertThat(delegate.batches).isEmpty();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+    assertThat(delegate.batches).containsExactly(TRACE);
+    assertThat(metrics.tailBufferSpans()).isZero();
+    assertThat(metrics.tailBufferBytes()).isZero();
+    assertThat(metrics.tailTraces("kept")).isEqualTo(1);
+  }
+
+  @Test public void keepsErrorTraces() throws IOException {
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.spanConsumer().accept(boring).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).containsExactly(TRACE);
+    assertThat(metrics.tailTraces("dropped")).isEqualTo(1);
+    assertThat(metrics.spansDropped()).isEqualTo(boring.size());
+  }
+
+  @Test public void errorTraces_canDisable() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate).errorTraces(false).build();
+    storage.spanConsumer().accept(TRACE).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).isEmpty();
+  }
+
+  @Test public void keepsSlowTraces() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate).minDuration(1000L).build();
+    storage.spanConsumer().accept(boring).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).containsExactly(boring);
+  }
+
+  @Test public void keepsServices() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate)
+      .services(asList("Backend"))
+      .build();
+    storage.spanConsumer().accept(boring).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).containsExactly(boring);
+  }
+
+  @Test public void keepsDebugTraces() throws IOException {
+    List<Span> debug = singletonList(boring.get(0).toBuilder().debug(true).build());
+    storage.spanConsumer().accept(debug).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).containsExactly(debug);
+  }
+
+  @Test public void baselineRate() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate).baselineRate(1.0f).build();
+    storage.spanConsumer().accept(boring).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(delegate.batches).containsExactly(boring);
+  }
+
+  @Test public void lateSpansFollowDecision() throws IOException {
+    storage.spanConsumer().accept(TRACE.subList(1, 4)).execute(); // includes an error
+    storage.spanConsumer().accept(boring.subList(0, 1)).execute();
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    storage.spanConsumer().accept(TRACE.subList(0, 1)).execute(); // kept
+    storage.spanConsumer().accept(boring.subList(1, 2)).execute(); // dropped
+
+    assertThat(delegate.batches)
+      .containsExactly(TRACE.subList(1, 4), TRACE.subList(0, 1));
+    assertThat(metrics.tailBufferSpans()).isZero();
+  }
+
+  @Test public void evictsLeastRecentlyUpdatedWhenFull() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate)
+      .metrics(metrics)
+      .maxSpans(TRACE.size())
+      .build();
+
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.spanConsumer().accept(boring.subList(0, 1)).execute();
+
+    assertThat(delegate.batches).containsExactly(TRACE); // decided early
+    assertThat(metrics.tailEvictions()).isEqualTo(1);
+    assertThat(metrics.tailBufferSpans()).isEqualTo(1);
+  }
+
+  @Test public void evictsWhenMaxBytes() throws IOException {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate)
+      .metrics(metrics)
+      .maxBytes(SpanBytesEncoder.PROTO3.sizeInBytes(boring.get(0)))
+      .build();
+
+    storage.spanConsumer().accept(boring).execute();
+
+    assertThat(metrics.tailEvictions()).isEqualTo(1);
+    assertThat(metrics.tailBufferSpans()).isZero();
+  }
+
+  @Test public void close_decidesBufferedTraces() throws IOException {
+    storage.spanConsumer().accept(TRACE).execute();
+
+    storage.close();
+
+    assertThat(delegate.batches).containsExactly(TRACE);
+
+    // spans accepted after close are stored without buffering
+    storage.spanConsumer().accept(boring).execute();
+    assertThat(delegate.batches).hasSize(2);
+  }
+
+  @Test public void sweepsOnSchedule() throws Exception {
+    storage.close();
+    storage = TailSamplingStorageComponent.newBuilder(delegate).quietPeriod(10L).build();
+
+    storage.spanConsumer().accept(TRACE).execute();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (delegate.batches.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    assertThat(delegate.batches).containsExactly(TRACE);
+  }
+
+  @Test public void storageErrorCountsDroppedSpans() throws IOException {
+    delegate.error = new IllegalStateException("storage is down");
+    storage.spanConsumer().accept(TRACE).execute();
+
+    storage.sweep(System.nanoTime() + AFTER_QUIET);
+
+    assertThat(metrics.spansDropped()).isEqualTo(TRACE.size());
+  }
+
+  @Test public void delegatesQueries() throws IOException {
+    storage.close();
+    InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+    storage = TailSamplingStorageComponent.newBuilder(inMemory).build();
+
+    assertThat(storage.spanStore()).isSameAs(inMemory.spanStore());
+    assertThat(storage.autocompleteTags()).isSameAs(inMemory.autocompleteTags());
+    assertThat(storage.serviceAndSpanNames()).isSameAs(inMemory.serviceAndSpanNames());
+  }
+}
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
@@ -33,23 +34,20 @@ import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.collector.RejectionCallback;
 
-/** Consumes spans from Kafka messages, ignoring malformed input */
+/**
+ * Consumes spans from Kafka messages, ignoring malformed input. When storage rejects spans as too
+ * many are in flight, partitions are paused briefly and the rejected message is consumed again.
+ */
 final class KafkaCollectorWorker implements Runnable {
   static final Logger LOG = LoggerFactory.getLogger(KafkaCollectorWorker.class);
-  static final Callback<Void> NOOP =
-      new Callback<Void>() {
-        @Override
-        public void onSuccess(Void value) {}
-
-        @Override
-        public void onError(Throwable t) {}
-      };
+  /** How long to pause partitions when storage rejects spans, to let it catch up. */
+  static final long PAUSE_MILLIS = 1000L;
 
   final Properties properties;
   final List<String> topics;
@@ -59,6 +57,9 @@ final class KafkaCollectorWorker implements Runnable {
   final AtomicReference<List<TopicPartition>> assignedPartitions =
       new AtomicReference<>(Collections.emptyList());
   final AtomicBoolean running = new AtomicBoolean(true);
+  /** The record last rejected by storage, so that its redelivery isn't counted as a new message */
+  TopicPartition rejectedPartition;
+  long rejectedOffset;
 
   KafkaCollectorWorker(KafkaCollector.Builder builder) {
     properties = builder.properties;
@@ -84,34 +85,39 @@ final class KafkaCollectorWorker implements Runnable {
           }
         });
       LOG.info("Kafka consumer starting polling loop.");
+      long resumeAt = 0L; // when non-zero, partitions are paused until this nano time
       while (running.get()) {
+        if (resumeAt != 0L && System.nanoTime() - resumeAt >= 0) {
+          kafkaConsumer.resume(kafkaConsumer.paused());
+          resumeAt = 0L;
+        }
         final ConsumerRecords<byte[], byte[]> consumerRecords = kafkaConsumer.poll(Duration.of(1000, ChronoUnit.MILLIS));
         LOG.debug("Kafka polling returned batch of {} messages.", consumerRecords.count());
-        for (ConsumerRecord<byte[], byte[]> record : consumerRecords) {
-          final byte[] bytes = record.value();
-          metrics.incrementMessages();
-          metrics.incrementBytes(bytes.length);
-
-          if (bytes.length == 0) continue; // lenient on empty messages
-
-          if (bytes.length < 2) { // need two bytes to check if protobuf
-            metrics.incrementMessagesDropped();
-          } else {
-            // If we received legacy single-span encoding, decode it into a singleton list
-            if (!protobuf3(bytes) && bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
-              Span span;
-              try {
-                span = SpanBytesDecoder.THRIFT.decodeOne(bytes);
-              } catch (RuntimeException e) {
-                metrics.incrementMessagesDropped();
-                continue;
-              }
-              collector.accept(Collections.singletonList(span), NOOP);
-            } else {
-              collector.acceptSpans(bytes, NOOP);
+        boolean rejected = false;
+        for (TopicPartition partition : consumerRecords.partitions()) {
+          List<ConsumerRecord<byte[], byte[]>> records = consumerRecords.records(partition);
+          if (rejected) { // redeliver this partition's records after resuming
+            kafkaConsumer.seek(partition, records.get(0).offset());
+            continue;
+          }
+          for (ConsumerRecord<byte[], byte[]> record : records) {
+            boolean redelivered =
+              partition.equals(rejectedPartition) && record.offset() == rejectedOffset;
+            if (!accept(record.value(), redelivered)) {
+              kafkaConsumer.seek(partition, record.offset());
+              rejectedPartition = partition;
+              rejectedOffset = record.offset();
+              rejected = true;
+              break;
             }
+            if (redelivered) rejectedPartition = null;
           }
         }
+        if (rejected) {
+          LOG.debug("Storage is behind; pausing partitions for {}ms.", PAUSE_MILLIS);
+          kafkaConsumer.pause(kafkaConsumer.assignment());
+          resumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PAUSE_MILLIS);
+        }
       }
     } catch (RuntimeException | Error e) {
       LOG.warn("Unexpected error in polling loop spans", e);
@@ -121,6 +127,44 @@ final class KafkaCollectorWorker implements Runnable {
     }
   }
 
+  /**
+   * Returns false if storage rejected the message as too many spans are in flight. In this case
+   * the message should be redelivered once the partition is resumed.
+   *
+   * @param redelivered true if this message was rejected before, so was already counted
+   */
+  boolean accept(byte[] bytes, boolean redelivered) {
+    if (redelivered) {
+      metrics.incrementMessagesRedelivered();
+    } else {
+      metrics.incrementMessages();
+      metrics.incrementBytes(bytes.length);
+    }
+
+    if (bytes.length == 0) return true; // lenient on empty messages
+
+    if (bytes.length < 2) { // need two bytes to check if protobuf
+      metrics.incrementMessagesDropped();
+      return true;
+    }
+
+    RejectionCallback callback = new RejectionCallback();
+    // If we received legacy single-span encoding, decode it into a singleton list
+    if (!protobuf3(bytes) && bytes[0] <= 16 && bytes[0] != 12 /* thrift, but not list */) {
+      Span span;
+      try {
+        span = SpanBytesDecoder.THRIFT.decodeOne(bytes);
+      } catch (RuntimeException e) {
+        metrics.incrementMessagesDropped();
+        return true;
+      }
+      collector.accept(Collections.singletonList(span), callback);
+    } else {
+      collector.acceptSpans(bytes, callback);
+    }
+    return !callback.rejected();
+  }
+
   /**
    * Stop the polling loop
    */
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -277,6 +278,44 @@ public class ITKafkaCollector {
     assertThat(kafkaMetrics.spansDropped()).isEqualTo(spans.size()); // only one dropped
   }
 
+  /** Storage rejects spans when too many are in flight, so the message should be retried. */
+  @Test
+  public void redeliversWhenStorageRejects() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    consumer = (input) -> new Call.Base<Void>() {
+      @Override protected Void doExecute() {
+        throw new AssertionError();
+      }
+
+      @Override protected void doEnqueue(Callback<Void> callback) {
+        if (counter.getAndIncrement() == 0) {
+          throw new RejectedExecutionException("too many spans in flight");
+        }
+        receivedSpans.add(input);
+        callback.onSuccess(null);
+      }
+
+      @Override public Call<Void> clone() {
+        throw new AssertionError();
+      }
+    };
+    KafkaCollector.Builder builder = builder("storage_rejects").storage(buildStorage(consumer));
+
+    produceSpans(THRIFT.encodeList(spans), builder.topic);
+
+    try (KafkaCollector collector = builder.build()) {
+      collector.start();
+      // the only way we could read this, is if the rejected message was consumed again
+      assertThat(receivedSpans.take()).containsExactlyElementsOf(spans);
+    }
+
+    assertThat(counter.get()).isEqualTo(2);
+    assertThat(kafkaMetrics.messages()).isEqualTo(1);
+    assertThat(kafkaMetrics.messagesRedelivered()).isEqualTo(1); // once rejected, once stored
+    assertThat(kafkaMetrics.bytes()).isEqualTo(THRIFT.encodeList(spans).length);
+    assertThat(kafkaMetrics.spansDropped()).isZero();
+  }
+
   @Test
   public void messagesDistributedAcrossMultipleThreadsSuccessfully() throws Exception {
     KafkaCollector.Builder builder = builder("multi_thread", 2);
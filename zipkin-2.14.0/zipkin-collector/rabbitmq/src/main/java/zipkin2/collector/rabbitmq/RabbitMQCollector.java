@@ -27,24 +27,18 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
-import zipkin2.Callback;
 import zipkin2.CheckResult;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.RejectionCallback;
 import zipkin2.storage.StorageComponent;
 
 /** This collector consumes encoded binary messages from a RabbitMQ queue. */
 public final class RabbitMQCollector extends CollectorComponent {
-  static final Callback<Void> NOOP =
-      new Callback<Void>() {
-        @Override
-        public void onSuccess(Void value) {}
-
-        @Override
-        public void onError(Throwable t) {}
-      };
+  /** How long a consumer waits before returning a message rejected by storage to the queue. */
+  static final long PAUSE_MILLIS = 1000L;
 
   public static Builder builder() {
     return new Builder();
@@ -185,7 +179,7 @@ public final class RabbitMQCollector extends CollectorComponent {
           // We don't track channels, as the connection will close its channels implicitly
           Channel channel = connection.createChannel();
           RabbitMQSpanConsumer consumer = new RabbitMQSpanConsumer(channel, collector, metrics);
-          channel.basicConsume(builder.queue, true, name, consumer);
+          channel.basicConsume(builder.queue, false, name, consumer);
         } catch (IOException e) {
           throw new IllegalStateException("Failed to start RabbitMQ consumer " + name, e);
         }
@@ -213,7 +207,9 @@ public final class RabbitMQCollector extends CollectorComponent {
 
   /**
    * Consumes spans from messages on a RabbitMQ queue. Malformed messages will be discarded. Errors
-   * in the storage component will similarly be ignored, with no retry of the message.
+   * in the storage component will similarly be ignored, with no retry of the message, unless
+   * storage rejected the message as too many spans are in flight. In that case, the consumer stops
+   * acking for a moment and then returns the message to the queue, to be consumed again.
    */
   static class RabbitMQSpanConsumer extends DefaultConsumer {
     final Collector collector;
@@ -226,13 +222,29 @@ public final class RabbitMQCollector extends CollectorComponent {
     }
 
     @Override
-    public void handleDelivery(String tag, Envelope envelope, BasicProperties props, byte[] body) {
-      metrics.incrementMessages();
-      metrics.incrementBytes(body.length);
+    public void handleDelivery(String tag, Envelope envelope, BasicProperties props, byte[] body)
+        throws IOException {
+      if (envelope.isRedeliver()) { // ex. nacked after storage rejected it
+        metrics.incrementMessagesRedelivered();
+      } else {
+        metrics.incrementMessages();
+        metrics.incrementBytes(body.length);
+      }
 
-      if (body.length == 0) return; // lenient on empty messages
+      RejectionCallback callback = new RejectionCallback();
+      if (body.length != 0) collector.acceptSpans(body, callback); // lenient on empty messages
 
-      collector.acceptSpans(body, NOOP);
+      if (!callback.rejected()) {
+        getChannel().basicAck(envelope.getDeliveryTag(), false);
+        return;
+      }
+      // Deliveries on this channel are serial, so waiting here also stops this consumer.
+      try {
+        Thread.sleep(PAUSE_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      getChannel().basicNack(envelope.getDeliveryTag(), false, true);
     }
   }
 
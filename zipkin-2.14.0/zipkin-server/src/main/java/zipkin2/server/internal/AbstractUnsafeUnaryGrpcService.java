@@ -51,12 +51,16 @@ import com.linecorp.armeria.server.ServiceRequestContext;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.util.AsciiString;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Temporarily copied from Armeria to allow using before it's released.
  */
 abstract class AbstractUnsafeUnaryGrpcService extends AbstractHttpService {
+  static final int RESOURCE_EXHAUSTED = 8;
+  static final AsciiString RETRY_PUSHBACK_MS = AsciiString.cached("grpc-retry-pushback-ms");
 
   private static final ResponseHeaders RESPONSE_HEADERS =
     ResponseHeaders.of(HttpStatus.OK,
@@ -85,12 +89,19 @@ abstract class AbstractUnsafeUnaryGrpcService extends AbstractHttpService {
             framed,
             GrpcTrailersUtil.statusToTrailers(/* OK */ 0, null, true).build());
         })
-        .exceptionally(t -> {
+        .exceptionally(thrown -> {
+          // dependent stages wrap the exception raised by handleMessage
+          final Throwable t = thrown instanceof CompletionException && thrown.getCause() != null
+            ? thrown.getCause() : thrown;
           final HttpHeadersBuilder trailers;
           if (t instanceof ArmeriaStatusException) {
             ArmeriaStatusException statusException = (ArmeriaStatusException) t;
             trailers = GrpcTrailersUtil.statusToTrailers(
               statusException.getCode(), statusException.getMessage(), false);
+            if (statusException.getCode() == RESOURCE_EXHAUSTED) {
+              // gRPC's equivalent of Retry-After, honored by clients with retry policies
+              trailers.set(RETRY_PUSHBACK_MS, "1000");
+            }
           } else {
             trailers = GrpcTrailersUtil.statusToTrailers(
               /* INTERNAL */ 13, t.getMessage(), false);
@@ -19,7 +19,11 @@ package zipkin2.server.internal;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.internal.Nullable;
 
@@ -32,13 +36,44 @@ import zipkin2.internal.Nullable;
  * relate to messages reported by instrumented apps</li>
  *     <li>counter.zipkin_collector.messages_dropped.$transport - cumulative messages dropped;
  * reasons include client disconnects or malformed content</li>
+ *     <li>counter.zipkin_collector.messages_redelivered.$transport - cumulative messages consumed
+ * again after storage rejected them; only reported by transports that redeliver</li>
  *     <li>counter.zipkin_collector.bytes.$transport - cumulative message bytes</li>
  *     <li>counter.zipkin_collector.spans.$transport - cumulative spans read; should relate to
  * messages reported by instrumented apps</li>
  *     <li>counter.zipkin_collector.spans_dropped.$transport - cumulative spans dropped; reasons
  * include sampling or storage failures</li>
+ *     <li>counter.zipkin_collector.string_cache_hits.$transport - cumulative strings decoded as a
+ * shared instance; only reported when the string cache is enabled</li>
+ *     <li>counter.zipkin_collector.string_cache_misses.$transport - cumulative strings eligible
+ * for, but not in the string cache</li>
+ *     <li>counter.zipkin_collector.endpoint_cache_hits.$transport - cumulative endpoints decoded as
+ * a shared instance; only reported when the endpoint cache is enabled</li>
+ *     <li>counter.zipkin_collector.endpoint_cache_misses.$transport - cumulative endpoints not in
+ * the endpoint cache</li>
+ *     <li>gauge.zipkin_collector.endpoint_cache_hit_ratio.$transport - hits divided by lookups of
+ * the endpoint cache, since startup</li>
  *     <li>gauge.zipkin_collector.message_spans.$transport - last count of spans in a message</li>
  *     <li>gauge.zipkin_collector.message_bytes.$transport - last count of bytes in a message</li>
+ *     <li>gauge.zipkin_collector.batch_queue_spans.$transport - spans waiting to be stored
+ * together; only reported when collector batching is enabled</li>
+ *     <li>counter.zipkin_collector.batch_flushes.$transport - cumulative batches stored, tagged by
+ * reason: "spans", "bytes", "delay" or "close"</li>
+ *     <li>gauge.zipkin_collector.sample_rate.$transport - fraction of traces currently kept; only
+ * reported when adaptive sampling is enabled</li>
+ *     <li>gauge.zipkin_collector.tail_buffer_spans.$transport - spans waiting for their trace to
+ * be decided; only reported when tail sampling is enabled. Tail metrics are also tagged by lane
+ * when collector lanes are enabled.</li>
+ *     <li>gauge.zipkin_collector.tail_buffer_bytes.$transport - proto3 size of spans waiting for
+ * their trace to be decided</li>
+ *     <li>counter.zipkin_collector.tail_traces.$transport - cumulative traces decided, tagged by
+ * decision: "kept" or "dropped"</li>
+ *     <li>counter.zipkin_collector.tail_evictions.$transport - cumulative traces decided before
+ * they were quiet, as the buffer was full</li>
+ *     <li>counter.zipkin_collector.lane_spans.$transport - cumulative spans stored by each
+ * collector lane, tagged by lane; only reported when collector lanes are enabled</li>
+ *     <li>gauge.zipkin_collector.lane_queue_lag.$transport - milliseconds the last batch of each
+ * collector lane waited in its queue, tagged by lane</li>
  * </ul>
  * </pre>
  *
@@ -49,8 +84,32 @@ import zipkin2.internal.Nullable;
 public final class ActuateCollectorMetrics implements CollectorMetrics {
 
   final MeterRegistry registryInstance;
+  @Nullable final String transport;
   final Counter messages, messagesDropped, bytes, spans, spansDropped;
-  final AtomicInteger messageBytes, messageSpans;
+  final Counter stringCacheHits, stringCacheMisses;
+  final Counter endpointCacheHits, endpointCacheMisses;
+  final AtomicInteger messageBytes, messageSpans, batchQueueSpans;
+  /** Float bits of the sample rate */
+  final AtomicInteger sampleRate;
+  final AtomicInteger tailBufferSpans, tailBufferBytes;
+  /** Tags of tail sampling meters, which include the lane when {@link #forLane(int) per lane} */
+  final Tags tailTags;
+  /** Gauges of queue lag by lane, registered on first use */
+  final ConcurrentMap<Integer, AtomicLong> laneQueueLag;
+  /** Counters of spans stored by lane, registered on first use */
+  final ConcurrentMap<Integer, Counter> laneSpans;
+  /** Counters of batch flushes by reason, registered on first use */
+  final ConcurrentMap<String, Counter> batchFlushes;
+  /** Counters of tail sampled traces by decision, registered on first use */
+  final ConcurrentMap<String, Counter> tailTraces;
+  /** Registered on first use, as only some transports redeliver messages */
+  volatile Counter messagesRedelivered;
+  /** Registered on first use, as only tail sampling evicts traces */
+  volatile Counter tailEvictions;
+  /** Batch metrics are registered on first use, as most transports don't batch. */
+  volatile boolean batchQueueSpansRegistered;
+  /** Registered on first use for the same reason as batch metrics. */
+  volatile boolean sampleRateRegistered, tailBufferRegistered;
 
   public ActuateCollectorMetrics(MeterRegistry registry) {
     this(null, registry);
@@ -58,9 +117,17 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
 
   ActuateCollectorMetrics(@Nullable String transport, MeterRegistry meterRegistry) {
     this.registryInstance = meterRegistry;
+    this.transport = transport;
     if (transport == null) {
       messages = messagesDropped = bytes = spans = spansDropped = null;
-      messageBytes = messageSpans = null;
+      stringCacheHits = stringCacheMisses = null;
+      endpointCacheHits = endpointCacheMisses = null;
+      messageBytes = messageSpans = batchQueueSpans = sampleRate = null;
+      tailBufferSpans = tailBufferBytes = null;
+      tailTags = null;
+      laneQueueLag = null;
+      laneSpans = null;
+      batchFlushes = tailTraces = null;
       return;
     }
     this.messages =
@@ -91,6 +158,33 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
             .tag("transport", transport)
             .register(registryInstance);
 
+    this.stringCacheHits =
+        Counter.builder("zipkin_collector.string_cache_hits")
+            .description("cumulative amount of strings decoded as a shared instance")
+            .tag("transport", transport)
+            .register(registryInstance);
+    this.stringCacheMisses =
+        Counter.builder("zipkin_collector.string_cache_misses")
+            .description("cumulative amount of strings eligible for, but not in the string cache")
+            .tag("transport", transport)
+            .register(registryInstance);
+
+    this.endpointCacheHits =
+        Counter.builder("zipkin_collector.endpoint_cache_hits")
+            .description("cumulative amount of endpoints decoded as a shared instance")
+            .tag("transport", transport)
+            .register(registryInstance);
+    this.endpointCacheMisses =
+        Counter.builder("zipkin_collector.endpoint_cache_misses")
+            .description("cumulative amount of endpoints not in the endpoint cache")
+            .tag("transport", transport)
+            .register(registryInstance);
+    Gauge.builder("zipkin_collector.endpoint_cache_hit_ratio", this,
+        ActuateCollectorMetrics::endpointCacheHitRatio)
+        .description("ratio of endpoints decoded as a shared instance")
+        .tag("transport", transport)
+        .register(registryInstance);
+
     this.messageSpans = new AtomicInteger(0);
     Gauge.builder("zipkin_collector.message_spans", messageSpans, AtomicInteger::get)
         .description("count of spans per message")
@@ -102,6 +196,41 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
         .tag("transport", transport)
         .baseUnit("bytes")
         .register(registryInstance);
+    this.batchQueueSpans = new AtomicInteger(0);
+    this.sampleRate = new AtomicInteger(0);
+    this.tailBufferSpans = new AtomicInteger(0);
+    this.tailBufferBytes = new AtomicInteger(0);
+    this.tailTags = Tags.of("transport", transport);
+    this.laneQueueLag = new ConcurrentHashMap<>();
+    this.laneSpans = new ConcurrentHashMap<>();
+    this.batchFlushes = new ConcurrentHashMap<>();
+    this.tailTraces = new ConcurrentHashMap<>();
+  }
+
+  /** Shares the meters of the scope, except tail sampling meters, which are tagged by lane. */
+  ActuateCollectorMetrics(ActuateCollectorMetrics scope, int lane) {
+    this.registryInstance = scope.registryInstance;
+    this.transport = scope.transport;
+    this.messages = scope.messages;
+    this.messagesDropped = scope.messagesDropped;
+    this.bytes = scope.bytes;
+    this.spans = scope.spans;
+    this.spansDropped = scope.spansDropped;
+    this.stringCacheHits = scope.stringCacheHits;
+    this.stringCacheMisses = scope.stringCacheMisses;
+    this.endpointCacheHits = scope.endpointCacheHits;
+    this.endpointCacheMisses = scope.endpointCacheMisses;
+    this.messageBytes = scope.messageBytes;
+    this.messageSpans = scope.messageSpans;
+    this.batchQueueSpans = scope.batchQueueSpans;
+    this.sampleRate = scope.sampleRate;
+    this.laneQueueLag = scope.laneQueueLag;
+    this.laneSpans = scope.laneSpans;
+    this.batchFlushes = scope.batchFlushes;
+    this.tailBufferSpans = new AtomicInteger(0);
+    this.tailBufferBytes = new AtomicInteger(0);
+    this.tailTags = scope.tailTags.and("lane", String.valueOf(lane));
+    this.tailTraces = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -110,6 +239,15 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
     return new ActuateCollectorMetrics(transportType, registryInstance);
   }
 
+  /**
+   * Returns metrics for the tail sampling stage of one collector lane. This avoids registering
+   * another copy of the transport meters per lane, which would never change.
+   */
+  public ActuateCollectorMetrics forLane(int lane) {
+    checkScoped();
+    return new ActuateCollectorMetrics(this, lane);
+  }
+
   @Override
   public void incrementMessages() {
     checkScoped();
@@ -122,6 +260,20 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
     messagesDropped.increment();
   }
 
+  @Override
+  public void incrementMessagesRedelivered() {
+    checkScoped();
+    Counter messagesRedelivered = this.messagesRedelivered;
+    if (messagesRedelivered == null) { // registration is idempotent, so racing is harmless
+      this.messagesRedelivered = messagesRedelivered =
+          Counter.builder("zipkin_collector.messages_redelivered")
+              .description("cumulative amount of messages consumed again after being rejected")
+              .tag("transport", transport)
+              .register(registryInstance);
+    }
+    messagesRedelivered.increment();
+  }
+
   @Override
   public void incrementSpans(int quantity) {
     checkScoped();
@@ -142,6 +294,163 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
     spansDropped.increment(quantity);
   }
 
+  @Override
+  public void incrementStringCacheHits(int quantity) {
+    checkScoped();
+    stringCacheHits.increment(quantity);
+  }
+
+  @Override
+  public void incrementStringCacheMisses(int quantity) {
+    checkScoped();
+    stringCacheMisses.increment(quantity);
+  }
+
+  @Override
+  public void incrementEndpointCacheHits(int quantity) {
+    checkScoped();
+    endpointCacheHits.increment(quantity);
+  }
+
+  @Override
+  public void incrementEndpointCacheMisses(int quantity) {
+    checkScoped();
+    endpointCacheMisses.increment(quantity);
+  }
+
+  @Override
+  public void setBatchQueueSpans(int quantity) {
+    checkScoped();
+    if (!batchQueueSpansRegistered) { // registration is idempotent, so racing is harmless
+      Gauge.builder("zipkin_collector.batch_queue_spans", batchQueueSpans, AtomicInteger::get)
+          .description("count of spans waiting to be stored in a batch")
+          .tag("transport", transport)
+          .register(registryInstance);
+      batchQueueSpansRegistered = true;
+    }
+    batchQueueSpans.set(quantity);
+  }
+
+  @Override
+  public void incrementBatchFlushes(String reason) {
+    checkScoped();
+    batchFlushes.computeIfAbsent(reason, this::registerBatchFlushes).increment();
+  }
+
+  Counter registerBatchFlushes(String reason) {
+    return Counter.builder("zipkin_collector.batch_flushes")
+        .description("cumulative amount of batches of spans stored")
+        .tag("transport", transport)
+        .tag("reason", reason)
+        .register(registryInstance);
+  }
+
+  @Override
+  public void setSampleRate(float rate) {
+    checkScoped();
+    if (!sampleRateRegistered) { // registration is idempotent, so racing is harmless
+      Gauge.builder("zipkin_collector.sample_rate", sampleRate,
+          bits -> Float.intBitsToFloat(bits.get()))
+          .description("fraction of traces currently kept by the collector sampler")
+          .tag("transport", transport)
+          .register(registryInstance);
+      sampleRateRegistered = true;
+    }
+    sampleRate.set(Float.floatToIntBits(rate));
+  }
+
+  @Override
+  public void setTailBufferSpans(int quantity) {
+    checkScoped();
+    registerTailBuffer();
+    tailBufferSpans.set(quantity);
+  }
+
+  @Override
+  public void setTailBufferBytes(int quantity) {
+    checkScoped();
+    registerTailBuffer();
+    tailBufferBytes.set(quantity);
+  }
+
+  void registerTailBuffer() {
+    if (tailBufferRegistered) return; // registration is idempotent, so racing is harmless
+    Gauge.builder("zipkin_collector.tail_buffer_spans", tailBufferSpans, AtomicInteger::get)
+        .description("count of spans waiting for their trace to be sampled")
+        .tags(tailTags)
+        .register(registryInstance);
+    Gauge.builder("zipkin_collector.tail_buffer_bytes", tailBufferBytes, AtomicInteger::get)
+        .description("size of spans waiting for their trace to be sampled")
+        .tags(tailTags)
+        .baseUnit("bytes")
+        .register(registryInstance);
+    tailBufferRegistered = true;
+  }
+
+  @Override
+  public void incrementTailTraces(String decision) {
+    checkScoped();
+    tailTraces.computeIfAbsent(decision, this::registerTailTraces).increment();
+  }
+
+  Counter registerTailTraces(String decision) {
+    return Counter.builder("zipkin_collector.tail_traces")
+        .description("cumulative amount of traces sampled after they were quiet")
+        .tags(tailTags)
+        .tag("decision", decision)
+        .register(registryInstance);
+  }
+
+  @Override
+  public void incrementTailEvictions() {
+    checkScoped();
+    Counter tailEvictions = this.tailEvictions;
+    if (tailEvictions == null) { // registration is idempotent, so racing is harmless
+      this.tailEvictions = tailEvictions =
+          Counter.builder("zipkin_collector.tail_evictions")
+              .description("cumulative amount of traces sampled early, as the buffer was full")
+              .tags(tailTags)
+              .register(registryInstance);
+    }
+    tailEvictions.increment();
+  }
+
+  @Override
+  public void incrementLaneSpans(int lane, int quantity) {
+    checkScoped();
+    laneSpans.computeIfAbsent(lane, this::registerLaneSpans).increment(quantity);
+  }
+
+  Counter registerLaneSpans(int lane) {
+    return Counter.builder("zipkin_collector.lane_spans")
+        .description("cumulative amount of spans stored by a collector lane")
+        .tag("transport", transport)
+        .tag("lane", String.valueOf(lane))
+        .register(registryInstance);
+  }
+
+  @Override
+  public void setLaneQueueLag(int lane, long millis) {
+    checkScoped();
+    laneQueueLag.computeIfAbsent(lane, this::registerLaneQueueLag).set(millis);
+  }
+
+  AtomicLong registerLaneQueueLag(int lane) {
+    AtomicLong result = new AtomicLong();
+    Gauge.builder("zipkin_collector.lane_queue_lag", result, AtomicLong::get)
+        .description("time the last batch of a collector lane waited in its queue")
+        .tag("transport", transport)
+        .tag("lane", String.valueOf(lane))
+        .baseUnit("milliseconds")
+        .register(registryInstance);
+    return result;
+  }
+
+  double endpointCacheHitRatio() {
+    double hits = endpointCacheHits.count(), lookups = hits + endpointCacheMisses.count();
+    return lookups == 0 ? 0 : hits / lookups;
+  }
+
   void checkScoped() {
     if (messages == null)
       throw new IllegalStateException("always scope with ActuateCollectorMetrics.forTransport");
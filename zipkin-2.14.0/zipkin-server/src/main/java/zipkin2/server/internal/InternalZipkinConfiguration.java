@@ -23,6 +23,7 @@ import zipkin2.server.internal.cassandra.ZipkinCassandraStorageConfiguration;
 import zipkin2.server.internal.cassandra3.ZipkinCassandra3StorageConfiguration;
 import zipkin2.server.internal.elasticsearch.ZipkinElasticsearchStorageAutoConfiguration;
 import zipkin2.server.internal.kafka.ZipkinKafkaCollectorConfiguration;
+import zipkin2.server.internal.local.ZipkinLocalStorageConfiguration;
 import zipkin2.server.internal.mysql.ZipkinMySQLStorageConfiguration;
 import zipkin2.server.internal.prometheus.ZipkinPrometheusMetricsConfiguration;
 import zipkin2.server.internal.rabbitmq.ZipkinRabbitMQCollectorConfiguration;
@@ -37,6 +38,7 @@ import zipkin2.server.internal.ui.ZipkinUiConfiguration;
   ZipkinCassandra3StorageConfiguration.class,
   ZipkinElasticsearchStorageAutoConfiguration.class,
   ZipkinMySQLStorageConfiguration.class,
+  ZipkinLocalStorageConfiguration.class,
   ZipkinScribeCollectorConfiguration.class,
   TracingConfiguration.class,
   ZipkinQueryApiV2.class,
@@ -16,21 +16,23 @@
  */
 package zipkin2.server.internal;
 
+import com.linecorp.armeria.common.grpc.protocol.ArmeriaStatusException;
 import com.linecorp.armeria.spring.ArmeriaServerConfigurator;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import zipkin2.Callback;
-import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
 import zipkin2.storage.StorageComponent;
 
+import static zipkin2.server.internal.AbstractUnsafeUnaryGrpcService.RESOURCE_EXHAUSTED;
+
 /** Collector for receiving spans on a gRPC endpoint. */
 @ConditionalOnProperty(name = "zipkin.collector.grpc.enabled") // disabled by default
 final class ZipkinGrpcCollector {
@@ -68,8 +70,8 @@ final class ZipkinGrpcCollector {
 
       try {
         CompletableFutureCallback result = new CompletableFutureCallback();
-        List<Span> spans = SpanBytesDecoder.PROTO3.decodeList(bytes.nioBuffer());
-        collector.accept(spans, result);
+        // spans are sampled before they are decoded, and decoded before the buffer is released
+        collector.acceptSpans(bytes.nioBuffer(), SpanBytesDecoder.PROTO3, result);
         return result;
       } finally {
         bytes.release();
@@ -85,6 +87,9 @@ final class ZipkinGrpcCollector {
     }
 
     @Override public void onError(Throwable t) {
+      if (t instanceof RejectedExecutionException) { // too many spans in flight
+        t = new ArmeriaStatusException(RESOURCE_EXHAUSTED, t.getMessage(), t);
+      }
       completeExceptionally(t);
     }
   }
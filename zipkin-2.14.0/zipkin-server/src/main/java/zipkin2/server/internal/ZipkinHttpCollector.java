@@ -39,9 +39,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -50,6 +50,7 @@ import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
 import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanChunkConsumer;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
@@ -57,6 +58,7 @@ import zipkin2.storage.StorageComponent;
 
 import static com.linecorp.armeria.common.HttpStatus.BAD_REQUEST;
 import static com.linecorp.armeria.common.HttpStatus.INTERNAL_SERVER_ERROR;
+import static com.linecorp.armeria.common.HttpStatus.SERVICE_UNAVAILABLE;
 import static zipkin2.server.internal.BodyIsExceptionMessage.testForUnexpectedFormat;
 
 @ConditionalOnProperty(name = "zipkin.collector.http.enabled", matchIfMissing = true)
@@ -156,13 +158,18 @@ public class ZipkinHttpCollector {
           return null;
         }
 
-        List<Span> spans = new ArrayList<>();
-        if (!decoder.decodeList(nioBuffer, spans)) {
-          result.onError(new IllegalArgumentException("Empty " + decoder.name() + " message"));
+        // UnzippingBytesRequestConverter handles incrementing message and bytes
+        AcceptChunks acceptChunks = new AcceptChunks(collector);
+        try {
+          if (!decoder.decodeList(nioBuffer, Collector.CHUNK_SIZE, acceptChunks)) {
+            result.onError(new IllegalArgumentException("Empty " + decoder.name() + " message"));
+            return null;
+          }
+        } catch (IllegalArgumentException e) {
+          result.onError(e);
           return null;
         }
-        // UnzippingBytesRequestConverter handles incrementing message and bytes
-        collector.accept(spans, result);
+        acceptChunks.complete(result);
       } finally {
         ReferenceCountUtil.release(msg.content());
       }
@@ -173,6 +180,52 @@ public class ZipkinHttpCollector {
     return HttpResponse.from(result);
   }
 
+  /**
+   * Passes spans to the collector in chunks while the rest of the message is decoded. This bounds
+   * the count of spans held for a large POST body. The callback reports the first error of any
+   * chunk.
+   *
+   * <p>Like the collector does for other transports, chunks after a failed one are not stored.
+   * Otherwise, when storage rejects a chunk, the client's retry would store later chunks twice.
+   * Chunks decoded before a malformed span are stored, though the request fails with 400: a
+   * client doesn't retry a malformed message, as it would fail the same way.
+   */
+  static final class AcceptChunks implements SpanChunkConsumer, Callback<Void> {
+    final Collector collector;
+    Throwable error;
+
+    AcceptChunks(Collector collector) {
+      this.collector = collector;
+    }
+
+    @Override public void accept(List<Span> chunk) {
+      if (error == null) {
+        collector.accept(chunk, this);
+        return;
+      }
+      metrics.incrementSpans(chunk.size());
+      // a rejected message is retried by the client with these spans
+      if (!(error instanceof RejectedExecutionException)) {
+        metrics.incrementSpansDropped(chunk.size());
+      }
+    }
+
+    @Override public void onSuccess(Void value) {
+    }
+
+    @Override public void onError(Throwable t) {
+      if (error == null) error = t; // report the first error
+    }
+
+    void complete(Callback<Void> callback) {
+      if (error != null) {
+        callback.onError(error);
+      } else {
+        callback.onSuccess(null);
+      }
+    }
+  }
+
   static void maybeLog(String prefix, ServiceRequestContext ctx, AggregatedHttpMessage request) {
     if (!LOGGER.isDebugEnabled()) return;
     LOGGER.debug("{} sent by clientAddress->{}, userAgent->{}",
@@ -234,13 +287,20 @@ final class UnzippingBytesRequestConverter {
 }
 
 final class BodyIsExceptionMessage implements ExceptionHandlerFunction {
+  /** Asks the client to retry after a second, as storage is expected to catch up quickly. */
+  static final ResponseHeaders RETRY_LATER_RESPONSE = ResponseHeaders.of(SERVICE_UNAVAILABLE,
+    HttpHeaderNames.RETRY_AFTER, "1", HttpHeaderNames.CONTENT_TYPE, MediaType.ANY_TEXT_TYPE);
 
   @Override
   public HttpResponse handleException(RequestContext ctx, HttpRequest req, Throwable cause) {
-    ZipkinHttpCollector.metrics.incrementMessagesDropped();
     if (cause instanceof IllegalArgumentException) {
+      ZipkinHttpCollector.metrics.incrementMessagesDropped();
       return HttpResponse.of(BAD_REQUEST, MediaType.ANY_TEXT_TYPE, cause.getMessage());
+    } else if (cause instanceof RejectedExecutionException) { // too many spans in flight
+      // not dropped, as the client retries the message
+      return HttpResponse.of(RETRY_LATER_RESPONSE, HttpData.ofUtf8(cause.getMessage()));
     } else {
+      ZipkinHttpCollector.metrics.incrementMessagesDropped();
       return HttpResponse.of(INTERNAL_SERVER_ERROR, MediaType.ANY_TEXT_TYPE, cause.getMessage());
     }
   }
@@ -40,6 +40,7 @@ import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.internal.JsonCodec;
+import zipkin2.internal.V2SpanWriter;
 import zipkin2.internal.WriteBuffer;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
@@ -128,7 +129,7 @@ public class ZipkinQueryApiV2 {
         .build();
 
     List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return jsonResponse(writeTraces(SpanBytesEncoder.JSON_V2, traces));
+    return jsonResponse(writeTraces(V2_SPAN_WRITER, traces));
   }
 
   @Get("/api/v2/trace/{traceIdHex}")
@@ -142,11 +143,17 @@ public class ZipkinQueryApiV2 {
   }
 
   static AggregatedHttpMessage jsonResponse(byte[] body) {
+    return jsonResponse(HttpData.of(body));
+  }
+
+  static AggregatedHttpMessage jsonResponse(HttpData body) {
     return AggregatedHttpMessage.of(ResponseHeaders.builder(200)
       .contentType(MediaType.JSON)
-      .setInt(HttpHeaderNames.CONTENT_LENGTH, body.length).build(), HttpData.of(body));
+      .setInt(HttpHeaderNames.CONTENT_LENGTH, body.length()).build(), body);
   }
 
+  static final V2SpanWriter V2_SPAN_WRITER = new V2SpanWriter();
+
   static final WriteBuffer.Writer<String> QUOTED_STRING_WRITER = new WriteBuffer.Writer<String>() {
     @Override public int sizeInBytes(String value) {
       return WriteBuffer.utf8SizeInBytes(value) + 2; // quotes
@@ -191,30 +198,18 @@ public class ZipkinQueryApiV2 {
   }
 
   // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
-    // Get the encoded size of the nested list so that we don't need to grow the buffer
-    int length = traces.size();
-    int sizeInBytes = 2; // []
-    if (length > 1) sizeInBytes += length - 1; // comma to join elements
-
-    for (int i = 0; i < length; i++) {
-      List<zipkin2.Span> spans = traces.get(i);
-      int jLength = spans.size();
-      sizeInBytes += 2; // []
-      if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
-      for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
-      }
-    }
-
-    byte[] out = new byte[sizeInBytes];
-    int pos = 0;
-    out[pos++] = '['; // start list of traces
-    for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
-      if (i + 1 < length) out[pos++] = ',';
+  /**
+   * Writes the nested list in a single pass, as opposed to first walking every span to size the
+   * output. The buffer isn't pooled as it is handed to Armeria without a copy.
+   */
+  static HttpData writeTraces(WriteBuffer.Writer<Span> writer, List<List<Span>> traces) {
+    WriteBuffer b = WriteBuffer.growable(traces.isEmpty() ? 2 : 8192);
+    b.writeByte('['); // start list of traces
+    for (int i = 0, length = traces.size(); i < length; ) {
+      JsonCodec.writeList(writer, traces.get(i++), b);
+      if (i < length) b.writeByte(',');
     }
-    out[pos] = ']'; // stop list of traces
-    return out;
+    b.writeByte(']'); // stop list of traces
+    return HttpData.of(b.array(), 0, b.pos());
   }
 }
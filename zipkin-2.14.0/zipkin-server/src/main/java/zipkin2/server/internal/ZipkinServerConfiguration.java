@@ -25,10 +25,15 @@ import com.linecorp.armeria.spring.ArmeriaServerConfigurator;
 import com.linecorp.armeria.spring.actuate.ArmeriaSpringActuatorAutoConfiguration;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
+import java.io.File;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -36,6 +41,7 @@ import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCusto
 import org.springframework.boot.actuate.health.HealthAggregator;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
@@ -44,14 +50,23 @@ import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import zipkin2.server.internal.throttle.ZipkinStorageThrottleProperties;
+import zipkin2.collector.AdaptiveCollectorSampler;
+import zipkin2.collector.BatchingStorageComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.InFlightLimitingStorageComponent;
+import zipkin2.collector.LaneStorageComponent;
+import zipkin2.collector.TailSamplingStorageComponent;
+import zipkin2.internal.EndpointCache;
+import zipkin2.internal.StringCache;
 import zipkin2.server.internal.brave.TracingStorageComponent;
 import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.OffHeapStorage;
 import zipkin2.storage.StorageComponent;
 import zipkin2.server.internal.throttle.ThrottledStorageComponent;
 
@@ -112,10 +127,37 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     return builder -> builder.decorator(corsBuilder::build);
   }
 
+  /**
+   * When a spans per second target is set, the sample rate adapts to it, and {@code
+   * zipkin.collector.sample-rate} is ignored.
+   */
   @Bean
   @ConditionalOnMissingBean(CollectorSampler.class)
-  CollectorSampler traceIdSampler(@Value("${zipkin.collector.sample-rate:1.0}") float rate) {
-    return CollectorSampler.create(rate);
+  CollectorSampler traceIdSampler(@Value("${zipkin.collector.sample-rate:1.0}") float rate,
+    @Value("${zipkin.collector.sample-spans-per-second:0}") int spansPerSecond,
+    CollectorMetrics metrics) {
+    if (spansPerSecond <= 0) return CollectorSampler.create(rate);
+    return AdaptiveCollectorSampler.newBuilder(spansPerSecond)
+      .metrics(metrics.forTransport("sampler"))
+      .build();
+  }
+
+  /**
+   * Canonicalizes low-cardinality strings, such as service names, when decoding spans. This is
+   * process-wide, so is a {@link StringCache#enable(int) static setting}.
+   */
+  @Bean InitializingBean stringCacheInitializer(
+    @Value("${zipkin.collector.string-cache-size:0}") int stringCacheSize) {
+    return () -> StringCache.enable(stringCacheSize);
+  }
+
+  /**
+   * Canonicalizes endpoints, such as the same service name, IP and port, when decoding spans. This
+   * is process-wide, so is a {@link EndpointCache#enable(int) static setting}.
+   */
+  @Bean InitializingBean endpointCacheInitializer(
+    @Value("${zipkin.collector.endpoint-cache-size:0}") int endpointCacheSize) {
+    return () -> EndpointCache.enable(endpointCacheSize);
   }
 
   @Bean
@@ -197,6 +239,108 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     }
   }
 
+  /**
+   * Applies storage stages shared by all collectors. These are applied by one enhancer, as the
+   * in-flight budget must wrap the batch: otherwise spans would be rejected when a batch is
+   * flushed, instead of when a transport can still slow down. Tail sampling is between the two, so
+   * that kept traces are batched. It is a stage of the in-flight limit, so that kept spans count
+   * against the budget until stored: tail sampling accepts spans as soon as they are buffered. When
+   * lanes are enabled, they are also between the two, and tail sampling is split across them, so
+   * that each lane buffers and sweeps its share of traces on the lane's thread, without locking.
+   *
+   * <p>Declared after {@link ThrottledStorageComponentEnhancer}, so that batches are throttled, as
+   * opposed to individual messages.
+   */
+  @Configuration
+  static class CollectorStorageComponentEnhancer implements BeanPostProcessor, BeanFactoryAware {
+    /** Looked up lazily for the same reason as {@link ThrottledStorageComponentEnhancer} */
+    private BeanFactory beanFactory;
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (!(bean instanceof StorageComponent)) return bean;
+      Environment environment = beanFactory.getBean(Environment.class);
+      StorageComponent result = (StorageComponent) bean;
+      if (environment.getProperty("zipkin.collector.batch.enabled", Boolean.class, false)) {
+        result = BatchingStorageComponent.newBuilder(result)
+          .metrics(beanFactory.getBean(CollectorMetrics.class).forTransport("batch"))
+          .maxSpans(environment.getProperty("zipkin.collector.batch.max-spans", Integer.class, 1000))
+          .maxBytes(environment.getProperty("zipkin.collector.batch.max-bytes", Integer.class,
+            5 * 1024 * 1024))
+          .maxDelay(environment.getProperty("zipkin.collector.batch.max-delay", Long.class, 100L))
+          .build();
+      }
+      int lanes = environment.getProperty("zipkin.collector.lanes.count", Integer.class, 0);
+      boolean tail = environment.getProperty("zipkin.collector.tail.enabled", Boolean.class, false);
+      // Stages after the batch, which hold spans when tail sampling
+      Function<StorageComponent, StorageComponent> stages;
+      if (lanes > 0) {
+        AtomicInteger laneIndex = new AtomicInteger();
+        stages = d -> LaneStorageComponent.newBuilder(d)
+          .metrics(beanFactory.getBean(CollectorMetrics.class).forTransport("lanes"))
+          .lanes(lanes)
+          .queueSpans(
+            environment.getProperty("zipkin.collector.lanes.queue-spans", Integer.class, 10000))
+          .maxBatch(
+            environment.getProperty("zipkin.collector.lanes.max-batch", Integer.class, 1000))
+          .perLane(tail
+            ? l -> tailSampling(l, environment, laneIndex.getAndIncrement(), lanes)
+            : Function.identity())
+          .build();
+      } else if (tail) {
+        stages = d -> tailSampling(d, environment, -1, 1);
+      } else {
+        stages = Function.identity();
+      }
+      if (!environment.getProperty("zipkin.collector.inflight.enabled", Boolean.class, false)) {
+        return stages.apply(result);
+      }
+      InFlightLimitingStorageComponent.Builder inFlight = InFlightLimitingStorageComponent
+        .newBuilder(tail ? result : stages.apply(result))
+        .maxSpans(
+          environment.getProperty("zipkin.collector.inflight.max-spans", Integer.class, 100000))
+        .maxBytes(environment.getProperty("zipkin.collector.inflight.max-bytes", Integer.class,
+          64 * 1024 * 1024));
+      if (tail) inFlight.stage(stages);
+      return inFlight.build();
+    }
+
+    /**
+     * When split across lanes, each lane's buffer gets its share of the configured limits, and its
+     * metrics are tagged by lane.
+     *
+     * @param lane index of the lane, or -1 when not split across lanes
+     */
+    StorageComponent tailSampling(StorageComponent delegate, Environment environment, int lane,
+      int shares) {
+      CollectorMetrics metrics = beanFactory.getBean(CollectorMetrics.class).forTransport("tail");
+      if (lane >= 0 && metrics instanceof ActuateCollectorMetrics) {
+        metrics = ((ActuateCollectorMetrics) metrics).forLane(lane);
+      }
+      return TailSamplingStorageComponent.newBuilder(delegate)
+        .metrics(metrics)
+        .quietPeriod(
+          environment.getProperty("zipkin.collector.tail.quiet-period", Long.class, 5000L))
+        .maxSpans(Math.max(1, environment.getProperty("zipkin.collector.tail.max-spans",
+          Integer.class, 100000) / shares))
+        .maxBytes(Math.max(1, environment.getProperty("zipkin.collector.tail.max-bytes",
+          Integer.class, 32 * 1024 * 1024) / shares))
+        .errorTraces(environment.getProperty("zipkin.collector.tail.error", Boolean.class, true))
+        .minDuration(
+          environment.getProperty("zipkin.collector.tail.min-duration", Long.class, 0L))
+        .services(Arrays.asList(environment.getProperty("zipkin.collector.tail.services",
+          String[].class, new String[0])))
+        .baselineRate(
+          environment.getProperty("zipkin.collector.tail.baseline-rate", Float.class, 0.0f))
+        .build();
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+      this.beanFactory = beanFactory;
+    }
+  }
+
   /**
    * This is a special-case configuration if there's no StorageComponent of any kind. In-Mem can
    * supply both read apis, so we add two beans here.
@@ -214,11 +358,26 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
       @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
       @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
       @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans,
+      @Value("${zipkin.storage.mem.max-bytes:0}") long maxBytes,
+      @Value("${zipkin.storage.mem.ttl:0}") long ttl,
+      @Value("${zipkin.storage.mem.snapshot-file:}") String snapshotFile,
+      @Value("${zipkin.storage.mem.snapshot-interval:60000}") long snapshotInterval,
       @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys) {
+      if (maxBytes > 0) {
+        return OffHeapStorage.newBuilder()
+          .strictTraceId(strictTraceId)
+          .searchEnabled(searchEnabled)
+          .maxBytes(maxBytes)
+          .autocompleteKeys(autocompleteKeys)
+          .build();
+      }
       return InMemoryStorage.newBuilder()
         .strictTraceId(strictTraceId)
         .searchEnabled(searchEnabled)
         .maxSpanCount(maxSpans)
+        .ttl(ttl)
+        .snapshotFile(snapshotFile.isEmpty() ? null : new File(snapshotFile))
+        .snapshotInterval(snapshotInterval)
         .autocompleteKeys(autocompleteKeys)
         .build();
     }
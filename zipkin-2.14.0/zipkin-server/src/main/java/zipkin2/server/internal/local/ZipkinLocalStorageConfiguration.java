@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.server.internal.local;
+
+import java.io.File;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import zipkin2.storage.StorageComponent;
+import zipkin2.storage.local.LocalStorage;
+
+@Configuration
+@ConditionalOnProperty(name = "zipkin.storage.type", havingValue = "local")
+@ConditionalOnMissingBean(StorageComponent.class)
+public class ZipkinLocalStorageConfiguration {
+
+  @Bean StorageComponent storage(
+    @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
+    @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
+    @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys,
+    @Value("${zipkin.storage.local.directory:zipkin-data}") String directory,
+    @Value("${zipkin.storage.local.segment-size:67108864}") int segmentSize,
+    @Value("${zipkin.storage.local.max-segments:16}") int maxSegments) {
+    return LocalStorage.newBuilder()
+      .strictTraceId(strictTraceId)
+      .searchEnabled(searchEnabled)
+      .autocompleteKeys(autocompleteKeys)
+      .directory(new File(directory))
+      .segmentSize(segmentSize)
+      .maxSegments(maxSegments)
+      .build();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.server.internal
+
+import com.linecorp.armeria.common.HttpHeaderNames
+import com.linecorp.armeria.common.HttpMethod
+import com.linecorp.armeria.common.HttpRequest
+import com.linecorp.armeria.common.HttpStatus
+import com.linecorp.armeria.server.ServiceRequestContext
+import java.util.concurrent.RejectedExecutionException
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import zipkin2.collector.CollectorMetrics
+import zipkin2.collector.InMemoryCollectorMetrics
+
+class BodyIsExceptionMessageTest {
+  val metrics = InMemoryCollectorMetrics()
+  val req = HttpRequest.of(HttpMethod.POST, "/api/v2/spans")
+  val ctx = ServiceRequestContext.of(req)
+  var previousMetrics: CollectorMetrics? = null
+
+  @Before fun setMetrics() {
+    previousMetrics = ZipkinHttpCollector.metrics
+    ZipkinHttpCollector.metrics = metrics
+  }
+
+  @After fun restoreMetrics() {
+    ZipkinHttpCollector.metrics = previousMetrics
+  }
+
+  @Test fun illegalArgumentIsBadRequest() {
+    val response = BodyIsExceptionMessage()
+      .handleException(ctx, req, IllegalArgumentException("Malformed"))
+      .aggregate().join()
+
+    assertThat(response.status()).isEqualTo(HttpStatus.BAD_REQUEST)
+    assertThat(response.contentUtf8()).isEqualTo("Malformed")
+    assertThat(metrics.messagesDropped()).isEqualTo(1)
+  }
+
+  @Test fun rejectedIsServiceUnavailableWithRetryAfter() {
+    val response = BodyIsExceptionMessage()
+      .handleException(ctx, req, RejectedExecutionException("too many spans in flight"))
+      .aggregate().join()
+
+    assertThat(response.status()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+    assertThat(response.headers().get(HttpHeaderNames.RETRY_AFTER)).isEqualTo("1")
+    assertThat(response.contentUtf8()).isEqualTo("too many spans in flight")
+    assertThat(metrics.messagesDropped()).isZero() // the client retries
+  }
+
+  @Test fun otherErrorIsInternalServerError() {
+    val response = BodyIsExceptionMessage()
+      .handleException(ctx, req, IllegalStateException("storage is down"))
+      .aggregate().join()
+
+    assertThat(response.status()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR)
+    assertThat(response.contentUtf8()).isEqualTo("storage is down")
+    assertThat(metrics.messagesDropped()).isEqualTo(1)
+  }
+}
@@ -30,8 +30,11 @@ import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.test.context.junit4.SpringRunner
 import zipkin.server.ZipkinServer
+import zipkin2.TestObjects.LOTS_OF_SPANS
 import zipkin2.TestObjects.TRACE
+import zipkin2.TestObjects.UTF_8
 import zipkin2.codec.SpanBytesEncoder
+import zipkin2.collector.Collector
 import zipkin2.storage.InMemoryStorage
 
 @SpringBootTest(
@@ -120,6 +123,18 @@ class ITZipkinHttpCollector {
     }
   }
 
+  @Test fun malformedSpan_storesChunksDecodedBeforeIt() {
+    val spans = LOTS_OF_SPANS.take(Collector.CHUNK_SIZE + 1)
+    val valid = String(SpanBytesEncoder.JSON_V2.encodeList(spans), UTF_8)
+    val body = valid.dropLast(1) + """,{"traceId":"1","id":"1","timestamp":"oops"}]"""
+
+    val response = Http.post(server, "/api/v2/spans", "application/json", body)
+
+    assertThat(response.code()).isEqualTo(400)
+    // spans are stored while the rest of the message is decoded
+    assertThat(storage.traces.flatten()).hasSize(Collector.CHUNK_SIZE)
+  }
+
   fun assertOnAllEndpoints(
     body: ByteArray,
     assertion: (Response, String, String, String) -> Assert<*, *>
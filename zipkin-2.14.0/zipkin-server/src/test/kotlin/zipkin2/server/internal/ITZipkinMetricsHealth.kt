@@ -179,7 +179,12 @@ class ITZipkinMetricsHealth {
         "gauge.zipkin_collector.message_bytes.http", "counter.zipkin_collector.messages.http",
         "counter.zipkin_collector.bytes.http", "counter.zipkin_collector.spans.http",
         "counter.zipkin_collector.messages_dropped.http",
-        "counter.zipkin_collector.spans_dropped.http"
+        "counter.zipkin_collector.spans_dropped.http",
+        "counter.zipkin_collector.string_cache_hits.http",
+        "counter.zipkin_collector.string_cache_misses.http",
+        "counter.zipkin_collector.endpoint_cache_hits.http",
+        "counter.zipkin_collector.endpoint_cache_misses.http",
+        "gauge.zipkin_collector.endpoint_cache_hit_ratio.http"
       )
   }
 
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.server.internal
+
+import com.linecorp.armeria.common.HttpMethod
+import com.linecorp.armeria.common.HttpRequest
+import com.linecorp.armeria.common.MediaType
+import com.linecorp.armeria.server.ServiceRequestContext
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.RejectedExecutionException
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import zipkin2.Call
+import zipkin2.Span
+import zipkin2.TestObjects.LOTS_OF_SPANS
+import zipkin2.codec.SpanBytesDecoder
+import zipkin2.codec.SpanBytesEncoder
+import zipkin2.collector.Collector
+import zipkin2.collector.CollectorMetrics
+import zipkin2.collector.CollectorSampler
+import zipkin2.collector.InMemoryCollectorMetrics
+import zipkin2.storage.SpanConsumer
+import zipkin2.storage.SpanStore
+import zipkin2.storage.StorageComponent
+
+class ZipkinHttpCollectorTest {
+  /** Rejects the second chunk stored, as if too many spans were in flight */
+  val storage = RejectSecondCall()
+  val metrics = InMemoryCollectorMetrics()
+  var previousMetrics: CollectorMetrics? = null
+  lateinit var collector: ZipkinHttpCollector
+
+  @Before fun setMetrics() {
+    previousMetrics = ZipkinHttpCollector.metrics
+    collector = ZipkinHttpCollector(storage, CollectorSampler.ALWAYS_SAMPLE, metrics)
+  }
+
+  @After fun restoreMetrics() {
+    ZipkinHttpCollector.metrics = previousMetrics
+  }
+
+  @Test fun rejectedChunk_storesNoLaterChunks() {
+    val spans = LOTS_OF_SPANS.take(Collector.CHUNK_SIZE * 2 + 1)
+    val req = HttpRequest.of(HttpMethod.POST, "/api/v2/spans", MediaType.JSON,
+      SpanBytesEncoder.JSON_V2.encodeList(spans))
+
+    val error = try {
+      collector.validateAndStoreSpans(SpanBytesDecoder.JSON_V2, ServiceRequestContext.of(req), req)
+        .aggregate().join()
+      null
+    } catch (e: CompletionException) {
+      e.cause
+    }
+
+    assertThat(error).isInstanceOf(RejectedExecutionException::class.java)
+    assertThat(storage.calls).isEqualTo(2) // the third chunk never reached storage
+    assertThat(storage.stored).containsExactlyElementsOf(spans.take(Collector.CHUNK_SIZE))
+    assertThat(metrics.forTransport("http").spansDropped()).isZero() // the client retries
+  }
+
+  class RejectSecondCall : StorageComponent() {
+    val stored = CopyOnWriteArrayList<Span>()
+    @Volatile var calls = 0
+
+    override fun spanStore(): SpanStore = throw UnsupportedOperationException()
+
+    override fun spanConsumer() = SpanConsumer { spans ->
+      if (++calls == 2) throw RejectedExecutionException("too many spans in flight")
+      stored.addAll(spans)
+      Call.create<Void>(null)
+    }
+  }
+}
@@ -23,8 +23,12 @@ import io.micrometer.prometheus.PrometheusConfig
 import io.micrometer.prometheus.PrometheusMeterRegistry
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown
+import org.assertj.core.api.Assertions.tuple
+import org.assertj.core.util.introspection.PropertyOrFieldSupport
 import org.junit.After
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import org.springframework.beans.factory.NoSuchBeanDefinitionException
 import org.springframework.boot.actuate.autoconfigure.endpoint.EndpointAutoConfiguration
 import org.springframework.boot.actuate.health.HealthAggregator
@@ -34,10 +38,20 @@ import org.springframework.boot.test.util.TestPropertyValues
 import org.springframework.context.annotation.AnnotationConfigApplicationContext
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import zipkin2.TestObjects.TRACE
+import zipkin2.collector.AdaptiveCollectorSampler
+import zipkin2.collector.BatchingStorageComponent
+import zipkin2.collector.CollectorSampler
+import zipkin2.collector.InFlightLimitingStorageComponent
+import zipkin2.collector.LaneStorageComponent
+import zipkin2.collector.TailSamplingStorageComponent
 import zipkin2.server.internal.brave.TracingConfiguration
+import zipkin2.storage.InMemoryStorage
+import zipkin2.storage.OffHeapStorage
 import zipkin2.storage.StorageComponent
 
 class ZipkinServerConfigurationTest {
+  @get:Rule val folder = TemporaryFolder()
   val context = AnnotationConfigApplicationContext()
   @After fun closeContext() = context.close()
 
@@ -137,6 +151,249 @@ class ZipkinServerConfigurationTest {
       .containsExactly(false)
   }
 
+  @Test fun mem_offHeapWhenMaxBytes() {
+    TestPropertyValues.of("zipkin.storage.mem.max-bytes:1048576").applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(StorageComponent::class.java))
+      .isInstanceOf(OffHeapStorage::class.java)
+  }
+
+  @Test fun mem_snapshotFile() {
+    val snapshotFile = folder.newFile("zipkin.snapshot")
+    TestPropertyValues.of("zipkin.storage.mem.snapshot-file:" + snapshotFile.path).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(StorageComponent::class.java))
+      .extracting("snapshotFile")
+      .containsExactly(snapshotFile)
+  }
+
+  @Test fun collectorBatch_wrapsStorage() {
+    TestPropertyValues.of(
+      "zipkin.collector.batch.enabled:true",
+      "zipkin.collector.batch.max-spans:50"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    val storage = context.getBean(StorageComponent::class.java)
+    assertThat(storage).isInstanceOf(BatchingStorageComponent::class.java)
+    assertThat(storage).extracting("maxSpans", "delegate.class")
+      .containsExactly(50, InMemoryStorage::class.java)
+  }
+
+  @Test fun collectorBatch_disabledByDefault() {
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(StorageComponent::class.java))
+      .isInstanceOf(InMemoryStorage::class.java)
+  }
+
+  @Test fun collectorInFlight_wrapsBatching() {
+    TestPropertyValues.of(
+      "zipkin.collector.batch.enabled:true",
+      "zipkin.collector.inflight.enabled:true",
+      "zipkin.collector.inflight.max-spans:500"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    val storage = context.getBean(StorageComponent::class.java)
+    assertThat(storage).isInstanceOf(InFlightLimitingStorageComponent::class.java)
+    assertThat(storage).extracting("maxSpans", "delegate.class")
+      .containsExactly(500, BatchingStorageComponent::class.java)
+  }
+
+  @Test fun collectorTail_betweenInFlightAndBatching() {
+    TestPropertyValues.of(
+      "zipkin.collector.batch.enabled:true",
+      "zipkin.collector.tail.enabled:true",
+      "zipkin.collector.tail.services:frontend,backend",
+      "zipkin.collector.inflight.enabled:true"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    // kept spans count against the in-flight budget until stored
+    val storage = context.getBean(StorageComponent::class.java)
+    assertThat(storage).extracting(
+      "delegate.class", "delegate.delegate.class.simpleName", "delegate.delegate.delegate.class"
+    ).containsExactly(TailSamplingStorageComponent::class.java, "StagedStorage",
+      BatchingStorageComponent::class.java)
+    assertThat(storage).extracting("delegate.services")
+      .containsExactly(setOf("frontend", "backend"))
+  }
+
+  @Test fun collectorLanes_splitTailSampling() {
+    TestPropertyValues.of(
+      "zipkin.collector.batch.enabled:true",
+      "zipkin.collector.tail.enabled:true",
+      "zipkin.collector.tail.max-spans:1000",
+      "zipkin.collector.lanes.count:2",
+      "zipkin.collector.inflight.enabled:true"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    val storage = context.getBean(StorageComponent::class.java)
+    assertThat(storage).extracting(
+      "delegate.class", "delegate.delegate.class.simpleName", "delegate.delegate.delegate.class"
+    ).containsExactly(LaneStorageComponent::class.java, "StagedStorage",
+      BatchingStorageComponent::class.java)
+    val lanes = PropertyOrFieldSupport.EXTRACTION.getValueOf("delegate.lanes", storage)
+    assertThat(lanes as Array<*>).extracting("stage.class", "stage.maxSpans").containsExactly(
+      tuple(TailSamplingStorageComponent::class.java, 500),
+      tuple(TailSamplingStorageComponent::class.java, 500)
+    )
+  }
+
+  @Test fun collectorLanes_reportMetrics() {
+    TestPropertyValues.of("zipkin.collector.lanes.count:1").applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    context.getBean(StorageComponent::class.java).spanConsumer().accept(TRACE).execute()
+
+    val registry = context.getBean(MeterRegistry::class.java)
+    assertThat(registry.get("zipkin_collector.lane_spans")
+      .tags("transport", "lanes", "lane", "0").counter().count())
+      .isEqualTo(TRACE.size.toDouble())
+    assertThat(registry.get("zipkin_collector.lane_queue_lag")
+      .tags("transport", "lanes", "lane", "0").gauge().value())
+      .isGreaterThanOrEqualTo(0.0)
+  }
+
+  @Test fun collectorLanes_tagTailMetricsByLane() {
+    TestPropertyValues.of(
+      "zipkin.collector.tail.enabled:true",
+      "zipkin.collector.lanes.count:2"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    val storage = context.getBean(StorageComponent::class.java)
+    storage.spanConsumer().accept(TRACE).execute()
+    storage.close() // decides the buffered trace
+
+    val registry = context.getBean(MeterRegistry::class.java)
+    assertThat(registry.find("zipkin_collector.tail_buffer_spans").gauges())
+      .extracting<String> { it.id.getTag("lane") }
+      .containsExactlyInAnyOrder("0", "1")
+    assertThat(registry.find("zipkin_collector.tail_traces")
+      .tags("transport", "tail", "decision", "kept").counters().sumByDouble { it.count() })
+      .isEqualTo(1.0)
+    // lanes share one set of transport meters
+    assertThat(registry.find("zipkin_collector.messages").counters())
+      .extracting<String> { it.id.getTag("transport") }
+      .containsOnlyOnce("tail")
+  }
+
+  @Test fun collectorInFlight_disabledByDefault() {
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(StorageComponent::class.java))
+      .isNotInstanceOf(InFlightLimitingStorageComponent::class.java)
+  }
+
+  @Test fun collectorSampler_adaptsToSpansPerSecond() {
+    TestPropertyValues.of(
+      "zipkin.collector.sample-spans-per-second:1000"
+    ).applyTo(context)
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(CollectorSampler::class.java))
+      .isInstanceOf(AdaptiveCollectorSampler::class.java)
+    assertThat(context.getBean(MeterRegistry::class.java)
+      .get("zipkin_collector.sample_rate").tag("transport", "sampler").gauge().value())
+      .isEqualTo(1.0)
+  }
+
+  @Test fun collectorSampler_fixedRateByDefault() {
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration::class.java,
+      EndpointAutoConfiguration::class.java,
+      PropertyPlaceholderAutoConfiguration::class.java,
+      ZipkinServerConfigurationTest.Config::class.java,
+      ZipkinServerConfiguration::class.java
+    )
+    context.refresh()
+
+    assertThat(context.getBean(CollectorSampler::class.java))
+      .isNotInstanceOf(AdaptiveCollectorSampler::class.java)
+  }
+
   @Configuration
   open class Config {
     @Bean open fun healthAggregator(): HealthAggregator {
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.springframework.beans.factory.NoSuchBeanDefinitionException
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration
+import org.springframework.boot.test.util.TestPropertyValues
+import org.springframework.context.annotation.AnnotationConfigApplicationContext
+import zipkin2.server.internal.local.ZipkinLocalStorageConfiguration
+
+class ZipkinLocalStorageConfigurationTest {
+  @get:Rule val folder = TemporaryFolder()
+  val context = AnnotationConfigApplicationContext()
+  @After fun closeContext() = context.close()
+
+  @Test(expected = NoSuchBeanDefinitionException::class)
+  fun doesntProvidesStorageComponent_whenStorageTypeNotLocal() {
+    TestPropertyValues.of("zipkin.storage.type:mem").applyTo(context)
+    registerLocal()
+    context.refresh()
+
+    context.getBean(LocalStorage::class.java)
+  }
+
+  @Test fun providesStorageComponent_whenStorageTypeLocal() {
+    TestPropertyValues.of("zipkin.storage.type:local").applyTo(context)
+    registerLocal()
+    context.refresh()
+
+    assertThat(context.getBean(LocalStorage::class.java).directory.path)
+      .isEqualTo("zipkin-data")
+  }
+
+  @Test fun canOverrideProperties() {
+    TestPropertyValues.of(
+      "zipkin.storage.type:local",
+      "zipkin.storage.local.directory:" + folder.root.path,
+      "zipkin.storage.local.segment-size:1048576",
+      "zipkin.storage.local.max-segments:4")
+      .applyTo(context)
+    registerLocal()
+    context.refresh()
+
+    val storage = context.getBean(LocalStorage::class.java)
+    assertThat(storage.directory).isEqualTo(folder.root)
+    assertThat(storage.segmentSize).isEqualTo(1048576)
+    assertThat(storage.maxSegments).isEqualTo(4)
+  }
+
+  @Test fun strictTraceId_canSetToFalse() {
+    TestPropertyValues.of(
+      "zipkin.storage.type:local",
+      "zipkin.storage.strict-trace-id:false")
+      .applyTo(context)
+    registerLocal()
+    context.refresh()
+
+    assertThat(context.getBean(LocalStorage::class.java).strictTraceId).isFalse()
+  }
+
+  fun registerLocal() = context.register(
+    PropertyPlaceholderAutoConfiguration::class.java,
+    ZipkinLocalStorageConfiguration::class.java)
+}
@@ -142,7 +142,7 @@ final class CassandraSpanConsumer implements SpanConsumer {
     for (Map.Entry<String, String> autocompleteTag : autocompleteTags) {
       insertAutocompleteValue.maybeAdd(autocompleteTag, calls);
     }
-    return calls.isEmpty() ? Call.create(null) : AggregateCall.newVoidCall(calls);
+    return calls.isEmpty() ? Call.create(null) : AggregateCall.newConcurrentVoidCall(calls);
   }
 
   /** Clears any caches */
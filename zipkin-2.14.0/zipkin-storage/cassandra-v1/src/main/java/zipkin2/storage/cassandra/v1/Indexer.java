@@ -36,7 +36,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin2.Call;
 import zipkin2.Span;
-import zipkin2.internal.HexCodec;
 import zipkin2.internal.Nullable;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
@@ -135,7 +134,7 @@ final class Indexer {
     if (timestamp == 0L) return;
     for (String partitionKey : index.partitionKeys(span)) {
       parsed.put(
-        new PartitionKeyToTraceId(index.table(), partitionKey, span.traceId()),
+        new PartitionKeyToTraceId(index.table(), partitionKey, span.traceIdLow()),
         1000 * (timestamp / 1000)); // index precision is millis
     }
 
@@ -161,8 +160,8 @@ final class Indexer {
 
     // For each entry, insert a new row in the index table asynchronously
     for (Map.Entry<PartitionKeyToTraceId, Long> entry : toInsert.entries()) {
-      long traceId = HexCodec.lowerHexToUnsignedLong(entry.getKey().traceId);
-      calls.add(new IndexCall(traceId, entry.getValue(), entry.getKey().partitionKey));
+      PartitionKeyToTraceId key = entry.getKey();
+      calls.add(new IndexCall(key.traceId, entry.getValue(), key.partitionKey));
     }
   }
 
@@ -20,21 +20,17 @@ final class PartitionKeyToTraceId {
 
   final String table;
   final String partitionKey; // ends up as a partition key, ignoring bucketing
-  final String traceId; // clustering key
+  final long traceId; // clustering key, which is the lower 64 bits of the trace ID
 
-  PartitionKeyToTraceId(String table, String partitionKey, String traceId) {
+  PartitionKeyToTraceId(String table, String partitionKey, long traceId) {
     this.table = table;
     this.partitionKey = partitionKey;
-    this.traceId = lowerTraceId(traceId); // cassandra trace ID is lower 64 bits
-  }
-
-  static String lowerTraceId(String traceId) {
-    return traceId.length() <= 16 ? traceId : traceId.substring(16);
+    this.traceId = traceId;
   }
 
   @Override
   public String toString() {
-    return "(" + table + "," + partitionKey + "," + traceId + ")";
+    return "(" + table + "," + partitionKey + "," + Long.toHexString(traceId) + ")";
   }
 
   @Override
@@ -44,7 +40,7 @@ final class PartitionKeyToTraceId {
       PartitionKeyToTraceId that = (PartitionKeyToTraceId) o;
       return this.table.equals(that.table)
           && this.partitionKey.equals(that.partitionKey)
-          && this.traceId.equals(that.traceId);
+          && this.traceId == that.traceId;
     }
     return false;
   }
@@ -57,7 +53,7 @@ final class PartitionKeyToTraceId {
     h *= 1000003;
     h ^= partitionKey.hashCode();
     h *= 1000003;
-    h ^= traceId.hashCode();
+    h ^= (int) ((traceId >>> 32) ^ traceId);
     return h;
   }
 }
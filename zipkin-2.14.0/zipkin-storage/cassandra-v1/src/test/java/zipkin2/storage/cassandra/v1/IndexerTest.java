@@ -33,28 +33,28 @@ public class IndexerTest {
 
     ImmutableSetMultimap<PartitionKeyToTraceId, Long> parsed = // intentionally shuffled
         ImmutableSetMultimap.<PartitionKeyToTraceId, Long>builder()
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800050L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800150L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", "a"), 1467676800050L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "b"), 1467676800150L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800125L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "b"), 1467676800125L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800110L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "db", "a"), 1467676800150L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", "a"), 1467676800000L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", "a"), 1467676800025L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800050L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800150L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", 0xaL), 1467676800050L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xbL), 1467676800150L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800125L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xbL), 1467676800125L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800110L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "db", 0xaL), 1467676800150L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", 0xaL), 1467676800000L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", 0xaL), 1467676800025L)
             .build();
 
     assertThat(Indexer.entriesThatIncreaseGap(sharedState, parsed))
         .hasSameEntriesAs(
             ImmutableSetMultimap.<PartitionKeyToTraceId, Long>builder()
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800050L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "a"), 1467676800150L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "b"), 1467676800125L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", "b"), 1467676800150L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "db", "a"), 1467676800150L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", "a"), 1467676800000L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", "a"), 1467676800050L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800050L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xaL), 1467676800150L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xbL), 1467676800125L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app", 0xbL), 1467676800150L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "db", 0xaL), 1467676800150L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", 0xaL), 1467676800000L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "web", 0xaL), 1467676800050L)
                 .build());
   }
 
@@ -72,19 +72,19 @@ public class IndexerTest {
     // first service index
     ImmutableSetMultimap<PartitionKeyToTraceId, Long> parsed =
         ImmutableSetMultimap.<PartitionKeyToTraceId, Long>builder()
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", "a"), 1467676800050L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", "a"), 1467676800110L)
-            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", "a"), 1467676800125L)
-            .put(new PartitionKeyToTraceId(SERVICE_SPAN_NAME_INDEX, "app.foo", "a"), 1467676800000L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", 0xaL), 1467676800050L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", 0xaL), 1467676800110L)
+            .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", 0xaL), 1467676800125L)
+            .put(new PartitionKeyToTraceId(SERVICE_SPAN_NAME_INDEX, "app.foo", 0xaL), 1467676800000L)
             .build();
 
     assertThat(Indexer.entriesThatIncreaseGap(sharedState, parsed))
         .hasSameEntriesAs(
             ImmutableSetMultimap.<PartitionKeyToTraceId, Long>builder()
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", "a"), 1467676800050L)
-                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", "a"), 1467676800125L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", 0xaL), 1467676800050L)
+                .put(new PartitionKeyToTraceId(SERVICE_NAME_INDEX, "app.foo", 0xaL), 1467676800125L)
                 .put(
-                    new PartitionKeyToTraceId(SERVICE_SPAN_NAME_INDEX, "app.foo", "a"),
+                    new PartitionKeyToTraceId(SERVICE_SPAN_NAME_INDEX, "app.foo", 0xaL),
                     1467676800000L)
                 .build());
   }
@@ -166,7 +166,7 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
     for (Map.Entry<String, String> autocompleteTag : autocompleteTags) {
       insertAutocompleteValue.maybeAdd(autocompleteTag, calls);
     }
-    return calls.isEmpty() ? Call.create(null) : AggregateCall.newVoidCall(calls);
+    return calls.isEmpty() ? Call.create(null) : AggregateCall.newConcurrentVoidCall(calls);
   }
 
   static long guessTimestamp(Span span) {
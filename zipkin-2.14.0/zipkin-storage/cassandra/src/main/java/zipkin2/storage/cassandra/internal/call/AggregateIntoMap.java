@@ -24,7 +24,7 @@ import zipkin2.internal.AggregateCall;
 
 public final class AggregateIntoMap<K, V> extends AggregateCall<Map<K, V>, Map<K, V>> {
   public AggregateIntoMap(List<Call<Map<K, V>>> calls) {
-    super(calls);
+    super(calls, true); // execute the queries concurrently
   }
 
   @Override protected Map<K, V> newOutput() {
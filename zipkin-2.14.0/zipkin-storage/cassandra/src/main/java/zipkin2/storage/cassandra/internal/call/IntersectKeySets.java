@@ -26,7 +26,7 @@ import zipkin2.internal.AggregateCall;
 public final class IntersectKeySets extends AggregateCall<Map<String, Long>, Set<String>> {
 
   public IntersectKeySets(List<Call<Map<String, Long>>> calls) {
-    super(calls);
+    super(calls, true); // execute the queries concurrently
   }
 
   @Override protected Set<String> newOutput() {
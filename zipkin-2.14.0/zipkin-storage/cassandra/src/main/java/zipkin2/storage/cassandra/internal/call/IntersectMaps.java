@@ -25,7 +25,7 @@ import zipkin2.internal.AggregateCall;
 public final class IntersectMaps<K, V> extends AggregateCall<Map<K, V>, Map<K, V>> {
 
   public IntersectMaps(List<Call<Map<K, V>>> calls) {
-    super(calls);
+    super(calls, true); // execute the queries concurrently
   }
 
   @Override protected Map<K, V> newOutput() {
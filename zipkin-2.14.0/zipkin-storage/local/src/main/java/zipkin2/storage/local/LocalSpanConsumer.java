@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.SpanConsumer;
+
+final class LocalSpanConsumer implements SpanConsumer {
+  final LocalStorage storage;
+
+  LocalSpanConsumer(LocalStorage storage) {
+    this.storage = storage;
+  }
+
+  @Override public Call<Void> accept(List<Span> spans) {
+    if (spans.isEmpty()) return Call.create(null);
+    return new AppendCall(storage, spans);
+  }
+
+  static final class AppendCall extends Call.Base<Void> {
+    final LocalStorage storage;
+    final List<Span> spans;
+
+    AppendCall(LocalStorage storage, List<Span> spans) {
+      this.storage = storage;
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      // encode outside the lock
+      List<byte[]> encoded = new ArrayList<>(spans.size());
+      for (Span span : spans) {
+        byte[] next = SpanBytesEncoder.PROTO3.encode(span);
+        if (next.length + 4 > storage.segmentSize) {
+          throw new IllegalArgumentException("span larger than segmentSize: " + span);
+        }
+        encoded.add(next);
+      }
+
+      storage.ensureOpen();
+      storage.lock.writeLock().lock();
+      try {
+        storage.append(spans, encoded);
+      } finally {
+        storage.lock.writeLock().unlock();
+      }
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      try {
+        callback.onSuccess(doExecute());
+      } catch (IOException | RuntimeException | Error e) {
+        Call.propagateIfFatal(e);
+        callback.onError(e);
+      }
+    }
+
+    @Override public Call<Void> clone() {
+      return new AppendCall(storage, spans);
+    }
+
+    @Override public String toString() {
+      return "AppendCall{" + spans + "}";
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.GroupByTraceId;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StrictTraceId;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
+
+/**
+ * Queries segments of {@link LocalStorage}. Candidates are found via segment indexes under the read
+ * lock, then read and tested in batches, so that a slow query doesn't block writes for long.
+ */
+final class LocalSpanStore implements SpanStore, AutocompleteTags, ServiceAndSpanNames {
+  /** How many candidate traces a query reads per acquisition of the read lock */
+  static final int QUERY_BATCH_SIZE = 64;
+
+  final LocalStorage storage;
+
+  LocalSpanStore(LocalStorage storage) {
+    this.storage = storage;
+  }
+
+  @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+    return getTraces(request, storage.strictTraceId);
+  }
+
+  Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
+    if (!storage.searchEnabled) return Call.emptyList();
+    long endTs = request.endTs() * 1000;
+    long startTs = endTs - request.lookback() * 1000;
+
+    Map<Long, Long> traceIdToTimestamp = new HashMap<>();
+    storage.ensureOpen();
+    storage.lock.readLock().lock();
+    try {
+      for (Segment segment : storage.segments) {
+        segment.addCandidates(request.serviceName(), request.spanName(), startTs, endTs,
+          traceIdToTimestamp);
+      }
+    } finally {
+      storage.lock.readLock().unlock();
+    }
+
+    // most recent first, with ties broken the same as InMemoryStorage
+    List<Map.Entry<Long, Long>> candidates = new ArrayList<>(traceIdToTimestamp.entrySet());
+    candidates.sort((left, right) -> {
+      int result = Long.compare(right.getValue(), left.getValue());
+      if (result != 0) return result;
+      return Long.compareUnsigned(right.getKey(), left.getKey());
+    });
+
+    Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId =
+      GroupByTraceId.create(strictTraceId);
+    List<List<Span>> result = new ArrayList<>();
+    for (int i = 0, length = candidates.size(); i < length && result.size() < request.limit(); ) {
+      int batchEnd = Math.min(i + QUERY_BATCH_SIZE, length);
+      List<List<Span>> batch = new ArrayList<>(batchEnd - i);
+      storage.lock.readLock().lock();
+      try {
+        for (int j = i; j < batchEnd; j++) batch.add(spans(candidates.get(j).getKey()));
+      } finally {
+        storage.lock.readLock().unlock();
+      }
+
+      for (int j = 0; j < batch.size() && result.size() < request.limit(); j++) {
+        List<Span> next = batch.get(j);
+        if (next.isEmpty() || !request.test(next)) continue; // deleted or doesn't match
+        for (List<Span> trace : groupByTraceId.map(next)) {
+          if (!strictTraceId || request.test(trace)) result.add(trace);
+        }
+      }
+      i = batchEnd;
+    }
+    return Call.create(result);
+  }
+
+  /** Returns spans in the trace, in order of appends. Callers must hold the read lock. */
+  List<Span> spans(long lowTraceId) {
+    Set<Span> result = new LinkedHashSet<>(); // drops spans reported more than once
+    for (Segment segment : storage.segments) segment.addSpans(lowTraceId, result);
+    return new ArrayList<>(result);
+  }
+
+  @Override public Call<List<Span>> getTrace(String traceId) {
+    traceId = Span.normalizeTraceId(traceId);
+    List<Span> result;
+    storage.ensureOpen();
+    storage.lock.readLock().lock();
+    try {
+      result = spans(lowerHexToUnsignedLong(traceId));
+    } finally {
+      storage.lock.readLock().unlock();
+    }
+    if (storage.strictTraceId) result = StrictTraceId.filterSpans(traceId).map(result);
+    return result.isEmpty() ? Call.emptyList() : Call.create(result);
+  }
+
+  @Override public Call<List<String>> getServiceNames() {
+    if (!storage.searchEnabled) return Call.emptyList();
+    Set<String> result = new TreeSet<>();
+    storage.ensureOpen();
+    storage.lock.readLock().lock();
+    try {
+      for (Segment segment : storage.segments) result.addAll(segment.serviceToTraceIds.keySet());
+    } finally {
+      storage.lock.readLock().unlock();
+    }
+    return Call.create(new ArrayList<>(result));
+  }
+
+  @Override public Call<List<String>> getRemoteServiceNames(String serviceName) {
+    if (serviceName.isEmpty() || !storage.searchEnabled) return Call.emptyList();
+    serviceName = serviceName.toLowerCase(Locale.ROOT); // service names are always lowercase!
+    return unionOfValues(serviceName, false);
+  }
+
+  @Override public Call<List<String>> getSpanNames(String serviceName) {
+    if (serviceName.isEmpty() || !storage.searchEnabled) return Call.emptyList();
+    serviceName = serviceName.toLowerCase(Locale.ROOT); // service names are always lowercase!
+    return unionOfValues(serviceName, true);
+  }
+
+  @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+    if (endTs <= 0) throw new IllegalArgumentException("endTs <= 0");
+    if (lookback <= 0) throw new IllegalArgumentException("lookback <= 0");
+    QueryRequest request =
+      QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
+
+    // We don't have a query parameter for strictTraceId when fetching dependency links, so we
+    // ignore traceIdHigh. Otherwise, a single trace can appear as two, doubling callCount.
+    return getTraces(request, false).map(DependencyLinker::link);
+  }
+
+  @Override public Call<List<String>> getKeys() {
+    if (!storage.searchEnabled) return Call.emptyList();
+    return Call.create(storage.autocompleteKeys);
+  }
+
+  @Override public Call<List<String>> getValues(String key) {
+    if (key == null) throw new NullPointerException("key == null");
+    if (key.isEmpty()) throw new IllegalArgumentException("key was empty");
+    if (!storage.searchEnabled) return Call.emptyList();
+    Set<String> result = new TreeSet<>();
+    storage.ensureOpen();
+    storage.lock.readLock().lock();
+    try {
+      for (Segment segment : storage.segments) {
+        Collection<String> values = segment.autocompleteTags.get(key);
+        if (values != null) result.addAll(values);
+      }
+    } finally {
+      storage.lock.readLock().unlock();
+    }
+    return Call.create(new ArrayList<>(result));
+  }
+
+  Call<List<String>> unionOfValues(String serviceName, boolean spanNames) {
+    Set<String> result = new TreeSet<>();
+    storage.ensureOpen();
+    storage.lock.readLock().lock();
+    try {
+      for (Segment segment : storage.segments) {
+        Collection<String> values = spanNames
+          ? segment.serviceToSpanNames.get(serviceName)
+          : segment.serviceToRemoteServiceNames.get(serviceName);
+        if (values != null) result.addAll(values);
+      }
+    } finally {
+      storage.lock.readLock().unlock();
+    }
+    return Call.create(new ArrayList<>(result));
+  }
+}
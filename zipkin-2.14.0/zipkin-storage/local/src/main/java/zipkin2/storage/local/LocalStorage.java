@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.ServiceAndSpanNames;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Durable storage in a local directory, for sites that don't want to run a database.
+ *
+ * <p>Spans are appended to fixed-size segment files, which are memory-mapped. When the current
+ * segment is full, a new one is started. When there are more than {@link Builder#maxSegments(int)},
+ * the eldest segment file is deleted. Each segment has in-memory indexes of trace ID, service, span
+ * name and time, which are rebuilt from the files when the storage is opened.
+ *
+ * <p>A segment is forced to disk when it fills and when this is closed. Spans in the current
+ * segment survive the process crashing, as the operating system still writes them, but not the
+ * operating system crashing or losing power.
+ */
+public final class LocalStorage extends StorageComponent {
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder extends StorageComponent.Builder {
+    boolean strictTraceId = true, searchEnabled = true;
+    File directory;
+    int segmentSize = 64 * 1024 * 1024, maxSegments = 16;
+    List<String> autocompleteKeys = Collections.emptyList();
+
+    @Override public Builder strictTraceId(boolean strictTraceId) {
+      this.strictTraceId = strictTraceId;
+      return this;
+    }
+
+    @Override public Builder searchEnabled(boolean searchEnabled) {
+      this.searchEnabled = searchEnabled;
+      return this;
+    }
+
+    @Override public Builder autocompleteKeys(List<String> keys) {
+      if (keys == null) throw new NullPointerException("keys == null");
+      this.autocompleteKeys = keys;
+      return this;
+    }
+
+    /** The directory holding segment files, which is created if it doesn't exist. Required. */
+    public Builder directory(File directory) {
+      if (directory == null) throw new NullPointerException("directory == null");
+      this.directory = directory;
+      return this;
+    }
+
+    /** The size in bytes of each segment file. A span larger than this is rejected. */
+    public Builder segmentSize(int segmentSize) {
+      if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize <= 0");
+      this.segmentSize = segmentSize;
+      return this;
+    }
+
+    /**
+     * The eldest segment file is deleted to ensure there are no more than this. Disk usage is at
+     * most this times {@link #segmentSize(int)}.
+     */
+    public Builder maxSegments(int maxSegments) {
+      if (maxSegments < 2) throw new IllegalArgumentException("maxSegments < 2");
+      this.maxSegments = maxSegments;
+      return this;
+    }
+
+    @Override public LocalStorage build() {
+      if (directory == null) throw new NullPointerException("directory == null");
+      return new LocalStorage(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final boolean strictTraceId, searchEnabled;
+  final File directory;
+  final int segmentSize, maxSegments;
+  final List<String> autocompleteKeys;
+  final Set<String> autocompleteKeySet;
+
+  final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** Eldest first. Modifications are guarded by the lock. Null until opened. */
+  volatile List<Segment> segments;
+  volatile boolean closeCalled;
+
+  LocalStorage(Builder builder) {
+    this.strictTraceId = builder.strictTraceId;
+    this.searchEnabled = builder.searchEnabled;
+    this.directory = builder.directory;
+    this.segmentSize = builder.segmentSize;
+    this.maxSegments = builder.maxSegments;
+    this.autocompleteKeys = builder.autocompleteKeys;
+    this.autocompleteKeySet = new LinkedHashSet<>(builder.autocompleteKeys);
+  }
+
+  @Override public SpanStore spanStore() {
+    return new LocalSpanStore(this);
+  }
+
+  @Override public AutocompleteTags autocompleteTags() {
+    return new LocalSpanStore(this);
+  }
+
+  @Override public ServiceAndSpanNames serviceAndSpanNames() {
+    return new LocalSpanStore(this);
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return new LocalSpanConsumer(this);
+  }
+
+  /** Opens segments on first use, as opposed to when built, so that errors are reported via check */
+  void ensureOpen() {
+    if (segments != null) return;
+    lock.writeLock().lock();
+    try {
+      if (segments == null) segments = openSegments();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  List<Segment> openSegments() {
+    if (closeCalled) throw new IllegalStateException("closed");
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new UncheckedIOException(new IOException("couldn't create " + directory));
+    }
+    String[] fileNames = directory.list();
+    if (fileNames == null) {
+      throw new UncheckedIOException(new IOException("couldn't list " + directory));
+    }
+    Arrays.sort(fileNames); // sequence numbers are fixed-width hex, so sort by name
+    List<Segment> result = new ArrayList<>();
+    try {
+      for (String fileName : fileNames) {
+        if (!Segment.isSegment(fileName)) continue;
+        result.add(Segment.open(new File(directory, fileName), searchEnabled, autocompleteKeySet));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result;
+  }
+
+  /** Appends spans, rolling and deleting segments as needed. Callers must hold the write lock. */
+  void append(List<Span> spans, List<byte[]> encoded) throws IOException {
+    if (closeCalled) throw new IllegalStateException("closed"); // segments were already flushed
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+      if (current == null || !current.fits(encoded.get(i))) {
+        if (current != null) current.flush(); // it won't be written again
+        long sequence = current != null ? current.sequence + 1 : 0L;
+        current = Segment.create(directory, sequence, segmentSize, searchEnabled,
+          autocompleteKeySet);
+        segments.add(current);
+        while (segments.size() > maxSegments) segments.remove(0).delete();
+      }
+      current.append(spans.get(i), encoded.get(i));
+    }
+  }
+
+  /** Deletes all segments. Used for testing. */
+  public void clear() throws IOException {
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      for (Segment segment : segments) segment.delete();
+      segments.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override public CheckResult check() {
+    try {
+      ensureOpen();
+      if (!directory.canWrite()) throw new IOException("can't write to " + directory);
+    } catch (IOException | RuntimeException e) {
+      return CheckResult.failed(e);
+    }
+    return CheckResult.OK;
+  }
+
+  /** Flushes segments to disk. Afterwards, spans can't be appended. */
+  @Override public void close() {
+    lock.writeLock().lock();
+    try {
+      if (closeCalled) return;
+      closeCalled = true;
+      if (segments == null) return;
+      for (Segment segment : segments) segment.flush();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override public String toString() {
+    return "LocalStorage{directory=" + directory + "}";
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * An append-only file of proto3-encoded spans, mapped into memory, with indexes of what's in it.
+ *
+ * <p>Each record is a 4-byte length followed by the encoded span. The length is written after the
+ * span, so a record torn by a crash reads as the end of the segment. Indexes aren't persisted: they
+ * are rebuilt by scanning the file when reopened.
+ *
+ * <p>Not thread safe: callers hold the lock of {@link LocalStorage}.
+ */
+final class Segment {
+  static final String PREFIX = "segment-", SUFFIX = ".dat";
+
+  final long sequence;
+  final File file;
+  final MappedByteBuffer buffer;
+  final boolean searchEnabled;
+  final Set<String> autocompleteKeys;
+
+  /** Offset of the next record */
+  int position;
+  long minTimestamp = Long.MAX_VALUE, maxTimestamp = Long.MIN_VALUE;
+
+  /** Spans by lower 64-bits of their trace ID */
+  final Map<Long, TraceEntry> traces = new LinkedHashMap<>();
+  /** Lower 64-bits of trace IDs by the timestamps of their spans */
+  final NavigableMap<Long, Set<Long>> timestampToTraceIds = new TreeMap<>();
+  final Map<String, Set<Long>> serviceToTraceIds = new HashMap<>();
+  final Map<String, Set<Long>> spanNameToTraceIds = new HashMap<>();
+  final Map<String, Set<String>> serviceToSpanNames = new HashMap<>();
+  final Map<String, Set<String>> serviceToRemoteServiceNames = new HashMap<>();
+  final Map<String, Set<String>> autocompleteTags = new HashMap<>();
+
+  /** Creates a new segment file of the given size, which must not already exist. */
+  static Segment create(File directory, long sequence, int size, boolean searchEnabled,
+    Set<String> autocompleteKeys) throws IOException {
+    File file = new File(directory, fileName(sequence));
+    if (file.exists()) throw new IOException(file + " already exists");
+    return new Segment(sequence, file, size, searchEnabled, autocompleteKeys);
+  }
+
+  /** Opens an existing segment file, rebuilding its indexes. */
+  static Segment open(File file, boolean searchEnabled, Set<String> autocompleteKeys)
+    throws IOException {
+    Segment result = new Segment(sequence(file.getName()), file, (int) file.length(),
+      searchEnabled, autocompleteKeys);
+    result.scan();
+    return result;
+  }
+
+  Segment(long sequence, File file, int size, boolean searchEnabled,
+    Set<String> autocompleteKeys) throws IOException {
+    this.sequence = sequence;
+    this.file = file;
+    this.searchEnabled = searchEnabled;
+    this.autocompleteKeys = autocompleteKeys;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(size); // new files are zero-filled, which reads as no records
+      // the mapping remains valid after the channel is closed
+      this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  static String fileName(long sequence) {
+    return PREFIX + String.format("%016x", sequence) + SUFFIX;
+  }
+
+  static boolean isSegment(String fileName) {
+    return fileName.startsWith(PREFIX) && fileName.endsWith(SUFFIX)
+      && fileName.length() == PREFIX.length() + 16 + SUFFIX.length();
+  }
+
+  static long sequence(String fileName) {
+    return Long.parseUnsignedLong(fileName.substring(PREFIX.length(), PREFIX.length() + 16), 16);
+  }
+
+  boolean fits(byte[] encoded) {
+    return buffer.capacity() - position >= encoded.length + 4;
+  }
+
+  void append(Span span, byte[] encoded) {
+    int offset = position;
+    ByteBuffer record = buffer.duplicate();
+    record.position(offset + 4);
+    record.put(encoded);
+    buffer.putInt(offset, encoded.length); // written last, marking the record complete
+    position += 4 + encoded.length;
+    index(span, offset);
+  }
+
+  /** Reads records until a zero length, which is either the end of data or a torn write. */
+  void scan() {
+    while (buffer.capacity() - position >= 4) {
+      int length = buffer.getInt(position);
+      if (length <= 0 || length > buffer.capacity() - position - 4) break;
+      Span span;
+      try {
+        span = SpanBytesDecoder.PROTO3.decodeOne(read(position));
+      } catch (IllegalArgumentException e) {
+        span = null;
+      }
+      if (span == null) break; // corrupt: ignore this and later records
+      index(span, position);
+      position += 4 + length;
+    }
+  }
+
+  void index(Span span, int offset) {
+    long lowTraceId = span.traceIdLow();
+    long timestamp = span.timestampAsLong();
+    TraceEntry entry = traces.get(lowTraceId);
+    if (entry == null) traces.put(lowTraceId, entry = new TraceEntry());
+    entry.add(offset, timestamp);
+    if (timestamp != 0L) {
+      minTimestamp = Math.min(minTimestamp, timestamp);
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+      put(timestampToTraceIds, timestamp, lowTraceId);
+    }
+
+    if (!searchEnabled) return;
+    String serviceName = span.localServiceName();
+    if (serviceName != null) {
+      put(serviceToTraceIds, serviceName, lowTraceId);
+      if (span.name() != null) put(serviceToSpanNames, serviceName, span.name());
+      if (span.remoteServiceName() != null) {
+        put(serviceToRemoteServiceNames, serviceName, span.remoteServiceName());
+      }
+    }
+    if (span.name() != null) put(spanNameToTraceIds, span.name(), lowTraceId);
+    for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+      if (autocompleteKeys.contains(tag.getKey())) {
+        put(autocompleteTags, tag.getKey(), tag.getValue());
+      }
+    }
+  }
+
+  static <K, V> void put(Map<K, Set<V>> multimap, K key, V value) {
+    Set<V> values = multimap.get(key);
+    if (values == null) multimap.put(key, values = new LinkedHashSet<>());
+    values.add(value);
+  }
+
+  /** Returns true if any span in this segment has a timestamp in the range. */
+  boolean overlaps(long startTs, long endTs) {
+    return minTimestamp <= endTs && maxTimestamp >= startTs;
+  }
+
+  /**
+   * Adds the trace IDs in this segment that could match the request to the input, along with the
+   * latest timestamp of their spans in range.
+   */
+  void addCandidates(String serviceName, String spanName, long startTs, long endTs,
+    Map<Long, Long> traceIdToTimestamp) {
+    if (!overlaps(startTs, endTs)) return;
+
+    Collection<Long> lowTraceIds = null;
+    if (serviceName != null) {
+      lowTraceIds = serviceToTraceIds.get(serviceName);
+      if (lowTraceIds == null) return;
+    }
+    if (spanName != null) {
+      Set<Long> withSpanName = spanNameToTraceIds.get(spanName);
+      if (withSpanName == null) return;
+      if (lowTraceIds == null) {
+        lowTraceIds = withSpanName;
+      } else { // intersect, iterating the smaller set
+        Collection<Long> smaller = lowTraceIds.size() < withSpanName.size()
+          ? lowTraceIds : withSpanName;
+        Collection<Long> larger = smaller == lowTraceIds ? withSpanName : lowTraceIds;
+        Set<Long> intersection = new LinkedHashSet<>();
+        for (Long lowTraceId : smaller) {
+          if (larger.contains(lowTraceId)) intersection.add(lowTraceId);
+        }
+        lowTraceIds = intersection;
+      }
+    }
+
+    if (lowTraceIds == null) { // only constrained by time, so use the time index
+      for (Map.Entry<Long, Set<Long>> entry :
+        timestampToTraceIds.subMap(startTs, true, endTs, true).entrySet()) {
+        for (Long lowTraceId : entry.getValue()) {
+          putLatest(traceIdToTimestamp, lowTraceId, entry.getKey());
+        }
+      }
+      return;
+    }
+
+    for (Long lowTraceId : lowTraceIds) {
+      long latest = traces.get(lowTraceId).latestTimestamp(startTs, endTs);
+      if (latest != 0L) putLatest(traceIdToTimestamp, lowTraceId, latest);
+    }
+  }
+
+  static void putLatest(Map<Long, Long> traceIdToTimestamp, Long lowTraceId, long timestamp) {
+    Long existing = traceIdToTimestamp.get(lowTraceId);
+    if (existing == null || existing < timestamp) traceIdToTimestamp.put(lowTraceId, timestamp);
+  }
+
+  /** Adds decoded spans in the trace to the input */
+  void addSpans(long lowTraceId, Collection<Span> spans) {
+    TraceEntry entry = traces.get(lowTraceId);
+    if (entry == null) return;
+    for (int i = 0; i < entry.count; i++) {
+      spans.add(SpanBytesDecoder.PROTO3.decodeOne(read(entry.offsets[i])));
+    }
+  }
+
+  ByteBuffer read(int offset) {
+    ByteBuffer result = buffer.duplicate(); // don't share a position with concurrent readers
+    result.position(offset + 4);
+    result.limit(offset + 4 + buffer.getInt(offset));
+    return result.slice();
+  }
+
+  void flush() {
+    buffer.force();
+  }
+
+  void delete() throws IOException {
+    if (!file.delete() && file.exists()) throw new IOException("couldn't delete " + file);
+  }
+
+  @Override public String toString() {
+    return "Segment{" + file.getName() + ", traces=" + traces.size() + "}";
+  }
+
+  /** Offsets of spans in a trace, and the timestamps needed to find it by time range */
+  static final class TraceEntry {
+    int[] offsets = new int[2];
+    long[] timestamps = new long[2];
+    int count;
+
+    void add(int offset, long timestamp) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        timestamps = Arrays.copyOf(timestamps, count * 2);
+      }
+      offsets[count] = offset;
+      timestamps[count++] = timestamp;
+    }
+
+    /** Returns the latest timestamp in range or zero if none. */
+    long latestTimestamp(long startTs, long endTs) {
+      long result = 0L;
+      for (int i = 0; i < count; i++) {
+        long timestamp = timestamps[i];
+        if (timestamp != 0L && timestamp >= startTs && timestamp <= endTs && timestamp > result) {
+          result = timestamp;
+        }
+      }
+      return result;
+    }
+  }
+}
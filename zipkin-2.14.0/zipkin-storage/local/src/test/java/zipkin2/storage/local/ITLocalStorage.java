@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import zipkin2.storage.StorageComponent;
+
+@RunWith(Enclosed.class)
+public class ITLocalStorage {
+
+  static LocalStorage.Builder storageBuilder(TemporaryFolder folder) throws IOException {
+    return LocalStorage.newBuilder().directory(folder.newFolder()).segmentSize(1024 * 1024);
+  }
+
+  public static class ITSpanStore extends zipkin2.storage.ITSpanStore {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() throws IOException {
+      storage = storageBuilder(folder).build();
+    }
+
+    @After public void close() {
+      storage.close();
+    }
+  }
+
+  public static class ITSearchEnabledFalse extends zipkin2.storage.ITSearchEnabledFalse {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() throws IOException {
+      storage = storageBuilder(folder).searchEnabled(false).build();
+    }
+
+    @After public void close() {
+      storage.close();
+    }
+  }
+
+  public static class ITStrictTraceIdFalse extends zipkin2.storage.ITStrictTraceIdFalse {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() throws IOException {
+      storage = storageBuilder(folder).strictTraceId(false).build();
+    }
+
+    @After public void close() {
+      storage.close();
+    }
+  }
+
+  public static class ITAutocompleteTags extends zipkin2.storage.ITAutocompleteTags {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+
+    @Override protected StorageComponent.Builder storageBuilder() {
+      try {
+        return ITLocalStorage.storageBuilder(folder);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override public void clear() {
+      // no need.. each storage is in a new folder
+    }
+  }
+
+  public static class ITServiceAndSpanNames extends zipkin2.storage.ITServiceAndSpanNames {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() throws IOException {
+      storage = storageBuilder(folder).build();
+    }
+
+    @After public void close() {
+      storage.close();
+    }
+  }
+
+  public static class ITDependencies extends zipkin2.storage.ITDependencies {
+    @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+    LocalStorage storage;
+
+    @Override protected LocalStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() throws IOException {
+      storage = storageBuilder(folder).build();
+    }
+
+    @After public void close() {
+      storage.close();
+    }
+  }
+}
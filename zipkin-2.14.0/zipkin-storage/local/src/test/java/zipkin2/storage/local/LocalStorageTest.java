@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.CheckResult;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.DAY;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class LocalStorageTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  LocalStorage storage;
+
+  @After public void close() {
+    if (storage != null) storage.close();
+  }
+
+  LocalStorage.Builder builder() {
+    return LocalStorage.newBuilder().directory(folder.getRoot()).segmentSize(4096);
+  }
+
+  @Test public void directory_required() {
+    assertThatThrownBy(() -> LocalStorage.newBuilder().build())
+      .isInstanceOf(NullPointerException.class)
+      .hasMessage("directory == null");
+  }
+
+  @Test public void reopen_rebuildsIndexes() throws IOException {
+    storage = builder().build();
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.close();
+
+    storage = builder().build();
+    assertThat(storage.spanStore().getTrace(TRACE.get(0).traceId()).execute())
+      .containsExactlyElementsOf(TRACE);
+    assertThat(storage.spanStore().getServiceNames().execute())
+      .containsExactly("backend", "frontend");
+    assertThat(storage.spanStore().getTraces(QueryRequest.newBuilder()
+      .endTs(TODAY + DAY).lookback(DAY * 2).limit(10).serviceName("backend").build()).execute())
+      .containsExactly(TRACE);
+  }
+
+  @Test public void reopen_appendsToLastSegment() throws IOException {
+    storage = builder().build();
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).execute();
+    storage.close();
+
+    storage = builder().build();
+    Span next = CLIENT_SPAN.toBuilder().id("3").build();
+    storage.spanConsumer().accept(asList(next)).execute();
+
+    assertThat(storage.spanStore().getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactly(CLIENT_SPAN, next);
+    assertThat(segmentFiles()).hasSize(1);
+  }
+
+  @Test public void reopen_ignoresTornRecord() throws IOException {
+    storage = builder().build();
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).execute();
+    storage.close();
+
+    // simulate a crash after writing a length, but before the span was complete
+    File segment = segmentFiles().get(0);
+    int end;
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      end = 4 + raf.readInt();
+      raf.seek(end);
+      raf.writeInt(100);
+    }
+
+    storage = builder().build();
+    assertThat(storage.spanStore().getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactly(CLIENT_SPAN);
+  }
+
+  @Test public void retention_deletesEldestSegment() throws IOException {
+    storage = builder().maxSegments(2).build();
+    List<Span> spans = IntStream.rangeClosed(1, 200).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY + i) * 1000).duration(1L)
+      .localEndpoint(Endpoint.newBuilder().serviceName("app").build())
+      .build()).collect(toList());
+    for (Span span : spans) storage.spanConsumer().accept(asList(span)).execute();
+
+    assertThat(segmentFiles()).hasSize(2);
+    assertThat(storage.spanStore().getTrace(spans.get(0).traceId()).execute()).isEmpty();
+    assertThat(storage.spanStore().getTrace(spans.get(199).traceId()).execute())
+      .containsExactly(spans.get(199));
+  }
+
+  @Test public void accept_rejectsSpanLargerThanSegment() {
+    storage = builder().build();
+    Span large = CLIENT_SPAN.toBuilder().putTag("large", new String(new char[5000])).build();
+
+    assertThatThrownBy(() -> storage.spanConsumer().accept(asList(large)).execute())
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void accept_failsAfterClose() throws IOException {
+    storage = builder().build();
+    storage.spanConsumer().accept(asList(CLIENT_SPAN)).execute();
+    storage.close();
+
+    Span next = CLIENT_SPAN.toBuilder().id("3").build();
+    assertThatThrownBy(() -> storage.spanConsumer().accept(asList(next)).execute())
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("closed");
+
+    storage = builder().build();
+    assertThat(storage.spanStore().getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactly(CLIENT_SPAN);
+  }
+
+  @Test public void check_failsWhenDirectoryIsAFile() throws IOException {
+    storage = LocalStorage.newBuilder().directory(folder.newFile()).build();
+
+    CheckResult result = storage.check();
+    assertThat(result.ok()).isFalse();
+  }
+
+  List<File> segmentFiles() {
+    File[] files = folder.getRoot().listFiles((dir, name) -> Segment.isSegment(name));
+    return asList(files);
+  }
+}
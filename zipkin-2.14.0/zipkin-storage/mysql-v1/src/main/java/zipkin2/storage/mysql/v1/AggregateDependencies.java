@@ -73,17 +73,18 @@ final class AggregateDependencies implements Function<DSLContext, List<Dependenc
 
     if (!traces.hasNext()) return Collections.emptyList();
 
-    DependencyLinker linker = new DependencyLinker();
+    // Reading the cursor is serialized, but linking the traces read is split across processors.
+    return DependencyLinker.link(() -> new Iterator<List<Span>>() {
+      @Override public boolean hasNext() {
+        return traces.hasNext();
+      }
 
-    List<Span> nextTrace = new ArrayList<>();
-    while (traces.hasNext()) {
-      Iterator<Span> i = traces.next();
-      while (i.hasNext()) nextTrace.add(i.next());
-      linker.putTrace(nextTrace);
-      nextTrace.clear();
-    }
-
-    return linker.link();
+      @Override public List<Span> next() {
+        List<Span> nextTrace = new ArrayList<>();
+        for (Iterator<Span> i = traces.next(); i.hasNext(); ) nextTrace.add(i.next());
+        return nextTrace;
+      }
+    });
   }
 
   @Override
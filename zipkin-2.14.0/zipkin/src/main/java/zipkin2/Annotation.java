@@ -85,6 +85,10 @@ public final class Annotation implements Comparable<Annotation>, Serializable {
   }
 
   @Override public int hashCode() {
+    return hashCode(timestamp, value);
+  }
+
+  static int hashCode(long timestamp, String value) {
     int h = 1;
     h *= 1000003;
     h ^= (int) ((timestamp >>> 32) ^ timestamp);
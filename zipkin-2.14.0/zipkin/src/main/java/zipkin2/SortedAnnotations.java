@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Immutable view of {@link Span#annotations()}, stored as parallel arrays sorted by timestamp, then
+ * value. This retains two arrays per span as opposed to an object per annotation. Annotations are
+ * created on access.
+ */
+final class SortedAnnotations extends AbstractList<Annotation> implements RandomAccess {
+  static final SortedAnnotations EMPTY = new SortedAnnotations(new long[0], new String[0]);
+
+  final long[] timestamps;
+  final String[] values;
+
+  /** Neither array is copied, so callers must not modify them after. */
+  SortedAnnotations(long[] timestamps, String[] values) {
+    this.timestamps = timestamps;
+    this.values = values;
+  }
+
+  @Override public Annotation get(int index) {
+    return new Annotation(timestamps[index], values[index]);
+  }
+
+  @Override public int size() {
+    return timestamps.length;
+  }
+
+  @Override public boolean isEmpty() {
+    return timestamps.length == 0;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof SortedAnnotations)) return super.equals(o);
+    SortedAnnotations that = (SortedAnnotations) o;
+    return Arrays.equals(timestamps, that.timestamps) && Arrays.equals(values, that.values);
+  }
+
+  /** Same as {@link java.util.List#hashCode()}, without allocating annotations. */
+  @Override public int hashCode() {
+    int h = 1;
+    for (int i = 0; i < timestamps.length; i++) {
+      h = 31 * h + Annotation.hashCode(timestamps[i], values[i]);
+    }
+    return h;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable view of {@link Span#tags()}, stored as parallel arrays sorted by key. This retains two
+ * arrays per span as opposed to a hash table and an entry object per tag.
+ */
+final class SortedTags extends AbstractMap<String, String> {
+  static final SortedTags EMPTY = new SortedTags(new String[0], new String[0]);
+
+  final String[] keys, values;
+
+  /** Neither array is copied, so callers must not modify them after. */
+  SortedTags(String[] keys, String[] values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  @Override public int size() {
+    return keys.length;
+  }
+
+  @Override public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  @Override public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override public String get(Object key) {
+    int i = indexOf(key);
+    return i >= 0 ? values[i] : null;
+  }
+
+  int indexOf(Object key) {
+    if (!(key instanceof String) || keys.length == 0) return -1;
+    return Arrays.binarySearch(keys, key);
+  }
+
+  @Override public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override public int size() {
+        return keys.length;
+      }
+
+      @Override public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator();
+      }
+    };
+  }
+
+  final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    int i;
+
+    @Override public boolean hasNext() {
+      return i < keys.length;
+    }
+
+    @Override public Map.Entry<String, String> next() {
+      if (i >= keys.length) throw new NoSuchElementException();
+      Map.Entry<String, String> result = new SimpleImmutableEntry<>(keys[i], values[i]);
+      i++;
+      return result;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof SortedTags)) return super.equals(o);
+    SortedTags that = (SortedTags) o;
+    return Arrays.equals(keys, that.keys) && Arrays.equals(values, that.values);
+  }
+
+  /** Same as {@link Map#hashCode()}, without allocating entries. */
+  @Override public int hashCode() {
+    int h = 0;
+    for (int i = 0; i < keys.length; i++) {
+      h += keys[i].hashCode() ^ values[i].hashCode();
+    }
+    return h;
+  }
+}
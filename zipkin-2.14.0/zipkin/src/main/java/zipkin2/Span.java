@@ -20,14 +20,10 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
@@ -37,6 +33,7 @@ import zipkin2.internal.Platform;
 import static java.lang.String.format;
 import static java.util.logging.Level.FINEST;
 import static zipkin2.internal.HexCodec.HEX_DIGITS;
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 /**
  * A span is a single-host view of an operation. A trace is a series of spans (often RPC calls)
@@ -87,6 +84,24 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     return traceId;
   }
 
+  /**
+   * The upper 64 bits of the {@link #traceId() trace ID}, or zero if it is 64-bit.
+   *
+   * <p>Using this method will avoid parsing the hex trace ID, so is encouraged when indexing data.
+   */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * The lower 64 bits of the {@link #traceId() trace ID}.
+   *
+   * <p>Using this method will avoid parsing the hex trace ID, so is encouraged when indexing data.
+   */
+  public long traceIdLow() {
+    return traceIdLow;
+  }
+
   /**
    * The parent's {@link #id} or null if this the root span in a trace.
    *
@@ -96,6 +111,11 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     return parentId;
   }
 
+  /** Like {@link #parentId()} except returns a primitive where zero implies absent. */
+  public long parentIdAsLong() {
+    return parentIdAsLong;
+  }
+
   /**
    * Unique 64bit identifier for this operation within the trace.
    *
@@ -107,6 +127,11 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     return id;
   }
 
+  /** Like {@link #id()} except returns a primitive. */
+  public long idAsLong() {
+    return idAsLong;
+  }
+
   /** Indicates the primary span type. */
   public enum Kind {
     CLIENT,
@@ -288,26 +313,32 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
   public static final class Builder {
     String traceId, parentId, id;
+    long traceIdHigh, traceIdLow, parentIdAsLong, idAsLong; // parsed once, zero means null
     Kind kind;
     String name;
     long timestamp, duration; // zero means null
     Endpoint localEndpoint, remoteEndpoint;
-    ArrayList<Annotation> annotations;
-    TreeMap<String, String> tags;
+    // Sorted parallel arrays, so that the span can copy them instead of building collections
+    long[] annotationTimestamps;
+    String[] annotationValues;
+    int annotationCount;
+    String[] tagKeys, tagValues;
+    int tagCount;
     int flags = 0; // bit field for timestamp and duration
 
     public Builder clear() {
       traceId = null;
       parentId = null;
       id = null;
+      traceIdHigh = traceIdLow = parentIdAsLong = idAsLong = 0L;
       kind = null;
       name = null;
       timestamp = 0L;
       duration = 0L;
       localEndpoint = null;
       remoteEndpoint = null;
-      if (annotations != null) annotations.clear();
-      if (tags != null) tags.clear();
+      clearAnnotations();
+      clearTags();
       flags = 0;
       return this;
     }
@@ -317,17 +348,25 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       result.traceId = traceId;
       result.parentId = parentId;
       result.id = id;
+      result.traceIdHigh = traceIdHigh;
+      result.traceIdLow = traceIdLow;
+      result.parentIdAsLong = parentIdAsLong;
+      result.idAsLong = idAsLong;
       result.kind = kind;
       result.name = name;
       result.timestamp = timestamp;
       result.duration = duration;
       result.localEndpoint = localEndpoint;
       result.remoteEndpoint = remoteEndpoint;
-      if (annotations != null) {
-        result.annotations = (ArrayList) annotations.clone();
+      if (annotationCount > 0) {
+        result.annotationTimestamps = annotationTimestamps.clone();
+        result.annotationValues = annotationValues.clone();
+        result.annotationCount = annotationCount;
       }
-      if (tags != null) {
-        result.tags = (TreeMap) tags.clone();
+      if (tagCount > 0) {
+        result.tagKeys = tagKeys.clone();
+        result.tagValues = tagValues.clone();
+        result.tagCount = tagCount;
       }
       result.flags = flags;
       return result;
@@ -337,6 +376,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       traceId = source.traceId;
       parentId = source.parentId;
       id = source.id;
+      traceIdHigh = source.traceIdHigh;
+      traceIdLow = source.traceIdLow;
+      parentIdAsLong = source.parentIdAsLong;
+      idAsLong = source.idAsLong;
       kind = source.kind;
       name = source.name;
       timestamp = source.timestamp;
@@ -344,12 +387,14 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       localEndpoint = source.localEndpoint;
       remoteEndpoint = source.remoteEndpoint;
       if (!source.annotations.isEmpty()) {
-        annotations = new ArrayList<>(source.annotations.size());
-        annotations.addAll(source.annotations);
+        annotationTimestamps = source.annotations.timestamps.clone();
+        annotationValues = source.annotations.values.clone();
+        annotationCount = annotationTimestamps.length;
       }
       if (!source.tags.isEmpty()) {
-        tags = new TreeMap<>();
-        tags.putAll(source.tags);
+        tagKeys = source.tags.keys.clone();
+        tagValues = source.tags.values.clone();
+        tagCount = tagKeys.length;
       }
       flags = source.flags;
     }
@@ -359,9 +404,19 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * not use this to merge spans that occur on different hosts.
      */
     public Builder merge(Span source) {
-      if (traceId == null) traceId = source.traceId;
-      if (id == null) id = source.id;
-      if (parentId == null) parentId = source.parentId;
+      if (traceId == null) {
+        traceId = source.traceId;
+        traceIdHigh = source.traceIdHigh;
+        traceIdLow = source.traceIdLow;
+      }
+      if (id == null) {
+        id = source.id;
+        idAsLong = source.idAsLong;
+      }
+      if (parentId == null) {
+        parentId = source.parentId;
+        parentIdAsLong = source.parentIdAsLong;
+      }
       if (kind == null) kind = source.kind;
       if (name == null) name = source.name;
       if (timestamp == 0L) timestamp = source.timestamp;
@@ -376,15 +431,11 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       } else if (source.remoteEndpoint != null) {
         remoteEndpoint = remoteEndpoint.toBuilder().merge(source.remoteEndpoint).build();
       }
-      if (!source.annotations.isEmpty()) {
-        if (annotations == null) {
-          annotations = new ArrayList<>(source.annotations.size());
-        }
-        annotations.addAll(source.annotations);
+      for (int i = 0, length = source.annotations.size(); i < length; i++) {
+        addAnnotation(source.annotations.timestamps[i], source.annotations.values[i]);
       }
-      if (!source.tags.isEmpty()) {
-        if (tags == null) tags = new TreeMap<>();
-        tags.putAll(source.tags);
+      for (int i = 0, length = source.tags.size(); i < length; i++) {
+        putTag(source.tags.keys[i], source.tags.values[i]);
       }
       flags = flags | source.flags;
       return this;
@@ -404,6 +455,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder traceId(String traceId) {
       this.traceId = normalizeTraceId(traceId);
+      this.traceIdHigh = this.traceId.length() == 32 ? lowerHexToUnsignedLong(this.traceId, 0) : 0L;
+      this.traceIdLow = lowerHexToUnsignedLong(this.traceId);
       return this;
     }
 
@@ -424,6 +477,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       }
       writeHexLong(data, pos, low);
       this.traceId = new String(data, 0, high != 0L ? 32 : 16);
+      this.traceIdHigh = high;
+      this.traceIdLow = low;
       return this;
     }
 
@@ -435,6 +490,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder parentId(long parentId) {
       this.parentId = parentId != 0L ? toLowerHex(parentId) : null;
+      this.parentIdAsLong = parentId;
       return this;
     }
 
@@ -445,6 +501,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     public Builder parentId(@Nullable String parentId) {
       if (parentId == null) {
         this.parentId = null;
+        this.parentIdAsLong = 0L;
         return this;
       }
       int length = parentId.length();
@@ -452,8 +509,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       if (length > 16) throw new IllegalArgumentException("parentId.length > 16");
       if (validateHexAndReturnZeroPrefix(parentId) == length) {
         this.parentId = null;
+        this.parentIdAsLong = 0L;
       } else {
         this.parentId = length < 16 ? padLeft(parentId, 16) : parentId;
+        this.parentIdAsLong = lowerHexToUnsignedLong(parentId);
       }
       return this;
     }
@@ -467,6 +526,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     public Builder id(long id) {
       if (id == 0L) throw new IllegalArgumentException("empty id");
       this.id = toLowerHex(id);
+      this.idAsLong = id;
       return this;
     }
 
@@ -483,6 +543,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
         throw new IllegalArgumentException("id is all zeros");
       }
       this.id = length < 16 ? padLeft(id, 16) : id;
+      this.idAsLong = lowerHexToUnsignedLong(id);
       return this;
     }
 
@@ -542,31 +603,76 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     /** @see Span#annotations */
     public Builder addAnnotation(long timestamp, String value) {
-      if (annotations == null) annotations = new ArrayList<>(2);
-      annotations.add(Annotation.create(timestamp, value));
+      if (value == null) throw new NullPointerException("value == null");
+      if (annotationTimestamps == null) {
+        annotationTimestamps = new long[2];
+        annotationValues = new String[2];
+      } else if (annotationCount == annotationTimestamps.length) {
+        annotationTimestamps = Arrays.copyOf(annotationTimestamps, annotationCount * 2);
+        annotationValues = Arrays.copyOf(annotationValues, annotationCount * 2);
+      }
+      // Insertion sort, as annotations are few and usually added in order. Duplicates are dropped.
+      int i = annotationCount;
+      while (i > 0) {
+        long prevTimestamp = annotationTimestamps[i - 1];
+        int compare = prevTimestamp < timestamp ? -1 : prevTimestamp == timestamp
+          ? annotationValues[i - 1].compareTo(value) : 1;
+        if (compare == 0) return this; // duplicate
+        if (compare < 0) break;
+        i--;
+      }
+      if (i < annotationCount) {
+        System.arraycopy(annotationTimestamps, i, annotationTimestamps, i + 1, annotationCount - i);
+        System.arraycopy(annotationValues, i, annotationValues, i + 1, annotationCount - i);
+      }
+      annotationTimestamps[i] = timestamp;
+      annotationValues[i] = value;
+      annotationCount++;
       return this;
     }
 
     /** @see Span#annotations */
     public Builder clearAnnotations() {
-      if (annotations == null) return this;
-      annotations.clear();
+      if (annotationCount == 0) return this;
+      Arrays.fill(annotationValues, 0, annotationCount, null);
+      annotationCount = 0;
       return this;
     }
 
     /** @see Span#tags */
     public Builder putTag(String key, String value) {
-      if (tags == null) tags = new TreeMap<>();
       if (key == null) throw new NullPointerException("key == null");
       if (value == null) throw new NullPointerException("value of " + key + " == null");
-      this.tags.put(key, value);
+      if (tagKeys == null) {
+        tagKeys = new String[4];
+        tagValues = new String[4];
+      }
+      int i = Arrays.binarySearch(tagKeys, 0, tagCount, key);
+      if (i >= 0) { // replace
+        tagValues[i] = value;
+        return this;
+      }
+      i = -(i + 1); // insertion point
+      if (tagCount == tagKeys.length) {
+        tagKeys = Arrays.copyOf(tagKeys, tagCount * 2);
+        tagValues = Arrays.copyOf(tagValues, tagCount * 2);
+      }
+      if (i < tagCount) {
+        System.arraycopy(tagKeys, i, tagKeys, i + 1, tagCount - i);
+        System.arraycopy(tagValues, i, tagValues, i + 1, tagCount - i);
+      }
+      tagKeys[i] = key;
+      tagValues[i] = value;
+      tagCount++;
       return this;
     }
 
     /** @see Span#tags */
     public Builder clearTags() {
-      if (tags == null) return this;
-      tags.clear();
+      if (tagCount == 0) return this;
+      Arrays.fill(tagKeys, 0, tagCount, null);
+      Arrays.fill(tagValues, 0, tagCount, null);
+      tagCount = 0;
       return this;
     }
 
@@ -717,34 +823,16 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     return zeros;
   }
 
-  static <T extends Comparable<? super T>> List<T> sortedList(@Nullable List<T> in) {
-    if (in == null || in.isEmpty()) return Collections.emptyList();
-    if (in.size() == 1) return Collections.singletonList(in.get(0));
-    Object[] array = in.toArray();
-    Arrays.sort(array);
-
-    // dedupe
-    int j = 0, i = 1;
-    while (i < array.length) {
-      if (!array[i].equals(array[j])) {
-        array[++j] = array[i];
-      }
-      i++;
-    }
-
-    List result = Arrays.asList(i == j + 1 ? array : Arrays.copyOf(array, j + 1));
-    return Collections.unmodifiableList(result);
-  }
-
   // Custom impl to reduce GC churn and Kryo which cannot handle AutoValue subclass
   // See https://github.com/apache/incubator-zipkin/issues/1879
   final String traceId, parentId, id;
+  final long traceIdHigh, traceIdLow, parentIdAsLong, idAsLong; // parsed once, zero means null
   final Kind kind;
   final String name;
   final long timestamp, duration; // zero means null, saving 2 object references
   final Endpoint localEndpoint, remoteEndpoint;
-  final List<Annotation> annotations;
-  final Map<String, String> tags;
+  final SortedAnnotations annotations; // parallel arrays instead of an object per annotation
+  final SortedTags tags; // parallel arrays instead of a map entry per tag
   final int flags; // bit field for timestamp and duration, saving 2 object references
 
   Span(Builder builder) {
@@ -752,14 +840,24 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     // prevent self-referencing spans
     parentId = builder.id.equals(builder.parentId) ? null : builder.parentId;
     id = builder.id;
+    traceIdHigh = builder.traceIdHigh;
+    traceIdLow = builder.traceIdLow;
+    parentIdAsLong = parentId != null ? builder.parentIdAsLong : 0L;
+    idAsLong = builder.idAsLong;
     kind = builder.kind;
     name = builder.name;
     timestamp = builder.timestamp;
     duration = builder.duration;
     localEndpoint = builder.localEndpoint;
     remoteEndpoint = builder.remoteEndpoint;
-    annotations = sortedList(builder.annotations);
-    tags = builder.tags == null ? Collections.emptyMap() : new LinkedHashMap<>(builder.tags);
+    int annotationCount = builder.annotationCount;
+    annotations = annotationCount == 0 ? SortedAnnotations.EMPTY : new SortedAnnotations(
+      Arrays.copyOf(builder.annotationTimestamps, annotationCount),
+      Arrays.copyOf(builder.annotationValues, annotationCount));
+    int tagCount = builder.tagCount;
+    tags = tagCount == 0 ? SortedTags.EMPTY : new SortedTags(
+      Arrays.copyOf(builder.tagKeys, tagCount),
+      Arrays.copyOf(builder.tagValues, tagCount));
     flags = builder.flags;
   }
 
@@ -188,6 +188,37 @@ public enum SpanBytesDecoder implements BytesDecoder<Span> {
    */
   public abstract boolean decodeList(ByteBuffer spans, Collection<Span> out);
 
+  /**
+   * Like {@link #decodeList(byte[], Collection)}, except spans are pushed to the consumer in chunks
+   * as they are decoded. This bounds the count of spans held at once to the chunk size, so that
+   * large messages can be processed while the rest of the message is decoded.
+   *
+   * <p>On error, chunks already consumed are not rolled back. Similarly, the consumer may have
+   * received spans even when this returns false, for example when a list ends with an empty span.
+   *
+   * @param chunkSize maximum count of spans passed to the consumer at once
+   * @return true if an element was decoded
+   * @throws {@linkplain IllegalArgumentException} if the type couldn't be decoded
+   */
+  public final boolean decodeList(byte[] spans, int chunkSize, SpanChunkConsumer consumer) {
+    SpanChunker chunker = new SpanChunker(chunkSize, consumer);
+    boolean result = decodeList(spans, chunker);
+    chunker.flush();
+    return result;
+  }
+
+  /**
+   * ByteBuffer implementation of {@link #decodeList(byte[], int, SpanChunkConsumer)}.
+   *
+   * <p>Note: only use this when it is ok to modify the underlying {@link ByteBuffer#array()}.
+   */
+  public final boolean decodeList(ByteBuffer spans, int chunkSize, SpanChunkConsumer consumer) {
+    SpanChunker chunker = new SpanChunker(chunkSize, consumer);
+    boolean result = decodeList(spans, chunker);
+    chunker.flush();
+    return result;
+  }
+
   /**
    * ByteBuffer implementation of {@link #decodeList(byte[])}.
    *
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.codec;
+
+import java.util.List;
+import zipkin2.Span;
+
+/**
+ * Receives spans in fixed-size chunks as they are decoded by {@link
+ * SpanBytesDecoder#decodeList(byte[], int, SpanChunkConsumer)}.
+ *
+ * <p>Exceptions raised here are reported as decoding errors, as they cannot be distinguished from
+ * those raised by the decoder. Implementations that write to storage should handle their own
+ * errors instead of throwing.
+ */
+public interface SpanChunkConsumer {
+  /**
+   * @param chunk between one and the requested chunk size spans, which is not reused after this
+   * call, so can be retained.
+   */
+  void accept(List<Span> chunk);
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.codec;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import zipkin2.Span;
+
+/**
+ * Adapts {@link SpanChunkConsumer} to the collection accepted by span readers, so that they can
+ * stream spans without modification. Call {@link #flush()} after reading to emit any remainder.
+ */
+final class SpanChunker extends AbstractCollection<Span> {
+  final int chunkSize;
+  final SpanChunkConsumer consumer;
+  List<Span> chunk;
+
+  SpanChunker(int chunkSize, SpanChunkConsumer consumer) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize <= 0");
+    if (consumer == null) throw new NullPointerException("consumer == null");
+    this.chunkSize = chunkSize;
+    this.consumer = consumer;
+  }
+
+  @Override public boolean add(Span span) {
+    if (chunk == null) chunk = new ArrayList<>(Math.min(chunkSize, 64));
+    chunk.add(span);
+    if (chunk.size() == chunkSize) flush();
+    return true;
+  }
+
+  void flush() {
+    if (chunk == null) return;
+    List<Span> toEmit = chunk;
+    chunk = null;
+    consumer.accept(toEmit);
+  }
+
+  /** Returns the spans not yet emitted. */
+  @Override public Iterator<Span> iterator() {
+    return chunk != null ? chunk.iterator() : Collections.<Span>emptyList().iterator();
+  }
+
+  @Override public int size() {
+    return chunk != null ? chunk.size() : 0;
+  }
+}
@@ -17,9 +17,11 @@
 package zipkin2.internal;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -31,6 +33,11 @@ import zipkin2.Callback;
  * A call that blocks on others to complete before invoking a callback or returning from {@link
  * #execute()}. The first error will be returned upstream, later ones will be suppressed.
  *
+ * <p>By default, {@link #execute()} runs each call in turn, whereas {@link #enqueue(Callback)}
+ * starts them all at once. When constructed as concurrent, {@link #execute()} also starts all calls
+ * via {@link Call#enqueue(Callback)} and blocks until they complete. This is most effective when
+ * the underlying calls enqueue asynchronously, such as fan-out to a database driver.
+ *
  * @param <I> the type of returned from {@link Call#execute()}
  * @param <O> the type representing the aggregate success value
  */
@@ -39,12 +46,19 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
   public static Call<Void> newVoidCall(List<Call<Void>> calls) {
     if (calls.isEmpty()) throw new IllegalArgumentException("calls were empty");
     if (calls.size() == 1) return calls.get(0);
-    return new AggregateVoidCall(calls);
+    return new AggregateVoidCall(calls, false);
+  }
+
+  /** Like {@link #newVoidCall(List)}, except {@link #execute()} runs the calls concurrently. */
+  public static Call<Void> newConcurrentVoidCall(List<Call<Void>> calls) {
+    if (calls.isEmpty()) throw new IllegalArgumentException("calls were empty");
+    if (calls.size() == 1) return calls.get(0);
+    return new AggregateVoidCall(calls, true);
   }
 
   static final class AggregateVoidCall extends AggregateCall<Void, Void> {
-    AggregateVoidCall(List<Call<Void>> calls) {
-      super(calls);
+    AggregateVoidCall(List<Call<Void>> calls, boolean concurrent) {
+      super(calls, concurrent);
     }
 
     volatile boolean empty = true;
@@ -62,17 +76,27 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     }
 
     @Override public AggregateVoidCall clone() {
-      return new AggregateVoidCall(cloneCalls());
+      return new AggregateVoidCall(cloneCalls(), concurrent);
     }
   }
 
   final Logger log = Logger.getLogger(getClass().getName());
   final List<? extends Call<I>> calls;
+  protected final boolean concurrent;
 
   protected AggregateCall(List<? extends Call<I>> calls) {
+    this(calls, false);
+  }
+
+  /**
+   * @param concurrent true if {@link #execute()} should start all calls before waiting on any of
+   * them. The default runs them one after another.
+   */
+  protected AggregateCall(List<? extends Call<I>> calls, boolean concurrent) {
     assert !calls.isEmpty() : "do not create empty aggregate calls";
     assert calls.size() > 1 : "do not create single-element aggregates";
     this.calls = calls;
+    this.concurrent = concurrent;
   }
 
   protected abstract O newOutput();
@@ -87,6 +111,7 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
   }
 
   @Override protected O doExecute() throws IOException {
+    if (concurrent) return executeConcurrently();
     int length = calls.size();
     Throwable firstError = null;
     O result = newOutput();
@@ -108,6 +133,40 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     throw (IOException) firstError;
   }
 
+  O executeConcurrently() throws IOException {
+    AwaitCallback<O> callback = new AwaitCallback<>();
+    doEnqueue(callback);
+    try {
+      callback.countDown.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      doCancel();
+      throw new InterruptedIOException("interrupted awaiting " + this);
+    }
+    Throwable error = callback.error;
+    if (error == null) return callback.value;
+    if (error instanceof Error) throw (Error) error;
+    if (error instanceof RuntimeException) throw (RuntimeException) error;
+    if (error instanceof IOException) throw (IOException) error;
+    throw new IOException(error);
+  }
+
+  static final class AwaitCallback<V> implements Callback<V> {
+    final CountDownLatch countDown = new CountDownLatch(1);
+    volatile V value;
+    volatile Throwable error;
+
+    @Override public void onSuccess(V value) {
+      this.value = value;
+      countDown.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      error = t;
+      countDown.countDown();
+    }
+  }
+
   @Override protected void doEnqueue(Callback<O> callback) {
     int length = calls.size();
     AtomicInteger remaining = new AtomicInteger(length);
@@ -178,6 +237,6 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
   }
 
   @Override public String toString() {
-    return "AggregateCall{" + calls + "}";
+    return "AggregateCall{" + calls + (concurrent ? ", concurrent" : "") + "}";
   }
 }
@@ -17,10 +17,15 @@
 package zipkin2.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
@@ -36,12 +41,26 @@ import static java.util.logging.Level.FINE;
  * that record their {@link Span#remoteEndpoint()} are included, as this accounts for uninstrumented
  * services. Spans with {@link Span#kind()} unset, but {@link Span#remoteEndpoint()} set are treated
  * the same as client spans.
+ *
+ * <p>Linkers are not thread-safe, but their results are mergeable. {@link #link(Iterable)} uses
+ * this to aggregate a large number of traces across processors.
  */
 public final class DependencyLinker {
+  /** Traces are handed to each worker in batches of this size, to amortize coordination. */
+  static final int BATCH_SIZE = 32;
+
   final Logger logger;
   final SpanNode.Builder builder;
-  final Map<Pair, Long> callCounts = new LinkedHashMap<>();
-  final Map<Pair, Long> errorCounts = new LinkedHashMap<>();
+
+  // Service names are interned to ints, so that a link is keyed by a primitive pair
+  final Map<String, Integer> serviceToId = new HashMap<>();
+  final ArrayList<String> serviceNames = new ArrayList<>();
+
+  // Links in order of first occurrence. The parent service ID is in the high bits of the key.
+  long[] linkKeys = new long[16], callCounts = new long[16], errorCounts = new long[16];
+  int linkCount;
+  // Open-addressing index of linkKeys, holding (link index + 1), or zero when the slot is free
+  int[] linkTable = new int[32];
 
   public DependencyLinker() {
     this(Logger.getLogger(DependencyLinker.class.getName()));
@@ -169,81 +188,169 @@ public final class DependencyLinker {
     if (logger.isLoggable(FINE)) {
       logger.fine("incrementing " + (isError ? "error " : "") + "link " + parent + " -> " + child);
     }
-    Pair key = new Pair(parent, child);
-    if (callCounts.containsKey(key)) {
-      callCounts.put(key, callCounts.get(key) + 1);
-    } else {
-      callCounts.put(key, 1L);
+    increment(serviceId(parent), serviceId(child), 1L, isError ? 1L : 0L);
+  }
+
+  int serviceId(String serviceName) {
+    Integer id = serviceToId.get(serviceName);
+    if (id != null) return id;
+    id = serviceNames.size();
+    serviceNames.add(serviceName);
+    serviceToId.put(serviceName, id);
+    return id;
+  }
+
+  void increment(int parentId, int childId, long callCount, long errorCount) {
+    long key = ((long) parentId << 32) | (childId & 0xffffffffL);
+    int mask = linkTable.length - 1;
+    int slot = slot(key, mask);
+    for (int index; (index = linkTable[slot]) != 0; slot = (slot + 1) & mask) {
+      if (linkKeys[index - 1] == key) {
+        callCounts[index - 1] += callCount;
+        errorCounts[index - 1] += errorCount;
+        return;
+      }
+    }
+
+    if (linkCount == linkKeys.length) {
+      int newLength = linkCount * 2;
+      linkKeys = Arrays.copyOf(linkKeys, newLength);
+      callCounts = Arrays.copyOf(callCounts, newLength);
+      errorCounts = Arrays.copyOf(errorCounts, newLength);
+    }
+    linkKeys[linkCount] = key;
+    callCounts[linkCount] = callCount;
+    errorCounts[linkCount] = errorCount;
+    linkTable[slot] = ++linkCount;
+    if (linkCount * 2 > linkTable.length) resizeLinkTable();
+  }
+
+  void resizeLinkTable() {
+    int[] newTable = new int[linkTable.length * 2];
+    int mask = newTable.length - 1;
+    for (int i = 0; i < linkCount; i++) {
+      int slot = slot(linkKeys[i], mask);
+      while (newTable[slot] != 0) slot = (slot + 1) & mask;
+      newTable[slot] = i + 1;
+    }
+    linkTable = newTable;
+  }
+
+  static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /**
+   * Adds the links counted by another linker, for example one that processed a different partition
+   * of the same traces.
+   */
+  public DependencyLinker merge(DependencyLinker partial) {
+    if (partial == this) throw new IllegalArgumentException("cannot merge a linker with itself");
+    // Service IDs are local to each linker, so translate them to ours.
+    int[] partialToId = new int[partial.serviceNames.size()];
+    for (int i = 0; i < partialToId.length; i++) {
+      partialToId[i] = serviceId(partial.serviceNames.get(i));
     }
-    if (!isError) return;
-    if (errorCounts.containsKey(key)) {
-      errorCounts.put(key, errorCounts.get(key) + 1);
-    } else {
-      errorCounts.put(key, 1L);
+    for (int i = 0; i < partial.linkCount; i++) {
+      long key = partial.linkKeys[i];
+      increment(partialToId[(int) (key >>> 32)], partialToId[(int) key],
+        partial.callCounts[i], partial.errorCounts[i]);
     }
+    return this;
   }
 
   public List<DependencyLink> link() {
-    return link(callCounts, errorCounts);
+    List<DependencyLink> result = new ArrayList<>(linkCount);
+    for (int i = 0; i < linkCount; i++) {
+      long key = linkKeys[i];
+      result.add(DependencyLink.newBuilder()
+        .parent(serviceNames.get((int) (key >>> 32)))
+        .child(serviceNames.get((int) key))
+        .callCount(callCounts[i])
+        .errorCount(errorCounts[i])
+        .build());
+    }
+    return result;
   }
 
   /** links are merged by mapping to parent/child and summing corresponding links */
   public static List<DependencyLink> merge(Iterable<DependencyLink> in) {
-    Map<Pair, Long> callCounts = new LinkedHashMap<>();
-    Map<Pair, Long> errorCounts = new LinkedHashMap<>();
-
+    DependencyLinker linker = new DependencyLinker();
     for (DependencyLink link : in) {
-      Pair parentChild = new Pair(link.parent(), link.child());
-      long callCount = callCounts.containsKey(parentChild) ? callCounts.get(parentChild) : 0L;
-      callCount += link.callCount();
-      callCounts.put(parentChild, callCount);
-      long errorCount = errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L;
-      errorCount += link.errorCount();
-      errorCounts.put(parentChild, errorCount);
+      linker.increment(linker.serviceId(link.parent()), linker.serviceId(link.child()),
+        link.callCount(), link.errorCount());
     }
+    return linker.link();
+  }
 
-    return link(callCounts, errorCounts);
+  /**
+   * Links the given traces, splitting the work across available processors.
+   *
+   * <p>Each worker, including the calling thread, pulls batches of traces into its own linker. The
+   * partial results are merged once the input is exhausted. The input is only iterated by one
+   * thread at a time, so it can be lazy, for example reading from a database cursor.
+   *
+   * @param traces lists of spans where each list has the same trace id
+   */
+  public static List<DependencyLink> link(Iterable<List<Span>> traces) {
+    return link(traces, Parallel.SharedExecutor.INSTANCE, Parallel.PARALLELISM);
   }
 
-  static List<DependencyLink> link(Map<Pair, Long> callCounts,
-    Map<Pair, Long> errorCounts) {
-    List<DependencyLink> result = new ArrayList<>(callCounts.size());
-    for (Map.Entry<Pair, Long> entry : callCounts.entrySet()) {
-      Pair parentChild = entry.getKey();
-      result.add(DependencyLink.newBuilder()
-        .parent(parentChild.left)
-        .child(parentChild.right)
-        .callCount(entry.getValue())
-        .errorCount(errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L)
-        .build());
+  static List<DependencyLink> link(Iterable<List<Span>> traces, Executor executor,
+    int parallelism) {
+    if (traces instanceof Collection) {
+      int size = ((Collection<List<Span>>) traces).size();
+      parallelism = Math.min(parallelism, size / BATCH_SIZE);
     }
-    return result;
+    if (parallelism <= 1) {
+      DependencyLinker linker = new DependencyLinker();
+      for (List<Span> trace : traces) linker.putTrace(trace);
+      return linker.link();
+    }
+
+    // Tasks that start after the input is drained return quickly with an empty result.
+    TraceBatches batches = new TraceBatches(traces.iterator());
+    List<LinkTask> tasks = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++) tasks.add(new LinkTask(batches));
+
+    DependencyLinker result = null;
+    for (DependencyLinker partial : Parallel.invokeAll(executor, tasks)) {
+      result = result == null ? partial : result.merge(partial);
+    }
+    return result.link();
   }
 
-  static final class Pair {
-    final String left, right;
+  /** Hands out batches of traces to workers, serializing access to the underlying iterator. */
+  static final class TraceBatches {
+    final Iterator<List<Span>> traces;
 
-    Pair(String left, String right) {
-      this.left = left;
-      this.right = right;
+    TraceBatches(Iterator<List<Span>> traces) {
+      this.traces = traces;
     }
 
-    @Override
-    public boolean equals(Object o) {
-      if (o == this) return true;
-      if (!(o instanceof Pair)) return false;
-      Pair that = (DependencyLinker.Pair) o;
-      return left.equals(that.left) && right.equals(that.right);
+    synchronized List<List<Span>> next() {
+      if (!traces.hasNext()) return Collections.emptyList();
+      List<List<Span>> result = new ArrayList<>(BATCH_SIZE);
+      for (int i = 0; i < BATCH_SIZE && traces.hasNext(); i++) result.add(traces.next());
+      return result;
     }
+  }
+
+  /** Aggregates batches of traces into a partial result until there are none left. */
+  static final class LinkTask implements Callable<DependencyLinker> {
+    final TraceBatches batches;
 
-    @Override
-    public int hashCode() {
-      int h$ = 1;
-      h$ *= 1000003;
-      h$ ^= left.hashCode();
-      h$ *= 1000003;
-      h$ ^= right.hashCode();
-      return h$;
+    LinkTask(TraceBatches batches) {
+      this.batches = batches;
+    }
+
+    @Override public DependencyLinker call() {
+      DependencyLinker linker = new DependencyLinker();
+      for (List<List<Span>> batch; !(batch = batches.next()).isEmpty(); ) {
+        for (List<Span> trace : batch) linker.putTrace(trace);
+      }
+      return linker;
     }
   }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Core of {@link StringCache} and {@link EndpointCache}: a direct-mapped table of entries, indexed
+ * by hash, so that a lookup never allocates and never locks.
+ *
+ * <p>Each entry has a small saturating score: hits raise it and colliding misses lower it. A new
+ * value only replaces an entry whose score has dropped to zero. This bypasses high-cardinality
+ * values, as they cannot evict the frequent ones.
+ */
+abstract class DirectMappedCache<E extends DirectMappedCache.Entry> {
+  static final int MAX_SCORE = 15;
+  // Hit and miss counters are striped by thread to avoid contention. Spread them 8 longs (64
+  // bytes) apart to avoid false sharing.
+  static final int STRIPES = 8, STRIDE = 8;
+
+  static class Entry {
+    final int hash;
+    int score = 1; // racy updates are ok as this is only a hint
+
+    Entry(int hash) {
+      this.hash = hash;
+    }
+  }
+
+  // Entries are immutable except their score, so they are safe to publish via a race.
+  final Entry[] entries;
+  final int mask;
+  final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIDE * 2);
+
+  DirectMappedCache(int maxEntries) {
+    int size = Integer.highestOneBit(Math.max(maxEntries - 1, 1)) << 1;
+    entries = new Entry[size];
+    mask = size - 1;
+  }
+
+  final int index(int hash) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /** Returns the entry at the index, or null. Call {@link #hit} or {@link #miss} after. */
+  @SuppressWarnings("unchecked") // only subtypes of E are stored
+  @Nullable final E entry(int index) {
+    return (E) entries[index];
+  }
+
+  final void hit(E entry) {
+    if (entry.score < MAX_SCORE) entry.score++;
+    count(0);
+  }
+
+  /** Counts a miss, returning true when the entry at the index can be replaced. */
+  final boolean miss(int index) {
+    count(1);
+    Entry entry = entries[index];
+    return entry == null || --entry.score <= 0;
+  }
+
+  final void replace(int index, E entry) {
+    entries[index] = entry;
+  }
+
+  /** Returns the count of values read from the cache since the last call. */
+  public final long drainHitCount() {
+    return drain(0);
+  }
+
+  /** Returns the count of values not in the cache since the last call. */
+  public final long drainMissCount() {
+    return drain(1);
+  }
+
+  final void count(int type) {
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    counts.getAndIncrement((stripe * 2 + type) * STRIDE);
+  }
+
+  final long drain(int type) {
+    long result = 0L;
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      result += counts.getAndSet((stripe * 2 + type) * STRIDE, 0L);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.Arrays;
+import zipkin2.Endpoint;
+
+/**
+ * Bounded cache of endpoints built by decoders. Thousands of spans per second usually share a few
+ * distinct endpoints, for example the same service name, IP and port. Canonicalizing them means
+ * stored spans retain one instance per endpoint, and that {@link Endpoint#equals(Object)} between
+ * spans is usually an identity check.
+ *
+ * <p>Entries are keyed by the fields as decoded, before IPs are parsed, so that a hit doesn't build
+ * an endpoint or format its IP addresses. Like {@link StringCache}, this is a {@link
+ * DirectMappedCache}, so a lookup never locks and rare endpoints cannot evict frequent ones.
+ *
+ * <p>This is disabled by default. When {@link #enable(int) enabled}, the cache is shared by all
+ * decoders in the process.
+ */
+public final class EndpointCache extends DirectMappedCache<EndpointCache.Entry> {
+  static volatile EndpointCache current;
+
+  /** Returns the shared cache, or null if it isn't enabled. */
+  @Nullable public static EndpointCache current() {
+    return current;
+  }
+
+  /**
+   * Enables the shared cache with the given bound, rounded up to a power of two. Zero disables it.
+   */
+  public static void enable(int maxEntries) {
+    if (maxEntries < 0) throw new IllegalArgumentException("maxEntries < 0");
+    current = maxEntries == 0 ? null : new EndpointCache(maxEntries);
+  }
+
+  /**
+   * Returns an endpoint with the decoded fields, shared if the cache is enabled. Each IP is either
+   * the text read from json or the bytes read from thrift or proto3, and parsed on a cache miss.
+   */
+  static Endpoint build(@Nullable String serviceName, @Nullable Object ipv4, @Nullable Object ipv6,
+    int port) {
+    EndpointCache cache = current;
+    if (cache == null) return doBuild(serviceName, ipv4, ipv6, port);
+    return cache.get(serviceName, ipv4, ipv6, port);
+  }
+
+  static Endpoint doBuild(@Nullable String serviceName, @Nullable Object ipv4,
+    @Nullable Object ipv6, int port) {
+    Endpoint.Builder result = Endpoint.newBuilder().serviceName(serviceName).port(port);
+    parseIp(result, ipv4);
+    parseIp(result, ipv6);
+    return result.build();
+  }
+
+  static void parseIp(Endpoint.Builder builder, @Nullable Object ip) {
+    if (ip instanceof String) {
+      builder.parseIp((String) ip);
+    } else if (ip instanceof byte[]) {
+      builder.parseIp((byte[]) ip);
+    }
+  }
+
+  /** The fields an endpoint was decoded from. IPs are compared by type, as text or bytes. */
+  static final class Entry extends DirectMappedCache.Entry {
+    @Nullable final String serviceName;
+    @Nullable final Object ipv4, ipv6;
+    final int port;
+    final Endpoint value;
+
+    Entry(int hash, @Nullable String serviceName, @Nullable Object ipv4, @Nullable Object ipv6,
+      int port, Endpoint value) {
+      super(hash);
+      this.serviceName = serviceName;
+      this.ipv4 = ipv4;
+      this.ipv6 = ipv6;
+      this.port = port;
+      this.value = value;
+    }
+
+    boolean matches(@Nullable String serviceName, @Nullable Object ipv4, @Nullable Object ipv6,
+      int port) {
+      return this.port == port
+        && (this.serviceName == null ? serviceName == null : this.serviceName.equals(serviceName))
+        && ipEquals(this.ipv4, ipv4)
+        && ipEquals(this.ipv6, ipv6);
+    }
+  }
+
+  EndpointCache(int maxEntries) {
+    super(maxEntries);
+  }
+
+  /** Returns the cached endpoint decoded from the same fields, or builds one. */
+  Endpoint get(@Nullable String serviceName, @Nullable Object ipv4, @Nullable Object ipv6,
+    int port) {
+    int hash = 1;
+    hash = 31 * hash + (serviceName == null ? 0 : serviceName.hashCode());
+    hash = 31 * hash + ipHash(ipv4);
+    hash = 31 * hash + ipHash(ipv6);
+    hash = 31 * hash + port;
+    int index = index(hash);
+
+    Entry entry = entry(index);
+    if (entry != null && entry.hash == hash && entry.matches(serviceName, ipv4, ipv6, port)) {
+      hit(entry);
+      return entry.value;
+    }
+
+    Endpoint result = doBuild(serviceName, ipv4, ipv6, port);
+    if (miss(index)) replace(index, new Entry(hash, serviceName, ipv4, ipv6, port, result));
+    return result;
+  }
+
+  static int ipHash(@Nullable Object ip) {
+    if (ip instanceof byte[]) return Arrays.hashCode((byte[]) ip);
+    return ip == null ? 0 : ip.hashCode();
+  }
+
+  static boolean ipEquals(@Nullable Object a, @Nullable Object b) {
+    if (a == null || b == null) return a == b;
+    if (a instanceof byte[]) return b instanceof byte[] && Arrays.equals((byte[]) a, (byte[]) b);
+    return a.equals(b);
+  }
+
+  @Override public String toString() {
+    return "EndpointCache{maxEntries=" + entries.length + "}";
+  }
+}
@@ -17,15 +17,12 @@
 package zipkin2.internal;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
-import static com.google.gson.stream.JsonToken.BOOLEAN;
-import static com.google.gson.stream.JsonToken.NULL;
-import static com.google.gson.stream.JsonToken.STRING;
 import static java.lang.String.format;
 
 /**
@@ -46,76 +43,597 @@ import static java.lang.String.format;
 public final class JsonCodec {
   static final Charset UTF_8 = Charset.forName("UTF-8");
 
-  // Hides gson types for internal use in other submodules
+  /**
+   * Reads json directly from UTF-8 bytes in a {@link ReadBuffer}.
+   *
+   * <p>Unlike a {@link java.io.Reader} based parser, structural characters are never decoded into
+   * chars. Field names can be matched with {@link #selectName(Options)}, which compares the raw
+   * bytes against pre-encoded candidates, so only values are ever materialized as strings.
+   *
+   * <p>This is strict json, except keywords are case-insensitive (ex {@code NULL}) and numbers can
+   * be read from strings, for compatibility with what we accepted historically.
+   */
   public static final class JsonReader {
-    final com.google.gson.stream.JsonReader delegate;
+    static final int PEEKED_NONE = 0, PEEKED_BEGIN_OBJECT = 1, PEEKED_END_OBJECT = 2,
+      PEEKED_BEGIN_ARRAY = 3, PEEKED_END_ARRAY = 4, PEEKED_TRUE = 5, PEEKED_FALSE = 6,
+      PEEKED_NULL = 7, PEEKED_STRING = 8, PEEKED_NAME = 9, PEEKED_NUMBER = 10, PEEKED_EOF = 11;
+
+    static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2, EMPTY_OBJECT = 3, DANGLING_NAME = 4,
+      NONEMPTY_OBJECT = 5, EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+
+    static final int NO_BYTE = -1;
+
+    final ReadBuffer buffer;
+    int peeked = PEEKED_NONE;
+    int pushedBack = NO_BYTE; // a byte read past the end of a number
+    int peekedNumberStart; // the first byte of a number, consumed during peek
+
+    // scratch space for quoted strings and numbers, re-used across values
+    byte[] bytes = new byte[64];
+    boolean escaped, ascii;
+
+    int[] stack = new int[8];
+    int stackSize = 0;
+    String[] pathNames = new String[8];
+    int[] pathIndices = new int[8];
 
     JsonReader(ReadBuffer buffer) {
-      delegate = new com.google.gson.stream.JsonReader(new InputStreamReader(buffer, UTF_8));
+      this.buffer = buffer;
+      stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /** Pre-encoded field names, used to match names without allocating a string for each. */
+    public static final class Options {
+      final String[] strings;
+      final byte[][] utf8;
+
+      public static Options of(String... strings) {
+        return new Options(strings);
+      }
+
+      Options(String[] strings) {
+        this.strings = strings.clone();
+        utf8 = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) utf8[i] = strings[i].getBytes(UTF_8);
+      }
+
+      int indexOf(byte[] bytes, int length) {
+        for (int i = 0; i < utf8.length; i++) {
+          byte[] candidate = utf8[i];
+          if (candidate.length != length) continue;
+          int j = 0;
+          while (j < length && candidate[j] == bytes[j]) j++;
+          if (j == length) return i;
+        }
+        return -1;
+      }
+
+      int indexOf(String name) {
+        for (int i = 0; i < strings.length; i++) {
+          if (strings[i].equals(name)) return i;
+        }
+        return -1;
+      }
     }
 
     public void beginArray() throws IOException {
-      delegate.beginArray();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_BEGIN_ARRAY) throw unexpected("BEGIN_ARRAY", p);
+      push(EMPTY_ARRAY);
+      pathIndices[stackSize - 1] = 0;
+      peeked = PEEKED_NONE;
     }
 
     public boolean hasNext() throws IOException {
-      return delegate.hasNext();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      return p != PEEKED_END_OBJECT && p != PEEKED_END_ARRAY && p != PEEKED_EOF;
     }
 
     public void endArray() throws IOException {
-      delegate.endArray();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_END_ARRAY) throw unexpected("END_ARRAY", p);
+      stackSize--;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public void beginObject() throws IOException {
-      delegate.beginObject();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_BEGIN_OBJECT) throw unexpected("BEGIN_OBJECT", p);
+      push(EMPTY_OBJECT);
+      peeked = PEEKED_NONE;
     }
 
     public void endObject() throws IOException {
-      delegate.endObject();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_END_OBJECT) throw unexpected("END_OBJECT", p);
+      stackSize--;
+      pathNames[stackSize] = null;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public String nextName() throws IOException {
-      return delegate.nextName();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_NAME) throw unexpected("a name", p);
+      String result = quotedToString(readQuoted());
+      pathNames[stackSize - 1] = result;
+      peeked = PEEKED_NONE;
+      return result;
+    }
+
+    /** Like {@link #nextName()}, except returns a shared instance if {@link StringCache} is on. */
+    String nextNameCached() throws IOException {
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_NAME) throw unexpected("a name", p);
+      String result = quotedToStringCached(readQuoted());
+      pathNames[stackSize - 1] = result;
+      peeked = PEEKED_NONE;
+      return result;
+    }
+
+    /**
+     * Consumes the next name, returning its index in the options, or -1 if it is not among them.
+     * Unlike {@link #nextName()}, this does not allocate when the name matches.
+     */
+    public int selectName(Options options) throws IOException {
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_NAME) throw unexpected("a name", p);
+      int length = readQuoted();
+      peeked = PEEKED_NONE;
+
+      int result = escaped ? -1 : options.indexOf(bytes, length);
+      if (result != -1) {
+        pathNames[stackSize - 1] = options.strings[result];
+        return result;
+      }
+      String name = quotedToString(length); // unknown or escaped names are rare
+      pathNames[stackSize - 1] = name;
+      return escaped ? options.indexOf(name) : -1;
     }
 
     public String nextString() throws IOException {
-      return delegate.nextString();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      String result;
+      if (p == PEEKED_STRING) {
+        result = quotedToString(readQuoted());
+      } else if (p == PEEKED_NUMBER) {
+        result = asciiToString(readNumber());
+      } else {
+        throw unexpected("a string", p);
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
+    }
+
+    /** Like {@link #nextString()}, except returns a shared instance if {@link StringCache} is on. */
+    String nextStringCached() throws IOException {
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_STRING) return nextString();
+      String result = quotedToStringCached(readQuoted());
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
     }
 
     public void skipValue() throws IOException {
-      delegate.skipValue();
+      int count = 0;
+      do {
+        int p = peeked;
+        if (p == PEEKED_NONE) p = doPeek();
+        if (p == PEEKED_BEGIN_ARRAY) {
+          push(EMPTY_ARRAY);
+          count++;
+        } else if (p == PEEKED_BEGIN_OBJECT) {
+          push(EMPTY_OBJECT);
+          count++;
+        } else if (p == PEEKED_END_ARRAY || p == PEEKED_END_OBJECT) {
+          if (count == 0) throw unexpected("a value", p); // there's no value to skip
+          stackSize--;
+          count--;
+        } else if (p == PEEKED_STRING || p == PEEKED_NAME) {
+          readQuoted();
+        } else if (p == PEEKED_NUMBER) {
+          readNumber();
+        } else if (p == PEEKED_EOF) {
+          throw syntaxError("End of input");
+        }
+        peeked = PEEKED_NONE;
+      } while (count != 0);
+      pathIndices[stackSize - 1]++;
+      pathNames[stackSize - 1] = "null";
     }
 
     public long nextLong() throws IOException {
-      return delegate.nextLong();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      long result;
+      if (p == PEEKED_NUMBER) {
+        result = parseLong(readNumber());
+      } else if (p == PEEKED_STRING) {
+        int length = readQuoted();
+        if (escaped) throw new NumberFormatException("Expected a long at path " + getPath());
+        result = parseLong(length);
+      } else {
+        throw unexpected("a long", p);
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
     }
 
     public String getPath() {
-      return delegate.getPath();
+      StringBuilder result = new StringBuilder().append('$');
+      for (int i = 0; i < stackSize; i++) {
+        switch (stack[i]) {
+          case EMPTY_ARRAY:
+          case NONEMPTY_ARRAY:
+            result.append('[').append(pathIndices[i]).append(']');
+            break;
+          case EMPTY_OBJECT:
+          case DANGLING_NAME:
+          case NONEMPTY_OBJECT:
+            result.append('.');
+            if (pathNames[i] != null) result.append(pathNames[i]);
+            break;
+          default:
+            break;
+        }
+      }
+      return result.toString();
     }
 
     public boolean nextBoolean() throws IOException {
-      return delegate.nextBoolean();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      boolean result;
+      if (p == PEEKED_TRUE) {
+        result = true;
+      } else if (p == PEEKED_FALSE) {
+        result = false;
+      } else {
+        throw unexpected("a boolean", p);
+      }
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+      return result;
     }
 
     public int nextInt() throws IOException {
-      return delegate.nextInt();
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      if (p != PEEKED_NUMBER && p != PEEKED_STRING) throw unexpected("an int", p);
+      long result = nextLong();
+      if ((int) result != result) {
+        throw new NumberFormatException("Expected an int but was " + result + " at path " + getPath());
+      }
+      return (int) result;
     }
 
     public boolean peekString() throws IOException {
-      return delegate.peek() == STRING;
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      return p == PEEKED_STRING;
     }
 
     public boolean peekBoolean() throws IOException {
-      return delegate.peek() == BOOLEAN;
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      return p == PEEKED_TRUE || p == PEEKED_FALSE;
     }
 
     public boolean peekNull() throws IOException {
-      return delegate.peek() == NULL;
+      int p = peeked;
+      if (p == PEEKED_NONE) p = doPeek();
+      return p == PEEKED_NULL;
     }
 
     @Override public String toString() {
-      return delegate.toString();
+      return "JsonReader at path " + getPath();
+    }
+
+    void push(int scope) {
+      if (stackSize == stack.length) {
+        int newLength = stackSize * 2;
+        stack = Arrays.copyOf(stack, newLength);
+        pathIndices = Arrays.copyOf(pathIndices, newLength);
+        pathNames = Arrays.copyOf(pathNames, newLength);
+      }
+      stack[stackSize++] = scope;
+    }
+
+    int doPeek() throws IOException {
+      int peekStack = stack[stackSize - 1];
+      if (peekStack == EMPTY_ARRAY) {
+        stack[stackSize - 1] = NONEMPTY_ARRAY;
+      } else if (peekStack == NONEMPTY_ARRAY) {
+        int c = nextNonWhitespace();
+        if (c == ']') return peeked = PEEKED_END_ARRAY;
+        if (c != ',') throw syntaxError("Unterminated array");
+      } else if (peekStack == EMPTY_OBJECT || peekStack == NONEMPTY_OBJECT) {
+        stack[stackSize - 1] = DANGLING_NAME;
+        int c = nextNonWhitespace();
+        if (peekStack == NONEMPTY_OBJECT) {
+          if (c == '}') return peeked = PEEKED_END_OBJECT;
+          if (c != ',') throw syntaxError("Unterminated object");
+          c = nextNonWhitespace();
+        } else if (c == '}') {
+          return peeked = PEEKED_END_OBJECT;
+        }
+        if (c != '"') throw syntaxError("Expected name");
+        return peeked = PEEKED_NAME;
+      } else if (peekStack == DANGLING_NAME) {
+        stack[stackSize - 1] = NONEMPTY_OBJECT;
+        if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+      } else if (peekStack == EMPTY_DOCUMENT) {
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+      } else if (peekStack == NONEMPTY_DOCUMENT) {
+        int c = pushedBack;
+        pushedBack = NO_BYTE;
+        if ((c == NO_BYTE || isWhitespace(c)) && !skipWhitespace()) return peeked = PEEKED_EOF;
+        throw syntaxError("Expected end of document");
+      }
+
+      int c = nextNonWhitespace();
+      switch (c) {
+        case ']':
+          if (peekStack == EMPTY_ARRAY) return peeked = PEEKED_END_ARRAY;
+          throw syntaxError("Unexpected value");
+        case '"':
+          return peeked = PEEKED_STRING;
+        case '[':
+          return peeked = PEEKED_BEGIN_ARRAY;
+        case '{':
+          return peeked = PEEKED_BEGIN_OBJECT;
+        case 't':
+        case 'T':
+          return peeked = peekKeyword("RUE", PEEKED_TRUE);
+        case 'f':
+        case 'F':
+          return peeked = peekKeyword("ALSE", PEEKED_FALSE);
+        case 'n':
+        case 'N':
+          return peeked = peekKeyword("ULL", PEEKED_NULL);
+        default:
+          if (c != '-' && (c < '0' || c > '9')) throw syntaxError("Unexpected character");
+          peekedNumberStart = c;
+          return peeked = PEEKED_NUMBER;
+      }
+    }
+
+    /** Reads the rest of a keyword, ignoring case. The first character was already consumed. */
+    int peekKeyword(String upperCaseRemainder, int result) throws IOException {
+      for (int i = 0, length = upperCaseRemainder.length(); i < length; i++) {
+        if ((nextByte() & ~0x20) != upperCaseRemainder.charAt(i)) {
+          throw syntaxError("Unexpected value");
+        }
+      }
+      return result;
+    }
+
+    /** Returns true if there is a non-whitespace byte left in the buffer */
+    boolean skipWhitespace() {
+      while (buffer.available() > 0) {
+        int c = buffer.readByteUnsafe() & 0xff;
+        if (!isWhitespace(c)) {
+          pushedBack = c;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    int nextNonWhitespace() throws IOException {
+      int c = pushedBack;
+      pushedBack = NO_BYTE;
+      if (c == NO_BYTE) c = nextByte();
+      while (isWhitespace(c)) c = nextByte();
+      return c;
+    }
+
+    static boolean isWhitespace(int c) {
+      return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    int nextByte() throws IOException {
+      if (buffer.available() == 0) throw syntaxError("End of input");
+      return buffer.readByteUnsafe() & 0xff;
+    }
+
+    /**
+     * Reads the bytes of a string into {@link #bytes}, excluding quotes, and returns the length.
+     * The leading quote was already consumed. Escapes are left as-is and flagged in {@link
+     * #escaped}.
+     */
+    int readQuoted() throws IOException {
+      ReadBuffer buffer = this.buffer;
+      byte[] bytes = this.bytes;
+      boolean escaped = false, ascii = true;
+      int length = 0;
+      while (true) {
+        if (buffer.available() == 0) throw syntaxError("Unterminated string");
+        byte b = buffer.readByteUnsafe();
+        if (b == '"') break;
+        if (length + 2 > bytes.length) bytes = this.bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        if (b == '\\') {
+          escaped = true;
+          if (buffer.available() == 0) throw syntaxError("Unterminated escape sequence");
+          bytes[length++] = b;
+          b = buffer.readByteUnsafe(); // so that an escaped quote doesn't end the string
+        }
+        if (b < 0) ascii = false;
+        bytes[length++] = b;
+      }
+      this.escaped = escaped;
+      this.ascii = ascii;
+      return length;
+    }
+
+    String quotedToString(int length) throws IOException {
+      if (length == 0) return "";
+      if (escaped) return unescape(new String(bytes, 0, length, UTF_8));
+      if (ascii) return asciiToString(length);
+      return new String(bytes, 0, length, UTF_8);
+    }
+
+    String quotedToStringCached(int length) throws IOException {
+      StringCache cache = StringCache.current;
+      if (cache == null || escaped) return quotedToString(length);
+      return cache.get(bytes, 0, length);
+    }
+
+    String asciiToString(int length) {
+      char[] chars = length > Platform.SHORT_STRING_LENGTH ? new char[length]
+        : Platform.shortStringBuffer();
+      for (int i = 0; i < length; i++) chars[i] = (char) bytes[i];
+      return new String(chars, 0, length);
+    }
+
+    String unescape(String escaped) throws IOException {
+      StringBuilder result = new StringBuilder(escaped.length());
+      for (int i = 0, length = escaped.length(); i < length; i++) {
+        char c = escaped.charAt(i);
+        if (c != '\\') {
+          result.append(c);
+          continue;
+        }
+        c = escaped.charAt(++i); // readQuoted ensures there's a character after the backslash
+        switch (c) {
+          case 'u':
+            if (i + 4 >= length) throw syntaxError("Unterminated escape sequence");
+            int codePoint = 0;
+            for (int end = i + 4; i < end; ) {
+              int digit = Character.digit(escaped.charAt(++i), 16);
+              if (digit == -1) throw syntaxError("Malformed unicode escape");
+              codePoint = (codePoint << 4) + digit;
+            }
+            result.append((char) codePoint);
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'b':
+            result.append('\b');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case '"':
+          case '\'':
+          case '\\':
+          case '/':
+            result.append(c);
+            break;
+          default:
+            throw syntaxError("Invalid escape sequence");
+        }
+      }
+      return result.toString();
+    }
+
+    /** Reads a number into {@link #bytes}, returning its length. */
+    int readNumber() {
+      ReadBuffer buffer = this.buffer;
+      byte[] bytes = this.bytes;
+      int length = 0;
+      bytes[length++] = (byte) peekedNumberStart;
+      while (buffer.available() > 0) {
+        byte b = buffer.readByteUnsafe();
+        if ((b < '0' || b > '9') && b != '.' && b != 'e' && b != 'E' && b != '-' && b != '+') {
+          pushedBack = b & 0xff;
+          break;
+        }
+        if (length == bytes.length) bytes = this.bytes = Arrays.copyOf(bytes, length * 2);
+        bytes[length++] = b;
+      }
+      return length;
+    }
+
+    long parseLong(int length) {
+      byte[] bytes = this.bytes;
+      boolean negative = bytes[0] == '-';
+      int i = negative ? 1 : 0;
+      // 18 digits can't overflow a long, so there's no need to check each digit
+      if (length > i && length - i <= 18) {
+        long result = 0;
+        for (; i < length; i++) {
+          int digit = bytes[i] - '0';
+          if (digit < 0 || digit > 9) break;
+          result = result * 10 + digit;
+        }
+        if (i == length) return negative ? -result : result;
+      }
+
+      // The value is large or not a plain integer, ex 1.0E3: fall back to the JRE.
+      String string = asciiToString(length);
+      try {
+        return Long.parseLong(string);
+      } catch (NumberFormatException e) {
+        double asDouble;
+        try {
+          asDouble = Double.parseDouble(string);
+        } catch (NumberFormatException notANumber) {
+          asDouble = Double.NaN;
+        }
+        long result = (long) asDouble;
+        if (result != asDouble) {
+          throw new NumberFormatException("Expected a long but was " + string
+            + " at path " + getPath());
+        }
+        return result;
+      }
+    }
+
+    IllegalStateException unexpected(String expected, int peeked) {
+      return new IllegalStateException(
+        "Expected " + expected + " but was " + tokenName(peeked) + " at path " + getPath());
+    }
+
+    IOException syntaxError(String message) {
+      return new IOException("Malformed json: " + message + " at path " + getPath());
+    }
+
+    static String tokenName(int peeked) {
+      switch (peeked) {
+        case PEEKED_BEGIN_OBJECT:
+          return "BEGIN_OBJECT";
+        case PEEKED_END_OBJECT:
+          return "END_OBJECT";
+        case PEEKED_BEGIN_ARRAY:
+          return "BEGIN_ARRAY";
+        case PEEKED_END_ARRAY:
+          return "END_ARRAY";
+        case PEEKED_TRUE:
+        case PEEKED_FALSE:
+          return "BOOLEAN";
+        case PEEKED_NULL:
+          return "NULL";
+        case PEEKED_STRING:
+          return "STRING";
+        case PEEKED_NAME:
+          return "NAME";
+        case PEEKED_NUMBER:
+          return "NUMBER";
+        default:
+          return "END_DOCUMENT";
+      }
     }
   }
 
@@ -155,16 +673,6 @@ public final class JsonCodec {
     }
   }
 
-  static <T> int sizeInBytes(WriteBuffer.Writer<T> writer, List<T> value) {
-    int length = value.size();
-    int sizeInBytes = 2; // []
-    if (length > 1) sizeInBytes += length - 1; // comma to join elements
-    for (int i = 0; i < length; i++) {
-      sizeInBytes += writer.sizeInBytes(value.get(i));
-    }
-    return sizeInBytes;
-  }
-
   /** Inability to encode is a programming bug. */
   public static <T> byte[] write(WriteBuffer.Writer<T> writer, T value) {
     byte[] result = new byte[writer.sizeInBytes(value)];
@@ -195,11 +703,20 @@ public final class JsonCodec {
     return result;
   }
 
+  /**
+   * Writes the list in a single pass into a thread-local buffer, then copies the result. This
+   * avoids walking each element twice, once for {@link WriteBuffer.Writer#sizeInBytes} and again to
+   * write it.
+   */
   public static <T> byte[] writeList(WriteBuffer.Writer<T> writer, List<T> value) {
     if (value.isEmpty()) return new byte[] {'[', ']'};
-    byte[] result = new byte[sizeInBytes(writer, value)];
-    writeList(writer, value, WriteBuffer.wrap(result));
-    return result;
+    WriteBuffer b = WriteBuffer.pooled();
+    try {
+      writeList(writer, value, b);
+      return b.toByteArray();
+    } finally {
+      b.release();
+    }
   }
 
   public static <T> int writeList(WriteBuffer.Writer<T> writer, List<T> value, byte[] out,
@@ -226,7 +743,7 @@ public final class JsonCodec {
 
   static IllegalArgumentException exceptionReading(String type, Exception e) {
     String cause = e.getMessage() == null ? "Error" : e.getMessage();
-    if (cause.indexOf("Expected BEGIN_OBJECT") != -1 || cause.indexOf("malformed") != -1) {
+    if (cause.indexOf("Expected BEGIN_OBJECT") != -1 || cause.indexOf("Malformed json") != -1) {
       cause = "Malformed";
     }
     String message = format("%s reading %s from json", cause, type);
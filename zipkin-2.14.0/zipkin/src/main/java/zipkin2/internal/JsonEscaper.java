@@ -24,18 +24,26 @@ public final class JsonEscaper {
 
     int afterReplacement = 0;
     StringBuilder builder = null;
+    boolean ascii = true;
     for (int i = 0; i < length; i++) {
+      if (ascii) {
+        i = plainRunEnd(v, i, length);
+        if (i == length) break;
+      }
       char c = v.charAt(i);
       String replacement;
       if (c < 0x80) {
         replacement = REPLACEMENT_CHARS[c];
         if (replacement == null) continue;
-      } else if (c == '\u2028') {
-        replacement = U2028;
-      } else if (c == '\u2029') {
-        replacement = U2029;
       } else {
-        continue;
+        ascii = false; // text with non-ASCII is likely to have more, so check each char from here
+        if (c == '\u2028') {
+          replacement = U2028;
+        } else if (c == '\u2029') {
+          replacement = U2029;
+        } else {
+          continue;
+        }
       }
       if (afterReplacement < i) { // write characters between the last replacement and now
         if (builder == null) builder = new StringBuilder(length);
@@ -85,10 +93,15 @@ public final class JsonEscaper {
   private static final String U2029 = "\\u2029";
 
   public static int jsonEscapedSizeInBytes(CharSequence v) {
-    boolean ascii = true;
+    boolean ascii = true, skipRuns = true;
     int escapingOverhead = 0;
     for (int i = 0, length = v.length(); i < length; i++) {
+      if (skipRuns) { // like jsonEscape, only skip runs until the first non-ASCII character
+        i = plainRunEnd(v, i, length);
+        if (i == length) break;
+      }
       char c = v.charAt(i);
+      if (c >= 0x80) skipRuns = false;
       if (c == '\u2028' || c == '\u2029') {
         escapingOverhead += 5;
       } else if (c >= 0x80) {
@@ -101,4 +114,41 @@ public final class JsonEscaper {
     if (ascii) return v.length() + escapingOverhead;
     return WriteBuffer.utf8SizeInBytes(v) + escapingOverhead;
   }
+
+  static final long LANE_ONES = 0x0001000100010001L;
+  static final long LANE_HIGH_BITS = 0x8000800080008000L;
+  static final long NON_ASCII_BITS = 0xff80ff80ff80ff80L;
+
+  /**
+   * Returns the index of the first character at or after {@code i} that is either escaped or not
+   * 7-bit ASCII, or {@code len} if there are none.
+   *
+   * <p>Most span data is short ASCII without anything to escape. This packs four UTF-16 characters
+   * into a long and tests them at once (SWAR), only falling back to per-character checks for the
+   * word that contains something interesting.
+   */
+  static int plainRunEnd(CharSequence v, int i, int len) {
+    for (int limit = len - 3; i < limit; i += 4) {
+      long word = v.charAt(i)
+        | (long) v.charAt(i + 1) << 16
+        | (long) v.charAt(i + 2) << 32
+        | (long) v.charAt(i + 3) << 48;
+      if ((word & NON_ASCII_BITS) != 0L // all lanes are < 0x80 after this check
+        || hasLaneLessThan(word, 0x20) // control characters
+        || hasLaneLessThan(word ^ (LANE_ONES * '"'), 1)
+        || hasLaneLessThan(word ^ (LANE_ONES * '\\'), 1)) {
+        break;
+      }
+    }
+    for (; i < len; i++) {
+      char c = v.charAt(i);
+      if (c >= 0x80 || REPLACEMENT_CHARS[c] != null) break;
+    }
+    return i;
+  }
+
+  /** Valid when each 16-bit lane is less than 0x8000. False positives only follow a true one. */
+  static boolean hasLaneLessThan(long word, int n) {
+    return ((word - LANE_ONES * n) & ~word & LANE_HIGH_BITS) != 0L;
+  }
 }
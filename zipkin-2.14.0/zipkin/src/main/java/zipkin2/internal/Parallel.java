@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fork-join over a shared pool of daemon threads, for CPU-bound work such as aggregating traces.
+ * This is a dependency-free variant of {@code ForkJoinPool}, which isn't available on Java 6.
+ *
+ * <p>The caller runs the first task itself. Afterwards, it runs any task the pool hasn't started
+ * yet, so that a busy pool delays results no more than running all tasks on the calling thread.
+ */
+public final class Parallel {
+  /** The number of tasks worth splitting CPU-bound work into. */
+  public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Runs all tasks, returning their results in the same order.
+   *
+   * <p>If any task fails, the first failure in task order is thrown after all tasks complete.
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+    return invokeAll(SharedExecutor.INSTANCE, tasks);
+  }
+
+  static <T> List<T> invokeAll(Executor executor, List<? extends Callable<T>> tasks) {
+    int length = tasks.size();
+    List<Fork<T>> forks = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) forks.add(new Fork<T>(tasks.get(i)));
+    for (int i = 1; i < length; i++) executor.execute(forks.get(i));
+
+    RuntimeException firstError = null;
+    List<T> result = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      Fork<T> fork = forks.get(i);
+      fork.run(); // no-op unless the executor hasn't started it
+      try {
+        result.add(fork.join());
+      } catch (RuntimeException e) {
+        if (firstError == null) firstError = e;
+      }
+    }
+    if (firstError != null) throw firstError;
+    return result;
+  }
+
+  /** A task that runs once, on whichever thread claims it first. */
+  static final class Fork<T> extends FutureTask<T> {
+    final AtomicBoolean claimed = new AtomicBoolean();
+
+    Fork(Callable<T> callable) {
+      super(callable);
+    }
+
+    @Override public void run() {
+      if (claimed.compareAndSet(false, true)) super.run();
+    }
+
+    T join() {
+      try {
+        return get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted joining " + this, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
+  /** Lazily creates daemon threads which time out when idle. */
+  static final class SharedExecutor {
+    static final ThreadPoolExecutor INSTANCE = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+      30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      final AtomicInteger count = new AtomicInteger();
+
+      @Override public Thread newThread(Runnable r) {
+        Thread result = new Thread(r, "zipkin-parallel-" + count.incrementAndGet());
+        result.setDaemon(true);
+        return result;
+      }
+    });
+
+    static {
+      INSTANCE.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  Parallel() {
+  }
+}
@@ -206,6 +206,17 @@ final class Proto3Fields {
     }
   }
 
+  /** Reads values via {@link ReadBuffer#readUtf8Cached(int)}, for low-cardinality fields. */
+  static final class CachedUtf8Field extends Utf8Field {
+    CachedUtf8Field(int key) {
+      super(key);
+    }
+
+    @Override String readValue(ReadBuffer buffer, int length) {
+      return buffer.readUtf8Cached(length);
+    }
+  }
+
   static final class Fixed64Field extends Field {
     Fixed64Field(int key) {
       super(key);
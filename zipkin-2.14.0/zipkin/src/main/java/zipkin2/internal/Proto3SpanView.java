@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.Collection;
+import zipkin2.Span;
+
+import static zipkin2.internal.HexCodec.HEX_DIGITS;
+import static zipkin2.internal.Proto3Codec.exceptionReading;
+import static zipkin2.internal.Proto3Fields.Field.skipValue;
+import static zipkin2.internal.Proto3Fields.Field.wireType;
+import static zipkin2.internal.Proto3ZipkinFields.SPAN;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.DEBUG;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.DEBUG_KEY;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.TRACE_ID_KEY;
+
+/**
+ * A lazy view of a span inside a proto3 {@code ListOfSpans} message. Only the trace ID and debug
+ * flag are parsed up-front. The remaining fields are left in the underlying buffer until {@link
+ * #toSpan()} is called.
+ *
+ * <p>This allows collectors to sample before paying the cost of a full decode. As the view shares
+ * bytes with the buffer it was read from, do not release that buffer before calling {@link
+ * #toSpan()}.
+ */
+public final class Proto3SpanView {
+
+  /**
+   * Reads a view of each span in the proto3 {@code ListOfSpans} message, returning false if the
+   * buffer was empty or a span was empty.
+   *
+   * @throws IllegalArgumentException if the list is malformed
+   */
+  public static boolean readList(ReadBuffer buffer, Collection<Proto3SpanView> out) {
+    int length = buffer.available();
+    if (length == 0) return false;
+    try {
+      while (buffer.available() > 0) {
+        Proto3SpanView view = read(buffer);
+        if (view == null) return false;
+        out.add(view);
+      }
+    } catch (RuntimeException e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
+  static @Nullable Proto3SpanView read(ReadBuffer buffer) {
+    buffer.readVarint32(); // toss the key, same as SpanField.read
+    int length = buffer.readVarint32();
+    if (length == 0) return null;
+    buffer.require(length);
+    int pos = buffer.pos(), endPos = pos + length;
+
+    long traceIdHigh = 0L, traceIdLow = 0L;
+    boolean debug = false;
+    while (buffer.pos() < endPos) {
+      int nextKey = buffer.readVarint32();
+      switch (nextKey) {
+        case TRACE_ID_KEY:
+          int traceIdLength = buffer.readVarint32();
+          if (traceIdLength > 16) {
+            throw new IllegalArgumentException(
+              "Malformed: traceId greater than 16 bytes at byte " + buffer.pos());
+          }
+          buffer.require(traceIdLength);
+          traceIdHigh = traceIdLow = 0L;
+          for (int i = 0; i < traceIdLength; i++) {
+            traceIdHigh = (traceIdHigh << 8) | (traceIdLow >>> 56);
+            traceIdLow = (traceIdLow << 8) | (buffer.readByteUnsafe() & 0xff);
+          }
+          break;
+        case DEBUG_KEY:
+          debug = DEBUG.read(buffer);
+          break;
+        default:
+          if (!skipValue(buffer, wireType(nextKey, buffer.pos()))) {
+            throw new IllegalArgumentException("Truncated: span at byte " + pos);
+          }
+      }
+    }
+    if (buffer.pos() != endPos) {
+      throw new IllegalArgumentException("Malformed: span overran its length at byte " + pos);
+    }
+    return new Proto3SpanView(buffer, pos, length, traceIdHigh, traceIdLow, debug);
+  }
+
+  final ReadBuffer buffer;
+  final int pos, length;
+  final long traceIdHigh, traceIdLow;
+  final boolean debug;
+
+  Proto3SpanView(ReadBuffer buffer, int pos, int length, long traceIdHigh, long traceIdLow,
+    boolean debug) {
+    this.buffer = buffer;
+    this.pos = pos;
+    this.length = length;
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
+    this.debug = debug;
+  }
+
+  /** The upper 64 bits of the trace ID, or zero if it is 64 bits or less. */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /** The lower 64 bits of the trace ID, or zero if there was none. */
+  public long traceIdLow() {
+    return traceIdLow;
+  }
+
+  /** Same as {@link Span#traceId()}, except this allocates a new string on each call. */
+  public String traceId() {
+    char[] result = Platform.shortStringBuffer();
+    int pos = 0;
+    if (traceIdHigh != 0L) pos = writeHexLong(result, pos, traceIdHigh);
+    pos = writeHexLong(result, pos, traceIdLow);
+    return new String(result, 0, pos);
+  }
+
+  static int writeHexLong(char[] data, int pos, long v) {
+    for (int shift = 60; shift >= 0; shift -= 4) {
+      data[pos++] = HEX_DIGITS[(int) (v >>> shift) & 0xf];
+    }
+    return pos;
+  }
+
+  /** True if the debug flag was set, which means the span should bypass sampling. */
+  public boolean debug() {
+    return debug;
+  }
+
+  /** Decodes the remaining fields of this span. */
+  public Span toSpan() {
+    try {
+      return SPAN.readValue(buffer.slice(pos, length), length);
+    } catch (RuntimeException e) {
+      throw exceptionReading("Span", e);
+    }
+  }
+
+  @Override public String toString() {
+    return "Proto3SpanView{traceId=" + traceId() + ", debug=" + debug + "}";
+  }
+}
@@ -23,6 +23,7 @@ import zipkin2.Annotation;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.Proto3Fields.BooleanField;
+import zipkin2.internal.Proto3Fields.CachedUtf8Field;
 import zipkin2.internal.Proto3Fields.Utf8Field;
 
 import static java.util.logging.Level.FINE;
@@ -51,7 +52,7 @@ final class Proto3ZipkinFields {
     static final int IPV6_KEY = (3 << 3) | WIRETYPE_LENGTH_DELIMITED;
     static final int PORT_KEY = (4 << 3) | WIRETYPE_VARINT;
 
-    static final Utf8Field SERVICE_NAME = new Utf8Field(SERVICE_NAME_KEY);
+    static final Utf8Field SERVICE_NAME = new CachedUtf8Field(SERVICE_NAME_KEY);
     static final BytesField IPV4 = new BytesField(IPV4_KEY);
     static final BytesField IPV6 = new BytesField(IPV6_KEY);
     static final VarintField PORT = new VarintField(PORT_KEY);
@@ -80,27 +81,29 @@ final class Proto3ZipkinFields {
       int endPos = buffer.pos() + length;
 
       // now, we are in the endpoint fields
-      Endpoint.Builder builder = Endpoint.newBuilder();
+      String serviceName = null;
+      byte[] ipv4 = null, ipv6 = null;
+      int port = 0;
       while (buffer.pos() < endPos) {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
           case SERVICE_NAME_KEY:
-            builder.serviceName(SERVICE_NAME.readLengthPrefixAndValue(buffer));
+            serviceName = SERVICE_NAME.readLengthPrefixAndValue(buffer);
             break;
           case IPV4_KEY:
-            builder.parseIp(IPV4.readLengthPrefixAndValue(buffer));
+            ipv4 = IPV4.readLengthPrefixAndValue(buffer);
             break;
           case IPV6_KEY:
-            builder.parseIp(IPV6.readLengthPrefixAndValue(buffer));
+            ipv6 = IPV6.readLengthPrefixAndValue(buffer);
             break;
           case PORT_KEY:
-            builder.port(buffer.readVarint32());
+            port = buffer.readVarint32();
             break;
           default:
             logAndSkip(buffer, nextKey);
         }
       }
-      return builder.build();
+      return EndpointCache.build(serviceName, ipv4, ipv6, port);
     }
   }
 
@@ -170,8 +173,8 @@ final class Proto3ZipkinFields {
     static final int KEY_KEY = (1 << 3) | WIRETYPE_LENGTH_DELIMITED;
     static final int VALUE_KEY = (2 << 3) | WIRETYPE_LENGTH_DELIMITED;
 
-    static final Utf8Field KEY = new Utf8Field(KEY_KEY);
-    static final Utf8Field VALUE = new Utf8Field(VALUE_KEY);
+    static final Utf8Field KEY = new CachedUtf8Field(KEY_KEY);
+    static final Utf8Field VALUE = new CachedUtf8Field(VALUE_KEY);
 
     TagField(int key) {
       super(key);
@@ -232,7 +235,7 @@ final class Proto3ZipkinFields {
     static final HexField PARENT_ID = new HexField(PARENT_ID_KEY);
     static final HexField ID = new HexField(ID_KEY);
     static final VarintField KIND = new VarintField(KIND_KEY);
-    static final Utf8Field NAME = new Utf8Field(NAME_KEY);
+    static final Utf8Field NAME = new CachedUtf8Field(NAME_KEY);
     static final Fixed64Field TIMESTAMP = new Fixed64Field(TIMESTAMP_KEY);
     static final VarintField DURATION = new VarintField(DURATION_KEY);
     static final EndpointField LOCAL_ENDPOINT = new EndpointField(LOCAL_ENDPOINT_KEY);
@@ -324,13 +327,13 @@ final class Proto3ZipkinFields {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
           case TRACE_ID_KEY:
-            builder.traceId(TRACE_ID.readLengthPrefixAndValue(buffer));
+            readTraceId(buffer, builder);
             break;
           case PARENT_ID_KEY:
-            builder.parentId(PARENT_ID.readLengthPrefixAndValue(buffer));
+            readParentId(buffer, builder);
             break;
           case ID_KEY:
-            builder.id(ID.readLengthPrefixAndValue(buffer));
+            readId(buffer, builder);
             break;
           case KIND_KEY:
             int kind = buffer.readVarint32();
@@ -371,6 +374,38 @@ final class Proto3ZipkinFields {
       }
       return builder.build();
     }
+
+    // The ID readers below avoid a hex round-trip for the usual 8 or 16 byte IDs.
+
+    static void readTraceId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 16) {
+        long high = buffer.readLong();
+        builder.traceId(high, buffer.readLong());
+      } else if (length == 8) {
+        builder.traceId(0L, buffer.readLong());
+      } else if (length != 0) {
+        builder.traceId(TRACE_ID.readValue(buffer, length));
+      }
+    }
+
+    static void readParentId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 8) {
+        builder.parentId(buffer.readLong());
+      } else if (length != 0) {
+        builder.parentId(PARENT_ID.readValue(buffer, length));
+      }
+    }
+
+    static void readId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 8) {
+        builder.id(buffer.readLong());
+      } else if (length != 0) {
+        builder.id(ID.readValue(buffer, length));
+      }
+    }
   }
 
   static void logAndSkip(ReadBuffer buffer, int nextKey) {
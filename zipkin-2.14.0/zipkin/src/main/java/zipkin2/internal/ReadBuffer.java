@@ -131,10 +131,32 @@ public abstract class ReadBuffer extends InputStream {
       return new String(readBytes(length), UTF_8);
     }
 
+    /** Heap buffers are looked up in place. Others are copied to a reused array, not a new one. */
+    @Override final String doReadUtf8Cached(StringCache cache, int length) {
+      if (buf.hasArray()) {
+        int pos = buf.position();
+        String result = cache.get(buf.array(), buf.arrayOffset() + pos, length);
+        buf.position(pos + length);
+        return result;
+      }
+      byte[] scratch = StringCache.scratchBuffer();
+      buf.get(scratch, 0, length);
+      return cache.get(scratch, 0, length);
+    }
+
     @Override public int pos() {
       return buf.position();
     }
 
+    @Override final ReadBuffer slice(int pos, int length) {
+      ByteBuffer slice = buf.duplicate().order(buf.order()); // duplicate() resets the byte order
+      slice.position(pos);
+      slice.limit(pos + length);
+      return buf.order() == ByteOrder.BIG_ENDIAN
+        ? new BigEndianByteBuffer(slice)
+        : new LittleEndianByteBuffer(slice);
+    }
+
     @Override public int read(byte[] dst, int offset, int length) {
       int toRead = checkReadArguments(dst, offset, length);
       if (toRead == 0) return 0;
@@ -143,7 +165,7 @@ public abstract class ReadBuffer extends InputStream {
     }
 
     @Override public long skip(long maxCount) {
-      int skipped = Math.max(available(), (int) maxCount);
+      int skipped = Math.min(available(), (int) maxCount);
       buf.position(buf.position() + skipped);
       return skipped;
     }
@@ -199,6 +221,12 @@ public abstract class ReadBuffer extends InputStream {
       return result;
     }
 
+    @Override final String doReadUtf8Cached(StringCache cache, int length) {
+      String result = cache.get(buf, offset, length);
+      offset += length;
+      return result;
+    }
+
     @Override short readShort() {
       require(2);
       return (short) ((buf[offset++] & 0xff) << 8 | (buf[offset++] & 0xff));
@@ -237,6 +265,10 @@ public abstract class ReadBuffer extends InputStream {
       return offset;
     }
 
+    @Override ReadBuffer slice(int pos, int length) {
+      return new Array(buf, pos, pos + length);
+    }
+
     @Override public long skip(long maxCount) {
       int toSkip = Math.min(available(), (int) maxCount);
       offset += toSkip;
@@ -292,12 +324,31 @@ public abstract class ReadBuffer extends InputStream {
     return doReadUtf8(length);
   }
 
+  /**
+   * Like {@link #readUtf8(int)}, except this returns a shared instance when {@link StringCache} is
+   * enabled. Use this for low-cardinality values, such as service names.
+   */
+  final String readUtf8Cached(int length) {
+    StringCache cache = StringCache.current;
+    if (cache == null || length == 0 || length > StringCache.MAX_LENGTH) return readUtf8(length);
+    require(length);
+    return doReadUtf8Cached(cache, length);
+  }
+
+  abstract String doReadUtf8Cached(StringCache cache, int length);
+
   abstract boolean tryReadAscii(char[] destination, int length);
 
   abstract String doReadUtf8(int length);
 
   abstract int pos();
 
+  /**
+   * Returns an independent buffer over {@code length} bytes starting at {@link #pos() position}
+   * {@code pos}. The underlying bytes are shared, not copied.
+   */
+  abstract ReadBuffer slice(int pos, int length);
+
   abstract short readShort();
 
   abstract int readInt();
@@ -18,12 +18,11 @@ package zipkin2.internal;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.logging.Logger;
@@ -131,12 +130,14 @@ public final class SpanNode {
     }
 
     SpanNode rootSpan = null;
-    Map<Object, SpanNode> keyToNode = new LinkedHashMap<>();
-    Map<Object, Object> spanToParent = new LinkedHashMap<>();
+    // Keys are span IDs, qualified by endpoint when shared, and looked up by the long span ID
+    final KeyTable keys = new KeyTable();
+    // Keys with a parent assignment, in insertion order. Stale when Key.order doesn't match.
+    final ArrayList<Key> spanToParent = new ArrayList<>();
 
     void clear() {
       rootSpan = null;
-      keyToNode.clear();
+      keys.clear();
       spanToParent.clear();
     }
 
@@ -179,9 +180,13 @@ public final class SpanNode {
 
       // At this point, we have the most reliable parent-child relationships and can allocate spans
       // corresponding the the best place in the trace tree.
-      for (Map.Entry<Object, Object> entry : spanToParent.entrySet()) {
-        SpanNode child = keyToNode.get(entry.getKey());
-        SpanNode parent = keyToNode.get(entry.getValue());
+      for (int i = 0, size = spanToParent.size(); i < size; i++) {
+        Key key = spanToParent.get(i);
+        if (key.order != i) continue; // removed or re-added later
+        SpanNode child = key.node;
+        Key parentKey = key.hasParent
+          ? keys.get(key.parentId, key.parentShared, key.parentEndpoint) : null;
+        SpanNode parent = parentKey != null ? parentKey.node : null;
 
         if (parent == null) { // Handle headless by attaching spans missing parents to root
           rootSpan.addChild(child);
@@ -220,18 +225,20 @@ public final class SpanNode {
      * endpoint data that might be available.
      */
     void index(Span span) {
-      Object idKey, parentKey;
       if (Boolean.TRUE.equals(span.shared())) {
         // we need to classify a shared span by its endpoint in case multiple servers respond to the
         // same ID sent by the client.
-        idKey = createKey(span.id(), true, span.localEndpoint());
+        Key idKey = keys.getOrCreate(span.idAsLong(), true, span.localEndpoint());
         // the parent of a server span is a client, which is not ambiguous for a given span ID.
-        parentKey = span.id();
+        putParent(idKey, span.idAsLong(), false, null);
       } else {
-        idKey = span.id();
-        parentKey = span.parentId();
+        Key idKey = keys.getOrCreate(span.idAsLong(), false, null);
+        if (span.parentId() != null) {
+          putParent(idKey, span.parentIdAsLong(), false, null);
+        } else {
+          putNoParent(idKey);
+        }
       }
-      spanToParent.put(idKey, parentKey);
     }
 
     /**
@@ -246,26 +253,26 @@ public final class SpanNode {
     void process(Span span) {
       Endpoint endpoint = span.localEndpoint();
       boolean shared = Boolean.TRUE.equals(span.shared());
-      Object key = createKey(span.id(), shared, span.localEndpoint());
-      Object noEndpointKey = endpoint != null ? createKey(span.id(), shared, null) : key;
+      long id = span.idAsLong();
+      Key key = keys.getOrCreate(id, shared, shared ? endpoint : null);
+      Key noEndpointKey = shared && endpoint != null ? keys.getOrCreate(id, true, null) : key;
 
-      Object parent = null;
+      boolean hasParent = false;
       if (shared) {
         // Shared is a server span. It will very likely be on a different endpoint than the client.
         // Clients are not ambiguous by ID, so we don't need to qualify by endpoint.
-        parent = span.id();
+        hasParent = true;
       } else if (span.parentId() != null) {
         // We are not a root span, and not a shared server span. Proceed in most specific to least.
+        hasParent = true;
 
         // We could be the child of a shared server span (ex a local (intermediate) span on the same
         // endpoint). This is the most specific case, so we try this first.
-        parent = createKey(span.parentId(), true, endpoint);
-        if (spanToParent.containsKey(parent)) {
-          spanToParent.put(noEndpointKey, parent);
-        } else {
-          // If there's no shared parent, fall back to normal case which is unqualified beyond ID.
-          parent = span.parentId();
+        Key sharedParent = keys.get(span.parentIdAsLong(), true, endpoint);
+        if (sharedParent != null && sharedParent.order != -1) {
+          putParent(noEndpointKey, span.parentIdAsLong(), true, endpoint);
         }
+        // If there's no shared parent, fall back to normal case which is unqualified beyond ID.
       } else { // we are root or don't know our parent
         if (rootSpan != null) {
           if (logger.isLoggable(FINE)) {
@@ -279,62 +286,142 @@ public final class SpanNode {
       SpanNode node = new SpanNode(span);
       // special-case root, and attribute missing parents to it. In
       // other words, assume that the first root is the "real" root.
-      if (parent == null && rootSpan == null) {
+      if (!hasParent && rootSpan == null) {
         rootSpan = node;
-        spanToParent.remove(noEndpointKey);
+        noEndpointKey.order = -1; // remove from spanToParent
       } else if (shared) {
         // In the case of shared server span, we need to address it both ways, in case intermediate
         // spans are lacking endpoint information.
-        keyToNode.put(key, node);
-        keyToNode.put(noEndpointKey, node);
+        key.node = node;
+        noEndpointKey.node = node;
       } else {
-        keyToNode.put(noEndpointKey, node);
+        noEndpointKey.node = node;
       }
     }
-  }
 
-  static Object createKey(String id, boolean shared, @Nullable Endpoint endpoint) {
-    if (!shared) return id;
-    return new SharedKey(id, endpoint);
+    void putParent(Key key, long parentId, boolean parentShared, @Nullable Endpoint endpoint) {
+      addToSpanToParent(key);
+      key.hasParent = true;
+      key.parentId = parentId;
+      key.parentShared = parentShared;
+      key.parentEndpoint = endpoint;
+    }
+
+    void putNoParent(Key key) {
+      addToSpanToParent(key);
+      key.hasParent = false;
+      key.parentEndpoint = null;
+    }
+
+    /** Like a linked hash map, re-assigning a key doesn't change its position. */
+    void addToSpanToParent(Key key) {
+      if (key.order != -1) return;
+      key.order = spanToParent.size();
+      spanToParent.add(key);
+    }
   }
 
   /**
    * A span in the tree is not always unique on ID. Sharing is allowed once per ID (Ex: in RPC).
-   * However, it is possible in a retry scenario for accidental duplicate ID sharing to occur
+   * However, it is possible in a retry scenario for accidental duplicate ID sharing to occur. When
+   * shared, the key is qualified by endpoint.
    */
-  static final class SharedKey {
-    final String id;
+  static final class Key {
+    final long id;
+    final boolean shared;
     @Nullable final Endpoint endpoint;
+    /** Other keys with the same ID */
+    @Nullable Key next;
+
+    @Nullable SpanNode node;
+    /** Index in {@link Builder#spanToParent} or -1 if absent */
+    int order = -1;
+    boolean hasParent, parentShared;
+    long parentId;
+    @Nullable Endpoint parentEndpoint;
 
-    SharedKey(String id, @Nullable Endpoint endpoint) {
-      if (id == null) throw new NullPointerException("id == null");
+    Key(long id, boolean shared, @Nullable Endpoint endpoint) {
       this.id = id;
+      this.shared = shared;
       this.endpoint = endpoint;
     }
 
+    boolean matches(boolean shared, @Nullable Endpoint endpoint) {
+      if (this.shared != shared) return false;
+      return this.endpoint == endpoint || (this.endpoint != null && this.endpoint.equals(endpoint));
+    }
+
     @Override public String toString() {
-      return "SharedKey{id=" + id + ", endpoint=" + endpoint + "}";
+      return "Key{id=" + id + ", shared=" + shared + ", endpoint=" + endpoint + "}";
     }
+  }
 
-    @Override public boolean equals(Object o) {
-      if (o == this) return true;
-      if (!(o instanceof SharedKey)) return false;
-      SharedKey that = (SharedKey) o;
-      return id.equals(that.id) && equal(endpoint, that.endpoint);
+  /**
+   * Open-addressing hash table of keys by their long span ID. This avoids hashing ID strings, or
+   * allocating composite keys, for each span of a potentially very large trace.
+   */
+  static final class KeyTable {
+    long[] ids = new long[16];
+    Key[] heads = new Key[16]; // null means the slot is free
+    int size;
+
+    void clear() {
+      if (size == 0) return;
+      Arrays.fill(heads, null);
+      size = 0;
     }
 
-    static boolean equal(Object a, Object b) {
-      return a == b || (a != null && a.equals(b));
+    @Nullable Key get(long id, boolean shared, @Nullable Endpoint endpoint) {
+      int mask = heads.length - 1;
+      for (int i = slot(id, mask); heads[i] != null; i = (i + 1) & mask) {
+        if (ids[i] != id) continue;
+        for (Key key = heads[i]; key != null; key = key.next) {
+          if (key.matches(shared, endpoint)) return key;
+        }
+        return null;
+      }
+      return null;
     }
 
-    @Override public int hashCode() {
-      int result = 1;
-      result *= 1000003;
-      result ^= id.hashCode();
-      result *= 1000003;
-      result ^= (endpoint == null) ? 0 : endpoint.hashCode();
+    Key getOrCreate(long id, boolean shared, @Nullable Endpoint endpoint) {
+      int mask = heads.length - 1;
+      int i = slot(id, mask);
+      for (; heads[i] != null; i = (i + 1) & mask) {
+        if (ids[i] != id) continue;
+        for (Key key = heads[i]; key != null; key = key.next) {
+          if (key.matches(shared, endpoint)) return key;
+        }
+        Key result = new Key(id, shared, endpoint);
+        result.next = heads[i];
+        heads[i] = result;
+        return result;
+      }
+      Key result = new Key(id, shared, endpoint);
+      ids[i] = id;
+      heads[i] = result;
+      if (++size * 2 > heads.length) resize();
       return result;
     }
+
+    void resize() {
+      long[] oldIds = ids;
+      Key[] oldHeads = heads;
+      ids = new long[oldIds.length * 2];
+      heads = new Key[oldHeads.length * 2];
+      int mask = heads.length - 1;
+      for (int j = 0; j < oldHeads.length; j++) {
+        if (oldHeads[j] == null) continue;
+        int i = slot(oldIds[j], mask);
+        while (heads[i] != null) i = (i + 1) & mask;
+        ids[i] = oldIds[j];
+        heads[i] = oldHeads[j];
+      }
+    }
+
+    static int slot(long id, int mask) {
+      long h = id * 0x9E3779B97F4A7C15L; // span IDs are usually random, but mix in case they aren't
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
   }
 
   @Override public String toString() {
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import static zipkin2.internal.JsonCodec.UTF_8;
+
+/**
+ * Bounded cache of strings decoded from UTF-8. Decoders use this for low-cardinality values, such
+ * as service names, span names and tag keys, so that spans share one instance of each instead of
+ * allocating a new string per span.
+ *
+ * <p>This is a {@link DirectMappedCache} indexed by a hash of the UTF-8 bytes, so a lookup never
+ * allocates and never locks. High-cardinality values, like request IDs, cannot evict the frequent
+ * ones.
+ *
+ * <p>This is disabled by default, as the benefit depends on the data. When {@link #enable(int)
+ * enabled}, the cache is shared by all decoders in the process.
+ */
+public final class StringCache extends DirectMappedCache<StringCache.Entry> {
+  /** Longer values are likely to be unique, like URLs or SQL, so aren't cached. */
+  static final int MAX_LENGTH = 64;
+
+  static final ThreadLocal<byte[]> SCRATCH_BUFFER = new ThreadLocal<>();
+
+  static volatile StringCache current;
+
+  /** Returns the shared cache, or null if it isn't enabled. */
+  @Nullable public static StringCache current() {
+    return current;
+  }
+
+  /**
+   * Enables the shared cache with the given bound, rounded up to a power of two. Zero disables it.
+   */
+  public static void enable(int maxEntries) {
+    if (maxEntries < 0) throw new IllegalArgumentException("maxEntries < 0");
+    current = maxEntries == 0 ? null : new StringCache(maxEntries);
+  }
+
+  static final class Entry extends DirectMappedCache.Entry {
+    final byte[] utf8;
+    final String value;
+
+    Entry(int hash, byte[] utf8, String value) {
+      super(hash);
+      this.utf8 = utf8;
+      this.value = value;
+    }
+
+    boolean matches(byte[] bytes, int offset, int length) {
+      if (utf8.length != length) return false;
+      for (int i = 0; i < length; i++) {
+        if (utf8[i] != bytes[offset + i]) return false;
+      }
+      return true;
+    }
+  }
+
+  StringCache(int maxEntries) {
+    super(maxEntries);
+  }
+
+  /** Returns a string equal to the UTF-8 bytes in the given range, from the cache if possible. */
+  String get(byte[] bytes, int offset, int length) {
+    if (length == 0) return "";
+    if (length > MAX_LENGTH) return decode(bytes, offset, length);
+
+    int hash = 1;
+    for (int i = offset, end = offset + length; i < end; i++) hash = 31 * hash + bytes[i];
+    int index = index(hash);
+
+    Entry entry = entry(index);
+    if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length)) {
+      hit(entry);
+      return entry.value;
+    }
+
+    String result = decode(bytes, offset, length);
+    if (miss(index)) {
+      byte[] utf8 = new byte[length];
+      System.arraycopy(bytes, offset, utf8, 0, length);
+      replace(index, new Entry(hash, utf8, result));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a {@link ThreadLocal} reused array of {@link #MAX_LENGTH} bytes, for values read from
+   * a source without a backing array. It must never be leaked outside the method.
+   */
+  static byte[] scratchBuffer() {
+    byte[] scratchBuffer = SCRATCH_BUFFER.get();
+    if (scratchBuffer == null) {
+      scratchBuffer = new byte[MAX_LENGTH];
+      SCRATCH_BUFFER.set(scratchBuffer);
+    }
+    return scratchBuffer;
+  }
+
+  static String decode(byte[] bytes, int offset, int length) {
+    if (length > Platform.SHORT_STRING_LENGTH) return new String(bytes, offset, length, UTF_8);
+    char[] chars = Platform.shortStringBuffer();
+    for (int i = 0; i < length; i++) {
+      byte b = bytes[offset + i];
+      if ((b & 0x80) != 0) return new String(bytes, offset, length, UTF_8);
+      chars[i] = (char) b;
+    }
+    return new String(chars, 0, length);
+  }
+
+  @Override public String toString() {
+    return "StringCache{maxEntries=" + entries.length + "}";
+  }
+}
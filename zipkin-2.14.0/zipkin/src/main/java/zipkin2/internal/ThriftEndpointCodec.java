@@ -33,34 +33,35 @@ final class ThriftEndpointCodec {
   static final ThriftField IPV6 = new ThriftField(TYPE_STRING, 4);
 
   static Endpoint read(ReadBuffer buffer) {
-    Endpoint.Builder result = Endpoint.newBuilder();
+    String serviceName = null;
+    byte[] ipv4 = null, ipv6 = null;
+    int port = 0;
 
     while (true) {
       ThriftField thriftField = ThriftField.read(buffer);
       if (thriftField.type == TYPE_STOP) break;
 
       if (thriftField.isEqualTo(IPV4)) {
-        int ipv4 = buffer.readInt();
-        if (ipv4 != 0) {
-          result.parseIp( // allocation is ok here as Endpoint.ipv4Bytes would anyway
-            new byte[] {
-              (byte) (ipv4 >> 24 & 0xff),
-              (byte) (ipv4 >> 16 & 0xff),
-              (byte) (ipv4 >> 8 & 0xff),
-              (byte) (ipv4 & 0xff)
-            });
+        int ipv4Int = buffer.readInt();
+        if (ipv4Int != 0) {
+          ipv4 = new byte[] { // allocation is ok here as Endpoint.ipv4Bytes would anyway
+            (byte) (ipv4Int >> 24 & 0xff),
+            (byte) (ipv4Int >> 16 & 0xff),
+            (byte) (ipv4Int >> 8 & 0xff),
+            (byte) (ipv4Int & 0xff)
+          };
         }
       } else if (thriftField.isEqualTo(PORT)) {
-        result.port(buffer.readShort() & 0xFFFF);
+        port = buffer.readShort() & 0xFFFF;
       } else if (thriftField.isEqualTo(SERVICE_NAME)) {
-        result.serviceName(buffer.readUtf8(buffer.readInt()));
+        serviceName = buffer.readUtf8Cached(buffer.readInt());
       } else if (thriftField.isEqualTo(IPV6)) {
-        result.parseIp(buffer.readBytes(buffer.readInt()));
+        ipv6 = buffer.readBytes(buffer.readInt());
       } else {
         skip(buffer, thriftField.type);
       }
     }
-    return result.build();
+    return EndpointCache.build(serviceName, ipv4, ipv6, port);
   }
 
   static int sizeInBytes(Endpoint value) {
@@ -41,11 +41,12 @@ public class Trace {
       if (traceId.length() != 32) traceId = nextTraceId;
     }
 
-    // Now start any fixes or merging
+    // Now start any fixes or merging. Merged spans are compacted in place, as removing them one
+    // at a time from the list is quadratic for traces with many spans sent in pieces.
     Span last = null;
+    int write = 0;
     for (int i = 0; i < length; i++) {
       Span span = result.get(i);
-      //String previousId = last.id();
       boolean spanShared = Boolean.TRUE.equals(span.shared());
 
       // Choose the longest trace ID
@@ -57,8 +58,7 @@ public class Trace {
       EndpointTracker localEndpoint = null;
       while (i + 1 < length) {
         Span next = result.get(i + 1);
-        String nextId = next.id();
-        if (!nextId.equals(span.id())) break;
+        if (next.idAsLong() != span.idAsLong()) break;
 
         if (localEndpoint == null) {
           localEndpoint = new EndpointTracker();
@@ -71,9 +71,8 @@ public class Trace {
           if (replacement == null) replacement = span.toBuilder();
           replacement.merge(next);
 
-          // remove the merged element
-          length--;
-          result.remove(i + 1);
+          // skip the merged element
+          i++;
           continue;
         }
         break;
@@ -82,7 +81,7 @@ public class Trace {
       // Zipkin and B3 originally used the same span ID between client and server. Some
       // instrumentation are inconsistent about adding the shared flag on the server side. Since we
       // have the entire trace, and it is ordered client-first, we can correct a missing shared flag.
-      if (last != null && last.id().equals(span.id())) {
+      if (last != null && last.idAsLong() == span.idAsLong()) {
         // Backfill missing shared flag as some instrumentation doesn't add it
         if (last.kind() == Span.Kind.CLIENT && span.kind() == Span.Kind.SERVER && !spanShared) {
           spanShared = true;
@@ -97,20 +96,19 @@ public class Trace {
         }
       }
 
-      if (replacement != null) {
-        span = replacement.build();
-        result.set(i, span);
-      }
+      if (replacement != null) span = replacement.build();
+      result.set(write++, span);
       last = span;
     }
 
+    if (write < length) result.subList(write, length).clear();
     return result;
   }
 
   static final Comparator<Span> CLEANUP_COMPARATOR = new Comparator<Span>() {
     @Override public int compare(Span left, Span right) {
-      if (left.equals(right)) return 0;
-      int bySpanId = left.id().compareTo(right.id());
+      // IDs are fixed-width lower-hex, so unsigned order matches the order of the strings
+      int bySpanId = compareUnsigned(left.idAsLong(), right.idAsLong());
       if (bySpanId != 0) return bySpanId;
       int byShared = compareShared(left, right);
       if (byShared != 0) return byShared;
@@ -118,6 +116,12 @@ public class Trace {
     }
   };
 
+  static int compareUnsigned(long left, long right) {
+    left += Long.MIN_VALUE;
+    right += Long.MIN_VALUE;
+    return left < right ? -1 : (left == right ? 0 : 1);
+  }
+
   // false or null first (client first)
   static int compareShared(Span left, Span right) {
     // If either are shared put it last
@@ -21,6 +21,7 @@ import java.util.Collection;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
+import zipkin2.internal.JsonCodec.JsonReader.Options;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
 import zipkin2.v1.V1Span;
 import zipkin2.v1.V1SpanConverter;
@@ -29,6 +30,12 @@ import static zipkin2.internal.JsonCodec.exceptionReading;
 import static zipkin2.internal.V2SpanReader.ENDPOINT_READER;
 
 public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
+  static final Options SPAN_FIELDS = Options.of("traceId", "id", "name", "parentId", "timestamp",
+    "duration", "annotations", "binaryAnnotations", "debug");
+  static final int TRACE_ID = 0, ID = 1, NAME = 2, PARENT_ID = 3, TIMESTAMP = 4, DURATION = 5,
+    ANNOTATIONS = 6, BINARY_ANNOTATIONS = 7, DEBUG = 8;
+  static final Options ANNOTATION_FIELDS = Options.of("timestamp", "value", "endpoint");
+  static final Options BINARY_ANNOTATION_FIELDS = Options.of("key", "value", "endpoint");
 
   V1Span.Builder builder;
 
@@ -58,11 +65,11 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
     }
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
-      if (nextName.equals("traceId")) {
+      int field = reader.selectName(SPAN_FIELDS);
+      if (field == TRACE_ID) {
         builder.traceId(reader.nextString());
         continue;
-      } else if (nextName.equals("id")) {
+      } else if (field == ID) {
         builder.id(reader.nextString());
         continue;
       } else if (reader.peekNull()) {
@@ -71,26 +78,34 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
       }
 
       // read any optional fields
-      if (nextName.equals("name")) {
-        builder.name(reader.nextString());
-      } else if (nextName.equals("parentId")) {
-        builder.parentId(reader.nextString());
-      } else if (nextName.equals("timestamp")) {
-        builder.timestamp(reader.nextLong());
-      } else if (nextName.equals("duration")) {
-        builder.duration(reader.nextLong());
-      } else if (nextName.equals("annotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) readAnnotation(reader);
-        reader.endArray();
-      } else if (nextName.equals("binaryAnnotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) readBinaryAnnotation(reader);
-        reader.endArray();
-      } else if (nextName.equals("debug")) {
-        if (reader.nextBoolean()) builder.debug(true);
-      } else {
-        reader.skipValue();
+      switch (field) {
+        case NAME:
+          builder.name(reader.nextStringCached());
+          break;
+        case PARENT_ID:
+          builder.parentId(reader.nextString());
+          break;
+        case TIMESTAMP:
+          builder.timestamp(reader.nextLong());
+          break;
+        case DURATION:
+          builder.duration(reader.nextLong());
+          break;
+        case ANNOTATIONS:
+          reader.beginArray();
+          while (reader.hasNext()) readAnnotation(reader);
+          reader.endArray();
+          break;
+        case BINARY_ANNOTATIONS:
+          reader.beginArray();
+          while (reader.hasNext()) readBinaryAnnotation(reader);
+          reader.endArray();
+          break;
+        case DEBUG:
+          if (reader.nextBoolean()) builder.debug(true);
+          break;
+        default:
+          reader.skipValue();
       }
     }
     reader.endObject();
@@ -98,18 +113,17 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
   }
 
   void readAnnotation(JsonReader reader) throws IOException {
-    String nextName;
     reader.beginObject();
     Long timestamp = null;
     String value = null;
     Endpoint endpoint = null;
     while (reader.hasNext()) {
-      nextName = reader.nextName();
-      if (nextName.equals("timestamp")) {
+      int field = reader.selectName(ANNOTATION_FIELDS);
+      if (field == 0) {
         timestamp = reader.nextLong();
-      } else if (nextName.equals("value")) {
+      } else if (field == 1) {
         value = reader.nextString();
-      } else if (nextName.equals("endpoint") && !reader.peekNull()) {
+      } else if (field == 2 && !reader.peekNull()) {
         endpoint = ENDPOINT_READER.fromJson(reader);
       } else {
         reader.skipValue();
@@ -134,23 +148,23 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
 
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
+      int field = reader.selectName(BINARY_ANNOTATION_FIELDS);
       if (reader.peekNull()) {
         reader.skipValue();
         continue;
       }
 
-      if (nextName.equals("key")) {
-        key = reader.nextString();
-      } else if (nextName.equals("value")) {
+      if (field == 0) {
+        key = reader.nextStringCached();
+      } else if (field == 1) {
         if (reader.peekString()) {
-          stringValue = reader.nextString();
+          stringValue = reader.nextStringCached();
         } else if (reader.peekBoolean()) {
           booleanValue = reader.nextBoolean();
         } else {
           reader.skipValue();
         }
-      } else if (nextName.equals("endpoint")) {
+      } else if (field == 2) {
         endpoint = ENDPOINT_READER.fromJson(reader);
       } else {
         reader.skipValue();
@@ -64,7 +64,7 @@ public final class V1ThriftSpanReader {
       } else if (thriftField.isEqualTo(TRACE_ID)) {
         builder.traceId(buffer.readLong());
       } else if (thriftField.isEqualTo(NAME)) {
-        builder.name(buffer.readUtf8(buffer.readInt()));
+        builder.name(buffer.readUtf8Cached(buffer.readInt()));
       } else if (thriftField.isEqualTo(ID)) {
         builder.id(buffer.readLong());
       } else if (thriftField.isEqualTo(PARENT_ID)) {
@@ -141,9 +141,9 @@ public final class V1ThriftSpanReader {
         ThriftField thriftField = ThriftField.read(buffer);
         if (thriftField.type == TYPE_STOP) break;
         if (thriftField.isEqualTo(KEY)) {
-          key = buffer.readUtf8(buffer.readInt());
+          key = buffer.readUtf8Cached(buffer.readInt());
         } else if (thriftField.isEqualTo(VALUE)) {
-          value = buffer.readUtf8(buffer.readInt());
+          value = buffer.readUtf8Cached(buffer.readInt());
         } else if (thriftField.isEqualTo(TYPE)) {
           switch (buffer.readInt()) {
             case 0:
@@ -20,9 +20,19 @@ import java.io.IOException;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
+import zipkin2.internal.JsonCodec.JsonReader.Options;
 import zipkin2.internal.JsonCodec.JsonReaderAdapter;
 
 public final class V2SpanReader implements JsonReaderAdapter<Span> {
+  static final Options SPAN_FIELDS = Options.of("traceId", "parentId", "id", "kind", "name",
+    "timestamp", "duration", "localEndpoint", "remoteEndpoint", "annotations", "tags", "debug",
+    "shared");
+  static final int TRACE_ID = 0, PARENT_ID = 1, ID = 2, KIND = 3, NAME = 4, TIMESTAMP = 5,
+    DURATION = 6, LOCAL_ENDPOINT = 7, REMOTE_ENDPOINT = 8, ANNOTATIONS = 9, TAGS = 10, DEBUG = 11,
+    SHARED = 12;
+  static final Options ANNOTATION_FIELDS = Options.of("timestamp", "value");
+  static final Options ENDPOINT_FIELDS = Options.of("serviceName", "ipv4", "ipv6", "port");
+
   Span.Builder builder;
 
   @Override public Span fromJson(JsonReader reader) throws IOException {
@@ -33,11 +43,11 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
     }
     reader.beginObject();
     while (reader.hasNext()) {
-      String nextName = reader.nextName();
-      if (nextName.equals("traceId")) {
+      int field = reader.selectName(SPAN_FIELDS);
+      if (field == TRACE_ID) {
         builder.traceId(reader.nextString());
         continue;
-      } else if (nextName.equals("id")) {
+      } else if (field == ID) {
         builder.id(reader.nextString());
         continue;
       } else if (reader.peekNull()) {
@@ -46,59 +56,71 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
       }
 
       // read any optional fields
-      if (nextName.equals("parentId")) {
-        builder.parentId(reader.nextString());
-      } else if (nextName.equals("kind")) {
-        builder.kind(Span.Kind.valueOf(reader.nextString()));
-      } else if (nextName.equals("name")) {
-        builder.name(reader.nextString());
-      } else if (nextName.equals("timestamp")) {
-        builder.timestamp(reader.nextLong());
-      } else if (nextName.equals("duration")) {
-        builder.duration(reader.nextLong());
-      } else if (nextName.equals("localEndpoint")) {
-        builder.localEndpoint(ENDPOINT_READER.fromJson(reader));
-      } else if (nextName.equals("remoteEndpoint")) {
-        builder.remoteEndpoint(ENDPOINT_READER.fromJson(reader));
-      } else if (nextName.equals("annotations")) {
-        reader.beginArray();
-        while (reader.hasNext()) {
-          reader.beginObject();
-          Long timestamp = null;
-          String value = null;
+      switch (field) {
+        case PARENT_ID:
+          builder.parentId(reader.nextString());
+          break;
+        case KIND:
+          builder.kind(Span.Kind.valueOf(reader.nextString()));
+          break;
+        case NAME:
+          builder.name(reader.nextStringCached());
+          break;
+        case TIMESTAMP:
+          builder.timestamp(reader.nextLong());
+          break;
+        case DURATION:
+          builder.duration(reader.nextLong());
+          break;
+        case LOCAL_ENDPOINT:
+          builder.localEndpoint(ENDPOINT_READER.fromJson(reader));
+          break;
+        case REMOTE_ENDPOINT:
+          builder.remoteEndpoint(ENDPOINT_READER.fromJson(reader));
+          break;
+        case ANNOTATIONS:
+          reader.beginArray();
           while (reader.hasNext()) {
-            nextName = reader.nextName();
-            if (nextName.equals("timestamp")) {
-              timestamp = reader.nextLong();
-            } else if (nextName.equals("value")) {
-              value = reader.nextString();
-            } else {
-              reader.skipValue();
+            reader.beginObject();
+            Long timestamp = null;
+            String value = null;
+            while (reader.hasNext()) {
+              int annotationField = reader.selectName(ANNOTATION_FIELDS);
+              if (annotationField == 0) {
+                timestamp = reader.nextLong();
+              } else if (annotationField == 1) {
+                value = reader.nextString();
+              } else {
+                reader.skipValue();
+              }
+            }
+            if (timestamp == null || value == null) {
+              throw new IllegalArgumentException("Incomplete annotation at " + reader.getPath());
             }
+            reader.endObject();
+            builder.addAnnotation(timestamp, value);
           }
-          if (timestamp == null || value == null) {
-            throw new IllegalArgumentException("Incomplete annotation at " + reader.getPath());
+          reader.endArray();
+          break;
+        case TAGS:
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String key = reader.nextNameCached();
+            if (reader.peekNull()) {
+              throw new IllegalArgumentException("No value at " + reader.getPath());
+            }
+            builder.putTag(key, reader.nextStringCached());
           }
           reader.endObject();
-          builder.addAnnotation(timestamp, value);
-        }
-        reader.endArray();
-      } else if (nextName.equals("tags")) {
-        reader.beginObject();
-        while (reader.hasNext()) {
-          String key = reader.nextName();
-          if (reader.peekNull()) {
-            throw new IllegalArgumentException("No value at " + reader.getPath());
-          }
-          builder.putTag(key, reader.nextString());
-        }
-        reader.endObject();
-      } else if (nextName.equals("debug")) {
-        if (reader.nextBoolean()) builder.debug(true);
-      } else if (nextName.equals("shared")) {
-        if (reader.nextBoolean()) builder.shared(true);
-      } else {
-        reader.skipValue();
+          break;
+        case DEBUG:
+          if (reader.nextBoolean()) builder.debug(true);
+          break;
+        case SHARED:
+          if (reader.nextBoolean()) builder.shared(true);
+          break;
+        default:
+          reader.skipValue();
       }
     }
     reader.endObject();
@@ -111,30 +133,35 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
 
   static final JsonReaderAdapter<Endpoint> ENDPOINT_READER = new JsonReaderAdapter<Endpoint>() {
     @Override public Endpoint fromJson(JsonReader reader) throws IOException {
-      Endpoint.Builder result = Endpoint.newBuilder();
+      String serviceName = null, ipv4 = null, ipv6 = null;
+      int port = 0;
       reader.beginObject();
       boolean readField = false;
       while (reader.hasNext()) {
-        String nextName = reader.nextName();
+        int field = reader.selectName(ENDPOINT_FIELDS);
         if (reader.peekNull()) {
           reader.skipValue();
           continue;
         }
-        if (nextName.equals("serviceName")) {
-          result.serviceName(reader.nextString());
+        if (field == 0) {
+          serviceName = reader.nextStringCached();
+          readField = true;
+        } else if (field == 1) {
+          ipv4 = reader.nextString();
           readField = true;
-        } else if (nextName.equals("ipv4") || nextName.equals("ipv6")) {
-          result.parseIp(reader.nextString());
+        } else if (field == 2) {
+          ipv6 = reader.nextString();
           readField = true;
-        } else if (nextName.equals("port")) {
-          result.port(reader.nextInt());
+        } else if (field == 3) {
+          port = reader.nextInt();
           readField = true;
         } else {
           reader.skipValue();
         }
       }
       reader.endObject();
-      return readField ? result.build() : null;
+      // IPs are parsed after reading, so that a cached endpoint can skip parsing them
+      return readField ? EndpointCache.build(serviceName, ipv4, ipv6, port) : null;
     }
 
     @Override public String toString() {
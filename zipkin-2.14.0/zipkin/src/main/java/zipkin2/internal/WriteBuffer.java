@@ -16,12 +16,18 @@
  */
 package zipkin2.internal;
 
+import java.util.Arrays;
+
 import static zipkin2.internal.HexCodec.HEX_DIGITS;
 
 /**
  * Writes are unsafe as they do no bounds checks. This means you should take care to allocate or
  * wrap an array at least as big as you need prior to writing. As it is possible to calculate size
  * prior to writing, overrunning a buffer is a programming error.
+ *
+ * <p>The exception is a {@link #growable(int) growable} buffer, which is written in a single pass
+ * without first calculating size. This avoids walking large inputs twice, at the cost of growing
+ * the underlying array.
  */
 public final class WriteBuffer {
   public interface Writer<T> {
@@ -30,27 +36,77 @@ public final class WriteBuffer {
     void write(T value, WriteBuffer buffer);
   }
 
+  /** Buffers larger than this aren't kept by {@link #pooled()}, to avoid pinning heap. */
+  static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+  static final ThreadLocal<WriteBuffer> POOL = new ThreadLocal<WriteBuffer>();
+
   public static WriteBuffer wrap(byte[] bytes) {
     return wrap(bytes, 0);
   }
 
   public static WriteBuffer wrap(byte[] bytes, int pos) {
-    return new WriteBuffer(bytes, pos);
+    return new WriteBuffer(bytes, pos, false);
   }
 
-  final byte[] buf;
+  /**
+   * Returns a buffer that grows as needed. Use {@link #array()} and {@link #pos()} to access what
+   * was written without copying.
+   */
+  public static WriteBuffer growable(int initialCapacity) {
+    if (initialCapacity <= 0) throw new IllegalArgumentException("initialCapacity <= 0");
+    return new WriteBuffer(new byte[initialCapacity], 0, true);
+  }
+
+  /**
+   * Returns a growable buffer at position zero, which is re-used by the current thread after
+   * {@link #release()}. Nested calls, such as from {@link Object#toString()}, get a new buffer.
+   */
+  static WriteBuffer pooled() {
+    WriteBuffer result = POOL.get();
+    if (result == null) return growable(1024);
+    POOL.set(null); // in use
+    result.pos = 0;
+    return result;
+  }
+
+  /** Returns this buffer to the thread-local pool, unless it was not pooled or grew too large. */
+  void release() {
+    if (growable && buf.length <= MAX_POOLED_CAPACITY) POOL.set(this);
+  }
+
+  byte[] buf;
   int pos;
+  final boolean growable;
 
-  WriteBuffer(byte[] buf, int pos) {
+  WriteBuffer(byte[] buf, int pos, boolean growable) {
     this.buf = buf;
     this.pos = pos;
+    this.growable = growable;
+  }
+
+  /** Returns the underlying array, which holds written bytes from index zero up to {@link #pos()}. */
+  public byte[] array() {
+    return buf;
+  }
+
+  /** Returns a copy of the bytes written so far. */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, pos);
+  }
+
+  /** Ensures a growable buffer can accept {@code byteCount} more bytes. */
+  void require(int byteCount) {
+    if (pos + byteCount <= buf.length) return;
+    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + byteCount));
   }
 
   public void writeByte(int v) {
+    if (growable) require(1);
     buf[pos++] = (byte) (v & 0xff);
   }
 
   public void write(byte[] v) {
+    if (growable) require(v.length);
     System.arraycopy(v, 0, buf, pos, v.length);
     pos += v.length;
   }
@@ -67,6 +123,7 @@ public final class WriteBuffer {
 
   /** Inspired by {@code okio.Buffer.writeLong} */
   void writeLongHex(long v) {
+    if (growable) require(16);
     int pos = this.pos;
     writeHexByte(buf, pos + 0, (byte) ((v >>> 56L) & 0xff));
     writeHexByte(buf, pos + 2, (byte) ((v >>> 48L) & 0xff));
@@ -84,7 +141,7 @@ public final class WriteBuffer {
     data[pos + 1] = (byte) HEX_DIGITS[b & 0xf];
   }
 
-  final int pos() {
+  public int pos() {
     return pos;
   }
 
@@ -101,7 +158,14 @@ public final class WriteBuffer {
    * int, CharSequence, int)} v4.1, modified including features to address ASCII runs of text.
    */
   public void writeUtf8(CharSequence string) {
-    for (int i = 0, len = string.length(); i < len; i++) {
+    int len = string.length();
+    if (growable) require(len); // enough for the usual case, which is ASCII
+
+    // Fast path: bulk copy the leading ASCII run, which is usually the whole string
+    int i = asciiRunEnd(string, 0, len);
+    if (i > 0) writeAscii(string, i);
+
+    for (; i < len; i++) {
       char ch = string.charAt(i);
       if (ch < 0x80) { // 7-bit ASCII character
         writeByte(ch);
@@ -145,6 +209,38 @@ public final class WriteBuffer {
     }
   }
 
+  /** Writes the first {@code count} characters, which were checked to be 7-bit ASCII. */
+  @SuppressWarnings("deprecation") // String.getBytes(int, int, byte[], int) is exact for ASCII
+  void writeAscii(CharSequence string, int count) {
+    if (growable) require(count);
+    if (string instanceof String) {
+      ((String) string).getBytes(0, count, buf, pos);
+      pos += count;
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      buf[pos++] = (byte) string.charAt(i);
+    }
+  }
+
+  /**
+   * Returns the index of the first character at or after {@code i} that isn't 7-bit ASCII, or
+   * {@code len} if there are none.
+   *
+   * <p>This checks four characters (eight bytes) at a time by OR-ing them together, so that ASCII
+   * runs, which are most span data, branch once per word instead of once per character.
+   */
+  static int asciiRunEnd(CharSequence string, int i, int len) {
+    for (int limit = len - 3; i < limit; i += 4) {
+      if ((string.charAt(i) | string.charAt(i + 1) | string.charAt(i + 2) | string.charAt(i + 3))
+        >= 0x80) {
+        break;
+      }
+    }
+    while (i < len && string.charAt(i) < 0x80) i++;
+    return i;
+  }
+
   // Adapted from okio.Buffer.writeDecimalLong
   public void writeAscii(long v) {
     if (v == 0) {
@@ -162,6 +258,7 @@ public final class WriteBuffer {
       v = -v; // needs to be positive so we can use this for an array index
     }
 
+    if (growable) require(19);
     writeBackwards(v);
   }
 
@@ -205,8 +302,12 @@ public final class WriteBuffer {
   // TODO: benchmark vs https://github.com/protocolbuffers/protobuf/blob/master/java/core/src/main/java/com/google/protobuf/Utf8.java#L240
   // there seem to be less branches for for strings without surrogates
   public static int utf8SizeInBytes(CharSequence string) {
-    int sizeInBytes = 0;
-    for (int i = 0, len = string.length(); i < len; i++) {
+    int len = string.length();
+    int i = asciiRunEnd(string, 0, len); // each leading ASCII character is one byte
+    if (i == len) return len;
+
+    int sizeInBytes = i;
+    for (; i < len; i++) {
       char ch = string.charAt(i);
       if (ch < 0x80) {
         sizeInBytes++; // 7-bit ASCII character
@@ -17,6 +17,7 @@
 package zipkin2.storage;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -24,8 +25,6 @@ import java.util.Map;
 import zipkin2.Call;
 import zipkin2.Span;
 
-import static zipkin2.storage.StrictTraceId.lowerTraceId;
-
 /**
  * A mapper that groups unorganized input spans by trace ID. Useful when preparing a result for
  * {@link SpanStore#getTraces(QueryRequest)}.
@@ -44,16 +43,48 @@ public final class GroupByTraceId implements Call.Mapper<List<Span>, List<List<S
   @Override public List<List<Span>> map(List<Span> input) {
     if (input.isEmpty()) return Collections.emptyList();
 
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+    Map<Long, List<Span>> groupedByTraceIdLow = new LinkedHashMap<>();
     for (Span span : input) {
-      String traceId = span.traceId();
-      if (!strictTraceId) traceId = lowerTraceId(traceId);
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
+      Long traceIdLow = span.traceIdLow();
+      List<Span> sameTraceIdLow = groupedByTraceIdLow.get(traceIdLow);
+      if (sameTraceIdLow == null) {
+        groupedByTraceIdLow.put(traceIdLow, sameTraceIdLow = new ArrayList<>());
       }
-      groupedByTraceId.get(traceId).add(span);
+      sameTraceIdLow.add(span);
+    }
+    if (!strictTraceId) return new ArrayList<>(groupedByTraceIdLow.values());
+
+    List<List<Span>> result = new ArrayList<>(groupedByTraceIdLow.size());
+    for (List<Span> sameTraceIdLow : groupedByTraceIdLow.values()) {
+      result.addAll(groupByTraceIdHigh(sameTraceIdLow));
+    }
+    return result;
+  }
+
+  /**
+   * Splits spans that share the lower 64 bits of their trace ID by the upper 64 bits. This is rare,
+   * so the input is returned as-is unless there is a clash.
+   */
+  static Collection<List<Span>> groupByTraceIdHigh(List<Span> sameTraceIdLow) {
+    if (sameTraceIdLow.isEmpty()) return Collections.emptyList();
+    long traceIdHigh = sameTraceIdLow.get(0).traceIdHigh();
+    boolean clash = false;
+    for (int i = 1, length = sameTraceIdLow.size(); i < length; i++) {
+      if (sameTraceIdLow.get(i).traceIdHigh() != traceIdHigh) {
+        clash = true;
+        break;
+      }
+    }
+    if (!clash) return Collections.singletonList(sameTraceIdLow);
+
+    Map<Long, List<Span>> groupedByTraceIdHigh = new LinkedHashMap<>();
+    for (Span span : sameTraceIdLow) {
+      Long high = span.traceIdHigh();
+      List<Span> sameTraceId = groupedByTraceIdHigh.get(high);
+      if (sameTraceId == null) groupedByTraceIdHigh.put(high, sameTraceId = new ArrayList<>());
+      sameTraceId.add(span);
     }
-    return new ArrayList<>(groupedByTraceId.values());
+    return groupedByTraceIdHigh.values();
   }
 
   @Override public String toString() {
@@ -16,30 +16,72 @@
  */
 package zipkin2.storage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.Parallel;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 /**
  * Test storage component that keeps all spans in memory, accepting them on the calling thread.
  *
- * <p>Internally, spans are indexed on 64-bit trace ID
+ * <p>Internally, spans are indexed on 64-bit trace ID. Traces are partitioned into {@link
+ * Builder#shardCount(int) shards} by that ID, each guarded by a read-write lock. The example below
+ * is what a single shard holds.
+ *
+ * <p>Retention is by {@link Builder#maxSpanCount(int) span count} and optionally {@link
+ * Builder#ttl(long) age}. Traces are grouped into segments, each holding traces whose eldest span
+ * started in the same minute, in order of that span. Exceeding the span count evicts the eldest
+ * traces across all shards, while expired traces are dropped a segment at a time.
+ *
+ * <p>When a {@link Builder#snapshotFile(File) snapshot file} is set, spans are periodically written
+ * to it in the background, and read back when the next instance is built. See {@link
+ * #writeSnapshot(OutputStream)} for the format.
  *
  * <p>Here's an example of some traces in memory:
  *
@@ -56,10 +98,10 @@ import zipkin2.internal.DependencyLinker;
  *    bbbb --> [ <bbbb,July 5>, <bbbb,July 6> ]
  *    cccc --> [ <cccc,July 4> ]
  *
- * serviceToTraceIds:
- *    foo --> [ <aaaa>, <cccc>, <bbbb> ]
- *    bar --> [ <aaaa> ]
- *    biz --> [ <bbbb> ]
+ * index.serviceNames (ordinals 0:aaaa, 1:bbbb, 2:cccc):
+ *    foo --> [ 0, 1, 2 ]
+ *    bar --> [ 0 ]
+ *    biz --> [ 1 ]
  *
  * serviceToSpanNames:
  *    bar --> ( GET )
@@ -77,6 +119,10 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   public static final class Builder extends StorageComponent.Builder {
     boolean strictTraceId = true, searchEnabled = true;
     int maxSpanCount = 500000;
+    long ttl = 0L;
+    int shardCount = Parallel.PARALLELISM * 2;
+    File snapshotFile;
+    long snapshotInterval = 60 * 1000L;
     List<String> autocompleteKeys = Collections.emptyList();
 
     /** {@inheritDoc} */
@@ -105,55 +151,67 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       return this;
     }
 
+    /**
+     * When positive, traces whose eldest span is older than this many milliseconds are removed,
+     * a minute at a time. Defaults to zero, which retains traces until {@link #maxSpanCount(int)}.
+     */
+    public Builder ttl(long ttl) {
+      if (ttl < 0) throw new IllegalArgumentException("ttl < 0");
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Traces are partitioned by trace ID into this many shards, rounded up to a power of two.
+     * Writes to different shards don't contend, and queries search shards in parallel. Defaults to
+     * twice the count of available processors.
+     */
+    public Builder shardCount(int shardCount) {
+      if (shardCount <= 0) throw new IllegalArgumentException("shardCount <= 0");
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    /**
+     * When set, spans are loaded from this file on build, if it exists, and written back to it
+     * every {@link #snapshotInterval(long) interval} and on {@link #close()}. This allows a
+     * restarted server to keep its traces. Defaults to unset, which disables snapshots.
+     */
+    public Builder snapshotFile(File snapshotFile) {
+      this.snapshotFile = snapshotFile;
+      return this;
+    }
+
+    /**
+     * How many milliseconds to wait between writes to the {@link #snapshotFile(File) snapshot
+     * file}. A write is skipped when no spans were accepted since the last. Defaults to a minute.
+     */
+    public Builder snapshotInterval(long snapshotInterval) {
+      if (snapshotInterval <= 0) throw new IllegalArgumentException("snapshotInterval <= 0");
+      this.snapshotInterval = snapshotInterval;
+      return this;
+    }
+
     @Override
     public InMemoryStorage build() {
       return new InMemoryStorage(this);
     }
   }
 
-  /**
-   * Primary source of data is this map, which includes spans ordered descending by timestamp. All
-   * other maps are derived from the span values here. This uses a list for the spans, so that it is
-   * visible (via /api/v2/trace/id?raw) when instrumentation report the same spans multiple times.
-   */
-  private final SortedMultimap<TraceIdTimestamp, Span> spansByTraceIdTimeStamp =
-    new SortedMultimap(TIMESTAMP_DESCENDING) {
-      @Override
-      Collection<Span> valueContainer() {
-        return new LinkedHashSet<>();
-      }
-    };
+  /** Traces whose eldest span started in the same minute expire together. */
+  static final long SEGMENT_DURATION_MILLIS = 60 * 1000L;
 
-  /** This supports span lookup by {@link Span#traceId() lower 64-bits of the trace ID} */
-  private final SortedMultimap<String, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
-    new SortedMultimap<String, TraceIdTimestamp>(STRING_COMPARATOR) {
-      @Override
-      Collection<TraceIdTimestamp> valueContainer() {
-        return new LinkedHashSet<>();
-      }
-    };
-  /** This is an index of {@link Span#traceId()} by {@link Endpoint#serviceName() service name} */
-  private final ServiceNameToTraceIds serviceToTraceIds = new ServiceNameToTraceIds();
-  /** This is an index of {@link Span#name()} by {@link Endpoint#serviceName() service name} */
-  private final SortedMultimap<String, String> serviceToSpanNames =
-    new SortedMultimap<String, String>(STRING_COMPARATOR) {
-      @Override
-      Collection<String> valueContainer() {
-        return new LinkedHashSet<>();
-      }
-    };
-  /**
-   * This is an index of {@link Span#remoteServiceName()} by {@link Endpoint#serviceName() service
-   * name}
-   */
-  private final SortedMultimap<String, String> serviceToRemoteServiceNames =
-    new SortedMultimap<String, String>(STRING_COMPARATOR) {
-      @Override
-      Collection<String> valueContainer() {
-        return new LinkedHashSet<>();
-      }
-    };
+  static final Logger LOG = Logger.getLogger(InMemoryStorage.class.getName());
 
+  final Shard[] shards;
+  final int shardMask;
+  /** The next time in epoch milliseconds to check for expired segments */
+  volatile long nextExpiry;
+  final AtomicInteger spanCount = new AtomicInteger(), acceptedSpanCount = new AtomicInteger();
+  /** Incremented on each change, so that a snapshot can be skipped when there were none. */
+  final AtomicInteger modCount = new AtomicInteger();
+
+  /** Guarded by itself, as autocomplete values aren't partitioned by trace ID */
   private final SortedMultimap<String, String> autocompleteTags =
     new SortedMultimap<String, String>(STRING_COMPARATOR) {
       @Override
@@ -164,69 +222,137 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
 
   final boolean strictTraceId, searchEnabled;
   final int maxSpanCount;
+  final long ttl;
   final Call<List<String>> autocompleteKeysCall;
   final Set<String> autocompleteKeys;
-  volatile int acceptedSpanCount;
+  final File snapshotFile;
+  /** Null unless there's a {@link #snapshotFile} */
+  final ScheduledExecutorService snapshotExecutor;
+  /** The value of {@link #modCount} when the last snapshot was written. */
+  volatile int snapshotModCount;
 
   InMemoryStorage(Builder builder) {
     this.strictTraceId = builder.strictTraceId;
     this.searchEnabled = builder.searchEnabled;
     this.maxSpanCount = builder.maxSpanCount;
+    this.ttl = builder.ttl;
     this.autocompleteKeysCall = Call.create(builder.autocompleteKeys);
     this.autocompleteKeys = new LinkedHashSet<>(builder.autocompleteKeys);
+    int shardCount = 1;
+    while (shardCount < builder.shardCount) shardCount <<= 1;
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) shards[i] = new Shard(searchEnabled);
+    this.shardMask = shardCount - 1;
+    this.snapshotFile = builder.snapshotFile;
+    if (snapshotFile == null) {
+      this.snapshotExecutor = null;
+      return;
+    }
+    if (snapshotFile.isFile()) loadSnapshot(snapshotFile);
+    this.snapshotModCount = modCount.get();
+    this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread result = new Thread(r, "zipkin-mem-snapshot");
+        result.setDaemon(true);
+        return result;
+      }
+    });
+    snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        snapshot();
+      }
+    }, builder.snapshotInterval, builder.snapshotInterval, TimeUnit.MILLISECONDS);
   }
 
   public int acceptedSpanCount() {
-    return acceptedSpanCount;
+    return acceptedSpanCount.get();
   }
 
-  public synchronized void clear() {
-    acceptedSpanCount = 0;
-    traceIdToTraceIdTimeStamps.clear();
-    spansByTraceIdTimeStamp.clear();
-    serviceToTraceIds.clear();
-    serviceToRemoteServiceNames.clear();
-    serviceToSpanNames.clear();
-    autocompleteTags.clear();
+  public void clear() {
+    for (Shard shard : shards) {
+      shard.lock.writeLock().lock();
+      try {
+        spanCount.addAndGet(-shard.spansByTraceIdTimeStamp.size());
+        shard.clear();
+      } finally {
+        shard.lock.writeLock().unlock();
+      }
+    }
+    acceptedSpanCount.set(0);
+    modCount.incrementAndGet();
+    synchronized (autocompleteTags) {
+      autocompleteTags.clear();
+    }
   }
 
   @Override public Call<Void> accept(List<Span> spans) {
     return new StoreSpansCall(spans);
   }
 
-  synchronized void doAccept(List<Span> spans) {
+  void doAccept(List<Span> spans) {
     int delta = spans.size();
-    int spansToRecover = (spansByTraceIdTimeStamp.size() + delta) - maxSpanCount;
+    if (ttl > 0L) expire(System.currentTimeMillis());
+    int spansToRecover = (spanCount.get() + delta) - maxSpanCount;
     evictToRecoverSpans(spansToRecover);
-    for (Span span : spans) {
-      long timestamp = span.timestampAsLong();
-      String lowTraceId = lowTraceId(span.traceId());
-      TraceIdTimestamp traceIdTimeStamp = new TraceIdTimestamp(lowTraceId, timestamp);
-      spansByTraceIdTimeStamp.put(traceIdTimeStamp, span);
-      traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
-      acceptedSpanCount++;
 
-      if (!searchEnabled) continue;
-      String serviceName = span.localServiceName();
-      if (serviceName != null) {
-        serviceToTraceIds.put(serviceName, lowTraceId);
-        String remoteServiceName = span.remoteServiceName();
-        if (remoteServiceName != null) {
-          serviceToRemoteServiceNames.put(serviceName, remoteServiceName);
-        }
-        String spanName = span.name();
-        if (spanName != null) {
-          serviceToSpanNames.put(serviceName, spanName);
-        }
+    if (shards.length == 1 || delta == 1) {
+      if (delta > 0) accept(shardFor(spans.get(0).traceIdLow()), spans);
+    } else {
+      List<List<Span>> spansByShard = partitionByShard(spans);
+      for (int i = 0; i < shards.length; i++) {
+        if (spansByShard.get(i) != null) accept(shards[i], spansByShard.get(i));
       }
+    }
+    modCount.incrementAndGet();
+    putAutocompleteTags(spans);
+  }
+
+  void putAutocompleteTags(List<Span> spans) {
+    if (!searchEnabled || autocompleteKeys.isEmpty()) return;
+    for (Span span : spans) {
       for (Map.Entry<String, String> tag : span.tags().entrySet()) {
         if (autocompleteKeys.contains(tag.getKey())) {
-          autocompleteTags.put(tag.getKey(), tag.getValue());
+          synchronized (autocompleteTags) {
+            autocompleteTags.put(tag.getKey(), tag.getValue());
+          }
         }
       }
     }
   }
 
+  void accept(Shard shard, List<Span> spans) {
+    shard.lock.writeLock().lock();
+    try {
+      int before = shard.spansByTraceIdTimeStamp.size();
+      for (Span span : spans) shard.put(span);
+      spanCount.addAndGet(shard.spansByTraceIdTimeStamp.size() - before);
+    } finally {
+      shard.lock.writeLock().unlock();
+    }
+    acceptedSpanCount.addAndGet(spans.size());
+  }
+
+  /** Returns the spans at the index of their shard, or null where a shard has none. */
+  List<List<Span>> partitionByShard(List<Span> spans) {
+    List<List<Span>> result = new ArrayList<>(Collections.<List<Span>>nCopies(shards.length, null));
+    for (Span span : spans) {
+      int i = shardIndex(span.traceIdLow());
+      List<Span> shardSpans = result.get(i);
+      if (shardSpans == null) result.set(i, shardSpans = new ArrayList<>());
+      shardSpans.add(span);
+    }
+    return result;
+  }
+
+  int shardIndex(long lowTraceId) {
+    long h = lowTraceId * 0x9E3779B97F4A7C15L; // trace IDs are usually random, but may not be
+    return (int) (h >>> 32) & shardMask;
+  }
+
+  Shard shardFor(long lowTraceId) {
+    return shards[shardIndex(lowTraceId)];
+  }
+
   final class StoreSpansCall extends Call.Base<Void> {
     final List<Span> spans;
 
@@ -257,128 +383,351 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
   }
 
-  /** Returns the count of spans evicted. */
+  /**
+   * Writes all spans to the stream, each as a proto3 span prefixed by its length. This is the same
+   * layout as the proto3 {@code ListOfSpans} message, so small snapshots can also be read with
+   * {@link SpanBytesDecoder#PROTO3}.
+   *
+   * <p>Each shard is copied under its read lock and encoded after releasing it, so writing a
+   * snapshot doesn't stall ingest. Spans accepted meanwhile may or may not be included.
+   */
+  public void writeSnapshot(OutputStream out) throws IOException {
+    for (Shard shard : shards) {
+      List<Span> spans;
+      shard.lock.readLock().lock();
+      try {
+        spans = shard.spans();
+      } finally {
+        shard.lock.readLock().unlock();
+      }
+      for (Span span : spans) out.write(SpanBytesEncoder.PROTO3.encode(span));
+    }
+    out.flush();
+  }
+
+  /**
+   * Adds spans written by {@link #writeSnapshot(OutputStream)}, returning the count read.
+   *
+   * <p>Unlike {@link #accept(List)}, this doesn't replay spans a request at a time. Chunks of the
+   * stream are decoded in parallel, then each shard indexes its part of the chunks at once, also in
+   * parallel. Retention is applied after each round of chunks, instead of before each request.
+   */
+  public int loadSnapshot(InputStream in) throws IOException {
+    SnapshotReader reader = new SnapshotReader(in);
+    int spansRead = 0;
+    while (true) {
+      List<Callable<List<List<Span>>>> decodes = new ArrayList<>(Parallel.PARALLELISM);
+      for (int i = 0; i < Parallel.PARALLELISM; i++) {
+        final ByteBuffer chunk = reader.nextChunk();
+        if (chunk == null) break;
+        decodes.add(new Callable<List<List<Span>>>() {
+          @Override public List<List<Span>> call() {
+            return decodeSnapshotChunk(chunk);
+          }
+        });
+      }
+      if (decodes.isEmpty()) break;
+
+      final List<List<List<Span>>> spansByShards = Parallel.invokeAll(decodes);
+      List<Callable<Integer>> puts = new ArrayList<>(shards.length);
+      for (int i = 0; i < shards.length; i++) {
+        final int shardIndex = i;
+        puts.add(new Callable<Integer>() {
+          @Override public Integer call() {
+            List<Span> spans = new ArrayList<>();
+            for (List<List<Span>> spansByShard : spansByShards) {
+              if (spansByShard.get(shardIndex) != null) spans.addAll(spansByShard.get(shardIndex));
+            }
+            if (!spans.isEmpty()) accept(shards[shardIndex], spans);
+            return spans.size();
+          }
+        });
+      }
+      for (int spansPut : Parallel.invokeAll(puts)) spansRead += spansPut;
+      evictToRecoverSpans(spanCount.get() - maxSpanCount);
+    }
+    if (ttl > 0L) {
+      nextExpiry = 0L;
+      expire(System.currentTimeMillis());
+    }
+    modCount.incrementAndGet();
+    return spansRead;
+  }
+
+  /** Returns spans in the chunk, partitioned by shard index. */
+  List<List<Span>> decodeSnapshotChunk(ByteBuffer chunk) {
+    List<Span> spans = SpanBytesDecoder.PROTO3.decodeList(chunk);
+    List<List<Span>> spansByShard = partitionByShard(spans);
+    putAutocompleteTags(spans);
+    return spansByShard;
+  }
+
+  /** Loads the snapshot file, logging instead of failing, as a lost snapshot isn't fatal. */
+  void loadSnapshot(File file) {
+    long start = System.nanoTime();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      int spansRead = loadSnapshot(in);
+      if (LOG.isLoggable(Level.FINE)) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.fine("loaded " + spansRead + " spans from " + file + " in " + millis + "ms");
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "discarding unreadable snapshot " + file, e);
+      clear();
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * Writes a snapshot next to the {@link #snapshotFile}, then renames it over the file, so that a
+   * crash never leaves a partial snapshot. Does nothing if no spans changed since the last.
+   */
+  void snapshot() {
+    int modCount = this.modCount.get();
+    if (modCount == snapshotModCount) return;
+    File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    OutputStream out = null;
+    try {
+      out = new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024);
+      writeSnapshot(out);
+      out.close();
+      out = null;
+      // File.renameTo won't replace an existing file on some platforms
+      if (!tempFile.renameTo(snapshotFile)
+        && !(snapshotFile.delete() && tempFile.renameTo(snapshotFile))) {
+        throw new IOException("couldn't rename " + tempFile + " to " + snapshotFile);
+      }
+      snapshotModCount = modCount;
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "error writing snapshot " + snapshotFile, e);
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  static void closeQuietly(Closeable closeable) {
+    if (closeable == null) return;
+    try {
+      closeable.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /** Returns the count of spans evicted, which may exceed the count requested. */
   int evictToRecoverSpans(int spansToRecover) {
     int spansEvicted = 0;
-    while (spansToRecover > 0) {
-      int spansInOldestTrace = deleteOldestTrace();
-      spansToRecover -= spansInOldestTrace;
-      spansEvicted += spansInOldestTrace;
+    while (spansEvicted < spansToRecover) {
+      int spansInEldestTraces = evictEldestTraces(spansToRecover - spansEvicted);
+      if (spansInEldestTraces == 0) break; // another thread cleared the storage
+      spansEvicted += spansInEldestTraces;
     }
     return spansEvicted;
   }
 
-  /** Returns the count of spans evicted. */
-  private int deleteOldestTrace() {
+  /**
+   * Evicts the eldest traces across all shards until their spans add up to the count requested.
+   * Returns the count of spans evicted, which is less when other threads evicted some first.
+   *
+   * <p>Each shard offers its eldest traces, enough to recover the spans on its own. The eldest
+   * overall are a prefix of these, so each shard is locked once to find them and once to evict.
+   */
+  int evictEldestTraces(int spansToRecover) {
+    List<EldestTrace> candidates = new ArrayList<>();
+    for (int i = 0; i < shards.length; i++) {
+      shards[i].lock.readLock().lock();
+      try {
+        shards[i].addEldestTraces(i, spansToRecover, candidates);
+      } finally {
+        shards[i].lock.readLock().unlock();
+      }
+    }
+    Collections.sort(candidates);
+
+    List<List<Long>> traceIdsByShard =
+      new ArrayList<>(Collections.<List<Long>>nCopies(shards.length, null));
+    int spansInPrefix = 0;
+    for (int i = 0; i < candidates.size() && spansInPrefix < spansToRecover; i++) {
+      EldestTrace candidate = candidates.get(i);
+      List<Long> lowTraceIds = traceIdsByShard.get(candidate.shardIndex);
+      if (lowTraceIds == null) {
+        traceIdsByShard.set(candidate.shardIndex, lowTraceIds = new ArrayList<>());
+      }
+      lowTraceIds.add(candidate.key.lowTraceId);
+      spansInPrefix += candidate.spanCount;
+    }
+
     int spansEvicted = 0;
-    String lowTraceId = spansByTraceIdTimeStamp.delegate.lastKey().lowTraceId;
-    Collection<TraceIdTimestamp> traceIdTimeStamps = traceIdToTraceIdTimeStamps.remove(lowTraceId);
-    for (Iterator<TraceIdTimestamp> traceIdTimeStampIter = traceIdTimeStamps.iterator();
-      traceIdTimeStampIter.hasNext(); ) {
-      TraceIdTimestamp traceIdTimeStamp = traceIdTimeStampIter.next();
-      Collection<Span> spans = spansByTraceIdTimeStamp.remove(traceIdTimeStamp);
-      spansEvicted += spans.size();
+    for (int i = 0; i < shards.length; i++) {
+      if (traceIdsByShard.get(i) == null) continue;
+      shards[i].lock.writeLock().lock();
+      try {
+        for (Long lowTraceId : traceIdsByShard.get(i)) {
+          spansEvicted += shards[i].evictTrace(lowTraceId);
+        }
+      } finally {
+        shards[i].lock.writeLock().unlock();
+      }
+    }
+    spanCount.addAndGet(-spansEvicted);
+    return spansEvicted;
+  }
+
+  /** A trace which may be evicted, ordered by the timestamp of its eldest span. */
+  static final class EldestTrace implements Comparable<EldestTrace> {
+    final int shardIndex;
+    final TraceIdTimestamp key;
+    final int spanCount;
+
+    EldestTrace(int shardIndex, TraceIdTimestamp key, int spanCount) {
+      this.shardIndex = shardIndex;
+      this.key = key;
+      this.spanCount = spanCount;
     }
-    if (searchEnabled) {
-      for (String orphanedService : serviceToTraceIds.removeServiceIfTraceId(lowTraceId)) {
-        serviceToRemoteServiceNames.remove(orphanedService);
-        serviceToSpanNames.remove(orphanedService);
+
+    @Override public int compareTo(EldestTrace that) {
+      return TIMESTAMP_ASCENDING.compare(key, that.key);
+    }
+  }
+
+  /** Drops segments that ended before the TTL, checking at most once per segment duration. */
+  void expire(long now) {
+    if (now < nextExpiry) return;
+    nextExpiry = now + SEGMENT_DURATION_MILLIS; // racing threads at worst repeat the check
+    dropSegmentsThrough(segmentKey((now - ttl) * 1000L) - 1);
+  }
+
+  /** Returns the count of spans evicted from segments up to and including the key. */
+  int dropSegmentsThrough(long segmentKey) {
+    int spansEvicted = 0;
+    for (Shard shard : shards) {
+      shard.lock.writeLock().lock();
+      try {
+        spansEvicted += shard.dropSegmentsThrough(segmentKey);
+      } finally {
+        shard.lock.writeLock().unlock();
       }
     }
+    spanCount.addAndGet(-spansEvicted);
     return spansEvicted;
   }
 
+  /** Returns the minute of the timestamp in epoch microseconds, or of now when it is zero. */
+  static long segmentKey(long timestamp) {
+    if (timestamp == 0L) timestamp = System.currentTimeMillis() * 1000L;
+    return timestamp / (SEGMENT_DURATION_MILLIS * 1000L);
+  }
+
   @Override
-  public synchronized Call<List<List<Span>>> getTraces(QueryRequest request) {
+  public Call<List<List<Span>>> getTraces(QueryRequest request) {
     return getTraces(request, strictTraceId);
   }
 
-  synchronized Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
-    Set<String> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
-    if (traceIdsInTimerange.isEmpty()) return Call.emptyList();
+  Call<List<List<Span>>> getTraces(final QueryRequest request, final boolean strictTraceId) {
+    if (!searchEnabled) return Call.emptyList();
 
-    List<List<Span>> result = new ArrayList<>();
-    for (Iterator<String> lowTraceId = traceIdsInTimerange.iterator();
-      lowTraceId.hasNext() && result.size() < request.limit(); ) {
-      List<Span> next = spansByTraceId(lowTraceId.next());
-      if (!request.test(next)) continue;
-      if (!strictTraceId) {
-        result.add(next);
-        continue;
-      }
+    // Each shard returns matches in order. As shards don't overlap, a merge of the first matches
+    // from each is the same as the first matches overall.
+    List<Callable<List<Match>>> tasks = new ArrayList<>(shards.length);
+    for (final Shard shard : shards) {
+      tasks.add(new Callable<List<Match>>() {
+        @Override public List<Match> call() {
+          return shard.getTraces(request, strictTraceId);
+        }
+      });
+    }
+    List<List<Match>> matchesByShard = Parallel.invokeAll(tasks);
 
-      // re-run the query as now spans are strictly grouped
-      for (List<Span> strictTrace : strictByTraceId(next)) {
-        if (request.test(strictTrace)) result.add(strictTrace);
+    List<List<Span>> result = new ArrayList<>();
+    int[] positions = new int[shards.length];
+    while (result.size() < request.limit()) {
+      int next = -1;
+      for (int i = 0; i < positions.length; i++) {
+        List<Match> matches = matchesByShard.get(i);
+        if (positions[i] == matches.size()) continue;
+        if (next == -1 || TIMESTAMP_DESCENDING.compare(matches.get(positions[i]).key,
+          matchesByShard.get(next).get(positions[next]).key) < 0) {
+          next = i;
+        }
       }
+      if (next == -1) break;
+      result.addAll(matchesByShard.get(next).get(positions[next]++).traces);
     }
-
-    return Call.create(result);
+    return result.isEmpty() ? Call.<List<Span>>emptyList() : Call.create(result);
   }
 
   static Collection<List<Span>> strictByTraceId(List<Span> next) {
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
-    for (Span span : next) {
-      String traceId = span.traceId();
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
-      }
-      groupedByTraceId.get(traceId).add(span);
-    }
-    return groupedByTraceId.values();
+    return GroupByTraceId.groupByTraceIdHigh(next); // next already shares the lower 64-bits
   }
 
   /** Used for testing. Returns all traces unconditionally. */
-  public synchronized List<List<Span>> getTraces() {
+  public List<List<Span>> getTraces() {
+    List<TraceIdSpans> all = new ArrayList<>();
+    for (Shard shard : shards) {
+      shard.lock.readLock().lock();
+      try {
+        for (Long lowTraceId : shard.traceIdToTraceIdTimeStamps.keySet()) {
+          all.add(new TraceIdSpans(lowTraceId, shard.spansByTraceId(lowTraceId)));
+        }
+      } finally {
+        shard.lock.readLock().unlock();
+      }
+    }
+    if (shards.length > 1) Collections.sort(all);
+
     List<List<Span>> result = new ArrayList<>();
-    for (String lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
-      List<Span> sameTraceId = spansByTraceId(lowTraceId);
+    for (TraceIdSpans sameTraceId : all) {
       if (strictTraceId) {
-        result.addAll(strictByTraceId(sameTraceId));
+        result.addAll(strictByTraceId(sameTraceId.spans));
       } else {
-        result.add(sameTraceId);
+        result.add(sameTraceId.spans);
       }
     }
     return result;
   }
 
-  /** Used for testing. Returns all dependency links unconditionally. */
-  public synchronized List<DependencyLink> getDependencies() {
-    return LinkDependencies.INSTANCE.map(getTraces());
-  }
-
-  Set<String> traceIdsDescendingByTimestamp(QueryRequest request) {
-    if (!searchEnabled) return Collections.emptySet();
-
-    Collection<TraceIdTimestamp> traceIdTimestamps =
-      request.serviceName() != null
-        ? traceIdTimestampsByServiceName(request.serviceName())
-        : spansByTraceIdTimeStamp.keySet();
+  /** Orders all traces by lower 64-bits of their trace ID, as they sort in a single shard. */
+  static final class TraceIdSpans implements Comparable<TraceIdSpans> {
+    final long lowTraceId;
+    final List<Span> spans;
 
-    long endTs = request.endTs() * 1000;
-    long startTs = endTs - request.lookback() * 1000;
+    TraceIdSpans(long lowTraceId, List<Span> spans) {
+      this.lowTraceId = lowTraceId;
+      this.spans = spans;
+    }
 
-    if (traceIdTimestamps == null || traceIdTimestamps.isEmpty()) return Collections.emptySet();
-    Set<String> result = new LinkedHashSet<>();
-    for (TraceIdTimestamp traceIdTimestamp : traceIdTimestamps) {
-      if (traceIdTimestamp.timestamp >= startTs || traceIdTimestamp.timestamp <= endTs) {
-        result.add(traceIdTimestamp.lowTraceId);
-      }
+    @Override public int compareTo(TraceIdSpans that) {
+      return compareUnsigned(lowTraceId, that.lowTraceId);
     }
-    return result;
+  }
+
+  /** Used for testing. Returns all dependency links unconditionally. */
+  public List<DependencyLink> getDependencies() {
+    return LinkDependencies.INSTANCE.map(getTraces());
   }
 
   @Override
-  public synchronized Call<List<Span>> getTrace(String traceId) {
+  public Call<List<Span>> getTrace(String traceId) {
     traceId = Span.normalizeTraceId(traceId);
-    List<Span> spans = spansByTraceId(lowTraceId(traceId));
+    long lowTraceId = lowerHexToUnsignedLong(traceId);
+    Shard shard = shardFor(lowTraceId);
+    List<Span> spans;
+    shard.lock.readLock().lock();
+    try {
+      spans = shard.spansByTraceId(lowTraceId);
+    } finally {
+      shard.lock.readLock().unlock();
+    }
     if (spans == null || spans.isEmpty()) return Call.emptyList();
     if (!strictTraceId) return Call.create(spans);
 
+    long traceIdHigh = traceId.length() == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
     List<Span> filtered = new ArrayList<>(spans);
     Iterator<Span> iterator = filtered.iterator();
     while (iterator.hasNext()) {
-      if (!iterator.next().traceId().equals(traceId)) {
+      if (iterator.next().traceIdHigh() != traceIdHigh) {
         iterator.remove();
       }
     }
@@ -387,24 +736,51 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
 
   @Override public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
-    return Call.create(new ArrayList<>(serviceToTraceIds.keySet()));
+    Set<String> result = new TreeSet<>(STRING_COMPARATOR);
+    for (Shard shard : shards) {
+      shard.lock.readLock().lock();
+      try {
+        result.addAll(shard.index.serviceNames.keySet());
+      } finally {
+        shard.lock.readLock().unlock();
+      }
+    }
+    return Call.create(new ArrayList<>(result));
   }
 
   @Override public Call<List<String>> getRemoteServiceNames(String service) {
     if (service.isEmpty() || !searchEnabled) return Call.emptyList();
     service = service.toLowerCase(Locale.ROOT); // service names are always lowercase!
-    return Call.create(new ArrayList<>(serviceToRemoteServiceNames.get(service)));
+    Set<String> result = new TreeSet<>(STRING_COMPARATOR);
+    for (Shard shard : shards) {
+      shard.lock.readLock().lock();
+      try {
+        result.addAll(shard.serviceToRemoteServiceNames.get(service));
+      } finally {
+        shard.lock.readLock().unlock();
+      }
+    }
+    return Call.create(new ArrayList<>(result));
   }
 
   @Override
-  public synchronized Call<List<String>> getSpanNames(String service) {
+  public Call<List<String>> getSpanNames(String service) {
     if (service.isEmpty() || !searchEnabled) return Call.emptyList();
     service = service.toLowerCase(Locale.ROOT); // service names are always lowercase!
-    return Call.create(new ArrayList<>(serviceToSpanNames.get(service)));
+    Set<String> result = new TreeSet<>(STRING_COMPARATOR);
+    for (Shard shard : shards) {
+      shard.lock.readLock().lock();
+      try {
+        result.addAll(shard.serviceToSpanNames.get(service));
+      } finally {
+        shard.lock.readLock().unlock();
+      }
+    }
+    return Call.create(new ArrayList<>(result));
   }
 
   @Override
-  public synchronized Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+  public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
     QueryRequest request =
       QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
 
@@ -423,7 +799,9 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     if (key == null) throw new NullPointerException("key == null");
     if (key.isEmpty()) throw new IllegalArgumentException("key was empty");
     if (!searchEnabled) return Call.emptyList();
-    return Call.create(new ArrayList<>(autocompleteTags.get(key)));
+    synchronized (autocompleteTags) {
+      return Call.create(new ArrayList<>(autocompleteTags.get(key)));
+    }
   }
 
   enum LinkDependencies implements Call.Mapper<List<List<Span>>, List<DependencyLink>> {
@@ -431,9 +809,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
 
     @Override
     public List<DependencyLink> map(List<List<Span>> traces) {
-      DependencyLinker linksBuilder = new DependencyLinker();
-      for (List<Span> trace : traces) linksBuilder.putTrace(trace);
-      return linksBuilder.link();
+      return DependencyLinker.link(traces);
     }
 
     @Override
@@ -442,6 +818,327 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
   }
 
+  /** Traces with the same lower 64-bits of trace ID, which matched a query. */
+  static final class Match {
+    /** The most recent timestamp of the trace, which orders it in query results */
+    final TraceIdTimestamp key;
+    final List<List<Span>> traces;
+
+    Match(TraceIdTimestamp key, List<List<Span>> traces) {
+      this.key = key;
+      this.traces = traces;
+    }
+  }
+
+  /**
+   * State for the subset of traces whose lower 64-bits of trace ID hash to the same shard.
+   *
+   * <p>Writes hold the write lock. Queries hold the read lock only long enough to copy candidate
+   * spans, and test them after releasing it. This prevents a slow query from stalling ingest.
+   */
+  static final class Shard {
+    /** How many candidate traces a query copies per acquisition of the read lock */
+    static final int QUERY_BATCH_SIZE = 64;
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    final boolean searchEnabled;
+
+    /**
+     * Primary source of data is this map, which includes spans ordered descending by timestamp.
+     * All other maps are derived from the span values here. This uses a list for the spans, so
+     * that it is visible (via /api/v2/trace/id?raw) when instrumentation report the same spans
+     * multiple times.
+     */
+    final SortedMultimap<TraceIdTimestamp, Span> spansByTraceIdTimeStamp =
+      new SortedMultimap(TIMESTAMP_DESCENDING) {
+        @Override
+        Collection<Span> valueContainer() {
+          return new LinkedHashSet<>();
+        }
+      };
+
+    /** This supports span lookup by {@link Span#traceIdLow() lower 64-bits of the trace ID} */
+    final SortedMultimap<Long, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
+      new SortedMultimap<Long, TraceIdTimestamp>(UNSIGNED_COMPARATOR) {
+        @Override
+        Collection<TraceIdTimestamp> valueContainer() {
+          return new LinkedHashSet<>();
+        }
+      };
+    /** Traces by the minute of their eldest span, ordered by that span, which expire at once */
+    final TreeMap<Long, NavigableSet<TraceIdTimestamp>> segments = new TreeMap<>();
+    /** The eldest span timestamp of each trace, which places it in {@link #segments} */
+    final Map<Long, TraceIdTimestamp> traceIdToEldest = new HashMap<>();
+    /** Traces by search term, including {@link Endpoint#serviceName() service name} */
+    final InvertedIndex index = new InvertedIndex();
+    /** Like {@link #spansByTraceIdTimeStamp}, except only keys with spans in the service */
+    final Map<String, NavigableSet<TraceIdTimestamp>> serviceToTraceIdTimeStamps =
+      new HashMap<>();
+    /** This is an index of {@link Span#name()} by {@link Endpoint#serviceName() service name} */
+    final SortedMultimap<String, String> serviceToSpanNames =
+      new SortedMultimap<String, String>(STRING_COMPARATOR) {
+        @Override
+        Collection<String> valueContainer() {
+          return new LinkedHashSet<>();
+        }
+      };
+    /**
+     * This is an index of {@link Span#remoteServiceName()} by {@link Endpoint#serviceName()
+     * service name}
+     */
+    final SortedMultimap<String, String> serviceToRemoteServiceNames =
+      new SortedMultimap<String, String>(STRING_COMPARATOR) {
+        @Override
+        Collection<String> valueContainer() {
+          return new LinkedHashSet<>();
+        }
+      };
+
+    Shard(boolean searchEnabled) {
+      this.searchEnabled = searchEnabled;
+    }
+
+    /** Returns all spans, in the order they were added to each trace. */
+    List<Span> spans() {
+      List<Span> result = new ArrayList<>(spansByTraceIdTimeStamp.size());
+      for (Long lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
+        result.addAll(spansByTraceId(lowTraceId));
+      }
+      return result;
+    }
+
+    void clear() {
+      traceIdToTraceIdTimeStamps.clear();
+      spansByTraceIdTimeStamp.clear();
+      segments.clear();
+      traceIdToEldest.clear();
+      index.clear();
+      serviceToTraceIdTimeStamps.clear();
+      serviceToRemoteServiceNames.clear();
+      serviceToSpanNames.clear();
+    }
+
+    void put(Span span) {
+      long timestamp = span.timestampAsLong();
+      long lowTraceId = span.traceIdLow();
+      TraceIdTimestamp traceIdTimeStamp = new TraceIdTimestamp(lowTraceId, timestamp);
+      spansByTraceIdTimeStamp.put(traceIdTimeStamp, span);
+      traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
+      putSegment(lowTraceId, timestamp);
+
+      if (!searchEnabled) return;
+      index.add(span);
+      String serviceName = span.localServiceName();
+      if (serviceName != null) {
+        NavigableSet<TraceIdTimestamp> traceIdTimeStamps =
+          serviceToTraceIdTimeStamps.get(serviceName);
+        if (traceIdTimeStamps == null) {
+          traceIdTimeStamps = new TreeSet<>(TIMESTAMP_DESCENDING);
+          serviceToTraceIdTimeStamps.put(serviceName, traceIdTimeStamps);
+        }
+        traceIdTimeStamps.add(traceIdTimeStamp);
+        String remoteServiceName = span.remoteServiceName();
+        if (remoteServiceName != null) {
+          serviceToRemoteServiceNames.put(serviceName, remoteServiceName);
+        }
+        String spanName = span.name();
+        if (spanName != null) {
+          serviceToSpanNames.put(serviceName, spanName);
+        }
+      }
+    }
+
+    /** Moves the trace earlier in {@link #segments} when the span is older than others in it. */
+    void putSegment(long lowTraceId, long timestamp) {
+      if (timestamp == 0L) timestamp = System.currentTimeMillis() * 1000L; // age from arrival
+      TraceIdTimestamp existing = traceIdToEldest.get(lowTraceId);
+      if (existing != null) {
+        if (existing.timestamp <= timestamp) return;
+        removeSegment(existing);
+      }
+      TraceIdTimestamp eldest = new TraceIdTimestamp(lowTraceId, timestamp);
+      long segmentKey = segmentKey(timestamp);
+      NavigableSet<TraceIdTimestamp> traces = segments.get(segmentKey);
+      if (traces == null) segments.put(segmentKey, traces = new TreeSet<>(TIMESTAMP_ASCENDING));
+      traces.add(eldest);
+      traceIdToEldest.put(lowTraceId, eldest);
+    }
+
+    void removeSegment(TraceIdTimestamp eldest) {
+      long segmentKey = segmentKey(eldest.timestamp);
+      NavigableSet<TraceIdTimestamp> traces = segments.get(segmentKey);
+      traces.remove(eldest);
+      if (traces.isEmpty()) segments.remove(segmentKey);
+    }
+
+    /** Adds the eldest traces to the list, until their spans add up to the count requested. */
+    void addEldestTraces(int shardIndex, int spanCount, List<EldestTrace> result) {
+      for (NavigableSet<TraceIdTimestamp> traces : segments.values()) {
+        for (TraceIdTimestamp eldest : traces) {
+          int spansInTrace = 0;
+          for (TraceIdTimestamp key : traceIdToTraceIdTimeStamps.get(eldest.lowTraceId)) {
+            spansInTrace += spansByTraceIdTimeStamp.get(key).size();
+          }
+          result.add(new EldestTrace(shardIndex, eldest, spansInTrace));
+          if ((spanCount -= spansInTrace) <= 0) return;
+        }
+      }
+    }
+
+    /** Returns the count of spans evicted, which is zero when the trace was already. */
+    int evictTrace(long lowTraceId) {
+      TraceIdTimestamp eldest = traceIdToEldest.remove(lowTraceId);
+      if (eldest == null) return 0; // another thread evicted it
+      removeSegment(eldest);
+      return deleteTrace(lowTraceId);
+    }
+
+    /** Returns the count of spans evicted from segments up to and including the key. */
+    int dropSegmentsThrough(long segmentKey) {
+      int spansEvicted = 0;
+      while (!segments.isEmpty() && segments.firstKey() <= segmentKey) {
+        for (TraceIdTimestamp eldest : segments.pollFirstEntry().getValue()) {
+          traceIdToEldest.remove(eldest.lowTraceId);
+          spansEvicted += deleteTrace(eldest.lowTraceId);
+        }
+      }
+      return spansEvicted;
+    }
+
+    /** Returns the count of spans evicted. Callers must remove the trace from its segment. */
+    int deleteTrace(long lowTraceId) {
+      List<Span> spans = new ArrayList<>();
+      for (TraceIdTimestamp traceIdTimeStamp : traceIdToTraceIdTimeStamps.remove(lowTraceId)) {
+        spans.addAll(spansByTraceIdTimeStamp.remove(traceIdTimeStamp));
+      }
+      if (!searchEnabled) return spans.size();
+
+      index.remove(lowTraceId, spans);
+      // Only services in this trace can be orphaned by its removal
+      for (Span span : spans) {
+        String serviceName = span.localServiceName();
+        if (serviceName == null) continue;
+        NavigableSet<TraceIdTimestamp> traceIdTimeStamps =
+          serviceToTraceIdTimeStamps.get(serviceName);
+        if (traceIdTimeStamps != null) {
+          traceIdTimeStamps.remove(new TraceIdTimestamp(lowTraceId, span.timestampAsLong()));
+        }
+        if (!index.serviceNames.containsKey(serviceName)) {
+          serviceToTraceIdTimeStamps.remove(serviceName);
+          serviceToRemoteServiceNames.remove(serviceName);
+          serviceToSpanNames.remove(serviceName);
+        }
+      }
+      return spans.size();
+    }
+
+    /** Returns up to {@link QueryRequest#limit()} matches, most recent first. */
+    List<Match> getTraces(QueryRequest request, boolean strictTraceId) {
+      List<TraceIdTimestamp> traceIdsInTimerange;
+      lock.readLock().lock();
+      try {
+        traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
+      } finally {
+        lock.readLock().unlock();
+      }
+      if (traceIdsInTimerange.isEmpty()) return Collections.emptyList();
+
+      List<Match> result = new ArrayList<>();
+      List<List<Span>> candidates = new ArrayList<>(QUERY_BATCH_SIZE);
+      for (int i = 0, length = traceIdsInTimerange.size();
+        i < length && result.size() < request.limit(); ) {
+        int batchEnd = Math.min(i + QUERY_BATCH_SIZE, length);
+        candidates.clear();
+        lock.readLock().lock();
+        try {
+          for (int j = i; j < batchEnd; j++) {
+            candidates.add(spansByTraceId(traceIdsInTimerange.get(j).lowTraceId));
+          }
+        } finally {
+          lock.readLock().unlock();
+        }
+
+        for (int j = 0; j < candidates.size() && result.size() < request.limit(); j++) {
+          List<Span> next = candidates.get(j);
+          if (next.isEmpty() || !request.test(next)) continue; // evicted or doesn't match
+          TraceIdTimestamp key = traceIdsInTimerange.get(i + j);
+          if (!strictTraceId) {
+            result.add(new Match(key, Collections.singletonList(next)));
+            continue;
+          }
+
+          // re-run the query as now spans are strictly grouped
+          List<List<Span>> strictTraces = new ArrayList<>();
+          for (List<Span> strictTrace : strictByTraceId(next)) {
+            if (request.test(strictTrace)) strictTraces.add(strictTrace);
+          }
+          if (!strictTraces.isEmpty()) result.add(new Match(key, strictTraces));
+        }
+        i = batchEnd;
+      }
+      return result;
+    }
+
+    /** Returns the most recent timestamp of each trace in range, most recent first. */
+    List<TraceIdTimestamp> traceIdsDescendingByTimestamp(QueryRequest request) {
+      long endTs = request.endTs() * 1000;
+      long startTs = endTs - request.lookback() * 1000;
+
+      // When the query has terms besides service name, their postings are usually more selective
+      if (request.spanName() != null || request.remoteServiceName() != null
+        || !request.annotationQuery().isEmpty() || request.minDuration() != null) {
+        return traceIdsDescendingByTimestamp(index.candidates(request), startTs, endTs);
+      }
+
+      // Otherwise, visit only keys in the time range, which are sorted most recent first
+      TraceIdTimestamp first = new TraceIdTimestamp(-1L, endTs), last =
+        new TraceIdTimestamp(0L, startTs); // -1L is the highest unsigned trace ID
+      Collection<TraceIdTimestamp> traceIdTimestamps;
+      if (request.serviceName() != null) {
+        NavigableSet<TraceIdTimestamp> byService =
+          serviceToTraceIdTimeStamps.get(request.serviceName());
+        if (byService == null) return Collections.emptyList();
+        traceIdTimestamps = byService.subSet(first, true, last, true);
+      } else {
+        traceIdTimestamps = spansByTraceIdTimeStamp.delegate.subMap(first, true, last, true)
+          .keySet();
+      }
+
+      Set<Long> seen = new LinkedHashSet<>();
+      List<TraceIdTimestamp> result = new ArrayList<>();
+      for (TraceIdTimestamp traceIdTimestamp : traceIdTimestamps) {
+        if (seen.add(traceIdTimestamp.lowTraceId)) result.add(traceIdTimestamp);
+      }
+      return result;
+    }
+
+    /** Like above, except only considering traces in the candidate ordinals. */
+    List<TraceIdTimestamp> traceIdsDescendingByTimestamp(BitSet candidates, long startTs,
+      long endTs) {
+      List<TraceIdTimestamp> result = new ArrayList<>();
+      for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+        TraceIdTimestamp latest = null;
+        for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(index.traceId(i))) {
+          if (traceIdTimestamp.timestamp < startTs || traceIdTimestamp.timestamp > endTs) continue;
+          if (latest == null || TIMESTAMP_DESCENDING.compare(traceIdTimestamp, latest) < 0) {
+            latest = traceIdTimestamp;
+          }
+        }
+        if (latest != null) result.add(latest);
+      }
+      Collections.sort(result, TIMESTAMP_DESCENDING);
+      return result;
+    }
+
+    List<Span> spansByTraceId(long lowTraceId) {
+      List<Span> sameTraceId = new ArrayList<>();
+      for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
+        sameTraceId.addAll(spansByTraceIdTimeStamp.get(traceIdTimestamp));
+      }
+      return sameTraceId;
+    }
+  }
+
   static final Comparator<String> STRING_COMPARATOR =
     new Comparator<String>() {
       @Override
@@ -456,6 +1153,26 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       }
     };
 
+  /** Orders lower 64-bits of trace IDs the same as their lower-hex form would sort. */
+  static final Comparator<Long> UNSIGNED_COMPARATOR =
+    new Comparator<Long>() {
+      @Override
+      public int compare(Long left, Long right) {
+        return compareUnsigned(left, right);
+      }
+
+      @Override
+      public String toString() {
+        return "Long::compareUnsigned";
+      }
+    };
+
+  static int compareUnsigned(long x, long y) { // Long.compareUnsigned is JRE 8+
+    x += Long.MIN_VALUE;
+    y += Long.MIN_VALUE;
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
   static final Comparator<TraceIdTimestamp> TIMESTAMP_DESCENDING =
     new Comparator<TraceIdTimestamp>() {
       @Override
@@ -463,7 +1180,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
         long x = left.timestamp, y = right.timestamp;
         int result = (x < y) ? -1 : ((x == y) ? 0 : 1); // Long.compareTo is JRE 7+
         if (result != 0) return -result; // use negative as we are descending
-        return right.lowTraceId.compareTo(left.lowTraceId);
+        return compareUnsigned(right.lowTraceId, left.lowTraceId);
       }
 
       @Override
@@ -472,33 +1189,22 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       }
     };
 
-  static final class ServiceNameToTraceIds extends SortedMultimap<String, String> {
-    ServiceNameToTraceIds() {
-      super(STRING_COMPARATOR);
-    }
-
-    @Override
-    Set<String> valueContainer() {
-      return new LinkedHashSet<>();
-    }
+  static final Comparator<TraceIdTimestamp> TIMESTAMP_ASCENDING =
+    new Comparator<TraceIdTimestamp>() {
+      @Override
+      public int compare(TraceIdTimestamp left, TraceIdTimestamp right) {
+        return TIMESTAMP_DESCENDING.compare(right, left);
+      }
 
-    /** Returns service names orphaned by removing the trace ID */
-    Set<String> removeServiceIfTraceId(String lowTraceId) {
-      Set<String> result = new LinkedHashSet<>();
-      for (Map.Entry<String, Collection<String>> entry : delegate.entrySet()) {
-        Collection<String> lowTraceIds = entry.getValue();
-        if (lowTraceIds.remove(lowTraceId) && lowTraceIds.isEmpty()) {
-          result.add(entry.getKey());
-        }
+      @Override
+      public String toString() {
+        return "TimestampAscending{}";
       }
-      delegate.keySet().removeAll(result);
-      return result;
-    }
-  }
+    };
 
-  // Not synchronized as every exposed method on the enclosing type is
+  // Not synchronized as callers hold the lock of the enclosing shard
   abstract static class SortedMultimap<K, V> {
-    final SortedMap<K, Collection<V>> delegate;
+    final NavigableMap<K, Collection<V>> delegate;
     int size = 0;
 
     SortedMultimap(Comparator<K> comparator) {
@@ -540,27 +1246,6 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
   }
 
-  List<Span> spansByTraceId(String lowTraceId) {
-    List<Span> sameTraceId = new ArrayList<>();
-    for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
-      sameTraceId.addAll(spansByTraceIdTimeStamp.get(traceIdTimestamp));
-    }
-    return sameTraceId;
-  }
-
-  Collection<TraceIdTimestamp> traceIdTimestampsByServiceName(String serviceName) {
-    List<TraceIdTimestamp> traceIdTimestamps = new ArrayList<>();
-    for (String lowTraceId : serviceToTraceIds.get(serviceName)) {
-      traceIdTimestamps.addAll(traceIdToTraceIdTimeStamps.get(lowTraceId));
-    }
-    Collections.sort(traceIdTimestamps, TIMESTAMP_DESCENDING);
-    return traceIdTimestamps;
-  }
-
-  static String lowTraceId(String traceId) {
-    return traceId.length() == 32 ? traceId.substring(16) : traceId;
-  }
-
   @Override public InMemoryStorage spanStore() {
     return this;
   }
@@ -577,14 +1262,71 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return this;
   }
 
+  /** Writes a final snapshot, if there's a {@link Builder#snapshotFile(File) snapshot file}. */
   @Override public void close() {
+    if (snapshotExecutor == null) return;
+    snapshotExecutor.shutdown();
+    try {
+      snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    snapshot();
+  }
+
+  /**
+   * Reads whole length-prefixed spans from a snapshot, in chunks that can be decoded in parallel.
+   */
+  static final class SnapshotReader {
+    /** The proto3 key of the repeated span field in {@code ListOfSpans} */
+    static final int SPAN_KEY = (1 << 3) | 2;
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    final DataInputStream in;
+    final byte[] header = new byte[6]; // key + up to 5 bytes of varint length
+
+    SnapshotReader(InputStream in) {
+      this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /** Returns spans totalling at least {@link #CHUNK_SIZE} bytes, unless at the end. */
+    ByteBuffer nextChunk() throws IOException {
+      byte[] chunk = null;
+      int pos = 0;
+      while (pos < CHUNK_SIZE) {
+        int key = in.read();
+        if (key == -1) break;
+        if (key != SPAN_KEY) throw new IOException("Malformed snapshot: unexpected key " + key);
+        header[0] = (byte) key;
+        int headerLength = 1, length = 0, b;
+        do {
+          if (headerLength == header.length) throw new IOException("Malformed snapshot: length");
+          b = in.read();
+          if (b == -1) throw new EOFException("Malformed snapshot: truncated length");
+          header[headerLength] = (byte) b;
+          length |= (b & 0x7f) << (7 * (headerLength++ - 1));
+        } while ((b & 0x80) != 0);
+        if (length < 0) throw new IOException("Malformed snapshot: length");
+
+        int recordLength = headerLength + length;
+        if (chunk == null) {
+          chunk = new byte[Math.max(CHUNK_SIZE, recordLength)];
+        } else if (pos + recordLength > chunk.length) {
+          chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, pos + recordLength));
+        }
+        System.arraycopy(header, 0, chunk, pos, headerLength);
+        in.readFully(chunk, pos + headerLength, length);
+        pos += recordLength;
+      }
+      return chunk != null ? ByteBuffer.wrap(chunk, 0, pos) : null;
+    }
   }
 
   static final class TraceIdTimestamp {
-    final String lowTraceId;
+    final long lowTraceId;
     final long timestamp;
 
-    TraceIdTimestamp(String lowTraceId, long timestamp) {
+    TraceIdTimestamp(long lowTraceId, long timestamp) {
       this.lowTraceId = lowTraceId;
       this.timestamp = timestamp;
     }
@@ -594,14 +1336,14 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       if (o == this) return true;
       if (!(o instanceof TraceIdTimestamp)) return false;
       TraceIdTimestamp that = (TraceIdTimestamp) o;
-      return lowTraceId.equals(that.lowTraceId) && timestamp == that.timestamp;
+      return lowTraceId == that.lowTraceId && timestamp == that.timestamp;
     }
 
     @Override
     public int hashCode() {
       int h$ = 1;
       h$ *= 1000003;
-      h$ ^= lowTraceId.hashCode();
+      h$ ^= (int) ((lowTraceId >>> 32) ^ lowTraceId);
       h$ *= 1000003;
       h$ ^= (int) ((timestamp >>> 32) ^ timestamp);
       return h$;
@@ -609,6 +1351,8 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   }
 
   @Override public String toString() {
-    return "InMemoryStorage{traceCount=" + traceIdToTraceIdTimeStamps.size() + "}";
+    int traceCount = 0;
+    for (Shard shard : shards) traceCount += shard.traceIdToTraceIdTimeStamps.size();
+    return "InMemoryStorage{traceCount=" + traceCount + "}";
   }
 }
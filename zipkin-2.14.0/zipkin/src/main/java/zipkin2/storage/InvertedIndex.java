@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import zipkin2.Annotation;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+
+/**
+ * Posting lists of traces by the terms {@link QueryRequest} can search for, used to narrow down
+ * candidates before any spans are read.
+ *
+ * <p>Each trace gets a small integer ordinal, which is reused after the trace is removed. Terms
+ * are service names, span names, remote service names, annotation values, tag keys and tag
+ * key=value pairs, plus span durations in sorted order. Terms aren't scoped to the service in the
+ * query, so candidates are a superset of matches: callers still need {@link QueryRequest#test}.
+ *
+ * <p>Not thread safe: callers hold the lock of the enclosing shard.
+ */
+final class InvertedIndex {
+  final Map<String, Postings> serviceNames = new HashMap<>(), spanNames = new HashMap<>(),
+    remoteServiceNames = new HashMap<>(),
+    annotationOrTagKeys = new HashMap<>(), tagKeyValues = new HashMap<>();
+  final TreeMap<Long, Postings> durations = new TreeMap<>();
+
+  final Map<Long, Integer> traceIdToOrdinal = new HashMap<>();
+  long[] ordinalToTraceId = new long[16];
+  int[] freeOrdinals = new int[16];
+  int freeCount, ordinalCount;
+
+  /** Indexes the span under the ordinal of its trace, assigning one if new. */
+  void add(Span span) {
+    int ordinal = ordinal(span.traceIdLow());
+    forEachTerm(span, ordinal, true);
+  }
+
+  /** Removes all spans in the trace, and frees its ordinal for reuse. */
+  void remove(long lowTraceId, Iterable<Span> spans) {
+    Integer ordinal = traceIdToOrdinal.remove(lowTraceId);
+    if (ordinal == null) return;
+    for (Span span : spans) forEachTerm(span, ordinal, false);
+    if (freeCount == freeOrdinals.length) freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+    freeOrdinals[freeCount++] = ordinal;
+  }
+
+  void clear() {
+    serviceNames.clear();
+    spanNames.clear();
+    remoteServiceNames.clear();
+    annotationOrTagKeys.clear();
+    tagKeyValues.clear();
+    durations.clear();
+    traceIdToOrdinal.clear();
+    freeCount = ordinalCount = 0;
+  }
+
+  long traceId(int ordinal) {
+    return ordinalToTraceId[ordinal];
+  }
+
+  /**
+   * Returns ordinals of traces that could match the request, or null if the request has no terms
+   * to look up. An empty result means there can't be a match.
+   */
+  @Nullable BitSet candidates(QueryRequest request) {
+    List<Postings> required = new ArrayList<>();
+    if (!lookup(serviceNames, request.serviceName(), required)) return new BitSet();
+    if (!lookup(spanNames, request.spanName(), required)) return new BitSet();
+    if (!lookup(remoteServiceNames, request.remoteServiceName(), required)) return new BitSet();
+    for (Map.Entry<String, String> entry : request.annotationQuery().entrySet()) {
+      boolean found = entry.getValue().isEmpty()
+        ? lookup(annotationOrTagKeys, entry.getKey(), required)
+        : lookup(tagKeyValues, entry.getKey() + '=' + entry.getValue(), required);
+      if (!found) return new BitSet();
+    }
+
+    BitSet result = null;
+    if (request.minDuration() != null) { // max duration is ignored unless there's a minimum
+      long maxDuration = request.maxDuration() != null ? request.maxDuration() : Long.MAX_VALUE;
+      if (request.minDuration() > maxDuration) return new BitSet();
+      result = new BitSet();
+      for (Postings postings : durations.subMap(request.minDuration(), true, maxDuration, true)
+        .values()) {
+        postings.addTo(result);
+      }
+    }
+    if (required.isEmpty()) return result;
+
+    // Start with the rarest term, so that later ones only probe the fewest ordinals
+    Postings rarest = required.get(0);
+    for (Postings postings : required) {
+      if (postings.size < rarest.size) rarest = postings;
+    }
+    if (result == null) {
+      result = new BitSet();
+      rarest.addTo(result);
+    } else {
+      rarest.retainIn(result);
+    }
+    for (Postings postings : required) {
+      if (postings != rarest) postings.retainIn(result);
+    }
+    return result;
+  }
+
+  /** Returns false if the term is absent, so nothing could match it. */
+  static boolean lookup(Map<String, Postings> index, @Nullable String term,
+    List<Postings> required) {
+    if (term == null) return true;
+    Postings postings = index.get(term);
+    if (postings == null) return false;
+    required.add(postings);
+    return true;
+  }
+
+  int ordinal(long lowTraceId) {
+    Integer existing = traceIdToOrdinal.get(lowTraceId);
+    if (existing != null) return existing;
+    int ordinal;
+    if (freeCount > 0) {
+      ordinal = freeOrdinals[--freeCount];
+    } else {
+      ordinal = ordinalCount++;
+      if (ordinal == ordinalToTraceId.length) {
+        ordinalToTraceId = Arrays.copyOf(ordinalToTraceId, ordinal * 2);
+      }
+    }
+    ordinalToTraceId[ordinal] = lowTraceId;
+    traceIdToOrdinal.put(lowTraceId, ordinal);
+    return ordinal;
+  }
+
+  void forEachTerm(Span span, int ordinal, boolean add) {
+    update(serviceNames, span.localServiceName(), ordinal, add);
+    update(spanNames, span.name(), ordinal, add);
+    update(remoteServiceNames, span.remoteServiceName(), ordinal, add);
+    for (Annotation annotation : span.annotations()) {
+      update(annotationOrTagKeys, annotation.value(), ordinal, add);
+    }
+    for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+      update(annotationOrTagKeys, tag.getKey(), ordinal, add);
+      update(tagKeyValues, tag.getKey() + '=' + tag.getValue(), ordinal, add);
+    }
+    if (span.duration() != null) update(durations, span.duration(), ordinal, add);
+  }
+
+  static <K> void update(Map<K, Postings> index, @Nullable K term, int ordinal, boolean add) {
+    if (term == null) return;
+    Postings postings = index.get(term);
+    if (add) {
+      if (postings == null) index.put(term, postings = new Postings());
+      postings.add(ordinal);
+    } else if (postings != null) {
+      postings.remove(ordinal);
+      if (postings.size == 0) index.remove(term);
+    }
+  }
+
+  /**
+   * Ordinals of traces which include a term. These are a sorted array until there are enough to
+   * use a bitmap, so that rare terms don't cost a bitmap as large as the highest ordinal.
+   */
+  static final class Postings {
+    static final int MAX_ARRAY_SIZE = 512;
+
+    int[] array = new int[4];
+    @Nullable BitSet bitmap; // when set, array is unused
+    int size;
+
+    void add(int ordinal) {
+      if (bitmap != null) {
+        if (!bitmap.get(ordinal)) {
+          bitmap.set(ordinal);
+          size++;
+        }
+        return;
+      }
+      int i = Arrays.binarySearch(array, 0, size, ordinal);
+      if (i >= 0) return;
+      if (size == MAX_ARRAY_SIZE) {
+        bitmap = new BitSet();
+        for (int j = 0; j < size; j++) bitmap.set(array[j]);
+        bitmap.set(ordinal);
+        array = null;
+        size++;
+        return;
+      }
+      i = -i - 1;
+      if (size == array.length) array = Arrays.copyOf(array, size * 2);
+      System.arraycopy(array, i, array, i + 1, size - i);
+      array[i] = ordinal;
+      size++;
+    }
+
+    void remove(int ordinal) {
+      if (bitmap != null) {
+        if (bitmap.get(ordinal)) {
+          bitmap.clear(ordinal);
+          size--;
+        }
+        return;
+      }
+      int i = Arrays.binarySearch(array, 0, size, ordinal);
+      if (i < 0) return;
+      System.arraycopy(array, i + 1, array, i, size - i - 1);
+      size--;
+    }
+
+    boolean contains(int ordinal) {
+      if (bitmap != null) return bitmap.get(ordinal);
+      return Arrays.binarySearch(array, 0, size, ordinal) >= 0;
+    }
+
+    /** Sets the bits of each ordinal in these postings. */
+    void addTo(BitSet result) {
+      if (bitmap != null) {
+        result.or(bitmap);
+        return;
+      }
+      for (int i = 0; i < size; i++) result.set(array[i]);
+    }
+
+    /** Clears the bits of ordinals not in these postings. */
+    void retainIn(BitSet result) {
+      if (bitmap != null) {
+        result.and(bitmap);
+        return;
+      }
+      for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+        if (!contains(i)) result.clear(i);
+      }
+    }
+  }
+}
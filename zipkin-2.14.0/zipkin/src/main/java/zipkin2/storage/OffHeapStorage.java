@@ -0,0 +1,722 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.storage.InMemoryStorage.TraceIdTimestamp;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
+
+/**
+ * Storage component that keeps proto3-encoded spans in direct (off-heap) buffers, limited by a
+ * {@link Builder#maxBytes(long) byte budget} instead of a span count.
+ *
+ * <p>The budget is split into a ring of equally sized segments. Spans are appended to the current
+ * segment, and when the ring is full, the oldest segment is dropped as a whole. Only primitive
+ * indexes stay on the heap: per span, the lower 64-bits of its trace ID, its timestamp, the
+ * position of its encoded bytes, its service and the previous span in the same trace. Spans are
+ * decoded when read.
+ *
+ * <p>This is an alternative to {@link InMemoryStorage} when spans vary in size, or when a large
+ * store would otherwise cause long garbage collection pauses.
+ */
+public final class OffHeapStorage extends StorageComponent implements SpanStore, SpanConsumer,
+  AutocompleteTags, ServiceAndSpanNames {
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder extends StorageComponent.Builder {
+    boolean strictTraceId = true, searchEnabled = true;
+    long maxBytes = 256L * 1024 * 1024;
+    int segmentCount = 16;
+    List<String> autocompleteKeys = Collections.emptyList();
+
+    /** {@inheritDoc} */
+    @Override
+    public Builder strictTraceId(boolean strictTraceId) {
+      this.strictTraceId = strictTraceId;
+      return this;
+    }
+
+    @Override
+    public Builder searchEnabled(boolean searchEnabled) {
+      this.searchEnabled = searchEnabled;
+      return this;
+    }
+
+    @Override public Builder autocompleteKeys(List<String> autocompleteKeys) {
+      if (autocompleteKeys == null) throw new NullPointerException("autocompleteKeys == null");
+      this.autocompleteKeys = autocompleteKeys;
+      return this;
+    }
+
+    /**
+     * Direct memory allocated for encoded spans. When exceeded, the eldest segment of spans is
+     * dropped. Defaults to 256 MiB.
+     */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * The byte budget is split into this many segments, which are each dropped at once. More
+     * segments means finer grained eviction. Defaults to 16.
+     */
+    public Builder segmentCount(int segmentCount) {
+      if (segmentCount < 2) throw new IllegalArgumentException("segmentCount < 2");
+      if (segmentCount > MAX_SEGMENTS) {
+        throw new IllegalArgumentException("segmentCount > " + MAX_SEGMENTS);
+      }
+      this.segmentCount = segmentCount;
+      return this;
+    }
+
+    @Override
+    public OffHeapStorage build() {
+      long segmentBytes = maxBytes / segmentCount;
+      if (segmentBytes > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("maxBytes / segmentCount > " + Integer.MAX_VALUE);
+      }
+      return new OffHeapStorage(this, (int) segmentBytes);
+    }
+
+    Builder() {
+    }
+  }
+
+  // A span's handle packs the generation of its segment, the segment's slot and its index.
+  static final int MAX_SEGMENTS = 1 << 8, MAX_SPANS_PER_SEGMENT = 1 << 24;
+  /** How many candidate traces a query copies per acquisition of the read lock */
+  static final int QUERY_BATCH_SIZE = 64;
+
+  final boolean strictTraceId, searchEnabled;
+  final Call<List<String>> autocompleteKeysCall;
+  final Set<String> autocompleteKeys;
+  final int segmentBytes;
+
+  final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // the fields below are guarded by the lock
+  final Segment[] segments;
+  int currentSegment, generation;
+  /** Latest span handle by lower 64-bits of the trace ID. Older spans are linked from it. */
+  final LongToHandle traceIdToLatestSpan = new LongToHandle();
+  /** Services ever seen, in order of their ID. Only those with live spans are returned. */
+  final List<Service> services = new ArrayList<>();
+  final Map<String, Service> nameToService = new TreeMap<>();
+  final Map<String, Set<String>> autocompleteTags = new TreeMap<>();
+  volatile int acceptedSpanCount;
+
+  OffHeapStorage(Builder builder, int segmentBytes) {
+    this.strictTraceId = builder.strictTraceId;
+    this.searchEnabled = builder.searchEnabled;
+    this.autocompleteKeysCall = Call.create(builder.autocompleteKeys);
+    this.autocompleteKeys = new LinkedHashSet<>(builder.autocompleteKeys);
+    this.segmentBytes = segmentBytes;
+    this.segments = new Segment[builder.segmentCount];
+    for (int i = 0; i < segments.length; i++) segments[i] = new Segment(i, segmentBytes);
+    segments[0].reset(++generation);
+  }
+
+  public int acceptedSpanCount() {
+    return acceptedSpanCount;
+  }
+
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      for (Segment segment : segments) segment.reset(0);
+      currentSegment = 0;
+      segments[0].reset(++generation);
+      traceIdToLatestSpan.clear();
+      services.clear();
+      nameToService.clear();
+      autocompleteTags.clear();
+      acceptedSpanCount = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override public Call<Void> accept(List<Span> spans) {
+    return new StoreSpansCall(spans);
+  }
+
+  void doAccept(List<Span> spans) {
+    int length = spans.size();
+    // encode outside the lock
+    byte[][] encoded = new byte[length][];
+    for (int i = 0; i < length; i++) {
+      encoded[i] = SpanBytesEncoder.PROTO3.encode(spans.get(i));
+      if (encoded[i].length + 4 > segmentBytes) {
+        throw new IllegalArgumentException("span larger than a segment: " + spans.get(i));
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < length; i++) put(spans.get(i), encoded[i]);
+      acceptedSpanCount += length;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void put(Span span, byte[] encoded) {
+    Segment segment = segments[currentSegment];
+    if (!segment.fits(encoded)) {
+      currentSegment = (currentSegment + 1) % segments.length;
+      segment = segments[currentSegment];
+      evict(segment);
+      segment.reset(++generation);
+    }
+
+    long lowTraceId = span.traceIdLow();
+    int service = -1;
+    if (searchEnabled) {
+      String serviceName = span.localServiceName();
+      if (serviceName != null) service = service(serviceName).add(span);
+      for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+        if (!autocompleteKeys.contains(tag.getKey())) continue;
+        Set<String> values = autocompleteTags.get(tag.getKey());
+        if (values == null) autocompleteTags.put(tag.getKey(), values = new TreeSet<>());
+        values.add(tag.getValue());
+      }
+    }
+    long handle = segment.append(lowTraceId, span.timestampAsLong(), service,
+      traceIdToLatestSpan.get(lowTraceId), encoded);
+    traceIdToLatestSpan.put(lowTraceId, handle);
+  }
+
+  Service service(String serviceName) {
+    Service result = nameToService.get(serviceName);
+    if (result == null) {
+      result = new Service(services.size(), serviceName);
+      services.add(result);
+      nameToService.put(serviceName, result);
+    }
+    return result;
+  }
+
+  /** Drops all indexes to spans in the segment, which is the eldest. */
+  void evict(Segment segment) {
+    for (int i = 0; i < segment.count; i++) {
+      // As older segments were already evicted, a trace whose latest span is in this segment
+      // has no spans left.
+      long lowTraceId = segment.lowTraceIds[i];
+      if (traceIdToLatestSpan.get(lowTraceId) == segment.handle(i)) {
+        traceIdToLatestSpan.remove(lowTraceId);
+      }
+      int service = segment.services[i];
+      if (service != -1) services.get(service).remove();
+    }
+  }
+
+  final class StoreSpansCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    StoreSpansCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() {
+      doAccept(spans);
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      try {
+        callback.onSuccess(doExecute());
+      } catch (RuntimeException | Error e) {
+        Call.propagateIfFatal(e);
+        callback.onError(e);
+      }
+    }
+
+    @Override public Call<Void> clone() {
+      return new StoreSpansCall(spans);
+    }
+
+    @Override public String toString() {
+      return "StoreSpansCall{" + spans + "}";
+    }
+  }
+
+  @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+    return getTraces(request, strictTraceId);
+  }
+
+  Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
+    if (!searchEnabled) return Call.emptyList();
+
+    long[] candidates; // pairs of timestamp and lower 64-bits of the trace ID, most recent first
+    lock.readLock().lock();
+    try {
+      candidates = traceIdsDescendingByTimestamp(request);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    List<List<Span>> result = new ArrayList<>();
+    List<List<byte[]>> batch = new ArrayList<>(QUERY_BATCH_SIZE);
+    for (int i = 0, length = candidates.length / 2;
+      i < length && result.size() < request.limit(); ) {
+      int batchEnd = Math.min(i + QUERY_BATCH_SIZE, length);
+      batch.clear();
+      lock.readLock().lock();
+      try {
+        for (int j = i; j < batchEnd; j++) batch.add(encodedSpans(candidates[j * 2 + 1]));
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      for (int j = 0; j < batch.size() && result.size() < request.limit(); j++) {
+        List<Span> next = decode(batch.get(j));
+        if (next.isEmpty() || !request.test(next)) continue; // evicted or doesn't match
+        if (!strictTraceId) {
+          result.add(next);
+          continue;
+        }
+
+        // re-run the query as now spans are strictly grouped
+        for (List<Span> strictTrace : GroupByTraceId.groupByTraceIdHigh(next)) {
+          if (request.test(strictTrace)) result.add(strictTrace);
+        }
+      }
+      i = batchEnd;
+    }
+    return Call.create(result);
+  }
+
+  /**
+   * Returns pairs of the most recent timestamp and lower 64-bits of trace ID, for traces with a
+   * span in the query's time range, ordered the same as {@link InMemoryStorage}.
+   */
+  long[] traceIdsDescendingByTimestamp(QueryRequest request) {
+    long endTs = request.endTs() * 1000;
+    long startTs = endTs - request.lookback() * 1000;
+    LongToHandle withService = null; // traces including the service at any time
+    if (request.serviceName() != null) {
+      Service service = nameToService.get(request.serviceName());
+      if (service == null || service.liveSpans == 0) return new long[0];
+      withService = new LongToHandle();
+      for (Segment segment : segments) {
+        for (int i = 0; i < segment.count; i++) {
+          if (segment.services[i] == service.id) withService.put(segment.lowTraceIds[i], 1L);
+        }
+      }
+    }
+
+    LongToHandle latestTimestamps = new LongToHandle(); // values are timestamps here
+    for (Segment segment : segments) {
+      if (segment.count == 0 || segment.minTimestamp > endTs || segment.maxTimestamp < startTs) {
+        continue;
+      }
+      for (int i = 0; i < segment.count; i++) {
+        long timestamp = segment.timestamps[i];
+        if (timestamp == 0L || timestamp < startTs || timestamp > endTs) continue;
+        long lowTraceId = segment.lowTraceIds[i];
+        if (withService != null && withService.get(lowTraceId) == 0L) continue;
+        if (timestamp > latestTimestamps.get(lowTraceId)) {
+          latestTimestamps.put(lowTraceId, timestamp);
+        }
+      }
+    }
+
+    TraceIdTimestamp[] sorted = new TraceIdTimestamp[latestTimestamps.size];
+    for (int i = 0, count = 0; i < latestTimestamps.keys.length; i++) {
+      long timestamp = latestTimestamps.values[i];
+      if (timestamp == 0L) continue;
+      sorted[count++] = new TraceIdTimestamp(latestTimestamps.keys[i], timestamp);
+    }
+    Arrays.sort(sorted, InMemoryStorage.TIMESTAMP_DESCENDING);
+    long[] result = new long[sorted.length * 2];
+    for (int i = 0; i < sorted.length; i++) {
+      result[i * 2] = sorted[i].timestamp;
+      result[i * 2 + 1] = sorted[i].lowTraceId;
+    }
+    return result;
+  }
+
+  /** Copies the encoded spans of the trace, eldest first. */
+  List<byte[]> encodedSpans(long lowTraceId) {
+    List<byte[]> result = new ArrayList<>();
+    long handle = traceIdToLatestSpan.get(lowTraceId);
+    while (handle != 0L) {
+      Segment segment = segments[Segment.slot(handle)];
+      if (segment.generation != Segment.generation(handle)) break; // evicted
+      int index = Segment.index(handle);
+      result.add(segment.read(index));
+      handle = segment.previous[index];
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  /** Decodes spans, dropping exact duplicates, as {@link InMemoryStorage} would. */
+  static List<Span> decode(List<byte[]> encodedSpans) {
+    Set<Span> result = new LinkedHashSet<>();
+    for (byte[] encoded : encodedSpans) result.add(SpanBytesDecoder.PROTO3.decodeOne(encoded));
+    return new ArrayList<>(result);
+  }
+
+  /** Used for testing. Returns all traces unconditionally. */
+  public List<List<Span>> getTraces() {
+    List<List<byte[]>> encoded = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      long[] traceIds = traceIdToLatestSpan.keys();
+      Arrays.sort(traceIds);
+      for (long lowTraceId : traceIds) encoded.add(encodedSpans(lowTraceId));
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    List<List<Span>> result = new ArrayList<>();
+    for (List<byte[]> trace : encoded) {
+      List<Span> sameTraceId = decode(trace);
+      if (strictTraceId) {
+        result.addAll(GroupByTraceId.groupByTraceIdHigh(sameTraceId));
+      } else {
+        result.add(sameTraceId);
+      }
+    }
+    return result;
+  }
+
+  /** Used for testing. Returns all dependency links unconditionally. */
+  public List<DependencyLink> getDependencies() {
+    return DependencyLinker.link(getTraces());
+  }
+
+  @Override public Call<List<Span>> getTrace(String traceId) {
+    traceId = Span.normalizeTraceId(traceId);
+    List<byte[]> encoded;
+    lock.readLock().lock();
+    try {
+      encoded = encodedSpans(lowerHexToUnsignedLong(traceId));
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (encoded.isEmpty()) return Call.emptyList();
+    List<Span> spans = decode(encoded);
+    if (!strictTraceId) return Call.create(spans);
+
+    long traceIdHigh = traceId.length() == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
+    Iterator<Span> iterator = spans.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().traceIdHigh() != traceIdHigh) iterator.remove();
+    }
+    return Call.create(spans);
+  }
+
+  @Override public Call<List<String>> getServiceNames() {
+    if (!searchEnabled) return Call.emptyList();
+    List<String> result = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (Service service : nameToService.values()) {
+        if (service.liveSpans > 0) result.add(service.name);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return Call.create(result);
+  }
+
+  @Override public Call<List<String>> getRemoteServiceNames(String serviceName) {
+    if (serviceName.isEmpty() || !searchEnabled) return Call.emptyList();
+    serviceName = serviceName.toLowerCase(Locale.ROOT); // service names are always lowercase!
+    lock.readLock().lock();
+    try {
+      Service service = nameToService.get(serviceName);
+      if (service == null || service.liveSpans == 0) return Call.emptyList();
+      return Call.create(new ArrayList<>(service.remoteServiceNames));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override public Call<List<String>> getSpanNames(String serviceName) {
+    if (serviceName.isEmpty() || !searchEnabled) return Call.emptyList();
+    serviceName = serviceName.toLowerCase(Locale.ROOT); // service names are always lowercase!
+    lock.readLock().lock();
+    try {
+      Service service = nameToService.get(serviceName);
+      if (service == null || service.liveSpans == 0) return Call.emptyList();
+      return Call.create(new ArrayList<>(service.spanNames));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+    QueryRequest request =
+      QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
+
+    // We don't have a query parameter for strictTraceId when fetching dependency links, so we
+    // ignore traceIdHigh. Otherwise, a single trace can appear as two, doubling callCount.
+    return getTraces(request, false).map(InMemoryStorage.LinkDependencies.INSTANCE);
+  }
+
+  @Override public Call<List<String>> getKeys() {
+    if (!searchEnabled) return Call.emptyList();
+    return autocompleteKeysCall.clone();
+  }
+
+  @Override public Call<List<String>> getValues(String key) {
+    if (key == null) throw new NullPointerException("key == null");
+    if (key.isEmpty()) throw new IllegalArgumentException("key was empty");
+    if (!searchEnabled) return Call.emptyList();
+    lock.readLock().lock();
+    try {
+      Collection<String> values = autocompleteTags.get(key);
+      if (values == null) return Call.emptyList();
+      return Call.create(new ArrayList<>(values));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override public OffHeapStorage spanStore() {
+    return this;
+  }
+
+  @Override public OffHeapStorage autocompleteTags() {
+    return this;
+  }
+
+  @Override public OffHeapStorage serviceAndSpanNames() {
+    return this;
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    return this;
+  }
+
+  @Override public void close() {
+  }
+
+  @Override public String toString() {
+    return "OffHeapStorage{maxBytes=" + (long) segmentBytes * segments.length + "}";
+  }
+
+  /** Service names are rarely evicted, so names are kept until the last span is. */
+  static final class Service {
+    final int id;
+    final String name;
+    final Set<String> spanNames = new TreeSet<>();
+    final Set<String> remoteServiceNames = new TreeSet<>();
+    int liveSpans;
+
+    Service(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    int add(Span span) {
+      liveSpans++;
+      if (span.name() != null) spanNames.add(span.name());
+      if (span.remoteServiceName() != null) remoteServiceNames.add(span.remoteServiceName());
+      return id;
+    }
+
+    void remove() {
+      if (--liveSpans > 0) return;
+      spanNames.clear();
+      remoteServiceNames.clear();
+    }
+  }
+
+  /** A direct buffer of encoded spans, with parallel arrays indexing them. */
+  static final class Segment {
+    final int slot, capacity;
+    ByteBuffer buffer;
+    int generation, count;
+    long minTimestamp, maxTimestamp;
+    long[] lowTraceIds = new long[0], timestamps = new long[0], previous = new long[0];
+    int[] positions = new int[0], services = new int[0];
+
+    Segment(int slot, int capacity) {
+      this.slot = slot;
+      this.capacity = capacity;
+    }
+
+    void reset(int generation) {
+      this.generation = generation;
+      count = 0;
+      minTimestamp = Long.MAX_VALUE;
+      maxTimestamp = Long.MIN_VALUE;
+      if (buffer != null) buffer.clear();
+    }
+
+    boolean fits(byte[] encoded) {
+      if (count == MAX_SPANS_PER_SEGMENT) return false;
+      int position = buffer != null ? buffer.position() : 0;
+      return capacity - position >= encoded.length + 4;
+    }
+
+    long append(long lowTraceId, long timestamp, int service, long previous, byte[] encoded) {
+      if (buffer == null) buffer = ByteBuffer.allocateDirect(capacity); // allocate lazily
+      if (count == lowTraceIds.length) {
+        int newLength = Math.max(16, count * 2);
+        lowTraceIds = Arrays.copyOf(lowTraceIds, newLength);
+        timestamps = Arrays.copyOf(timestamps, newLength);
+        this.previous = Arrays.copyOf(this.previous, newLength);
+        positions = Arrays.copyOf(positions, newLength);
+        services = Arrays.copyOf(services, newLength);
+      }
+      lowTraceIds[count] = lowTraceId;
+      timestamps[count] = timestamp;
+      this.previous[count] = previous;
+      positions[count] = buffer.position();
+      services[count] = service;
+      buffer.putInt(encoded.length).put(encoded);
+      if (timestamp != 0L) {
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+      }
+      return handle(count++);
+    }
+
+    byte[] read(int index) {
+      int position = positions[index];
+      byte[] result = new byte[buffer.getInt(position)];
+      ByteBuffer duplicate = buffer.duplicate(); // don't disturb the write position
+      duplicate.position(position + 4);
+      duplicate.get(result);
+      return result;
+    }
+
+    long handle(int index) {
+      return ((long) generation << 32) | ((long) slot << 24) | index;
+    }
+
+    static int generation(long handle) {
+      return (int) (handle >>> 32);
+    }
+
+    static int slot(long handle) {
+      return (int) (handle >>> 24) & (MAX_SEGMENTS - 1);
+    }
+
+    static int index(long handle) {
+      return (int) handle & (MAX_SPANS_PER_SEGMENT - 1);
+    }
+  }
+
+  /**
+   * Open-addressing map of lower 64-bits of trace ID to a non-zero long, which is zero when absent.
+   */
+  static final class LongToHandle {
+    long[] keys = new long[16], values = new long[16];
+    int size;
+
+    long get(long key) {
+      int mask = keys.length - 1;
+      for (int i = slot(key, mask); values[i] != 0L; i = (i + 1) & mask) {
+        if (keys[i] == key) return values[i];
+      }
+      return 0L;
+    }
+
+    void put(long key, long value) {
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      for (; values[i] != 0L; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          values[i] = value;
+          return;
+        }
+      }
+      keys[i] = key;
+      values[i] = value;
+      if (++size * 2 > keys.length) resize();
+    }
+
+    void remove(long key) {
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      while (values[i] != 0L && keys[i] != key) i = (i + 1) & mask;
+      if (values[i] == 0L) return;
+      size--;
+      // shift back any later entries in the same probe sequence
+      for (int j = (i + 1) & mask; values[j] != 0L; j = (j + 1) & mask) {
+        int home = slot(keys[j], mask);
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          keys[i] = keys[j];
+          values[i] = values[j];
+          i = j;
+        }
+      }
+      values[i] = 0L;
+    }
+
+    long[] keys() {
+      long[] result = new long[size];
+      int count = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (values[i] != 0L) result[count++] = keys[i];
+      }
+      return result;
+    }
+
+    void clear() {
+      Arrays.fill(values, 0L);
+      size = 0;
+    }
+
+    void resize() {
+      long[] oldKeys = keys, oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new long[oldValues.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != 0L) put(oldKeys[i], oldValues[i]);
+      }
+    }
+
+    static int slot(long key, int mask) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & mask;
+    }
+  }
+}
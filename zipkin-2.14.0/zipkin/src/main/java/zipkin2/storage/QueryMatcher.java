@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import java.util.Map;
+import zipkin2.Annotation;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+
+/**
+ * Compiled form of {@link QueryRequest#test(List)}, which is invoked for each candidate trace.
+ *
+ * <p>Annotation query terms are numbered up front, so that the terms remaining to match are a
+ * bitmask instead of a copy of the query. Tags are probed by query key, as opposed to iterating
+ * each tag. Testing a trace doesn't allocate unless the query includes annotation terms, which
+ * requires reading {@link Span#annotations()}.
+ */
+final class QueryMatcher {
+  /** Queries with more terms than bits in the mask use {@link QueryRequest#testUncompiled}. */
+  static final int MAX_TERMS = 64;
+
+  final long minTimestamp, maxTimestamp;
+  @Nullable final String serviceName, remoteServiceName, spanName;
+  final boolean hasDuration;
+  final long minDuration, maxDuration;
+  final String[] termKeys, termValues;
+  /** Bits set for all terms, and for terms that can also match an annotation value */
+  final long allTerms, annotationTerms;
+
+  QueryMatcher(QueryRequest request) {
+    minTimestamp = (request.endTs() - request.lookback()) * 1000;
+    maxTimestamp = request.endTs() * 1000;
+    serviceName = request.serviceName();
+    remoteServiceName = request.remoteServiceName();
+    spanName = request.spanName();
+    hasDuration = request.minDuration() != null;
+    minDuration = hasDuration ? request.minDuration() : 0L;
+    maxDuration = request.maxDuration() != null ? request.maxDuration() : Long.MAX_VALUE;
+
+    Map<String, String> annotationQuery = request.annotationQuery();
+    int termCount = annotationQuery.size();
+    assert termCount <= MAX_TERMS : "too many terms for a long mask";
+    termKeys = new String[termCount];
+    termValues = new String[termCount];
+    long annotationTerms = 0L;
+    int i = 0;
+    for (Map.Entry<String, String> entry : annotationQuery.entrySet()) {
+      termKeys[i] = entry.getKey();
+      termValues[i] = entry.getValue();
+      if (entry.getValue().isEmpty()) annotationTerms |= 1L << i;
+      i++;
+    }
+    this.allTerms = termCount == MAX_TERMS ? -1L : (1L << termCount) - 1;
+    this.annotationTerms = annotationTerms;
+  }
+
+  boolean test(List<Span> spans) {
+    int length = spans.size();
+
+    // v2 returns raw spans in any order, get the root's timestamp or the first timestamp
+    long timestamp = 0L;
+    for (int i = 0; i < length; i++) {
+      Span span = spans.get(i);
+      long spanTimestamp = span.timestampAsLong();
+      if (spanTimestamp == 0L) continue;
+      if (span.parentId() == null) {
+        timestamp = spanTimestamp;
+        break;
+      }
+      if (timestamp == 0L || timestamp > spanTimestamp) timestamp = spanTimestamp;
+    }
+    if (timestamp == 0L || timestamp < minTimestamp || timestamp > maxTimestamp) return false;
+
+    boolean matchedService = serviceName == null;
+    boolean matchedRemoteServiceName = remoteServiceName == null;
+    boolean matchedSpanName = spanName == null;
+    boolean matchedDuration = !hasDuration;
+    long remainingTerms = allTerms;
+
+    for (int i = 0; i < length; i++) {
+      Span span = spans.get(i);
+
+      // service name, when present, constrains other queries.
+      if (serviceName != null && !serviceName.equals(span.localServiceName())) continue;
+      matchedService = true;
+
+      if (remainingTerms != 0L) remainingTerms = matchTerms(span, remainingTerms);
+      if (!matchedRemoteServiceName) {
+        matchedRemoteServiceName = remoteServiceName.equals(span.remoteServiceName());
+      }
+      if (!matchedSpanName) matchedSpanName = spanName.equals(span.name());
+      if (!matchedDuration) {
+        long duration = span.durationAsLong();
+        matchedDuration = duration >= minDuration && duration <= maxDuration;
+      }
+
+      if (remainingTerms == 0L && matchedRemoteServiceName && matchedSpanName && matchedDuration) {
+        return true; // no need to look at the remaining spans
+      }
+    }
+    return matchedService && remainingTerms == 0L
+      && matchedRemoteServiceName && matchedSpanName && matchedDuration;
+  }
+
+  /** Returns the remaining terms after clearing any matched by the span's tags or annotations. */
+  long matchTerms(Span span, long remainingTerms) {
+    Map<String, String> tags = span.tags();
+    if (!tags.isEmpty()) {
+      for (long bits = remainingTerms; bits != 0L; bits &= bits - 1) {
+        int i = Long.numberOfTrailingZeros(bits);
+        String tagValue = tags.get(termKeys[i]);
+        if (tagValue == null) continue;
+        if (termValues[i].isEmpty() || termValues[i].equals(tagValue)) {
+          remainingTerms &= ~(1L << i);
+        }
+      }
+    }
+    if ((remainingTerms & annotationTerms) == 0L) return remainingTerms;
+    List<Annotation> annotations = span.annotations();
+    for (int a = 0, length = annotations.size(); a < length; a++) {
+      String value = annotations.get(a).value();
+      for (long bits = remainingTerms & annotationTerms; bits != 0L; bits &= bits - 1) {
+        int i = Long.numberOfTrailingZeros(bits);
+        if (termKeys[i].equals(value)) remainingTerms &= ~(1L << i);
+      }
+    }
+    return remainingTerms;
+  }
+}
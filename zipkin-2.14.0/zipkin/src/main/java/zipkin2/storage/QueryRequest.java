@@ -291,9 +291,18 @@ public final class QueryRequest {
   /**
    * Tests the supplied trace against the current request.
    *
-   * <p>This is used when the backend cannot fully refine a trace query.
+   * <p>This is used when the backend cannot fully refine a trace query. The first call compiles
+   * the request, so that testing many traces doesn't repeat work per trace.
    */
   public boolean test(List<Span> spans) {
+    if (annotationQuery.size() > QueryMatcher.MAX_TERMS) return testUncompiled(spans);
+    QueryMatcher matcher = this.matcher;
+    if (matcher == null) this.matcher = matcher = new QueryMatcher(this);
+    return matcher.test(spans);
+  }
+
+  /** The original implementation of {@link #test(List)}, which copies the annotation query. */
+  boolean testUncompiled(List<Span> spans) {
     // v2 returns raw spans in any order, get the root's timestamp or the first timestamp
     long timestamp = 0L;
     for (Span span : spans) {
@@ -365,6 +374,8 @@ public final class QueryRequest {
   final Long minDuration, maxDuration;
   final long endTs, lookback;
   final int limit;
+  // Lazily initialized. Races are benign as the matcher is immutable.
+  QueryMatcher matcher;
 
   QueryRequest(
     @Nullable String serviceName,
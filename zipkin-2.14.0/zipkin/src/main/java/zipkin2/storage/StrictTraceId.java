@@ -75,11 +75,10 @@ public final class StrictTraceId {
 
     // NOTE: It is probably more efficient to do clever sorting and peeking here, but the call site
     // is query side, which is not in the critical path of user code. A set is much easier to grok.
-    Set<String> traceIdLows = new LinkedHashSet<>();
+    Set<Long> traceIdLows = new LinkedHashSet<>();
     boolean clash = false;
     for (int i = 0; i < traceCount; i++) {
-      String traceId = lowerTraceId(input.get(i).get(0).traceId());
-      if (!traceIdLows.add(traceId)) {
+      if (!traceIdLows.add(input.get(i).get(0).traceIdLow())) {
         clash = true;
         break;
       }
@@ -87,10 +86,6 @@ public final class StrictTraceId {
     return clash;
   }
 
-  static String lowerTraceId(String traceId) {
-    return traceId.length() == 16 ? traceId : traceId.substring(16);
-  }
-
   static final class FilterSpans implements Call.Mapper<List<Span>, List<Span>> {
 
     final String traceId;
@@ -18,11 +18,16 @@ package zipkin2;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import okio.Buffer;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.data.MapEntry.entry;
 import static zipkin2.Span.normalizeTraceId;
 import static zipkin2.TestObjects.BACKEND;
@@ -55,6 +60,61 @@ public class SpanTest {
       .isEqualTo("463ac35c9f6413ad48485a3953bb6124");
   }
 
+  @Test public void traceIdLowAndHigh() {
+    Span with128BitId = base.toBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").build();
+
+    assertThat(with128BitId.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(with128BitId.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+
+    Span with64BitId = base.toBuilder().traceId("48485a3953bb6124").build();
+
+    assertThat(with64BitId.traceIdHigh()).isZero();
+    assertThat(with64BitId.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+  }
+
+  @Test public void traceIdLowAndHigh_fromLongs() {
+    Span span = base.toBuilder().traceId(0x463ac35c9f6413adL, 0x48485a3953bb6124L).build();
+
+    assertThat(span.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(span.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+    assertThat(span.traceId()).isEqualTo("463ac35c9f6413ad48485a3953bb6124");
+  }
+
+  @Test public void traceIdLowAndHigh_downgradesZeroHigh() {
+    Span span = base.toBuilder().traceId("000000000000000048485a3953bb6124").build();
+
+    assertThat(span.traceIdHigh()).isZero();
+    assertThat(span.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+  }
+
+  @Test public void idAsLong() {
+    assertThat(base.toBuilder().id("3").build().idAsLong()).isEqualTo(3L);
+    assertThat(base.toBuilder().id(0xfffffffffffffffeL).build().idAsLong())
+      .isEqualTo(0xfffffffffffffffeL);
+  }
+
+  @Test public void parentIdAsLong() {
+    assertThat(base.parentIdAsLong()).isZero();
+    assertThat(base.toBuilder().parentId("3").build().parentIdAsLong()).isEqualTo(3L);
+    assertThat(base.toBuilder().parentId(3L).build().parentIdAsLong()).isEqualTo(3L);
+    assertThat(base.toBuilder().parentId("0").build().parentIdAsLong()).isZero();
+  }
+
+  @Test public void parentIdAsLong_zeroWhenSelfReferencing() {
+    assertThat(base.toBuilder().parentId(base.id()).build().parentIdAsLong()).isZero();
+  }
+
+  @Test public void idsAsLong_copiedByBuilder() {
+    Span span = base.toBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").parentId("2").build();
+
+    assertThat(span.toBuilder().build())
+      .extracting(Span::traceIdHigh, Span::traceIdLow, Span::parentIdAsLong, Span::idAsLong)
+      .containsExactly(span.traceIdHigh(), span.traceIdLow(), 2L, span.idAsLong());
+    assertThat(Span.newBuilder().merge(span).build())
+      .extracting(Span::traceIdHigh, Span::traceIdLow, Span::parentIdAsLong, Span::idAsLong)
+      .containsExactly(span.traceIdHigh(), span.traceIdLow(), 2L, span.idAsLong());
+  }
+
   @Test public void localEndpoint_emptyToNull() {
     assertThat(base.toBuilder().localEndpoint(Endpoint.newBuilder().build()).localEndpoint)
       .isNull();
@@ -124,6 +184,59 @@ public class SpanTest {
     );
   }
 
+  @Test public void tagsSortByKey() {
+    Span span = base.toBuilder()
+      .putTag("foo", "bar")
+      .putTag("error", "")
+      .putTag("http.path", "/api")
+      .build();
+
+    assertThat(span.tags()).containsExactly(
+      entry("error", ""),
+      entry("foo", "bar"),
+      entry("http.path", "/api")
+    );
+    assertThat(span.tags().get("http.path")).isEqualTo("/api");
+    assertThat(span.tags().get("missing")).isNull();
+    assertThat(span.tags().containsKey(1)).isFalse();
+  }
+
+  @Test public void tagsAndAnnotationsAreUnmodifiable() {
+    Span span = oneOfEach;
+
+    assertThatThrownBy(() -> span.tags().put("foo", "bar"))
+      .isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> span.annotations().add(Annotation.create(1L, "foo")))
+      .isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  /** Compact storage must remain compatible with ordinary collections. */
+  @Test public void tagsAndAnnotations_equalsAndHashCodeMatchCollections() {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("http.path", "/api");
+    List<Annotation> annotations = new ArrayList<>();
+    annotations.add(Annotation.create(2L, "foo"));
+
+    assertThat(oneOfEach.tags())
+      .isEqualTo(tags)
+      .hasSameHashCodeAs(tags);
+    assertThat(tags).isEqualTo(oneOfEach.tags());
+    assertThat(oneOfEach.annotations())
+      .isEqualTo(annotations)
+      .hasSameHashCodeAs(annotations);
+    assertThat(annotations).isEqualTo(oneOfEach.annotations());
+  }
+
+  @Test public void builderReuse_doesntAffectBuiltSpans() {
+    Span.Builder builder = base.toBuilder().addAnnotation(1L, "foo").putTag("foo", "bar");
+    Span span = builder.build();
+
+    builder.clear().traceId("1").id("1").addAnnotation(2L, "bar").putTag("foo", "qux").build();
+
+    assertThat(span.annotations()).containsExactly(Annotation.create(1L, "foo"));
+    assertThat(span.tags()).containsExactly(entry("foo", "bar"));
+  }
+
   @Test public void builder_canUnsetParent() {
     Span withParent = base.toBuilder().parentId("3").build();
 
@@ -16,6 +16,7 @@
  */
 package zipkin2.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,6 +28,7 @@ import zipkin2.Endpoint;
 import zipkin2.Span;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static zipkin2.TestObjects.BACKEND;
 import static zipkin2.TestObjects.TRACE;
 import static zipkin2.codec.SpanBytesEncoderTest.ERROR_SPAN;
@@ -491,4 +493,59 @@ public class SpanBytesDecoderTest {
     assertThat(SpanBytesDecoder.JSON_V2.decodeOne(json.getBytes(UTF_8)).remoteServiceName())
       .isNull();
   }
+  @Test public void decodeList_chunked() {
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      byte[] message = encoder.encodeList(TRACE);
+      SpanBytesDecoder decoder = SpanBytesDecoder.valueOf(encoder.name());
+
+      List<List<Span>> chunks = new ArrayList<>();
+      assertThat(decoder.decodeList(message, 3, chunks::add)).isTrue();
+
+      assertThat(chunks).extracting(List::size).containsExactly(3, 1);
+      List<Span> flattened = new ArrayList<>();
+      chunks.forEach(flattened::addAll);
+      assertThat(flattened).isEqualTo(decoder.decodeList(message));
+    }
+  }
+
+  @Test public void decodeList_chunked_byteBuffer() {
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+
+    List<List<Span>> chunks = new ArrayList<>();
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(ByteBuffer.wrap(message), 2, chunks::add))
+      .isTrue();
+
+    assertThat(chunks).containsExactly(TRACE.subList(0, 2), TRACE.subList(2, 4));
+  }
+
+  @Test public void decodeList_chunked_emptyList() {
+    List<List<Span>> chunks = new ArrayList<>();
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(new byte[] {'[', ']'}, 2, chunks::add))
+      .isFalse();
+
+    assertThat(chunks).isEmpty();
+  }
+
+  @Test public void decodeList_chunked_emitsChunksBeforeError() {
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    byte[] truncated = Arrays.copyOf(message, message.length - 10);
+
+    List<List<Span>> chunks = new ArrayList<>();
+    try {
+      SpanBytesDecoder.JSON_V2.decodeList(truncated, 1, chunks::add);
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException expected) {
+    }
+
+    assertThat(chunks).containsExactly(
+      TRACE.subList(0, 1), TRACE.subList(1, 2), TRACE.subList(2, 3));
+  }
+
+  @Test public void decodeList_chunked_invalidChunkSize() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("chunkSize <= 0");
+
+    SpanBytesDecoder.JSON_V2.decodeList(new byte[] {'[', ']'}, 0, chunk -> {
+    });
+  }
 }
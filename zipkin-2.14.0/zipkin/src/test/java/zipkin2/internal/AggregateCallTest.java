@@ -231,6 +231,104 @@ public class AggregateCallTest {
     verifyNoMoreInteractions(call1, call2);
   }
 
+  @Test public void newConcurrentVoidCall_singletonReturnsOnlyElement() {
+    assertThat(AggregateCall.newConcurrentVoidCall(asList(call1)))
+      .isEqualTo(call1);
+  }
+
+  @Test public void executeConcurrently() throws Exception {
+    successCallback(call1);
+    successCallback(call2);
+
+    Call<Void> call = AggregateCall.newConcurrentVoidCall(asList(call1, call2));
+
+    assertThat(call.execute())
+      .isNull();
+
+    verify(call1).enqueue(any(Callback.class));
+    verify(call2).enqueue(any(Callback.class));
+    verifyNoMoreInteractions(call1, call2);
+  }
+
+  @Test public void executeConcurrently_errorDoesntStopOtherCalls() {
+    Exception e = new IllegalArgumentException();
+    errorCallback(call1, e);
+    successCallback(call2);
+
+    Call<Void> call = AggregateCall.newConcurrentVoidCall(asList(call1, call2));
+
+    assertThatThrownBy(call::execute)
+      .isSameAs(e);
+
+    verify(call1).enqueue(any(Callback.class));
+    verify(call2).enqueue(any(Callback.class));
+    verifyNoMoreInteractions(call1, call2);
+  }
+
+  @Test public void executeConcurrently_firstErrorWins() {
+    IOException first = new IOException("first"), second = new IOException("second");
+    errorCallback(call1, first);
+    errorCallback(call2, second);
+
+    Call<Void> call = AggregateCall.newConcurrentVoidCall(asList(call1, call2));
+
+    assertThatThrownBy(call::execute)
+      .isSameAs(first);
+  }
+
+  /** Concurrent execution should not take the sum of the latency of each call */
+  @Test(timeout = 1000L)
+  public void executeConcurrently_startsAllCalls() throws Exception {
+    CountDownLatch started = new CountDownLatch(10);
+    ExecutorService exec = Executors.newFixedThreadPool(10);
+
+    class LatchCall extends Call.Base<Void> {
+      @Override protected Void doExecute() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override protected void doEnqueue(Callback<Void> callback) {
+        exec.submit(() -> {
+          started.countDown();
+          try {
+            started.await(); // deadlocks unless all calls are in flight at the same time
+            callback.onSuccess(null);
+          } catch (InterruptedException e) {
+            callback.onError(e);
+          }
+        });
+      }
+
+      @Override public Call<Void> clone() {
+        return new LatchCall();
+      }
+    }
+
+    List<Call<Void>> calls = new ArrayList<>();
+    for (int i = 0; i < 10; i++) calls.add(new LatchCall());
+
+    try {
+      assertThat(AggregateCall.newConcurrentVoidCall(calls).execute()).isNull();
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  @Test public void executeConcurrently_cloneRetainsMode() throws Exception {
+    successCallback(call1);
+    successCallback(call2);
+    when(call1.clone()).thenReturn(call1);
+    when(call2.clone()).thenReturn(call2);
+
+    Call<Void> call = AggregateCall.newConcurrentVoidCall(asList(call1, call2)).clone();
+
+    assertThat(call.execute())
+      .isNull();
+
+    verify(call1).enqueue(any(Callback.class));
+    verify(call2).enqueue(any(Callback.class));
+  }
+
   static void successCallback(Call<Void> call) {
     doAnswer(a -> {
       ((Callback<Void>) a.getArgument(0)).onSuccess(null);
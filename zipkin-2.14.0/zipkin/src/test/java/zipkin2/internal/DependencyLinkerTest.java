@@ -19,6 +19,8 @@ package zipkin2.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.Test;
@@ -577,6 +579,68 @@ public class DependencyLinkerTest {
     );
   }
 
+  @Test
+  public void mergePartial() {
+    DependencyLinker partial = new DependencyLinker().putTrace(TRACE);
+    DependencyLinker linker = new DependencyLinker().putTrace(asList(
+      span2("b", null, "a", Kind.CLIENT, "app", "db", false),
+      span2("b", null, "b", Kind.CLIENT, "db", "cache", false)
+    ));
+
+    assertThat(linker.merge(partial).link()).containsExactly(
+      DependencyLink.newBuilder().parent("app").child("db").callCount(2L).errorCount(1L).build(),
+      DependencyLink.newBuilder().parent("db").child("cache").callCount(1L).build(),
+      DependencyLink.newBuilder().parent("web").child("app").callCount(1L).build()
+    );
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mergePartial_self() {
+    DependencyLinker linker = new DependencyLinker().putTrace(TRACE);
+    linker.merge(linker);
+  }
+
+  @Test
+  public void linkTraces_parallel() {
+    List<List<Span>> traces = new ArrayList<>();
+    for (int i = 0; i < DependencyLinker.BATCH_SIZE * 10; i++) traces.add(TRACE);
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      assertThat(DependencyLinker.link(traces, executor, 4)).containsOnly(
+        DependencyLink.newBuilder().parent("web").child("app").callCount(320L).build(),
+        DependencyLink.newBuilder().parent("app").child("db").callCount(320L).errorCount(320L)
+          .build()
+      );
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** The caller should drain all input itself when the executor doesn't run any forks */
+  @Test
+  public void linkTraces_executorNeverRuns() {
+    List<List<Span>> traces = new ArrayList<>();
+    for (int i = 0; i < DependencyLinker.BATCH_SIZE * 10; i++) traces.add(TRACE);
+
+    assertThat(DependencyLinker.link(traces, r -> {}, 4)).containsOnly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(320L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(320L).errorCount(320L)
+        .build()
+    );
+  }
+
+  @Test
+  public void linkTraces_lazyInput() {
+    Iterable<List<Span>> traces = () -> Collections.nCopies(100, TRACE).iterator();
+
+    assertThat(DependencyLinker.link(traces)).containsOnly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(100L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(100L).errorCount(100L)
+        .build()
+    );
+  }
+
   static Span span2(String traceId, @Nullable String parentId, String id, @Nullable Kind kind,
     @Nullable String local, @Nullable String remote, boolean isError) {
     Span.Builder result = Span.newBuilder().traceId(traceId).parentId(parentId).id(id).kind(kind);
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.TestObjects.TRACE;
+
+public class EndpointCacheTest {
+  EndpointCache cache = new EndpointCache(16);
+
+  @After public void disable() {
+    EndpointCache.enable(0);
+  }
+
+  @Test public void sizeRoundedUpToPowerOfTwo() {
+    assertThat(new EndpointCache(1).entries).hasSize(2);
+    assertThat(new EndpointCache(1024).entries).hasSize(1024);
+    assertThat(new EndpointCache(1025).entries).hasSize(2048);
+  }
+
+  @Test public void returnsSameInstance() {
+    Endpoint first = cache.get("frontend", "127.0.0.1", null, 0);
+
+    assertThat(cache.get("frontend", "127.0.0.1", null, 0))
+      .isEqualTo(FRONTEND)
+      .isSameAs(first);
+    assertThat(cache.drainMissCount()).isEqualTo(1L);
+    assertThat(cache.drainHitCount()).isEqualTo(1L);
+  }
+
+  @Test public void keyedOnDecodedIpBytes() {
+    byte[] ipv4 = {127, 0, 0, 1};
+    Endpoint first = cache.get("frontend", ipv4, null, 0);
+
+    assertThat(first).isEqualTo(FRONTEND);
+    assertThat(cache.get("frontend", ipv4.clone(), null, 0)).isSameAs(first);
+    assertThat(cache.get("frontend", new byte[] {127, 0, 0, 2}, null, 0))
+      .isNotSameAs(first)
+      .isEqualTo(FRONTEND.toBuilder().ip("127.0.0.2").build());
+  }
+
+  @Test public void drainResetsCounts() {
+    cache.get("frontend", "127.0.0.1", null, 0);
+    cache.get("frontend", "127.0.0.1", null, 0);
+
+    assertThat(cache.drainHitCount()).isEqualTo(1L);
+    assertThat(cache.drainHitCount()).isZero();
+  }
+
+  @Test public void build_disabledBuildsEndpoint() {
+    assertThat(EndpointCache.build("frontend", "127.0.0.1", null, 0))
+      .isEqualTo(FRONTEND)
+      .isNotSameAs(EndpointCache.build("frontend", "127.0.0.1", null, 0));
+  }
+
+  @Test public void highCardinalityDoesntEvictFrequentValues() {
+    EndpointCache cache = new EndpointCache(1); // everything collides
+    Endpoint first = cache.get("frontend", "127.0.0.1", null, 0);
+    for (int i = 0; i < 10; i++) cache.get("frontend", "127.0.0.1", null, 0);
+
+    for (int i = 0; i < 5; i++) {
+      cache.get("frontend", "127.0.0.1", null, 1000 + i);
+    }
+
+    assertThat(cache.get("frontend", "127.0.0.1", null, 0)).isSameAs(first);
+  }
+
+  @Test public void decoders_shareInstances() {
+    EndpointCache.enable(256);
+
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      SpanBytesDecoder decoder = SpanBytesDecoder.valueOf(encoder.name());
+      byte[] encoded = encoder.encodeList(TRACE);
+      List<Span> first = decoder.decodeList(encoded), second = decoder.decodeList(encoded);
+
+      assertThat(second).isEqualTo(first);
+      assertThat(second.get(0).localEndpoint())
+        .isSameAs(first.get(0).localEndpoint());
+    }
+  }
+}
@@ -80,7 +80,7 @@ public class JsonCodecTest {
   }
 
   @Test public void exceptionReading_malformedJsonWraps() {
-    // grab a real exception from the gson library
+    // grab a real exception from the json reader
     Exception error = null;
     byte[] bytes = "[\"='".getBytes(UTF_8);
     try {
@@ -97,4 +97,103 @@ public class JsonCodecTest {
       assertThat(e).hasMessage("Malformed reading List<Span> from json");
     }
   }
+
+  @Test public void jsonReader_selectName() throws IOException {
+    JsonCodec.JsonReader.Options options = JsonCodec.JsonReader.Options.of("foo", "bar");
+    JsonCodec.JsonReader reader = reader("{\"bar\":1,\"baz\":2,\"f\\u006fo\":3}");
+
+    reader.beginObject();
+    assertThat(reader.selectName(options)).isEqualTo(1);
+    assertThat(reader.nextLong()).isEqualTo(1L);
+    assertThat(reader.selectName(options)).isEqualTo(-1);
+    assertThat(reader.getPath()).isEqualTo("$.baz");
+    reader.skipValue();
+    assertThat(reader.selectName(options)).isZero(); // escaped names are still matched
+    assertThat(reader.nextInt()).isEqualTo(3);
+    reader.endObject();
+  }
+
+  @Test public void jsonReader_strings() throws IOException {
+    JsonCodec.JsonReader reader =
+      reader("[\"\",\"ascii\",\"\u4e2d\u6587\",\"a\\\"b\\\\c\\n\\u00e9\",12]");
+
+    reader.beginArray();
+    assertThat(reader.nextString()).isEmpty();
+    assertThat(reader.nextString()).isEqualTo("ascii");
+    assertThat(reader.nextString()).isEqualTo("\u4e2d\u6587");
+    assertThat(reader.nextString()).isEqualTo("a\"b\\c\n\u00e9");
+    assertThat(reader.nextString()).isEqualTo("12");
+    assertThat(reader.hasNext()).isFalse();
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_numbers() throws IOException {
+    JsonCodec.JsonReader reader =
+      reader("[1472470996199000, -1, 9223372036854775807, 1.0E3, \"42\"]");
+
+    reader.beginArray();
+    assertThat(reader.nextLong()).isEqualTo(1472470996199000L);
+    assertThat(reader.nextLong()).isEqualTo(-1L);
+    assertThat(reader.nextLong()).isEqualTo(Long.MAX_VALUE);
+    assertThat(reader.nextLong()).isEqualTo(1000L);
+    assertThat(reader.nextLong()).isEqualTo(42L);
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_skipValue_nested() throws IOException {
+    JsonCodec.JsonReader reader =
+      reader("{\"a\": {\"b\": [1, {\"c\": null}, true, \"]}\"]}, \"d\": false}");
+
+    reader.beginObject();
+    assertThat(reader.nextName()).isEqualTo("a");
+    reader.skipValue();
+    assertThat(reader.nextName()).isEqualTo("d");
+    assertThat(reader.peekBoolean()).isTrue();
+    assertThat(reader.nextBoolean()).isFalse();
+    reader.endObject();
+  }
+
+  @Test public void jsonReader_skipValue_endOfContainer() throws IOException {
+    JsonCodec.JsonReader reader = reader("[1]");
+
+    reader.beginArray();
+    reader.nextLong();
+    try {
+      reader.skipValue();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Expected a value but was END_ARRAY at path $[1]");
+    }
+    reader.endArray();
+  }
+
+  @Test public void jsonReader_nextLong_notANumber() throws IOException {
+    JsonCodec.JsonReader reader = reader("{\"a\": \"-\"}");
+
+    reader.beginObject();
+    reader.nextName();
+    try {
+      reader.nextLong();
+      failBecauseExceptionWasNotThrown(NumberFormatException.class);
+    } catch (NumberFormatException e) {
+      assertThat(e).hasMessage("Expected a long but was - at path $.a");
+    }
+  }
+
+  @Test public void jsonReader_malformed() throws IOException {
+    JsonCodec.JsonReader reader = reader("{\"a\" 1}");
+
+    reader.beginObject();
+    reader.nextName();
+    try {
+      reader.nextLong();
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Malformed json: Expected ':' at path $.a");
+    }
+  }
+
+  static JsonCodec.JsonReader reader(String json) {
+    return new JsonCodec.JsonReader(ReadBuffer.wrap(json.getBytes(UTF_8)));
+  }
 }
@@ -16,6 +16,7 @@
  */
 package zipkin2.internal;
 
+import java.util.Arrays;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -49,4 +50,64 @@ public class JsonEscaperTest {
     assertThat(jsonEscape("\"foo").toString())
       .isEqualTo("\\\"foo");
   }
+
+  /** Ensures the word-at-a-time scan finds a special character at any offset in the word. */
+  @Test public void specialCharacterAtEachPosition() {
+    for (char special : new char[] {0, 0x1f, '"', '\\', 0x80, '\u2028', '\u2029', '\uffff'}) {
+      for (int length = 1; length <= 9; length++) {
+        for (int i = 0; i < length; i++) {
+          char[] chars = new char[length];
+          Arrays.fill(chars, 'a');
+          chars[i] = special;
+          String value = new String(chars);
+
+          String escaped = jsonEscape(value).toString();
+          assertThat(escaped).isEqualTo(naiveEscape(value));
+          assertThat(jsonEscapedSizeInBytes(value))
+            .isEqualTo(escaped.getBytes(JsonCodec.UTF_8).length);
+        }
+      }
+    }
+  }
+
+  /** After the first non-ASCII character, each character is checked instead of each word. */
+  @Test public void escapesAfterNonAscii() {
+    String value = "\u4f60\u597d \"quoted\"\n\u4e16\u754c plain ascii again\\";
+
+    String escaped = jsonEscape(value).toString();
+    assertThat(escaped).isEqualTo(naiveEscape(value));
+    assertThat(jsonEscapedSizeInBytes(value))
+      .isEqualTo(escaped.getBytes(JsonCodec.UTF_8).length);
+  }
+
+  /** Characters just outside the escaped ranges shouldn't trip the word-at-a-time scan. */
+  @Test public void noEscapingNeeded() {
+    String value = " !#$%&'()*+[]^_`{|}~\u007f0123456789ABCDEFabcdef";
+    assertThat(jsonEscape(value)).isSameAs(value);
+    assertThat(jsonEscapedSizeInBytes(value)).isEqualTo(value.length());
+  }
+
+  static String naiveEscape(String value) {
+    StringBuilder result = new StringBuilder();
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        result.append('\\').append(c);
+      } else if (c == '\t') {
+        result.append("\\t");
+      } else if (c == '\b') {
+        result.append("\\b");
+      } else if (c == '\n') {
+        result.append("\\n");
+      } else if (c == '\r') {
+        result.append("\\r");
+      } else if (c == '\f') {
+        result.append("\\f");
+      } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+        result.append(String.format("\\u%04x", (int) c));
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
 }
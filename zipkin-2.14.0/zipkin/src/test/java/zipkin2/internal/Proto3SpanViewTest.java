@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+
+public class Proto3SpanViewTest {
+  List<Proto3SpanView> views = new ArrayList<>();
+
+  @Test public void readList_toSpan() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    assertThat(Proto3SpanView.readList(ReadBuffer.wrap(bytes), views)).isTrue();
+
+    List<Span> spans = new ArrayList<>();
+    for (Proto3SpanView view : views) {
+      spans.add(view.toSpan());
+    }
+    assertThat(spans).isEqualTo(TRACE);
+  }
+
+  @Test public void readList_byteBuffer() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    assertThat(Proto3SpanView.readList(ReadBuffer.wrapUnsafe(buffer), views)).isTrue();
+
+    assertThat(views).extracting(Proto3SpanView::toSpan).isEqualTo(TRACE);
+  }
+
+  @Test public void readList_empty() {
+    assertThat(Proto3SpanView.readList(ReadBuffer.wrap(new byte[0]), views)).isFalse();
+  }
+
+  @Test public void traceId() {
+    assertThat(view(CLIENT_SPAN.toBuilder().traceId("463ac35c9f6413ad").build()))
+      .extracting(Proto3SpanView::traceIdHigh, Proto3SpanView::traceIdLow, Proto3SpanView::traceId)
+      .containsExactly(0L, 0x463ac35c9f6413adL, "463ac35c9f6413ad");
+  }
+
+  @Test public void traceId_128() {
+    assertThat(view(CLIENT_SPAN.toBuilder().traceId("48485a3953bb61246b221d5bc9e6496c").build()))
+      .extracting(Proto3SpanView::traceIdHigh, Proto3SpanView::traceIdLow, Proto3SpanView::traceId)
+      .containsExactly(0x48485a3953bb6124L, 0x6b221d5bc9e6496cL,
+        "48485a3953bb61246b221d5bc9e6496c");
+  }
+
+  @Test public void debug() {
+    assertThat(view(CLIENT_SPAN).debug()).isFalse();
+    assertThat(view(CLIENT_SPAN.toBuilder().debug(true).build()).debug()).isTrue();
+  }
+
+  /** Fields besides trace ID and debug aren't parsed until {@link Proto3SpanView#toSpan()} */
+  @Test public void toSpan_decodesLazily() {
+    byte[] span = SpanBytesEncoder.PROTO3.encode(Span.newBuilder().traceId("1").id("2").build());
+    byte[] malformedTag = {11 << 3 | 2, 1, 1 << 3 | 3}; // tag with an invalid wire type
+    byte[] bytes = new byte[span.length + malformedTag.length];
+    System.arraycopy(span, 0, bytes, 0, span.length);
+    System.arraycopy(malformedTag, 0, bytes, span.length, malformedTag.length);
+    bytes[1] += malformedTag.length; // increase the length prefix of the span
+
+    assertThat(Proto3SpanView.readList(ReadBuffer.wrap(bytes), views)).isTrue();
+    assertThat(views.get(0).traceId()).isEqualTo("0000000000000001");
+
+    assertThatThrownBy(() -> views.get(0).toSpan())
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading Span from proto3");
+  }
+
+  @Test public void readList_malformedTraceId() {
+    byte[] bytes = new byte[20];
+    bytes[0] = 1 << 3 | 2; // span
+    bytes[1] = 18;
+    bytes[2] = 1 << 3 | 2; // trace ID
+    bytes[3] = 17;
+
+    assertThatThrownBy(() -> Proto3SpanView.readList(ReadBuffer.wrap(bytes), views))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Malformed reading List<Span> from proto3");
+  }
+
+  @Test public void readList_truncated() {
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+    assertThatThrownBy(() -> Proto3SpanView.readList(ReadBuffer.wrap(truncated), views))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageStartingWith("Truncated");
+  }
+
+  static Proto3SpanView view(Span span) {
+    return Proto3SpanView.read(ReadBuffer.wrap(SpanBytesEncoder.PROTO3.encode(span)));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.internal;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.TestObjects.UTF_8;
+
+public class StringCacheTest {
+  StringCache cache = new StringCache(16);
+
+  @After public void disable() {
+    StringCache.enable(0);
+  }
+
+  @Test public void sizeRoundedUpToPowerOfTwo() {
+    assertThat(new StringCache(1).entries).hasSize(2);
+    assertThat(new StringCache(1024).entries).hasSize(1024);
+    assertThat(new StringCache(1025).entries).hasSize(2048);
+  }
+
+  @Test public void returnsSameInstance() {
+    String first = get("frontend");
+
+    assertThat(get("frontend"))
+      .isEqualTo("frontend")
+      .isSameAs(first);
+    assertThat(cache.drainMissCount()).isEqualTo(1L);
+    assertThat(cache.drainHitCount()).isEqualTo(1L);
+  }
+
+  @Test public void drainResetsCounts() {
+    get("frontend");
+    get("frontend");
+
+    assertThat(cache.drainHitCount()).isEqualTo(1L);
+    assertThat(cache.drainHitCount()).isZero();
+  }
+
+  @Test public void decodesUtf8() {
+    String first = get("个人信息服务");
+
+    assertThat(get("个人信息服务"))
+      .isEqualTo("个人信息服务")
+      .isSameAs(first);
+  }
+
+  @Test public void bypassesLongValues() {
+    char[] chars = new char[StringCache.MAX_LENGTH + 1];
+    java.util.Arrays.fill(chars, 'a');
+    String value = new String(chars);
+
+    assertThat(get(value)).isEqualTo(value).isNotSameAs(get(value));
+    assertThat(cache.drainHitCount() + cache.drainMissCount()).isZero();
+  }
+
+  @Test public void highCardinalityDoesntEvictFrequentValues() {
+    StringCache cache = new StringCache(1); // everything collides
+    byte[] frontend = "frontend".getBytes(UTF_8);
+    String first = cache.get(frontend, 0, frontend.length);
+    for (int i = 0; i < 10; i++) cache.get(frontend, 0, frontend.length);
+
+    for (int i = 0; i < 5; i++) {
+      byte[] unique = ("request-" + i).getBytes(UTF_8);
+      cache.get(unique, 0, unique.length);
+    }
+
+    assertThat(cache.get(frontend, 0, frontend.length)).isSameAs(first);
+  }
+
+  @Test public void decoders_shareInstances() {
+    StringCache.enable(256);
+
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      SpanBytesDecoder decoder = SpanBytesDecoder.valueOf(encoder.name());
+      byte[] encoded = encoder.encodeList(TRACE);
+      List<Span> first = decoder.decodeList(encoded), second = decoder.decodeList(encoded);
+
+      assertThat(second).isEqualTo(first);
+      assertThat(second.get(0).localServiceName())
+        .isSameAs(first.get(0).localServiceName());
+      assertThat(second.get(0).name())
+        .isSameAs(first.get(0).name());
+    }
+  }
+
+  @Test public void byteBuffers_shareInstances() {
+    StringCache.enable(16);
+    byte[] bytes = "frontend".getBytes(UTF_8);
+
+    ByteBuffer[] buffers = {ByteBuffer.allocate(10), ByteBuffer.allocateDirect(10)};
+    for (ByteBuffer buffer : buffers) {
+      buffer.put((byte) 0).put(bytes).put((byte) 1).flip().position(1);
+      ReadBuffer readBuffer = new ReadBuffer.BigEndianByteBuffer(buffer);
+
+      String first = readBuffer.readUtf8Cached(bytes.length);
+      assertThat(first).isEqualTo("frontend");
+      assertThat(readBuffer.readByteUnsafe()).isEqualTo((byte) 1);
+
+      buffer.position(1);
+      assertThat(readBuffer.readUtf8Cached(bytes.length)).isSameAs(first);
+    }
+  }
+
+  String get(String value) {
+    byte[] bytes = value.getBytes(UTF_8);
+    return cache.get(bytes, 0, bytes.length);
+  }
+}
@@ -248,6 +248,43 @@ public class TraceTest {
       );
   }
 
+  /** Span IDs are compared numerically, which must match their lower-hex string order */
+  @Test public void cleanupComparator_ordersIdsUnsigned() {
+    List<Span> trace = new ArrayList<>(asList(
+      span("a", null, "ffffffffffffffff", Kind.SERVER, "frontend", null, false),
+      span("a", null, "8000000000000000", Kind.SERVER, "frontend", null, false),
+      span("a", null, "7fffffffffffffff", Kind.SERVER, "frontend", null, false),
+      span("a", null, "1", Kind.SERVER, "frontend", null, false)
+    ));
+
+    Collections.sort(trace, Trace.CLEANUP_COMPARATOR);
+
+    assertThat(trace).extracting(Span::id).containsExactly(
+      "0000000000000001", "7fffffffffffffff", "8000000000000000", "ffffffffffffffff"
+    );
+  }
+
+  @Test public void mergesManyPieces() {
+    List<Span> trace = new ArrayList<>();
+    for (int id = 1; id <= 1000; id++) {
+      Span span = span("a", null, Integer.toHexString(id), Kind.SERVER, "frontend", null, false);
+      trace.add(span.toBuilder().timestamp(id).build());
+      trace.add(span.toBuilder().duration(id).build());
+      trace.add(span.toBuilder().putTag("id", String.valueOf(id)).build());
+    }
+    Collections.shuffle(trace);
+
+    List<Span> merged = Trace.merge(trace);
+    assertThat(merged).hasSize(1000);
+    for (int i = 0; i < 1000; i++) {
+      Span span = merged.get(i);
+      assertThat(span.idAsLong()).isEqualTo(i + 1);
+      assertThat(span.timestampAsLong()).isEqualTo(i + 1);
+      assertThat(span.durationAsLong()).isEqualTo(i + 1);
+      assertThat(span.tags()).containsEntry("id", String.valueOf(i + 1));
+    }
+  }
+
   static Span span(String traceId, @Nullable String parentId, String id, @Nullable Kind kind,
     @Nullable String local, @Nullable String ip, boolean shared) {
     Span.Builder result = Span.newBuilder().traceId(traceId).parentId(parentId).id(id).kind(kind);
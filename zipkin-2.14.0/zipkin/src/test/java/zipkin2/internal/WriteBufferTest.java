@@ -235,4 +235,86 @@ public class WriteBufferTest {
     assertThat(bytes)
       .containsExactly(0b1111_1111, 0b1111_1111, 0b1111_1111, 0b1111_1111, 0b0000_1111);
   }
+
+  @Test public void growable_growsAsNeeded() {
+    WriteBuffer buffer = WriteBuffer.growable(1);
+    buffer.writeByte('[');
+    buffer.writeUtf8("\u2603 snowman");
+    buffer.writeAscii(Long.MIN_VALUE);
+    buffer.writeLongHex(0xdeadbeefL);
+    buffer.write(new byte[] {']'});
+
+    assertThat(new String(buffer.toByteArray(), UTF_8))
+      .isEqualTo("[\u2603 snowman-922337203685477580800000000deadbeef]");
+    assertThat(buffer.array().length).isGreaterThanOrEqualTo(buffer.pos());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void growable_invalidCapacity() {
+    WriteBuffer.growable(0);
+  }
+
+  @Test public void pooled_reusedAfterRelease() {
+    WriteBuffer buffer = WriteBuffer.pooled();
+    buffer.writeByte('a');
+    assertThat(WriteBuffer.pooled()).isNotSameAs(buffer); // in use
+    buffer.release();
+
+    WriteBuffer reused = WriteBuffer.pooled();
+    assertThat(reused).isSameAs(buffer);
+    assertThat(reused.pos()).isZero();
+    reused.release();
+  }
+
+  @Test public void pooled_doesntKeepLargeBuffers() {
+    WriteBuffer buffer = WriteBuffer.pooled();
+    buffer.write(new byte[WriteBuffer.MAX_POOLED_CAPACITY + 1]);
+    buffer.release();
+
+    assertThat(WriteBuffer.pooled()).isNotSameAs(buffer);
+  }
+
+  @Test public void wrap_isNotPooled() {
+    WriteBuffer.POOL.remove();
+    WriteBuffer.wrap(new byte[1]).release();
+
+    assertThat(WriteBuffer.POOL.get()).isNull();
+  }
+
+  /** Ensures the word-at-a-time ASCII scan finds a non-ASCII character at any offset. */
+  @Test public void utf8_nonAsciiAtEachPosition() {
+    for (char nonAscii : new char[] {0x80, 0x7ff, 0x800, '\uffff'}) {
+      for (int length = 1; length <= 9; length++) {
+        for (int i = 0; i < length; i++) {
+          char[] chars = new char[length];
+          Arrays.fill(chars, 'a');
+          chars[i] = nonAscii;
+          String string = new String(chars);
+          byte[] expected = string.getBytes(UTF_8);
+
+          assertThat(WriteBuffer.utf8SizeInBytes(string)).isEqualTo(expected.length);
+          assertThat(WriteBuffer.utf8SizeInBytes(new StringBuilder(string)))
+            .isEqualTo(expected.length);
+
+          byte[] bytes = new byte[expected.length];
+          WriteBuffer.wrap(bytes).writeUtf8(string);
+          assertThat(bytes).containsExactly(expected);
+
+          bytes = new byte[expected.length];
+          WriteBuffer.wrap(bytes).writeUtf8(new StringBuilder(string));
+          assertThat(bytes).containsExactly(expected);
+        }
+      }
+    }
+  }
+
+  @Test public void utf8_ascii_atOffset() {
+    byte[] bytes = new byte[12];
+    WriteBuffer buffer = WriteBuffer.wrap(bytes, 2);
+    buffer.writeUtf8("zipkin");
+    buffer.writeUtf8(new StringBuilder("span"));
+
+    assertThat(new String(bytes, 2, 10, UTF_8)).isEqualTo("zipkinspan");
+    assertThat(buffer.pos()).isEqualTo(12);
+  }
 }
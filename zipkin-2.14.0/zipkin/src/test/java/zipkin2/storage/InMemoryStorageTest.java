@@ -16,25 +16,41 @@
  */
 package zipkin2.storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.DAY;
 import static zipkin2.TestObjects.TODAY;
 import static zipkin2.TestObjects.requestBuilder;
 
 public class InMemoryStorageTest {
+  static final long MINUTE = InMemoryStorage.SEGMENT_DURATION_MILLIS;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
   InMemoryStorage storage = InMemoryStorage.newBuilder().autocompleteKeys(asList("http.path")).build();
 
   @Test public void getTraces_filteringMatchesMostRecentTraces() throws IOException {
@@ -87,8 +103,9 @@ public class InMemoryStorageTest {
     storage.accept(asList(CLIENT_SPAN)).execute();
     storage.accept(asList(CLIENT_SPAN.toBuilder().traceId("333").build())).execute();
 
-    assertThat(storage).extracting("spansByTraceIdTimeStamp.delegate")
-      .allSatisfy(map -> assertThat((Map) map).hasSize(2));
+    assertThat(storage.shards)
+      .flatExtracting(shard -> shard.spansByTraceIdTimeStamp.delegate.keySet())
+      .hasSize(2);
   }
 
   /** It should be safe to run dependency link jobs twice */
@@ -158,4 +175,301 @@ public class InMemoryStorageTest {
     assertThat(storage.getKeys().execute()).containsOnlyOnce("http.path");
     assertThat(storage.getValues("http.path").execute()).containsOnlyOnce("/users");
   }
+
+  /** Results should be the same regardless of how traces are partitioned */
+  @Test public void getTraces_sameOrderRegardlessOfShardCount() throws IOException {
+    List<Span> spans = IntStream.rangeClosed(1, 100).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY - (i % 7)) * 1000).duration(1L)
+      .localEndpoint(Endpoint.newBuilder().serviceName("service" + (i % 3)).build())
+      .build()).collect(toList());
+
+    InMemoryStorage oneShard = InMemoryStorage.newBuilder().shardCount(1).build();
+    InMemoryStorage manyShards = InMemoryStorage.newBuilder().shardCount(8).build();
+    oneShard.accept(spans).execute();
+    manyShards.accept(spans).execute();
+
+    assertThat(manyShards.shards).hasSize(8)
+      .allSatisfy(shard -> assertThat(shard.spansByTraceIdTimeStamp.size()).isPositive());
+    for (QueryRequest request : asList(
+      requestBuilder().limit(10).build(),
+      requestBuilder().serviceName("service1").limit(5).build(),
+      requestBuilder().limit(1000).build())) {
+      assertThat(manyShards.getTraces(request).execute())
+        .containsExactlyElementsOf(oneShard.getTraces(request).execute());
+    }
+    assertThat(manyShards.getTraces())
+      .containsExactlyElementsOf(oneShard.getTraces());
+    assertThat(manyShards.getServiceNames().execute())
+      .containsExactly("service0", "service1", "service2");
+  }
+
+  @Test public void evictsOldestTraceAcrossShards() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(4).maxSpanCount(10).build();
+    List<Span> spans = IntStream.rangeClosed(1, 20).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY + i) * 1000)
+      .localEndpoint(Endpoint.newBuilder().serviceName("app").build())
+      .build()).collect(toList());
+
+    for (Span span : spans) storage.accept(asList(span)).execute();
+
+    assertThat(storage.getTraces())
+      .extracting(trace -> trace.get(0))
+      .containsExactlyInAnyOrderElementsOf(spans.subList(10, 20));
+    assertThat(storage.spanCount).hasValue(10);
+    assertThat(storage.acceptedSpanCount()).isEqualTo(20);
+  }
+
+  @Test public void evictsOnlyEldestTracesInSegment() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(4).maxSpanCount(10).build();
+    List<Span> spans = IntStream.rangeClosed(1, 10).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY + i) * 1000) // all in the same minute
+      .localEndpoint(Endpoint.newBuilder().serviceName(i == 1 ? "app" : "web").build())
+      .build()).collect(toList());
+    storage.accept(spans).execute();
+
+    Span nextMinute = spans.get(1).toBuilder().traceId("ff").timestamp((TODAY + MINUTE) * 1000)
+      .build();
+    storage.accept(asList(nextMinute)).execute();
+
+    List<Span> remaining = new ArrayList<>(spans.subList(1, 10)); // only the eldest is evicted
+    remaining.add(nextMinute);
+    assertThat(storage.getTraces())
+      .extracting(trace -> trace.get(0))
+      .containsExactlyInAnyOrderElementsOf(remaining);
+    assertThat(storage.spanCount).hasValue(10);
+    assertThat(storage.getServiceNames().execute()).containsExactly("web");
+  }
+
+  @Test public void evictsTraceBySegmentOfEldestSpan() throws IOException {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(3).build();
+    Span late = Span.newBuilder().traceId("a").id("b").parentId("a").name("get")
+      .timestamp((TODAY + 2 * MINUTE) * 1000).build();
+    Span other = late.toBuilder().traceId("c").timestamp((TODAY + MINUTE) * 1000).build();
+    Span early = late.toBuilder().id("a").parentId(null).timestamp(TODAY * 1000).build();
+    storage.accept(asList(late, other, early)).execute(); // "early" moves trace "a" before "c"
+
+    Span next = late.toBuilder().traceId("d").timestamp((TODAY + 3 * MINUTE) * 1000).build();
+    storage.accept(asList(next)).execute();
+
+    assertThat(storage.getTraces()).containsExactly(asList(other), asList(next));
+  }
+
+  @Test public void ttl_dropsExpiredSegments() throws IOException {
+    storage = InMemoryStorage.newBuilder().ttl(DAY).build();
+    Span old = CLIENT_SPAN.toBuilder().timestamp((TODAY - 2 * DAY) * 1000).build();
+    storage.accept(asList(old)).execute();
+    storage.nextExpiry = 0L; // don't wait a minute to check again
+
+    Span recent = CLIENT_SPAN.toBuilder().traceId("ff")
+      .timestamp(System.currentTimeMillis() * 1000).build();
+    storage.accept(asList(recent)).execute();
+
+    assertThat(storage.getTraces()).containsExactly(asList(recent));
+    assertThat(storage.spanCount).hasValue(1);
+  }
+
+  @Test public void ttl_disabledByDefault() throws IOException {
+    Span old = CLIENT_SPAN.toBuilder().timestamp((TODAY - 365 * DAY) * 1000).build();
+    storage.accept(asList(old)).execute();
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    assertThat(storage.spanCount).hasValue(2);
+  }
+
+  @Test public void traceIdsDescendingByTimestamp_onlyVisitsTimeRange() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(1).build();
+    Span old = CLIENT_SPAN.toBuilder().traceId("a").timestamp((TODAY - 2 * DAY) * 1000).build();
+    Span recent = CLIENT_SPAN.toBuilder().traceId("b").timestamp(TODAY * 1000).build();
+    Span future = CLIENT_SPAN.toBuilder().traceId("c").timestamp((TODAY + 2 * DAY) * 1000).build();
+    storage.accept(asList(old, recent, future)).execute();
+
+    QueryRequest.Builder request = QueryRequest.newBuilder().endTs(TODAY + 1).lookback(DAY).limit(10);
+    InMemoryStorage.Shard shard = storage.shards[0];
+    assertThat(shard.traceIdsDescendingByTimestamp(request.build()))
+      .extracting(t -> t.lowTraceId)
+      .containsExactly(0xbL);
+    assertThat(shard.traceIdsDescendingByTimestamp(
+      request.serviceName(CLIENT_SPAN.localServiceName()).build()))
+      .extracting(t -> t.lowTraceId)
+      .containsExactly(0xbL);
+    assertThat(shard.traceIdsDescendingByTimestamp(request.spanName(CLIENT_SPAN.name()).build()))
+      .extracting(t -> t.lowTraceId)
+      .containsExactly(0xbL);
+  }
+
+  @Test public void traceIdsDescendingByTimestamp_latestSpanInRange() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(1).build();
+    Span root = CLIENT_SPAN.toBuilder().traceId("a").timestamp(TODAY * 1000).build();
+    Span child = root.toBuilder().parentId(root.id()).id("b").name("post")
+      .timestamp((TODAY + 10) * 1000).build();
+    Span late = root.toBuilder().parentId(root.id()).id("c")
+      .timestamp((TODAY + DAY) * 1000).build();
+    storage.accept(asList(root, child, late)).execute();
+
+    QueryRequest.Builder request =
+      QueryRequest.newBuilder().endTs(TODAY + 100).lookback(1000).limit(10);
+    assertThat(storage.shards[0].traceIdsDescendingByTimestamp(request.build()))
+      .extracting(t -> t.timestamp)
+      .containsExactly(child.timestampAsLong());
+    assertThat(storage.shards[0].traceIdsDescendingByTimestamp(request.spanName("post").build()))
+      .extracting(t -> t.timestamp)
+      .containsExactly(child.timestampAsLong());
+  }
+
+  @Test public void evictionRemovesServiceTimestamps() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(1).maxSpanCount(1).build();
+    storage.accept(asList(CLIENT_SPAN)).execute();
+    storage.accept(asList(CLIENT_SPAN.toBuilder().traceId("ff")
+      .timestamp((TODAY + MINUTE) * 1000).build())).execute();
+
+    assertThat(storage.shards[0].serviceToTraceIdTimeStamps.get(CLIENT_SPAN.localServiceName()))
+      .extracting(t -> t.lowTraceId)
+      .containsExactly(0xffL);
+  }
+
+  @Test public void clear() throws IOException {
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    storage.clear();
+
+    assertThat(storage.getTraces()).isEmpty();
+    assertThat(storage.spanCount).hasValue(0);
+    assertThat(storage.acceptedSpanCount()).isZero();
+  }
+
+  @Test public void snapshot_roundTrip() throws IOException {
+    storage = InMemoryStorage.newBuilder().shardCount(4)
+      .autocompleteKeys(asList("http.path")).build();
+    List<Span> spans = IntStream.range(0, 20000).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i / 2 + 1)).id(Integer.toHexString(i + 1))
+      .timestamp(TODAY * 1000 + i)
+      .localEndpoint(Endpoint.newBuilder().serviceName("app" + i % 3).build())
+      .putTag("http.path", "/" + i % 10)
+      .build()).collect(toList());
+    storage.accept(spans).execute();
+
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    storage.writeSnapshot(snapshot);
+    assertThat(snapshot.size()) // ensures more than one chunk is decoded
+      .isGreaterThan(InMemoryStorage.SnapshotReader.CHUNK_SIZE);
+
+    InMemoryStorage restored = InMemoryStorage.newBuilder().shardCount(2)
+      .autocompleteKeys(asList("http.path")).build();
+    assertThat(restored.loadSnapshot(new ByteArrayInputStream(snapshot.toByteArray())))
+      .isEqualTo(20000);
+
+    assertThat(restored.getTraces()).isEqualTo(storage.getTraces());
+    assertThat(restored.spanCount).hasValue(20000);
+    assertThat(restored.getServiceNames().execute()).containsExactly("app0", "app1", "app2");
+    assertThat(restored.getValues("http.path").execute()).hasSize(10);
+    assertThat(restored.getTraces(requestBuilder().serviceName("app1").limit(10).build()).execute())
+      .hasSize(10);
+  }
+
+  @Test public void snapshot_isListOfSpans() throws IOException {
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    storage.writeSnapshot(snapshot);
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(snapshot.toByteArray()))
+      .containsExactly(CLIENT_SPAN);
+  }
+
+  @Test public void loadSnapshot_appliesMaxSpanCount() throws IOException {
+    List<Span> spans = IntStream.rangeClosed(1, 20).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY + i * MINUTE) * 1000)
+      .build()).collect(toList());
+    storage.accept(spans).execute();
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    storage.writeSnapshot(snapshot);
+
+    InMemoryStorage restored = InMemoryStorage.newBuilder().maxSpanCount(10).build();
+    restored.loadSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+
+    assertThat(restored.getTraces())
+      .extracting(trace -> trace.get(0))
+      .containsExactlyInAnyOrderElementsOf(spans.subList(10, 20));
+  }
+
+  @Test public void snapshotFile_restoredOnBuild() throws IOException {
+    File snapshotFile = new File(folder.getRoot(), "zipkin.snapshot");
+    storage = InMemoryStorage.newBuilder().snapshotFile(snapshotFile).build();
+    storage.accept(asList(CLIENT_SPAN)).execute();
+    storage.close();
+
+    storage = InMemoryStorage.newBuilder().snapshotFile(snapshotFile).build();
+    try {
+      assertThat(storage.getTraces()).containsExactly(asList(CLIENT_SPAN));
+    } finally {
+      storage.close();
+    }
+  }
+
+  @Test public void snapshotFile_writtenPeriodically() throws Exception {
+    File snapshotFile = new File(folder.getRoot(), "zipkin.snapshot");
+    storage = InMemoryStorage.newBuilder().snapshotFile(snapshotFile).snapshotInterval(10).build();
+    try {
+      storage.accept(asList(CLIENT_SPAN)).execute();
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!snapshotFile.exists() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+      assertThat(SpanBytesDecoder.PROTO3.decodeList(Files.readAllBytes(snapshotFile.toPath())))
+        .containsExactly(CLIENT_SPAN);
+    } finally {
+      storage.close();
+    }
+  }
+
+  @Test public void snapshotFile_discardedWhenMalformed() throws IOException {
+    File snapshotFile = folder.newFile("zipkin.snapshot");
+    Files.write(snapshotFile.toPath(), new byte[] {0x0a, 0x7f, 1, 2, 3});
+
+    storage = InMemoryStorage.newBuilder().snapshotFile(snapshotFile).build();
+    try {
+      assertThat(storage.getTraces()).isEmpty();
+      storage.accept(asList(CLIENT_SPAN)).execute();
+      assertThat(storage.getTraces()).containsExactly(asList(CLIENT_SPAN));
+    } finally {
+      storage.close();
+    }
+  }
+
+  @Test public void acceptsConcurrentlyWithQueries() throws Exception {
+    storage = InMemoryStorage.newBuilder().shardCount(4).maxSpanCount(1000).build();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 3; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            storage.accept(asList(CLIENT_SPAN.toBuilder()
+              .traceId(Long.toHexString(thread * 1000L + i + 1)).build())).execute();
+          }
+          return null;
+        }));
+      }
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 50; i++) {
+          storage.getTraces(requestBuilder().limit(10).build()).execute();
+          storage.getDependencies(TODAY, TODAY).execute();
+        }
+        return null;
+      }));
+      for (Future<?> future : futures) future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(storage.acceptedSpanCount()).isEqualTo(1500);
+    // concurrent writers may overshoot or evict slightly more than the limit
+    assertThat(storage.spanCount.get()).isBetween(990, 1003);
+    assertThat(storage.getTraces()).hasSize(storage.spanCount.get());
+  }
 }
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.requestBuilder;
+
+public class InvertedIndexTest {
+  InvertedIndex index = new InvertedIndex();
+
+  Span span1 = Span.newBuilder().traceId("1").id("1").name("get")
+    .localEndpoint(Endpoint.newBuilder().serviceName("frontend").build())
+    .remoteEndpoint(Endpoint.newBuilder().serviceName("backend").build())
+    .timestamp(TODAY * 1000).duration(100L)
+    .addAnnotation(TODAY * 1000, "foo")
+    .putTag("http.path", "/api")
+    .build();
+  Span span2 = Span.newBuilder().traceId("2").id("2").name("post")
+    .localEndpoint(Endpoint.newBuilder().serviceName("backend").build())
+    .timestamp(TODAY * 1000).duration(300L)
+    .putTag("http.path", "/users")
+    .build();
+
+  @Test public void candidates_nullWithoutTerms() {
+    index.add(span1);
+
+    assertThat(index.candidates(requestBuilder().build())).isNull();
+  }
+
+  @Test public void candidates_intersectsTerms() {
+    index.add(span1);
+    index.add(span2);
+
+    assertThat(candidateTraceIds(requestBuilder().serviceName("backend").build()))
+      .containsExactly(2L);
+    assertThat(candidateTraceIds(requestBuilder().spanName("get").build()))
+      .containsExactly(1L);
+    assertThat(candidateTraceIds(requestBuilder().remoteServiceName("backend").build()))
+      .containsExactly(1L);
+    assertThat(candidateTraceIds(requestBuilder().parseAnnotationQuery("http.path").build()))
+      .containsExactly(1L, 2L);
+    assertThat(candidateTraceIds(requestBuilder().parseAnnotationQuery("foo").build()))
+      .containsExactly(1L);
+    assertThat(candidateTraceIds(requestBuilder().parseAnnotationQuery("http.path=/users")
+      .build())).containsExactly(2L);
+    assertThat(candidateTraceIds(requestBuilder().spanName("get")
+      .parseAnnotationQuery("http.path=/users").build())).isEmpty();
+  }
+
+  @Test public void candidates_absentTermMatchesNothing() {
+    index.add(span1);
+
+    assertThat(candidateTraceIds(requestBuilder().spanName("put").build())).isEmpty();
+  }
+
+  @Test public void candidates_durationRange() {
+    index.add(span1);
+    index.add(span2);
+
+    assertThat(candidateTraceIds(requestBuilder().minDuration(200L).build()))
+      .containsExactly(2L);
+    assertThat(candidateTraceIds(requestBuilder().minDuration(100L).maxDuration(200L).build()))
+      .containsExactly(1L);
+    assertThat(candidateTraceIds(requestBuilder().serviceName("frontend").minDuration(200L)
+      .build())).isEmpty();
+  }
+
+  @Test public void remove_dropsTermsAndReusesOrdinal() {
+    index.add(span1);
+    index.add(span2);
+
+    index.remove(1L, asList(span1));
+
+    assertThat(index.spanNames).containsOnlyKeys("post");
+    assertThat(index.serviceNames).containsOnlyKeys("backend");
+    assertThat(index.durations).containsOnlyKeys(300L);
+
+    index.add(span1);
+    assertThat(index.ordinalCount).isEqualTo(2); // reused the free ordinal
+    assertThat(candidateTraceIds(requestBuilder().spanName("get").build())).containsExactly(1L);
+  }
+
+  @Test public void postings_switchToBitmap() {
+    InvertedIndex.Postings postings = new InvertedIndex.Postings();
+    int count = InvertedIndex.Postings.MAX_ARRAY_SIZE * 2;
+    IntStream.range(0, count).map(i -> count - i).forEach(postings::add); // descending
+
+    assertThat(postings.bitmap).isNotNull();
+    assertThat(postings.size).isEqualTo(count);
+
+    BitSet bits = new BitSet();
+    bits.set(0, count + 10);
+    postings.retainIn(bits);
+    assertThat(bits.cardinality()).isEqualTo(count);
+    assertThat(bits.get(0)).isFalse();
+
+    postings.remove(1);
+    assertThat(postings.contains(1)).isFalse();
+    assertThat(postings.size).isEqualTo(count - 1);
+  }
+
+  long[] candidateTraceIds(QueryRequest request) {
+    return index.candidates(request).stream().mapToLong(index::traceId).sorted().toArray();
+  }
+}
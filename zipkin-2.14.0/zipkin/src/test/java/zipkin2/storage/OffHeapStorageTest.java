@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zipkin2.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.TestObjects.requestBuilder;
+
+public class OffHeapStorageTest {
+  OffHeapStorage storage = OffHeapStorage.newBuilder().maxBytes(64 * 1024).segmentCount(4)
+    .autocompleteKeys(asList("http.path")).build();
+
+  @Test public void getTrace_decodesSpans() throws IOException {
+    storage.accept(TRACE).execute();
+
+    assertThat(storage.getTrace(TRACE.get(0).traceId()).execute())
+      .containsExactlyElementsOf(TRACE);
+  }
+
+  @Test public void getTrace_dropsDuplicates() throws IOException {
+    storage.accept(asList(CLIENT_SPAN)).execute();
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute())
+      .containsExactly(CLIENT_SPAN);
+  }
+
+  @Test public void getTraces_mostRecentFirst() throws IOException {
+    List<Span> spans = spans(10);
+    storage.accept(spans).execute();
+
+    assertThat(storage.getTraces(requestBuilder().limit(3).build()).execute())
+      .extracting(trace -> trace.get(0))
+      .containsExactly(spans.get(9), spans.get(8), spans.get(7));
+  }
+
+  @Test public void evictsEldestSegment() throws IOException {
+    List<Span> spans = spans(2000);
+    for (Span span : spans) storage.accept(asList(span)).execute();
+
+    List<List<Span>> traces = storage.getTraces();
+    assertThat(traces.size())
+      .isLessThan(spans.size())
+      .isGreaterThan(0);
+
+    // only the most recent spans remain, and all of them do
+    List<Span> remaining = traces.stream().map(trace -> trace.get(0)).collect(toList());
+    assertThat(remaining)
+      .containsExactlyInAnyOrderElementsOf(spans.subList(spans.size() - traces.size(), spans.size()));
+    assertThat(storage.getTrace(spans.get(0).traceId()).execute()).isEmpty();
+  }
+
+  @Test public void evictsServiceNamesWithLastSpan() throws IOException {
+    storage.accept(asList(CLIENT_SPAN)).execute();
+    List<Span> spans = spans(2000);
+    for (Span span : spans) storage.accept(asList(span)).execute();
+
+    assertThat(storage.getServiceNames().execute()).containsExactly("app");
+    assertThat(storage.getSpanNames(CLIENT_SPAN.localServiceName()).execute()).isEmpty();
+    assertThat(storage.getTraces(requestBuilder().serviceName(CLIENT_SPAN.localServiceName())
+      .build()).execute()).isEmpty();
+  }
+
+  @Test public void accept_rejectsSpanLargerThanSegment() {
+    Span large = CLIENT_SPAN.toBuilder().putTag("large", new String(new char[20 * 1024])).build();
+
+    assertThatThrownBy(() -> storage.accept(asList(CLIENT_SPAN, large)).execute())
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThat(storage.getTraces()).isEmpty(); // nothing was stored
+  }
+
+  @Test public void clear() throws IOException {
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    storage.clear();
+
+    assertThat(storage.getTraces()).isEmpty();
+    assertThat(storage.getServiceNames().execute()).isEmpty();
+    assertThat(storage.acceptedSpanCount()).isZero();
+  }
+
+  @Test public void maxBytes_mustBePositive() {
+    assertThatThrownBy(() -> OffHeapStorage.newBuilder().maxBytes(0))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("maxBytes <= 0");
+  }
+
+  @Test public void segmentCount_mustBeInRange() {
+    assertThatThrownBy(() -> OffHeapStorage.newBuilder().segmentCount(1))
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> OffHeapStorage.newBuilder().segmentCount(257))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void longToHandle_removeKeepsCollidingKeys() {
+    OffHeapStorage.LongToHandle map = new OffHeapStorage.LongToHandle();
+    for (long i = 1; i <= 1000; i++) map.put(i, i * 10);
+    for (long i = 1; i <= 1000; i += 2) map.remove(i);
+
+    assertThat(map.size).isEqualTo(500);
+    for (long i = 1; i <= 1000; i++) {
+      assertThat(map.get(i)).isEqualTo(i % 2 == 0 ? i * 10 : 0L);
+    }
+  }
+
+  static List<Span> spans(int count) {
+    return IntStream.rangeClosed(1, count).mapToObj(i -> Span.newBuilder().name("get")
+      .traceId(Integer.toHexString(i)).id(Integer.toHexString(i))
+      .timestamp((TODAY + i) * 1000).duration(1L)
+      .localEndpoint(Endpoint.newBuilder().serviceName("app").build())
+      .build()).collect(toList());
+  }
+}
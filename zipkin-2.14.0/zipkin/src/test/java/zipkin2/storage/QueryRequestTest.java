@@ -355,4 +355,51 @@ public class QueryRequestTest {
     assertThat(query.test(asList(fooAndBazAndQux)))
       .isFalse();
   }
+
+  /** Terms are only matched against spans from the queried service */
+  @Test public void test_annotationQuery_constrainedByServiceName() {
+    QueryRequest query = queryBuilder.serviceName("app")
+      .parseAnnotationQuery("foo and baz=qux").build();
+
+    Span otherService = fooAndBazAndQux.toBuilder().id("5")
+      .localEndpoint(Endpoint.newBuilder().serviceName("db").build()).build();
+
+    assertThat(query.test(asList(foo, otherService)))
+      .isFalse();
+    assertThat(query.test(asList(otherService, fooAndBazAndQux)))
+      .isTrue();
+  }
+
+  @Test public void test_reusesCompiledMatcher() {
+    QueryRequest query = queryBuilder.parseAnnotationQuery("foo").build();
+
+    query.test(asList(foo));
+    QueryMatcher matcher = query.matcher;
+    query.test(asList(barAndFoo));
+
+    assertThat(query.matcher).isNotNull().isSameAs(matcher);
+  }
+
+  @Test public void test_annotationQuery_moreTermsThanFitInMask() {
+    Map<String, String> annotationQuery = new LinkedHashMap<>();
+    for (int i = 0; i < QueryMatcher.MAX_TERMS; i++) annotationQuery.put("key" + i, "");
+    annotationQuery.put("baz", "qux");
+
+    QueryRequest query = queryBuilder.annotationQuery(annotationQuery).build();
+    Span.Builder matching = barAndFooAndBazAndQux.toBuilder();
+    for (int i = 0; i < QueryMatcher.MAX_TERMS; i++) matching.putTag("key" + i, "");
+
+    assertThat(query.test(asList(barAndFooAndBazAndQux)))
+      .isFalse();
+    assertThat(query.test(asList(matching.build())))
+      .isTrue();
+    assertThat(query.matcher).isNull();
+
+    annotationQuery.remove("baz"); // exactly the size of the mask
+    query = queryBuilder.annotationQuery(annotationQuery).build();
+
+    assertThat(query.test(asList(matching.build())))
+      .isTrue();
+    assertThat(query.matcher).isNotNull();
+  }
 }